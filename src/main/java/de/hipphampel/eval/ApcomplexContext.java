@@ -26,8 +26,13 @@ package de.hipphampel.eval;
  * #L%
  */
 
+import de.hipphampel.eval.compiler.BatchEvaluator;
+import de.hipphampel.eval.compiler.CompiledExpression;
+import de.hipphampel.eval.compiler.ComplexDoubleExpressionCompiler;
 import de.hipphampel.eval.definition.StandardConstants;
+import de.hipphampel.eval.expr.Expression;
 import java.math.MathContext;
+import java.util.Map;
 import org.apfloat.Apcomplex;
 import org.apfloat.ApfloatMath;
 import org.apfloat.FixedPrecisionApcomplexHelper;
@@ -43,6 +48,10 @@ import org.apfloat.FixedPrecisionApcomplexHelper;
  *   MathContext} should be less or equal to the precision for the internal calculation.</li>
  * </ol>
  * <p>
+ * If the precision for the internal calculation is not greater than
+ * {@link ComplexDoubleExpressionCompiler#MAX_PRECISION}, the calculation might be done using pairs
+ * of {@code doubles} instead of {@code Apcomplex}, see {@link #doubleArithmetic(boolean)}.
+ * <p>
  * It inherits all its concepts from the base class, see {@linkplain Context there} for more
  * information.
  *
@@ -52,6 +61,7 @@ public class ApcomplexContext extends Context<Apcomplex, ApcomplexContext> {
 
   public static final long DEFAULT_PRECISION_INCREMENT = 10;
   private final MathContext mathContext;
+  private boolean doubleArithmetic;
 
   ApcomplexContext(FixedPrecisionApcomplexHelper precisionHelper) {
     super(precisionHelper);
@@ -200,6 +210,95 @@ public class ApcomplexContext extends Context<Apcomplex, ApcomplexContext> {
     return mathContext;
   }
 
+  /**
+   * Returns, whether {@code double} arithmetic is enabled.
+   *
+   * @return {@code true}, if enabled
+   * @see #doubleArithmetic(boolean)
+   */
+  public boolean doubleArithmetic() {
+    return doubleArithmetic;
+  }
+
+  /**
+   * Enables or disables the {@code double} arithmetic.
+   * <p>
+   * If enabled and the {@link #precision()} is not greater than
+   * {@link ComplexDoubleExpressionCompiler#MAX_PRECISION}, {@link #evaluate(Expression)} calculates
+   * with complex numbers made of two {@code doubles} instead of {@link Apcomplex}, which is much
+   * faster. Please refer to {@link ComplexDoubleExpressionCompiler} for the differences. For higher
+   * precisions, this setting has no effect. By default, the {@code double} arithmetic is disabled.
+   *
+   * @param doubleArithmetic {@code true}, to enable it
+   * @return This instance
+   */
+  public ApcomplexContext doubleArithmetic(boolean doubleArithmetic) {
+    this.doubleArithmetic = doubleArithmetic;
+    return this;
+  }
+
+  /**
+   * Evaluates the given {@code expression}.
+   * <p>
+   * If the {@link #doubleArithmetic(boolean) double arithmetic} is enabled and applicable for the
+   * {@link #precision()}, the calculation is done by the {@link ComplexDoubleExpressionCompiler},
+   * otherwise it behaves like the method of the base class.
+   *
+   * @param expression The expression
+   * @return The result
+   */
+  @Override
+  public Apcomplex evaluate(Expression expression) {
+    if (usesDoubleArithmetic()) {
+      return fromApcomplex(ComplexDoubleExpressionCompiler.evaluate(this, expression));
+    }
+    return super.evaluate(expression);
+  }
+
+  /**
+   * Compiles the given {@link Expression}.
+   * <p>
+   * If the {@link #doubleArithmetic(boolean) double arithmetic} is enabled and applicable for the
+   * {@link #precision()}, the {@code expression} is compiled by the
+   * {@link ComplexDoubleExpressionCompiler}, otherwise it behaves like the method of the base
+   * class.
+   *
+   * @param expression The {@code Expression}
+   * @return The {@link CompiledExpression}
+   */
+  @Override
+  public CompiledExpression compile(Expression expression) {
+    if (usesDoubleArithmetic()) {
+      return ComplexDoubleExpressionCompiler.compile(this, expression);
+    }
+    return super.compile(expression);
+  }
+
+  /**
+   * Evaluates the given {@link Expression} for many rows of variable values.
+   * <p>
+   * This is a shortcut for calling
+   * {@link BatchEvaluator#evaluateApcomplex(Context, Expression, Map)
+   * BatchEvaluator.evaluateApcomplex}; for each row, the result is the same as
+   * {@link #evaluate(Expression)} would return with the variables set to the values of the row.
+   *
+   * @param expression The {@code Expression}
+   * @param columns    The values of the variables, keyed by their names. All columns must have the
+   *                   same length
+   * @return The results, one per row
+   */
+  public Apcomplex[] evaluateBatch(Expression expression, Map<String, Apcomplex[]> columns) {
+    Apcomplex[] results = BatchEvaluator.evaluateApcomplex(this, expression, columns);
+    for (int i = 0; i < results.length; i++) {
+      results[i] = fromApcomplex(results[i]);
+    }
+    return results;
+  }
+
+  private boolean usesDoubleArithmetic() {
+    return doubleArithmetic && precision() <= ComplexDoubleExpressionCompiler.MAX_PRECISION;
+  }
+
   @Override
   protected Apcomplex toApcomplex(Apcomplex value) {
     return precisionHelper().valueOf(value);
@@ -215,6 +314,7 @@ public class ApcomplexContext extends Context<Apcomplex, ApcomplexContext> {
 
   @Override
   protected ApcomplexContext newInstance() {
-    return new ApcomplexContext(precisionHelper(), mathContext());
+    return new ApcomplexContext(precisionHelper(), mathContext())
+        .doubleArithmetic(doubleArithmetic);
   }
 }
@@ -26,6 +26,8 @@ package de.hipphampel.eval;
  * #L%
  */
 
+import de.hipphampel.eval.compiler.CompiledExpression;
+import de.hipphampel.eval.compiler.ExpressionCompiler;
 import de.hipphampel.eval.definition.Constant;
 import de.hipphampel.eval.definition.Definition;
 import de.hipphampel.eval.definition.ExpressionFunction;
@@ -35,10 +37,24 @@ import de.hipphampel.eval.definition.ValueDefinition;
 import de.hipphampel.eval.definition.Variable;
 import de.hipphampel.eval.exception.EvalException;
 import de.hipphampel.eval.exception.ParseException;
+import de.hipphampel.eval.expr.BoundFunctionCall;
 import de.hipphampel.eval.expr.Expression;
+import de.hipphampel.eval.expr.ExpressionInterner;
+import de.hipphampel.eval.parser.AsciiCharSequence;
+import de.hipphampel.eval.parser.ExpressionParser;
+import de.hipphampel.eval.parser.ExpressionReader;
 import de.hipphampel.eval.parser.MacroExpander;
+import de.hipphampel.eval.parser.NameTrie;
+import de.hipphampel.eval.parser.ParseCache;
 import de.hipphampel.eval.parser.ParseMode;
+import de.hipphampel.eval.parser.ParseResult;
+import de.hipphampel.eval.parser.ParsedExpression;
+import de.hipphampel.eval.parser.ParserEngine;
 import de.hipphampel.eval.parser.ParserFactory;
+import de.hipphampel.eval.parser.ParserSnapshot;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
@@ -47,13 +63,14 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import org.apfloat.Apcomplex;
 import org.apfloat.FixedPrecisionApcomplexHelper;
-import org.petitparser.context.Result;
-import org.petitparser.parser.Parser;
 
 /**
  * Context for evaluating math expression.
@@ -90,8 +107,15 @@ public abstract class Context<V, C extends Context<V, C>> {
   private final FixedPrecisionApcomplexHelper precisionHelper;
 
   private ParseMode parseMode;
+  private ParserEngine parserEngine;
   private MacroExpander macroExpander;
   private final Map<String, Definition> definitions;
+  private NameTrie<Definition> definitionNames;
+  private long definitionVersion;
+  private ExpressionParser expressionParser;
+  private ParseCache parseCache;
+  private ExpressionInterner interner;
+  private ParserSnapshot parserSnapshot;
 
   /**
    * Constructor
@@ -110,8 +134,10 @@ public abstract class Context<V, C extends Context<V, C>> {
   protected Context(FixedPrecisionApcomplexHelper precisionHelper) {
     this.precisionHelper = Objects.requireNonNull(precisionHelper);
     this.parseMode = ParseMode.STANDARD;
+    this.parserEngine = ParserEngine.COMBINATOR;
     this.macroExpander = MacroExpander.NOP;
     this.definitions = new HashMap<>();
+    this.definitionNames = NameTrie.empty();
   }
 
   /**
@@ -159,6 +185,36 @@ public abstract class Context<V, C extends Context<V, C>> {
       return self();
     }
     this.parseMode = Objects.requireNonNull(parseMode);
+    invalidateParser();
+    return self();
+  }
+
+  /**
+   * Gets the engine used to parse expressions.
+   * <p>
+   * Please refer to the {@link ParserEngine} for details.
+   *
+   * @return The {@link ParserEngine}
+   */
+  public ParserEngine parserEngine() {
+    return parserEngine;
+  }
+
+  /**
+   * Sets the engine used to parse expressions.
+   * <p>
+   * All engines produce the same {@link Expression Expressions}, please refer to the
+   * {@link ParserEngine} for details.
+   *
+   * @param parserEngine The {@link ParserEngine}
+   * @return This instance
+   */
+  public C parserEngine(ParserEngine parserEngine) {
+    if (this.parserEngine == parserEngine) {
+      return self();
+    }
+    this.parserEngine = Objects.requireNonNull(parserEngine);
+    invalidateParser();
     return self();
   }
 
@@ -183,6 +239,63 @@ public abstract class Context<V, C extends Context<V, C>> {
    */
   public C macroExpander(MacroExpander macroExpander) {
     this.macroExpander = macroExpander == null ? MacroExpander.NOP : macroExpander;
+    this.parserSnapshot = null;
+    clearParseCache();
+    return self();
+  }
+
+  /**
+   * Gets the currently configured {@link ParseCache}.
+   * <p>
+   * Please refer to {@link ParseCache} for details
+   *
+   * @return The {@code ParseCache} or {@code null}, if parse results are not cached.
+   */
+  public ParseCache parseCache() {
+    return this.parseCache;
+  }
+
+  /**
+   * Sets the {@link ParseCache} used by {@link #parse(String)}.
+   * <p>
+   * Caching is disabled by default. If enabled, {@link #parse(String)} returns the cached
+   * {@link Expression} for texts that were already parsed. The cache is cleared automatically
+   * whenever a change of this context might lead to a different parse result. Please refer to
+   * {@link ParseCache} for details
+   *
+   * @param parseCache The new {@code ParseCache}, {@code null} disables caching
+   * @return This instance.
+   */
+  public C parseCache(ParseCache parseCache) {
+    this.parseCache = parseCache;
+    clearParseCache();
+    return self();
+  }
+
+  /**
+   * Gets the currently configured {@link ExpressionInterner}.
+   *
+   * @return The {@code ExpressionInterner} or {@code null}, if parse results are not interned.
+   */
+  public ExpressionInterner interner() {
+    return this.interner;
+  }
+
+  /**
+   * Sets the {@link ExpressionInterner} used when parsing expressions.
+   * <p>
+   * If set, all {@link Expression Expressions} returned by the {@code parse} methods are canonical
+   * instances of the {@code ExpressionInterner}, so identical subtrees of the parsed expressions
+   * share the same instances. With {@link ParserEngine#RECURSIVE_DESCENT} the nodes are interned
+   * while parsing, the other engines intern the complete result. An {@code ExpressionInterner}
+   * might be shared by several contexts. Please refer to {@link ExpressionInterner} for details
+   *
+   * @param interner The new {@code ExpressionInterner}, {@code null} disables interning
+   * @return This instance.
+   */
+  public C interner(ExpressionInterner interner) {
+    this.interner = interner;
+    invalidateParser();
     return self();
   }
 
@@ -221,6 +334,11 @@ public abstract class Context<V, C extends Context<V, C>> {
 
   private void fillContext(Context<?, ?> copy, boolean withVariables) {
     copy.parseMode(this.parseMode);
+    copy.parserEngine(this.parserEngine);
+    copy.interner(this.interner);
+    if (parseCache != null) {
+      copy.parseCache(new ParseCache(parseCache.maxSize(), parseCache.eviction()));
+    }
     definitions(Definition.class)
         .filter(def -> withVariables || !(def instanceof Variable))
         .forEach(copy::define);
@@ -256,7 +374,11 @@ public abstract class Context<V, C extends Context<V, C>> {
   /**
    * Parses the string literal {@code expression} into a {@link Expression},
    * <p>
-   * The returned {@code Expression} can be used in {@link #evaluate(Expression)}
+   * The returned {@code Expression} can be used in {@link #evaluate(Expression)}. The underlying
+   * parser is built once and reused for subsequent calls; it is rebuilt only after the
+   * {@link #parseMode() parse mode}, the {@link #parserEngine() parser engine}, or the set of
+   * {@link Definition Definitions} has changed. If a {@link #parseCache(ParseCache) ParseCache} is
+   * configured, the result for an already known text is taken from the cache.
    *
    * @param expression The literal to parse.
    * @return The {@code Expression}
@@ -264,11 +386,113 @@ public abstract class Context<V, C extends Context<V, C>> {
    */
   public Expression parse(String expression) {
     String expanded = macroExpander.expand(this, expression);
-    Result result = newExpressionParser().parse(expanded);
-    if (result.isFailure()) {
-      throw new ParseException(result.getMessage(), result.getPosition());
+    if (parseCache != null) {
+      return parseCache.get(expanded, this::parseExpanded);
+    }
+    return parseExpanded(expanded);
+  }
+
+  /**
+   * Parses the character sequence {@code expression} into a {@link Expression},
+   * <p>
+   * This works like {@link #parse(String)}, but allows to pass the input in other forms than a
+   * {@code String}. When using the {@link ParserEngine#RECURSIVE_DESCENT} engine and neither a
+   * {@link #macroExpander() MacroExpander} nor a {@link #parseCache() ParseCache} is configured,
+   * {@code expression} is parsed directly without converting it into a {@code String}; otherwise
+   * the method is equivalent to calling {@code parse(expression.toString())}.
+   *
+   * @param expression The literal to parse.
+   * @return The {@code Expression}
+   * @throws ParseException If parsing fails
+   */
+  public Expression parse(CharSequence expression) {
+    if (expression instanceof String string) {
+      return parse(string);
+    }
+    if (macroExpander != MacroExpander.NOP || parseCache != null) {
+      return parse(expression.toString());
+    }
+    return parseExpanded(expression);
+  }
+
+  private Expression parseExpanded(CharSequence expression) {
+    Expression result = expressionParser().parse(expression);
+    return interner == null ? result : interner.intern(result);
+  }
+
+  /**
+   * Parses the UTF-8 encoded expression in {@code buffer} into a {@link Expression},
+   * <p>
+   * The expression is formed by the remaining bytes of {@code buffer}, its position and limit are
+   * not changed. If the expression consists of ASCII characters only, the bytes are parsed without
+   * decoding them into a {@code String}, see {@link AsciiCharSequence} and
+   * {@link #parse(CharSequence)} for details. So this method is suitable for parsing expressions
+   * directly from memory mapped files. The position of a {@link ParseException} is relative to the
+   * position of the {@code buffer} and counted in characters.
+   *
+   * @param buffer The buffer containing the expression
+   * @return The {@code Expression}
+   * @throws ParseException If parsing fails
+   */
+  public Expression parse(ByteBuffer buffer) {
+    return parse(AsciiCharSequence.of(buffer));
+  }
+
+  /**
+   * Parses a sequence of expressions read from {@code reader}.
+   * <p>
+   * The expressions in the input are separated by {@code ';'} or line breaks. The input is read and
+   * parsed lazily while consuming the returned {@code Stream}, each expression is parsed via
+   * {@link #parse(String)}. Please refer to {@link ExpressionReader} for details.
+   * <p>
+   * The {@code Stream} ends with the first expression that cannot be parsed, since the
+   * {@link ParseException} aborts the consuming operation. To continue with the following
+   * expressions, iterate an {@link ExpressionReader} directly, which allows to call
+   * {@link ExpressionReader#next() next} again after an exception. The {@code reader} is not
+   * closed by this method.
+   *
+   * @param reader The {@link Reader} to read from.
+   * @return A {@code Stream} of {@link ParsedExpression ParsedExpressions}
+   * @throws ParseException       If an expression cannot be parsed; the position is the start of
+   *                              the expression in the input plus the position of the error in the
+   *                              macro expanded text of the expression.
+   * @throws UncheckedIOException If reading fails
+   */
+  public Stream<ParsedExpression> parseAll(Reader reader) {
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+        new ExpressionReader(this, reader), Spliterator.ORDERED | Spliterator.NONNULL), false);
+  }
+
+  /**
+   * Parses all {@code expressions} in parallel.
+   * <p>
+   * This is a shortcut for {@code parserSnapshot().parseAll(expressions)}; the texts are parsed by
+   * several threads based on a snapshot of this context. The result contains a
+   * {@link ParseResult} for each text in the iteration order of {@code expressions}, texts that
+   * cannot be parsed do not abort the operation. Please refer to {@link ParserSnapshot} for
+   * details.
+   *
+   * @param expressions The literals to parse
+   * @return The {@code ParseResults}
+   */
+  public List<ParseResult> parseAll(Collection<String> expressions) {
+    return parserSnapshot().parseAll(expressions);
+  }
+
+  /**
+   * Gets a {@link ParserSnapshot} of this context.
+   * <p>
+   * The snapshot freezes the current definitions and parse settings and can be used by several
+   * threads at once. Please refer to {@link ParserSnapshot} for details. The same snapshot is
+   * returned until the definitions or the parse settings of this context change.
+   *
+   * @return The {@code ParserSnapshot}
+   */
+  public ParserSnapshot parserSnapshot() {
+    if (parserSnapshot == null) {
+      parserSnapshot = new ParserSnapshot(this);
     }
-    return result.get();
+    return parserSnapshot;
   }
 
   /**
@@ -292,6 +516,18 @@ public abstract class Context<V, C extends Context<V, C>> {
               existing.getClass()) + " with this name)");
     }
     definitions.put(definition.name(), definition);
+    definitionNames = definitionNames.put(definition.name(), definition);
+    if (definition instanceof Variable) {
+      // A new variable changes only the outcome of parsing texts that contain its name
+      expressionParser = null;
+      parserSnapshot = null;
+      if (parseCache != null) {
+        parseCache.removeIf(text -> text.contains(name));
+      }
+    } else {
+      definitionVersion++;
+      invalidateParser();
+    }
     return definition;
   }
 
@@ -593,6 +829,62 @@ public abstract class Context<V, C extends Context<V, C>> {
         ));
   }
 
+  /**
+   * Gets a {@link NameTrie} with all {@link Definition Definitions} of this context.
+   * <p>
+   * The returned instance is immutable; when a new {@code Definition} is added to this context, a
+   * new {@code NameTrie} is created. It is mainly intended for parsers that need to find the
+   * longest defined name at some position of the input.
+   *
+   * @return The {@code NameTrie}
+   */
+  public NameTrie<Definition> definitionNames() {
+    return definitionNames;
+  }
+
+  /**
+   * Gets the version of the {@link Definition Definitions} of this context.
+   * <p>
+   * The version is incremented each time a new function or constant is added, adding a variable
+   * does not change it; it allows to cache things derived from the {@code Definitions}, such as
+   * the binding of a {@link BoundFunctionCall}.
+   *
+   * @return The version
+   */
+  public long definitionVersion() {
+    return definitionVersion;
+  }
+
+  /**
+   * Binds the function calls of {@code expression} to the functions of this context.
+   * <p>
+   * The returned {@link Expression} is equivalent to {@code expression}, but all
+   * {@link de.hipphampel.eval.expr.FunctionCall FunctionCalls} are replaced by
+   * {@link BoundFunctionCall BoundFunctionCalls}, so that evaluating it with this context does not
+   * need to look up the functions again. See {@link BoundFunctionCall#bind(Context, Expression)}
+   * for details.
+   *
+   * @param expression The {@code Expression} to bind
+   * @return The bound {@code Expression}
+   * @throws EvalException If a function is unknown or called with a wrong number of arguments
+   */
+  public Expression bind(Expression expression) {
+    return BoundFunctionCall.bind(this, expression);
+  }
+
+  /**
+   * Compiles {@code expression} for this context.
+   * <p>
+   * This is a shortcut for calling {@link ExpressionCompiler#compile(Context, Expression)}.
+   *
+   * @param expression The {@code Expression} to compile
+   * @return The {@link CompiledExpression}
+   * @throws EvalException If the {@code expression} cannot be compiled
+   */
+  public CompiledExpression compile(Expression expression) {
+    return ExpressionCompiler.compile(this, expression);
+  }
+
   /**
    * Gets the names of all known constants and variables
    *
@@ -835,11 +1127,23 @@ public abstract class Context<V, C extends Context<V, C>> {
     return (C) this;
   }
 
-  private Parser newExpressionParser() {
-    return switch (parseMode) {
-      case STANDARD -> ParserFactory.expressionParserStandard(this).end();
-      case SIMPLIFIED -> ParserFactory.expressionParserSimplified(this).end();
-    };
+  private ExpressionParser expressionParser() {
+    if (expressionParser == null) {
+      expressionParser = ParserFactory.expressionParser(this, parseMode, parserEngine);
+    }
+    return expressionParser;
+  }
+
+  private void invalidateParser() {
+    expressionParser = null;
+    parserSnapshot = null;
+    clearParseCache();
+  }
+
+  private void clearParseCache() {
+    if (parseCache != null) {
+      parseCache.clear();
+    }
   }
 
 }
@@ -26,7 +26,12 @@ package de.hipphampel.eval;
  * #L%
  */
 
+import de.hipphampel.eval.compiler.BatchEvaluator;
+import de.hipphampel.eval.compiler.DoubleExpression;
+import de.hipphampel.eval.compiler.DoubleExpressionCompiler;
 import de.hipphampel.eval.definition.StandardConstants;
+import de.hipphampel.eval.expr.Expression;
+import java.util.Map;
 import org.apfloat.Apcomplex;
 import org.apfloat.Apfloat;
 
@@ -81,6 +86,93 @@ public class DoubleContext extends Context<Double, DoubleContext> {
         .withLogarithmFunctions();
   }
 
+  /**
+   * Evaluates the given expression using {@code double} arithmetic.
+   * <p>
+   * This is a shortcut for calling {@link #evaluateAsDouble(Expression)} on the parsed
+   * {@code expression}.
+   *
+   * @param expression The expression
+   * @return The result
+   * @throws de.hipphampel.eval.exception.ParseException If the expression cannot be parsed
+   */
+  public double evaluateAsDouble(String expression) {
+    return evaluateAsDouble(parse(expression));
+  }
+
+  /**
+   * Evaluates the given {@link Expression} using {@code double} arithmetic.
+   * <p>
+   * In contrast to {@link #evaluate(Expression)}, the calculation is not based on
+   * {@link Apcomplex}, but on primitive {@code doubles}; see {@link DoubleExpressionCompiler} for
+   * the differences. If the same {@code Expression} is evaluated several times, it is more
+   * efficient to {@link #compileAsDouble(Expression) compile} it once.
+   * <p>
+   * Invariant subexpressions are evaluated using {@code Apcomplex}, so {@code ((-1)^0.5)^2} is
+   * {@code -1} like with {@code evaluate}. But a complex intermediate result depending on a
+   * variable turns into {@link Double#NaN NaN}: with {@code x} set to {@code -1}, {@code evaluate}
+   * returns {@code -1} for {@code (x^0.5)^2}, whereas this method returns {@code NaN}.
+   *
+   * @param expression The {@code Expression}
+   * @return The result
+   */
+  public double evaluateAsDouble(Expression expression) {
+    return DoubleExpressionCompiler.evaluate(this, expression);
+  }
+
+  /**
+   * Compiles the given {@link Expression} for evaluation with {@code double} arithmetic.
+   * <p>
+   * This is a shortcut for calling {@link DoubleExpressionCompiler#compile(Context, Expression)}.
+   * <p>
+   * The result of the returned {@code DoubleExpression} is the same as the one of
+   * {@link #evaluateAsDouble(Expression)}, so a complex intermediate result depending on a
+   * variable turns into {@link Double#NaN NaN} as well.
+   *
+   * @param expression The {@code Expression}
+   * @return The {@link DoubleExpression}
+   */
+  public DoubleExpression compileAsDouble(Expression expression) {
+    return DoubleExpressionCompiler.compile(this, expression);
+  }
+
+  /**
+   * Evaluates the given {@link Expression} for many rows of variable values using {@code double}
+   * arithmetic.
+   * <p>
+   * This is a shortcut for calling
+   * {@link BatchEvaluator#evaluate(Context, Expression, Map) BatchEvaluator.evaluate}; for each row,
+   * the result is the same as {@link #evaluateAsDouble(Expression)} would return with the variables
+   * set to the values of the row.
+   *
+   * @param expression The {@code Expression}
+   * @param columns    The values of the variables, keyed by their names. All columns must have the
+   *                   same length
+   * @return The results, one per row
+   */
+  public double[] evaluateBatch(Expression expression, Map<String, double[]> columns) {
+    return BatchEvaluator.evaluate(this, expression, columns);
+  }
+
+  /**
+   * Evaluates the given {@link Expression} for many rows of variable values using {@code double}
+   * arithmetic and the given {@link BatchEvaluator.Backend Backend}.
+   * <p>
+   * This is a shortcut for calling
+   * {@link BatchEvaluator#evaluate(Context, Expression, Map, BatchEvaluator.Backend)
+   * BatchEvaluator.evaluate}.
+   *
+   * @param expression The {@code Expression}
+   * @param columns    The values of the variables, keyed by their names. All columns must have the
+   *                   same length
+   * @param backend    The {@code Backend}
+   * @return The results, one per row
+   */
+  public double[] evaluateBatch(Expression expression, Map<String, double[]> columns,
+      BatchEvaluator.Backend backend) {
+    return BatchEvaluator.evaluate(this, expression, columns, backend);
+  }
+
   @Override
   protected Apcomplex toApcomplex(Double value) {
     return new Apcomplex(new Apfloat(value, precision()));
@@ -0,0 +1,579 @@
+package de.hipphampel.eval.compiler;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static de.hipphampel.eval.compiler.DoubleExpressionCompiler.BINARY_BUILTINS;
+import static de.hipphampel.eval.compiler.DoubleExpressionCompiler.UNARY_BUILTINS;
+import static de.hipphampel.eval.compiler.DoubleExpressionCompiler.callFunction;
+import static de.hipphampel.eval.compiler.DoubleExpressionCompiler.fold;
+import static de.hipphampel.eval.compiler.DoubleExpressionCompiler.functionDefinition;
+import static de.hipphampel.eval.compiler.DoubleExpressionCompiler.toDouble;
+import static de.hipphampel.eval.compiler.DoubleExpressionCompiler.valueDefinition;
+
+import de.hipphampel.eval.Context;
+import de.hipphampel.eval.definition.FunctionDefinition;
+import de.hipphampel.eval.definition.StandardFunctions;
+import de.hipphampel.eval.exception.EvalException;
+import de.hipphampel.eval.expr.Add;
+import de.hipphampel.eval.expr.BoundFunctionCall;
+import de.hipphampel.eval.expr.Div;
+import de.hipphampel.eval.expr.Expression;
+import de.hipphampel.eval.expr.FunctionCall;
+import de.hipphampel.eval.expr.Let;
+import de.hipphampel.eval.expr.Mul;
+import de.hipphampel.eval.expr.Neg;
+import de.hipphampel.eval.expr.Pow;
+import de.hipphampel.eval.expr.Sub;
+import de.hipphampel.eval.expr.Temp;
+import de.hipphampel.eval.expr.Value;
+import de.hipphampel.eval.expr.ValueName;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.BinaryOperator;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+import org.apfloat.Apcomplex;
+import org.apfloat.ApcomplexMath;
+
+/**
+ * Evaluates an {@link Expression} for many rows of variable values at once.
+ * <p>
+ * The values of the variables are passed as columns, which are arrays having one element per row.
+ * Instead of evaluating the complete {@code Expression} row by row, each node of the expression
+ * is evaluated for all rows before continuing with its parent node, so the evaluation consists of
+ * simple loops over arrays. Subexpressions that do not depend on a column are evaluated only once.
+ * <p>
+ * Names not given as a column are taken from the {@link Context}. Expression types unknown to the
+ * {@code BatchEvaluator} are evaluated once using the {@code Context}, so they do not see the
+ * columns.
+ */
+public final class BatchEvaluator {
+
+  // Number of rows evaluated at once, so that the intermediate results stay in the cache
+  private static final int BLOCK_SIZE = 2048;
+
+  private BatchEvaluator() {
+  }
+
+  /**
+   * Evaluates the {@code expression} for the given {@code columns} using {@code double}
+   * arithmetic.
+   * <p>
+   * For each row, the result is the same as the one of
+   * {@link DoubleExpressionCompiler#evaluate(Context, Expression)} would return with the variables
+   * set to the values of the row.
+   *
+   * @param context    The {@link Context}
+   * @param expression The {@link Expression}
+   * @param columns    The columns, keyed by the variable name. All columns must have the same
+   *                   length
+   * @return The results, one per row
+   * @throws EvalException If the columns have different lengths, or if the {@code expression}
+   *                       refers to unknown names or calls a function with a wrong number of
+   *                       arguments
+   */
+  public static double[] evaluate(Context<?, ?> context, Expression expression,
+      Map<String, double[]> columns) {
+    return evaluate(context, expression, columns, Backend.SCALAR);
+  }
+
+  /**
+   * Evaluates the {@code expression} for the given {@code columns} using {@code double}
+   * arithmetic and the given {@link Backend}.
+   * <p>
+   * This works like {@link #evaluate(Context, Expression, Map)}, but allows to choose the
+   * {@code Backend} for the loops over the columns. If the {@code backend} is not
+   * {@link Backend#isAvailable() available}, the {@link Backend#SCALAR SCALAR} one is used.
+   *
+   * @param context    The {@link Context}
+   * @param expression The {@link Expression}
+   * @param columns    The columns, keyed by the variable name. All columns must have the same
+   *                   length
+   * @param backend    The {@code Backend}
+   * @return The results, one per row
+   * @throws EvalException If the columns have different lengths, or if the {@code expression}
+   *                       refers to unknown names or calls a function with a wrong number of
+   *                       arguments
+   */
+  public static double[] evaluate(Context<?, ?> context, Expression expression,
+      Map<String, double[]> columns, Backend backend) {
+    ColumnKernels kernels = (backend.isAvailable() ? backend : Backend.SCALAR).kernels();
+    int rows = rowCount(columns.values().stream().map(column -> column.length).toList());
+    if (rows <= BLOCK_SIZE) {
+      DoubleBatch batch = new DoubleBatch(context, kernels, columns, rows);
+      return batch.column(batch.evaluate(expression));
+    }
+
+    double[] results = new double[rows];
+    Map<String, double[]> block = new HashMap<>();
+    for (int start = 0; start < rows; start += BLOCK_SIZE) {
+      int end = Math.min(rows, start + BLOCK_SIZE);
+      for (Map.Entry<String, double[]> column : columns.entrySet()) {
+        block.put(column.getKey(), Arrays.copyOfRange(column.getValue(), start, end));
+      }
+      DoubleBatch batch = new DoubleBatch(context, kernels, block, end - start);
+      System.arraycopy(batch.column(batch.evaluate(expression)), 0, results, start, end - start);
+    }
+    return results;
+  }
+
+  /**
+   * Evaluates the {@code expression} for the given {@code columns} using {@link Apcomplex}
+   * arithmetic.
+   * <p>
+   * For each row, the result is the same as the one of
+   * {@link Expression#evaluate(Context)} would return with the variables set to the values of the
+   * row.
+   *
+   * @param context    The {@link Context}
+   * @param expression The {@link Expression}
+   * @param columns    The columns, keyed by the variable name. All columns must have the same
+   *                   length
+   * @return The results, one per row
+   * @throws EvalException If the columns have different lengths, or if the {@code expression}
+   *                       refers to unknown names or calls a function with a wrong number of
+   *                       arguments
+   */
+  public static Apcomplex[] evaluateApcomplex(Context<?, ?> context, Expression expression,
+      Map<String, Apcomplex[]> columns) {
+    int rows = rowCount(columns.values().stream().map(column -> column.length).toList());
+    ApcomplexBatch batch = new ApcomplexBatch(context, columns, rows);
+    return batch.column(batch.evaluate(expression));
+  }
+
+  private static int rowCount(Collection<Integer> lengths) {
+    if (lengths.isEmpty()) {
+      throw new EvalException("At least one column is required");
+    }
+    int rows = lengths.iterator().next();
+    if (lengths.stream().anyMatch(length -> length != rows)) {
+      throw new EvalException("All columns must have the same length");
+    }
+    return rows;
+  }
+
+  private static Object temp(List<Object> temps, Temp temp) {
+    if (temp.index() < 0 || temp.index() >= temps.size()) {
+      throw new EvalException("Temporary #" + temp.index() + " is not defined");
+    }
+    return temps.get(temp.index());
+  }
+
+  /**
+   * The implementation of the loops over the columns used for {@code double} arithmetic.
+   */
+  public enum Backend {
+    /**
+     * Plain Java loops, which might be vectorized by the JIT compiler.
+     * <p>
+     * The results are the same as the ones of the {@link DoubleExpressionCompiler}. This backend
+     * is always available.
+     */
+    SCALAR,
+
+    /**
+     * Explicitly vectorized loops based on the {@code jdk.incubator.vector} module.
+     * <p>
+     * Besides the arithmetic operations, powers with an integer exponent or a constant base as
+     * well as the functions {@code sin}, {@code cos}, and {@code ln} are vectorized, the latter
+     * ones using polynomial approximations that might differ from {@link Math} in the last bit.
+     * This backend is only available if the module is part of the module graph, for example by
+     * passing {@code --add-modules jdk.incubator.vector} to the JVM.
+     */
+    VECTOR;
+
+    private static final ColumnKernels VECTOR_KERNELS = vectorKernels();
+
+    /**
+     * Returns, whether this backend is available.
+     *
+     * @return {@code true}, if available
+     */
+    public boolean isAvailable() {
+      return kernels() != null;
+    }
+
+    ColumnKernels kernels() {
+      return this == SCALAR ? ScalarKernels.INSTANCE : VECTOR_KERNELS;
+    }
+
+    private static ColumnKernels vectorKernels() {
+      Optional<Module> module = ModuleLayer.boot().findModule("jdk.incubator.vector");
+      if (module.isEmpty()) {
+        return null;
+      }
+      try {
+        // The module is not required by this one, since it is incubating; the VectorKernels are
+        // compiled separately and loaded reflectively, so that the class is never touched without
+        // the module
+        BatchEvaluator.class.getModule().addReads(module.get());
+        Class<?> type = Class.forName(BatchEvaluator.class.getPackageName() + ".VectorKernels");
+        return (ColumnKernels) type.getDeclaredField("INSTANCE").get(null);
+      } catch (ReflectiveOperationException | LinkageError e) {
+        return null;
+      }
+    }
+  }
+
+  private enum Operator {
+    ADD, SUB, MUL, DIV
+  }
+
+  /**
+   * Evaluation with {@code doubles}; the result of a node is either a {@code Double}, if it is the
+   * same for all rows, or a {@code double[]}.
+   */
+  private static class DoubleBatch {
+
+    private final Context<?, ?> context;
+    private final ColumnKernels kernels;
+    private final Map<String, double[]> columns;
+    private final int rows;
+    private final Set<double[]> inputs = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Invariants invariants;
+    private List<Object> temps = List.of();
+
+    DoubleBatch(Context<?, ?> context, ColumnKernels kernels, Map<String, double[]> columns,
+        int rows) {
+      this.context = context;
+      this.invariants = new Invariants(context);
+      this.kernels = kernels;
+      this.columns = columns;
+      this.rows = rows;
+      this.inputs.addAll(columns.values());
+    }
+
+    Object evaluate(Expression expression) {
+      if (expression instanceof Value value) {
+        return toDouble(value.value());
+      }
+      Double folded = fold(context, invariants, expression);
+      if (folded != null) {
+        return folded;
+      } else if (expression instanceof ValueName valueName) {
+        double[] column = columns.get(valueName.name());
+        return column != null ? column
+            : toDouble(valueDefinition(context, valueName.name()).value(context));
+      } else if (expression instanceof Neg neg) {
+        Object arg = evaluate(neg.arg());
+        if (arg instanceof double[] column) {
+          double[] target = target(column, null);
+          kernels.negate(column, target, rows);
+          return target;
+        }
+        return -(Double) arg;
+      } else if (expression instanceof Add add) {
+        return arithmetic(Operator.ADD, evaluate(add.left()), evaluate(add.right()));
+      } else if (expression instanceof Sub sub) {
+        return arithmetic(Operator.SUB, evaluate(sub.left()), evaluate(sub.right()));
+      } else if (expression instanceof Mul mul) {
+        return arithmetic(Operator.MUL, evaluate(mul.left()), evaluate(mul.right()));
+      } else if (expression instanceof Div div) {
+        return arithmetic(Operator.DIV, evaluate(div.left()), evaluate(div.right()));
+      } else if (expression instanceof Pow pow) {
+        return pow(evaluate(pow.left()), evaluate(pow.right()));
+      } else if (expression instanceof FunctionCall call) {
+        return functionCall(call.name(), call.arguments());
+      } else if (expression instanceof BoundFunctionCall call) {
+        return functionCall(call.name(), call.arguments());
+      } else if (expression instanceof Let let) {
+        List<Object> outer = temps;
+        temps = new ArrayList<>(let.definitions().size());
+        for (Expression definition : let.definitions()) {
+          Object value = evaluate(definition);
+          if (value instanceof double[] column) {
+            // Used several times, so it must not be overwritten
+            inputs.add(column);
+          }
+          temps.add(value);
+        }
+        Object result = evaluate(let.body());
+        temps = outer;
+        return result;
+      } else if (expression instanceof Temp temp) {
+        return temp(temps, temp);
+      }
+      return toDouble(expression.evaluate(context));
+    }
+
+    double[] column(Object value) {
+      if (value instanceof double[] column) {
+        return inputs.contains(column) ? column.clone() : column;
+      }
+      double[] column = new double[rows];
+      Arrays.fill(column, (Double) value);
+      return column;
+    }
+
+    private Object functionCall(String name, List<? extends Expression> args) {
+      FunctionDefinition function = functionDefinition(context, name, args.size());
+      DoubleUnaryOperator unary = UNARY_BUILTINS.get(function);
+      if (unary != null) {
+        Object arg = evaluate(args.get(0));
+        if (arg instanceof double[] column) {
+          double[] target = target(column, null);
+          if (function == StandardFunctions.SIN) {
+            kernels.sin(column, target, rows);
+            return target;
+          } else if (function == StandardFunctions.COS) {
+            kernels.cos(column, target, rows);
+            return target;
+          } else if (function == StandardFunctions.LN) {
+            kernels.log(column, target, rows);
+            return target;
+          }
+        }
+        return apply(unary, arg);
+      }
+      DoubleBinaryOperator binary = BINARY_BUILTINS.get(function);
+      if (binary != null) {
+        return apply(binary, evaluate(args.get(0)), evaluate(args.get(1)));
+      }
+
+      Object[] values = args.stream().map(this::evaluate).toArray();
+      double[] row = new double[values.length];
+      if (Arrays.stream(values).noneMatch(value -> value instanceof double[])) {
+        for (int j = 0; j < row.length; j++) {
+          row[j] = (Double) values[j];
+        }
+        return callFunction(context, function, row);
+      }
+      double[] target = new double[rows];
+      for (int i = 0; i < rows; i++) {
+        for (int j = 0; j < row.length; j++) {
+          row[j] = values[j] instanceof double[] column ? column[i] : (Double) values[j];
+        }
+        target[i] = callFunction(context, function, row);
+      }
+      return target;
+    }
+
+    private Object arithmetic(Operator operator, Object left, Object right) {
+      if (left instanceof Double l && right instanceof Double r) {
+        return switch (operator) {
+          case ADD -> l + r;
+          case SUB -> l - r;
+          case MUL -> l * r;
+          case DIV -> l / r;
+        };
+      }
+
+      double[] target = target(left, right);
+      if (left instanceof double[] l && right instanceof double[] r) {
+        switch (operator) {
+          case ADD -> kernels.add(l, r, target, rows);
+          case SUB -> kernels.subtract(l, r, target, rows);
+          case MUL -> kernels.multiply(l, r, target, rows);
+          case DIV -> kernels.divide(l, r, target, rows);
+        }
+      } else if (left instanceof double[] l) {
+        double r = (Double) right;
+        switch (operator) {
+          case ADD -> kernels.add(l, r, target, rows);
+          case SUB -> kernels.subtract(l, r, target, rows);
+          case MUL -> kernels.multiply(l, r, target, rows);
+          case DIV -> kernels.divide(l, r, target, rows);
+        }
+      } else {
+        double l = (Double) left;
+        double[] r = (double[]) right;
+        switch (operator) {
+          case ADD -> kernels.add(r, l, target, rows);
+          case SUB -> kernels.subtract(l, r, target, rows);
+          case MUL -> kernels.multiply(r, l, target, rows);
+          case DIV -> kernels.divide(l, r, target, rows);
+        }
+      }
+      return target;
+    }
+
+    private Object pow(Object left, Object right) {
+      if (left instanceof double[] base && right instanceof Double exponent
+          && exponent == Math.rint(exponent) && Math.abs(exponent) <= Integer.MAX_VALUE) {
+        double[] target = target(base, null);
+        kernels.pow(base, exponent.intValue(), target, rows);
+        return target;
+      } else if (left instanceof Double base && right instanceof double[] exponent) {
+        double[] target = target(exponent, null);
+        kernels.pow(base, exponent, target, rows);
+        return target;
+      }
+      return apply(Math::pow, left, right);
+    }
+
+    private Object apply(DoubleUnaryOperator operator, Object arg) {
+      if (arg instanceof double[] a) {
+        double[] target = target(arg, null);
+        for (int i = 0; i < rows; i++) {
+          target[i] = operator.applyAsDouble(a[i]);
+        }
+        return target;
+      }
+      return operator.applyAsDouble((Double) arg);
+    }
+
+    private Object apply(DoubleBinaryOperator operator, Object left, Object right) {
+      if (left instanceof Double l && right instanceof Double r) {
+        return operator.applyAsDouble(l, r);
+      }
+      double[] target = target(left, right);
+      for (int i = 0; i < rows; i++) {
+        double l = left instanceof double[] column ? column[i] : (Double) left;
+        double r = right instanceof double[] column ? column[i] : (Double) right;
+        target[i] = operator.applyAsDouble(l, r);
+      }
+      return target;
+    }
+
+    private double[] target(Object left, Object right) {
+      // Intermediate results are used only once, so they can be overwritten
+      if (left instanceof double[] column && !inputs.contains(column)) {
+        return column;
+      } else if (right instanceof double[] column && !inputs.contains(column)) {
+        return column;
+      }
+      return new double[rows];
+    }
+  }
+
+  /**
+   * Evaluation with {@code Apcomplex}; the result of a node is either an {@code Apcomplex}, if it
+   * is the same for all rows, or an {@code Apcomplex[]}.
+   */
+  private static class ApcomplexBatch {
+
+    private final Context<?, ?> context;
+    private final Map<String, Apcomplex[]> columns = new HashMap<>();
+    private final int rows;
+    private List<Object> temps = List.of();
+
+    ApcomplexBatch(Context<?, ?> context, Map<String, Apcomplex[]> columns, int rows) {
+      this.context = context;
+      this.rows = rows;
+      columns.forEach((name, column) -> this.columns.put(name, Arrays.stream(column)
+          .map(context.precisionHelper()::valueOf)
+          .toArray(Apcomplex[]::new)));
+    }
+
+    Object evaluate(Expression expression) {
+      if (expression instanceof Value value) {
+        return value.value();
+      } else if (expression instanceof ValueName valueName) {
+        Apcomplex[] column = columns.get(valueName.name());
+        return column != null ? column.clone()
+            : valueDefinition(context, valueName.name()).value(context);
+      } else if (expression instanceof Neg neg) {
+        Object arg = evaluate(neg.arg());
+        if (arg instanceof Apcomplex[] column) {
+          for (int i = 0; i < rows; i++) {
+            column[i] = column[i].negate();
+          }
+          return column;
+        }
+        return ((Apcomplex) arg).negate();
+      } else if (expression instanceof Add add) {
+        return apply(Apcomplex::add, evaluate(add.left()), evaluate(add.right()));
+      } else if (expression instanceof Sub sub) {
+        return apply(Apcomplex::subtract, evaluate(sub.left()), evaluate(sub.right()));
+      } else if (expression instanceof Mul mul) {
+        return apply(Apcomplex::multiply, evaluate(mul.left()), evaluate(mul.right()));
+      } else if (expression instanceof Div div) {
+        return apply(Apcomplex::divide, evaluate(div.left()), evaluate(div.right()));
+      } else if (expression instanceof Pow pow) {
+        return apply(ApcomplexMath::pow, evaluate(pow.left()), evaluate(pow.right()));
+      } else if (expression instanceof FunctionCall call) {
+        return functionCall(call.name(), call.arguments());
+      } else if (expression instanceof BoundFunctionCall call) {
+        return functionCall(call.name(), call.arguments());
+      } else if (expression instanceof Let let) {
+        List<Object> outer = temps;
+        temps = new ArrayList<>(let.definitions().size());
+        for (Expression definition : let.definitions()) {
+          temps.add(evaluate(definition));
+        }
+        Object result = evaluate(let.body());
+        temps = outer;
+        return result;
+      } else if (expression instanceof Temp temp) {
+        Object value = temp(temps, temp);
+        return value instanceof Apcomplex[] column ? column.clone() : value;
+      }
+      return expression.evaluate(context);
+    }
+
+    Apcomplex[] column(Object value) {
+      if (value instanceof Apcomplex[] column) {
+        return column;
+      }
+      Apcomplex[] column = new Apcomplex[rows];
+      Arrays.fill(column, (Apcomplex) value);
+      return column;
+    }
+
+    private Object functionCall(String name, List<? extends Expression> args) {
+      FunctionDefinition function = functionDefinition(context, name, args.size());
+      Object[] values = args.stream().map(this::evaluate).toArray();
+      Apcomplex[] row = new Apcomplex[values.length];
+      if (Arrays.stream(values).noneMatch(value -> value instanceof Apcomplex[])) {
+        for (int j = 0; j < row.length; j++) {
+          row[j] = (Apcomplex) values[j];
+        }
+        return function.evaluate(context, Arrays.asList(row));
+      }
+      Apcomplex[] target = new Apcomplex[rows];
+      for (int i = 0; i < rows; i++) {
+        for (int j = 0; j < row.length; j++) {
+          row[j] = values[j] instanceof Apcomplex[] column ? column[i] : (Apcomplex) values[j];
+        }
+        target[i] = function.evaluate(context, List.of(row));
+      }
+      return target;
+    }
+
+    private Object apply(BinaryOperator<Apcomplex> operator, Object left, Object right) {
+      if (left instanceof Apcomplex l && right instanceof Apcomplex r) {
+        return operator.apply(l, r);
+      }
+      // Intermediate results are used only once, so they can be overwritten
+      Apcomplex[] target = left instanceof Apcomplex[] column ? column : (Apcomplex[]) right;
+      for (int i = 0; i < rows; i++) {
+        Apcomplex l = left instanceof Apcomplex[] column ? column[i] : (Apcomplex) left;
+        Apcomplex r = right instanceof Apcomplex[] column ? column[i] : (Apcomplex) right;
+        target[i] = operator.apply(l, r);
+      }
+      return target;
+    }
+  }
+}
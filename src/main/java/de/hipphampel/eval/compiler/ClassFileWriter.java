@@ -0,0 +1,361 @@
+package de.hipphampel.eval.compiler;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import de.hipphampel.eval.exception.EvalException;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Executable;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal writer for Java class files.
+ * <p>
+ * Supports exactly what the {@link ExpressionCompiler} needs: a final class with private final
+ * fields and methods consisting of straight-line code, so that no stack map frames are required.
+ */
+final class ClassFileWriter {
+
+  static final int ALOAD_0 = 0x2a;
+  static final int ALOAD_1 = 0x2b;
+  static final int AALOAD = 0x32;
+  static final int AASTORE = 0x53;
+  static final int DUP = 0x59;
+  static final int ARETURN = 0xb0;
+  static final int RETURN = 0xb1;
+
+  private static final int ACC_PUBLIC = 0x0001;
+  private static final int ACC_PRIVATE = 0x0002;
+  private static final int ACC_FINAL = 0x0010;
+  private static final int ACC_SUPER = 0x0020;
+  private static final int JAVA_17 = 61;
+  private static final int MAX_CODE_LENGTH = 65535;
+
+  private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+  private final DataOutputStream pool = new DataOutputStream(poolBytes);
+  private final Map<String, Integer> poolIndices = new HashMap<>();
+  private final List<byte[]> fields = new ArrayList<>();
+  private final List<byte[]> methods = new ArrayList<>();
+  private final String className;
+  private final String superName;
+  private final String[] interfaceNames;
+  private int poolCount = 1;
+
+  ClassFileWriter(String className, Class<?> superClass, Class<?>... interfaces) {
+    this.className = className;
+    this.superName = internalName(superClass);
+    this.interfaceNames = new String[interfaces.length];
+    for (int i = 0; i < interfaces.length; i++) {
+      interfaceNames[i] = internalName(interfaces[i]);
+    }
+  }
+
+  String className() {
+    return className;
+  }
+
+  void field(String name, Class<?> type) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeShort(ACC_PRIVATE | ACC_FINAL);
+      out.writeShort(utf8(name));
+      out.writeShort(utf8(type.descriptorString()));
+      out.writeShort(0);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    fields.add(bytes.toByteArray());
+  }
+
+  Code method(String name, MethodType type) {
+    return new Code(name, type.toMethodDescriptorString());
+  }
+
+  byte[] toByteArray() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      int thisClass = classRef(className);
+      int superClass = classRef(superName);
+      int[] interfaces = new int[interfaceNames.length];
+      for (int i = 0; i < interfaces.length; i++) {
+        interfaces[i] = classRef(interfaceNames[i]);
+      }
+      if (poolCount > 65535) {
+        throw new EvalException("Expression too large to compile");
+      }
+
+      out.writeInt(0xcafebabe);
+      out.writeShort(0);
+      out.writeShort(JAVA_17);
+      out.writeShort(poolCount);
+      poolBytes.writeTo(out);
+      out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+      out.writeShort(thisClass);
+      out.writeShort(superClass);
+      out.writeShort(interfaces.length);
+      for (int index : interfaces) {
+        out.writeShort(index);
+      }
+      writeMembers(out, fields);
+      writeMembers(out, methods);
+      out.writeShort(0);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static void writeMembers(DataOutputStream out, List<byte[]> members) throws IOException {
+    out.writeShort(members.size());
+    for (byte[] member : members) {
+      out.write(member);
+    }
+  }
+
+  private int utf8(String value) {
+    return constant("U" + value, out -> {
+      out.writeByte(1);
+      out.writeUTF(value);
+    });
+  }
+
+  private int classRef(String internalName) {
+    int name = utf8(internalName);
+    return constant("C" + internalName, out -> {
+      out.writeByte(7);
+      out.writeShort(name);
+    });
+  }
+
+  private int nameAndType(String name, String descriptor) {
+    int nameIndex = utf8(name);
+    int descriptorIndex = utf8(descriptor);
+    return constant("N" + name + ":" + descriptor, out -> {
+      out.writeByte(12);
+      out.writeShort(nameIndex);
+      out.writeShort(descriptorIndex);
+    });
+  }
+
+  private int memberRef(int tag, String owner, String name, String descriptor) {
+    int ownerIndex = classRef(owner);
+    int nameAndTypeIndex = nameAndType(name, descriptor);
+    return constant(tag + owner + "." + name + ":" + descriptor, out -> {
+      out.writeByte(tag);
+      out.writeShort(ownerIndex);
+      out.writeShort(nameAndTypeIndex);
+    });
+  }
+
+  private int constant(String key, PoolEntryWriter writer) {
+    Integer index = poolIndices.get(key);
+    if (index == null) {
+      try {
+        writer.write(pool);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      index = poolCount++;
+      poolIndices.put(key, index);
+    }
+    return index;
+  }
+
+  static String internalName(Class<?> type) {
+    return type.getName().replace('.', '/');
+  }
+
+  @FunctionalInterface
+  private interface PoolEntryWriter {
+
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  /**
+   * Code of a single method.
+   * <p>
+   * Keeps track of the stack depth, so that the maximum stack size can be computed. Since all
+   * values the generated code deals with are references, each value occupies one stack slot.
+   */
+  final class Code {
+
+    private final String name;
+    private final String descriptor;
+    private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+    private int stack;
+    private int maxStack;
+
+    private Code(String name, String descriptor) {
+      this.name = name;
+      this.descriptor = descriptor;
+    }
+
+    Code op(int opcode, int stackDelta) {
+      code.write(opcode);
+      adjustStack(stackDelta);
+      return this;
+    }
+
+    Code pushInt(int value) {
+      if (value >= -1 && value <= 5) {
+        code.write(0x03 + value);
+      } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+        code.write(0x10);
+        code.write(value);
+      } else {
+        code.write(0x11);
+        writeShort(value);
+      }
+      adjustStack(1);
+      return this;
+    }
+
+    Code load(int local) {
+      writeLocal(0x19, 0x2a, local);
+      adjustStack(1);
+      return this;
+    }
+
+    Code store(int local) {
+      writeLocal(0x3a, 0x4b, local);
+      adjustStack(-1);
+      return this;
+    }
+
+    Code getField(String fieldName, Class<?> type) {
+      code.write(0xb4);
+      writeShort(memberRef(9, className, fieldName, type.descriptorString()));
+      return this;
+    }
+
+    Code putField(String fieldName, Class<?> type) {
+      code.write(0xb5);
+      writeShort(memberRef(9, className, fieldName, type.descriptorString()));
+      adjustStack(-2);
+      return this;
+    }
+
+    Code checkCast(Class<?> type) {
+      code.write(0xc0);
+      writeShort(classRef(internalName(type)));
+      return this;
+    }
+
+    Code newArray(Class<?> componentType) {
+      code.write(0xbd);
+      writeShort(classRef(internalName(componentType)));
+      return this;
+    }
+
+    Code invoke(Executable executable) {
+      Class<?> owner = executable.getDeclaringClass();
+      int argCount = executable.getParameterCount();
+      String descriptor;
+      String name;
+      int opcode;
+      if (executable instanceof Constructor<?> constructor) {
+        name = "<init>";
+        descriptor = MethodType.methodType(void.class, constructor.getParameterTypes())
+            .toMethodDescriptorString();
+        opcode = 0xb7;
+        adjustStack(-argCount - 1);
+      } else {
+        Method method = (Method) executable;
+        name = method.getName();
+        descriptor = MethodType.methodType(method.getReturnType(), method.getParameterTypes())
+            .toMethodDescriptorString();
+        boolean isStatic = Modifier.isStatic(method.getModifiers());
+        opcode = isStatic ? 0xb8 : owner.isInterface() ? 0xb9 : 0xb6;
+        adjustStack(-argCount - (isStatic ? 0 : 1) + (method.getReturnType() == void.class ? 0 : 1));
+      }
+
+      code.write(opcode);
+      writeShort(memberRef(owner.isInterface() ? 11 : 10, internalName(owner), name, descriptor));
+      if (opcode == 0xb9) {
+        code.write(argCount + 1);
+        code.write(0);
+      }
+      return this;
+    }
+
+    void end(int maxLocals) {
+      if (code.size() > MAX_CODE_LENGTH) {
+        throw new EvalException("Expression too large to compile");
+      }
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (DataOutputStream out = new DataOutputStream(bytes)) {
+        out.writeShort(ACC_PUBLIC);
+        out.writeShort(utf8(name));
+        out.writeShort(utf8(descriptor));
+        out.writeShort(1);
+        out.writeShort(utf8("Code"));
+        out.writeInt(12 + code.size());
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.size());
+        code.writeTo(out);
+        out.writeShort(0);
+        out.writeShort(0);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      methods.add(bytes.toByteArray());
+    }
+
+    private void writeLocal(int opcode, int shortOpcode, int local) {
+      if (local <= 3) {
+        code.write(shortOpcode + local);
+      } else if (local <= 255) {
+        code.write(opcode);
+        code.write(local);
+      } else {
+        code.write(0xc4);
+        code.write(opcode);
+        writeShort(local);
+      }
+    }
+
+    private void writeShort(int value) {
+      code.write(value >> 8);
+      code.write(value);
+    }
+
+    private void adjustStack(int delta) {
+      stack += delta;
+      maxStack = Math.max(maxStack, stack);
+    }
+  }
+}
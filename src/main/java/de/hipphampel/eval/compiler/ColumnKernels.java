@@ -0,0 +1,68 @@
+package de.hipphampel.eval.compiler;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+/**
+ * The loops over columns of {@code doubles} used by the {@link BatchEvaluator}.
+ * <p>
+ * Each method calculates the first {@code rows} elements of {@code target}; {@code target} might
+ * be the same array as one of the operands.
+ */
+interface ColumnKernels {
+
+  void add(double[] left, double[] right, double[] target, int rows);
+
+  void add(double[] left, double right, double[] target, int rows);
+
+  void subtract(double[] left, double[] right, double[] target, int rows);
+
+  void subtract(double[] left, double right, double[] target, int rows);
+
+  void subtract(double left, double[] right, double[] target, int rows);
+
+  void multiply(double[] left, double[] right, double[] target, int rows);
+
+  void multiply(double[] left, double right, double[] target, int rows);
+
+  void divide(double[] left, double[] right, double[] target, int rows);
+
+  void divide(double[] left, double right, double[] target, int rows);
+
+  void divide(double left, double[] right, double[] target, int rows);
+
+  void negate(double[] arg, double[] target, int rows);
+
+  void pow(double[] base, int exponent, double[] target, int rows);
+
+  void pow(double base, double[] exponent, double[] target, int rows);
+
+  void sin(double[] arg, double[] target, int rows);
+
+  void cos(double[] arg, double[] target, int rows);
+
+  void log(double[] arg, double[] target, int rows);
+}
@@ -0,0 +1,64 @@
+package de.hipphampel.eval.compiler;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import de.hipphampel.eval.Context;
+import de.hipphampel.eval.expr.Expression;
+import org.apfloat.Apcomplex;
+
+/**
+ * An {@link Expression} compiled for a specific {@link Context}.
+ * <p>
+ * Instances are created by the {@link ExpressionCompiler}. Evaluating a compiled expression
+ * produces the same result as {@link Expression#evaluate(Context) evaluating} the original
+ * {@code Expression} with the {@code Context} it was compiled for, but without walking the
+ * expression tree.
+ */
+public interface CompiledExpression {
+
+  /**
+   * The {@link Expression} this instance was compiled from.
+   *
+   * @return The {@code Expression}
+   */
+  Expression expression();
+
+  /**
+   * The {@link Context} this instance was compiled for.
+   *
+   * @return The {@code Context}
+   */
+  Context<?, ?> context();
+
+  /**
+   * Evaluates the expression using the current values of the variables of the {@link #context()
+   * context}.
+   *
+   * @return The result
+   */
+  Apcomplex evaluate();
+}
@@ -0,0 +1,308 @@
+package de.hipphampel.eval.compiler;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import org.apfloat.Apcomplex;
+import org.apfloat.Apfloat;
+
+/**
+ * A complex number represented by a pair of {@code doubles}.
+ * <p>
+ * This is the value type of the {@link ComplexDoubleExpressionCompiler}. The functions follow the
+ * definitions of {@link org.apfloat.ApcomplexMath ApcomplexMath}, especially regarding the branch
+ * cuts of the inverse functions. Since {@code Apcomplex} knows no negative zero, a negative zero
+ * is treated like a positive one when selecting the branch.
+ * <p>
+ * In contrast to {@code Apcomplex}, operations do not throw exceptions; like the {@code double}
+ * arithmetic they produce infinite or {@link Double#NaN NaN} parts instead, for example when
+ * dividing by zero.
+ *
+ * @param re The real part
+ * @param im The imaginary part
+ */
+record Complex(double re, double im) {
+
+  static final Complex ZERO = new Complex(0, 0);
+  static final Complex ONE = new Complex(1, 0);
+  static final Complex NAN = new Complex(Double.NaN, Double.NaN);
+
+  // Above this, cosh(2x) and sinh(2x) are equal in double precision
+  private static final double TANH_LIMIT = 20;
+
+  static Complex valueOf(Apcomplex value) {
+    return new Complex(value.real().doubleValue(), value.imag().doubleValue());
+  }
+
+  Apcomplex toApcomplex(long precision) {
+    if (!isFinite()) {
+      throw new ArithmeticException("Result is not finite");
+    }
+    return new Apcomplex(new Apfloat(re, precision), new Apfloat(im, precision));
+  }
+
+  boolean isFinite() {
+    return Double.isFinite(re) && Double.isFinite(im);
+  }
+
+  boolean isReal() {
+    return im == 0;
+  }
+
+  Complex add(Complex other) {
+    return new Complex(re + other.re, im + other.im);
+  }
+
+  Complex subtract(Complex other) {
+    return new Complex(re - other.re, im - other.im);
+  }
+
+  Complex multiply(Complex other) {
+    return new Complex(re * other.re - im * other.im, re * other.im + im * other.re);
+  }
+
+  Complex divide(Complex other) {
+    // Smith's algorithm, avoids overflows of the intermediate results
+    double c = other.re;
+    double d = other.im;
+    if (Math.abs(c) >= Math.abs(d)) {
+      double r = d / c;
+      double den = c + d * r;
+      return new Complex((re + im * r) / den, (im - re * r) / den);
+    } else {
+      double r = c / d;
+      double den = c * r + d;
+      return new Complex((re * r + im) / den, (im * r - re) / den);
+    }
+  }
+
+  Complex negate() {
+    return new Complex(-re, -im);
+  }
+
+  Complex pow(Complex exponent) {
+    if (re == 0 && im == 0) {
+      // Like in ApcomplexMath, zero to the power of anything but zero is zero
+      return exponent.re == 0 && exponent.im == 0 ? NAN : ZERO;
+    }
+    if (exponent.isReal() && exponent.re == Math.rint(exponent.re)
+        && Math.abs(exponent.re) <= Integer.MAX_VALUE) {
+      return pow((long) exponent.re);
+    }
+    if (isReal() && re > 0 && exponent.isReal()) {
+      return new Complex(Math.pow(re, exponent.re), 0);
+    }
+    double logAbs = Math.log(abs());
+    double arg = arg();
+    double magnitude = Math.exp(exponent.re * logAbs - exponent.im * arg);
+    double angle = exponent.im * logAbs + exponent.re * arg;
+    return new Complex(magnitude * Math.cos(angle), magnitude * Math.sin(angle));
+  }
+
+  private Complex pow(long exponent) {
+    if (exponent == 0) {
+      return ONE;
+    }
+    if (isReal()) {
+      return new Complex(Math.pow(re, exponent), 0);
+    }
+    Complex base = exponent < 0 ? ONE.divide(this) : this;
+    long n = Math.abs(exponent);
+    Complex result = ONE;
+    while (true) {
+      if ((n & 1) != 0) {
+        result = result.multiply(base);
+      }
+      n >>= 1;
+      if (n == 0) {
+        return result;
+      }
+      base = base.multiply(base);
+    }
+  }
+
+  Complex sqrt() {
+    if (re == 0 && im == 0) {
+      return ZERO;
+    }
+    double t = Math.sqrt((Math.abs(re) + abs()) / 2);
+    if (re >= 0) {
+      return new Complex(t, im / (2 * t));
+    }
+    return new Complex(Math.abs(im) / (2 * t), im < 0 ? -t : t);
+  }
+
+  Complex exp() {
+    double e = Math.exp(re);
+    if (isReal()) {
+      return new Complex(e, 0);
+    }
+    return new Complex(e * Math.cos(im), e * Math.sin(im));
+  }
+
+  Complex log() {
+    if (isReal() && re > 0) {
+      return new Complex(Math.log(re), 0);
+    }
+    return new Complex(Math.log(abs()), arg());
+  }
+
+  Complex sin() {
+    if (isReal()) {
+      return new Complex(Math.sin(re), 0);
+    }
+    return new Complex(Math.sin(re) * Math.cosh(im), Math.cos(re) * Math.sinh(im));
+  }
+
+  Complex cos() {
+    if (isReal()) {
+      return new Complex(Math.cos(re), 0);
+    }
+    return new Complex(Math.cos(re) * Math.cosh(im), -Math.sin(re) * Math.sinh(im));
+  }
+
+  Complex tan() {
+    if (isReal()) {
+      return new Complex(Math.tan(re), 0);
+    }
+    if (Math.abs(im) > TANH_LIMIT) {
+      return new Complex(0, Math.signum(im));
+    }
+    double den = Math.cos(2 * re) + Math.cosh(2 * im);
+    return new Complex(Math.sin(2 * re) / den, Math.sinh(2 * im) / den);
+  }
+
+  Complex asin() {
+    if (isReal() && Math.abs(re) <= 1) {
+      return new Complex(Math.asin(re), 0);
+    }
+    // -i * log(i * z + sqrt(1 - z^2))
+    return multiplyI(this).add(ONE.subtract(multiply(this)).sqrt()).log().multiplyMinusI();
+  }
+
+  Complex acos() {
+    if (isReal() && Math.abs(re) <= 1) {
+      return new Complex(Math.acos(re), 0);
+    }
+    // -i * log(z + i * sqrt(1 - z^2))
+    return add(multiplyI(ONE.subtract(multiply(this)).sqrt())).log().multiplyMinusI();
+  }
+
+  Complex atan() {
+    if (isReal()) {
+      return new Complex(Math.atan(re), 0);
+    }
+    // i/2 * (log(1 - i * z) - log(1 + i * z))
+    Complex iz = multiplyI(this);
+    Complex log = ONE.subtract(iz).log().subtract(ONE.add(iz).log());
+    return new Complex(-log.im / 2, log.re / 2);
+  }
+
+  Complex sinh() {
+    if (isReal()) {
+      return new Complex(Math.sinh(re), 0);
+    }
+    return new Complex(Math.sinh(re) * Math.cos(im), Math.cosh(re) * Math.sin(im));
+  }
+
+  Complex cosh() {
+    if (isReal()) {
+      return new Complex(Math.cosh(re), 0);
+    }
+    return new Complex(Math.cosh(re) * Math.cos(im), Math.sinh(re) * Math.sin(im));
+  }
+
+  Complex tanh() {
+    if (isReal()) {
+      return new Complex(Math.tanh(re), 0);
+    }
+    if (Math.abs(re) > TANH_LIMIT) {
+      return new Complex(Math.signum(re), 0);
+    }
+    double den = Math.cosh(2 * re) + Math.cos(2 * im);
+    return new Complex(Math.sinh(2 * re) / den, Math.sin(2 * im) / den);
+  }
+
+  Complex asinh() {
+    if (isReal()) {
+      return new Complex(Math.copySign(Math.log(Math.abs(re) + Math.sqrt(re * re + 1)), re), 0);
+    }
+    if (re < 0) {
+      // asinh is odd; this avoids the cancellation in z + sqrt(z^2 + 1)
+      return negate().asinh().negate();
+    }
+    // log(z + sqrt(z^2 + 1))
+    return add(multiply(this).add(ONE).sqrt()).log();
+  }
+
+  Complex acosh() {
+    if (isReal() && re >= 1) {
+      return new Complex(Math.log(re + Math.sqrt(re * re - 1)), 0);
+    } else if (isReal() && re >= -1) {
+      // ApcomplexMath returns the conjugate value for arguments between -1 and 0
+      double acos = Math.acos(re);
+      return new Complex(0, re < 0 && re > -1 ? -acos : acos);
+    }
+    // log(z + sqrt(z + 1) * sqrt(z - 1))
+    return add(add(ONE).sqrt().multiply(subtract(ONE).sqrt())).log();
+  }
+
+  Complex atanh() {
+    if (isReal() && Math.abs(re) < 1) {
+      return new Complex(0.5 * (Math.log1p(re) - Math.log1p(-re)), 0);
+    }
+    // (log(1 + z) - log(1 - z)) / 2
+    Complex log = ONE.add(this).log().subtract(ONE.subtract(this).log());
+    return new Complex(log.re / 2, log.im / 2);
+  }
+
+  double abs() {
+    if (isReal()) {
+      return Math.abs(re);
+    }
+    return Math.hypot(re, im);
+  }
+
+  double arg() {
+    if (re == 0 && im == 0) {
+      return Double.NaN;
+    }
+    // Adding zero turns a negative zero into a positive one
+    return Math.atan2(im + 0.0, re + 0.0);
+  }
+
+  double norm() {
+    return re * re + im * im;
+  }
+
+  private static Complex multiplyI(Complex value) {
+    return new Complex(-value.im, value.re);
+  }
+
+  private Complex multiplyMinusI() {
+    return new Complex(im, -re);
+  }
+}
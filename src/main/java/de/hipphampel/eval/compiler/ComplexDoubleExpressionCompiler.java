@@ -0,0 +1,397 @@
+package de.hipphampel.eval.compiler;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import de.hipphampel.eval.Context;
+import de.hipphampel.eval.definition.Definition;
+import de.hipphampel.eval.definition.FunctionDefinition;
+import de.hipphampel.eval.definition.StandardFunctions;
+import de.hipphampel.eval.definition.ValueDefinition;
+import de.hipphampel.eval.exception.EvalException;
+import de.hipphampel.eval.expr.Add;
+import de.hipphampel.eval.expr.BoundFunctionCall;
+import de.hipphampel.eval.expr.Div;
+import de.hipphampel.eval.expr.Expression;
+import de.hipphampel.eval.expr.FunctionCall;
+import de.hipphampel.eval.expr.Let;
+import de.hipphampel.eval.expr.Mul;
+import de.hipphampel.eval.expr.Neg;
+import de.hipphampel.eval.expr.Pow;
+import de.hipphampel.eval.expr.Sub;
+import de.hipphampel.eval.expr.Temp;
+import de.hipphampel.eval.expr.Value;
+import de.hipphampel.eval.expr.ValueName;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BinaryOperator;
+import java.util.function.UnaryOperator;
+import org.apfloat.Apcomplex;
+
+/**
+ * Compiles {@link Expression Expressions} for evaluation with complex numbers made of two
+ * {@code doubles}.
+ * <p>
+ * This is the complex counterpart of the {@link DoubleExpressionCompiler}: if a precision of at
+ * most {@link #MAX_PRECISION} digits is sufficient, the {@link Apcomplex} arithmetic can be
+ * replaced by a pair of {@code doubles} for the real and imaginary part, which is much faster:
+ * <ul>
+ *   <li>The arithmetic operations and the functions of {@link StandardFunctions} are calculated
+ *   with {@code doubles}, using the same branch cuts like
+ *   {@link org.apfloat.ApcomplexMath ApcomplexMath}</li>
+ *   <li>{@link Value Values}, constants and all other {@link Expression#isInvariant(Context)
+ *   invariant} subexpressions are evaluated once at compile time using {@code Apcomplex}</li>
+ *   <li>Other functions and expression types unknown to the compiler are evaluated using
+ *   {@code Apcomplex}, with their arguments and results converted</li>
+ * </ul>
+ * <p>
+ * The final result is converted back to an {@code Apcomplex} with the precision of the
+ * {@link Context}. Intermediate results follow the IEEE 754 arithmetic, so for example a division
+ * by zero does not fail immediately; but an infinite or {@link Double#NaN NaN} final result causes
+ * an {@link ArithmeticException}. Apart from that, the results are the same as the ones of the
+ * {@code Apcomplex} based evaluation, except for rounding errors in the last digits.
+ * <p>
+ * Since variables and functions are resolved at compile time, the {@code Expression} must only
+ * refer to names already defined in the {@code Context}.
+ */
+public final class ComplexDoubleExpressionCompiler {
+
+  /**
+   * The maximum precision that can be represented by a {@code double}.
+   */
+  public static final long MAX_PRECISION = 16;
+
+  private static final Map<FunctionDefinition, UnaryOperator<Complex>> UNARY_BUILTINS =
+      unaryBuiltins();
+
+  private static final Map<FunctionDefinition, BinaryOperator<Complex>> BINARY_BUILTINS =
+      Map.of(StandardFunctions.LOG, (a, b) -> a.log().divide(b.log()));
+
+  private static final Complex[] NO_TEMPS = new Complex[0];
+
+  private ComplexDoubleExpressionCompiler() {
+  }
+
+  /**
+   * Compiles the given {@code expression} for {@code context}.
+   *
+   * @param context    The {@link Context}
+   * @param expression The {@link Expression}
+   * @return The {@link CompiledExpression}
+   * @throws EvalException If the {@code expression} refers to unknown names or calls a function
+   *                       with a wrong number of arguments
+   */
+  public static CompiledExpression compile(Context<?, ?> context, Expression expression) {
+    Translator translator = new Translator(context);
+    Node root = translator.translate(expression);
+    return new Compiled(context, expression, root, translator.frameSize);
+  }
+
+  /**
+   * Evaluates the given {@code expression} once using complex {@code double} arithmetic.
+   * <p>
+   * The result is the same as the one of the {@link CompiledExpression} returned by
+   * {@link #compile(Context, Expression) compile}, except that invariant subexpressions are not
+   * evaluated using {@link Apcomplex}. Since nothing is prepared for subsequent evaluations, this
+   * is cheaper than compiling if the {@code Expression} is evaluated only once.
+   *
+   * @param context    The {@link Context}
+   * @param expression The {@link Expression}
+   * @return The result
+   * @throws EvalException       If the {@code expression} refers to unknown names or calls a
+   *                             function with a wrong number of arguments
+   * @throws ArithmeticException If the result is not finite
+   */
+  public static Apcomplex evaluate(Context<?, ?> context, Expression expression) {
+    return evaluateComplex(context, expression).toApcomplex(context.precision());
+  }
+
+  private static Complex evaluateComplex(Context<?, ?> context, Expression expression) {
+    if (expression instanceof Value value) {
+      return Complex.valueOf(value.value());
+    } else if (expression instanceof ValueName valueName) {
+      return Complex.valueOf(valueDefinition(context, valueName.name()).value(context));
+    } else if (expression instanceof Neg neg) {
+      return evaluateComplex(context, neg.arg()).negate();
+    } else if (expression instanceof Add add) {
+      return evaluateComplex(context, add.left()).add(evaluateComplex(context, add.right()));
+    } else if (expression instanceof Sub sub) {
+      return evaluateComplex(context, sub.left()).subtract(evaluateComplex(context, sub.right()));
+    } else if (expression instanceof Mul mul) {
+      return evaluateComplex(context, mul.left()).multiply(evaluateComplex(context, mul.right()));
+    } else if (expression instanceof Div div) {
+      return evaluateComplex(context, div.left()).divide(evaluateComplex(context, div.right()));
+    } else if (expression instanceof Pow pow) {
+      return evaluateComplex(context, pow.left()).pow(evaluateComplex(context, pow.right()));
+    } else if (expression instanceof FunctionCall call) {
+      return evaluateFunctionCall(context, call.name(), call.arguments());
+    } else if (expression instanceof BoundFunctionCall call) {
+      return evaluateFunctionCall(context, call.name(), call.arguments());
+    } else if (expression instanceof Let) {
+      // The definitions need a frame, which only the translated form has
+      Translator translator = new Translator(context);
+      Node root = translator.translate(expression);
+      return root.evaluate(new Complex[translator.frameSize]);
+    }
+    return Complex.valueOf(expression.evaluate(context));
+  }
+
+  private static Complex evaluateFunctionCall(Context<?, ?> context, String name,
+      List<? extends Expression> args) {
+    FunctionDefinition function = functionDefinition(context, name, args.size());
+    UnaryOperator<Complex> unary = UNARY_BUILTINS.get(function);
+    if (unary != null) {
+      return unary.apply(evaluateComplex(context, args.get(0)));
+    }
+    BinaryOperator<Complex> binary = BINARY_BUILTINS.get(function);
+    if (binary != null) {
+      return binary.apply(evaluateComplex(context, args.get(0)),
+          evaluateComplex(context, args.get(1)));
+    }
+    Complex[] values = new Complex[args.size()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = evaluateComplex(context, args.get(i));
+    }
+    return callFunction(context, function, values);
+  }
+
+  private static Complex callFunction(Context<?, ?> context, FunctionDefinition function,
+      Complex[] args) {
+    Apcomplex[] values = new Apcomplex[args.length];
+    for (int i = 0; i < values.length; i++) {
+      if (!args[i].isFinite()) {
+        return Complex.NAN;
+      }
+      values[i] = args[i].toApcomplex(context.precision());
+    }
+    return Complex.valueOf(function.evaluate(context, Arrays.asList(values)));
+  }
+
+  private static ValueDefinition valueDefinition(Context<?, ?> context, String name) {
+    Definition definition = context.definitionNames().get(name);
+    if (!(definition instanceof ValueDefinition value)) {
+      throw new EvalException("No such value '" + name + "'");
+    }
+    return value;
+  }
+
+  private static FunctionDefinition functionDefinition(Context<?, ?> context, String name,
+      int argCount) {
+    Definition definition = context.definitionNames().get(name);
+    if (!(definition instanceof FunctionDefinition function)) {
+      throw new EvalException("No such function '" + name + "'");
+    }
+    if (argCount < function.minArgs() || argCount > function.maxArgs()) {
+      throw new EvalException("Invalid parameter count for function '" + name + "'");
+    }
+    return function;
+  }
+
+  private static Map<FunctionDefinition, UnaryOperator<Complex>> unaryBuiltins() {
+    Map<FunctionDefinition, UnaryOperator<Complex>> builtins = new IdentityHashMap<>();
+    builtins.put(StandardFunctions.SIN, Complex::sin);
+    builtins.put(StandardFunctions.COS, Complex::cos);
+    builtins.put(StandardFunctions.TAN, Complex::tan);
+    builtins.put(StandardFunctions.ASIN, Complex::asin);
+    builtins.put(StandardFunctions.ACOS, Complex::acos);
+    builtins.put(StandardFunctions.ATAN, Complex::atan);
+    builtins.put(StandardFunctions.SINH, Complex::sinh);
+    builtins.put(StandardFunctions.COSH, Complex::cosh);
+    builtins.put(StandardFunctions.TANH, Complex::tanh);
+    builtins.put(StandardFunctions.ASINH, Complex::asinh);
+    builtins.put(StandardFunctions.ACOSH, Complex::acosh);
+    builtins.put(StandardFunctions.ATANH, Complex::atanh);
+    builtins.put(StandardFunctions.LN, Complex::log);
+    builtins.put(StandardFunctions.REAL, z -> new Complex(z.re(), 0));
+    builtins.put(StandardFunctions.IMAG, z -> new Complex(z.im(), 0));
+    builtins.put(StandardFunctions.NORM, z -> new Complex(z.norm(), 0));
+    builtins.put(StandardFunctions.ARG, z -> new Complex(z.arg(), 0));
+    builtins.put(StandardFunctions.ABS, z -> new Complex(z.abs(), 0));
+    return builtins;
+  }
+
+  // The frame holds the values of the definitions of the Lets
+  @FunctionalInterface
+  private interface Node {
+
+    Complex evaluate(Complex[] frame);
+  }
+
+  private record Compiled(Context<?, ?> context, Expression expression, Node root,
+      int frameSize) implements CompiledExpression {
+
+    @Override
+    public Apcomplex evaluate() {
+      Complex[] frame = frameSize == 0 ? NO_TEMPS : new Complex[frameSize];
+      return root.evaluate(frame).toApcomplex(context.precision());
+    }
+  }
+
+  private record Conversion(Apcomplex source, Complex value) {
+
+  }
+
+  private static class Translator {
+
+    private final Context<?, ?> context;
+    private final Invariants invariants;
+    private int[] slots = new int[0];
+    private int frameSize;
+
+    Translator(Context<?, ?> context) {
+      this.context = context;
+      this.invariants = new Invariants(context);
+    }
+
+    Node translate(Expression expression) {
+      if (expression instanceof Value value) {
+        return constant(Complex.valueOf(value.value()));
+      } else if (invariants.isInvariant(expression)) {
+        Node folded = fold(expression);
+        if (folded != null) {
+          return folded;
+        }
+      }
+
+      if (expression instanceof ValueName valueName) {
+        return valueName(valueName.name());
+      } else if (expression instanceof Neg neg) {
+        Node arg = translate(neg.arg());
+        return frame -> arg.evaluate(frame).negate();
+      } else if (expression instanceof Add add) {
+        Node left = translate(add.left());
+        Node right = translate(add.right());
+        return frame -> left.evaluate(frame).add(right.evaluate(frame));
+      } else if (expression instanceof Sub sub) {
+        Node left = translate(sub.left());
+        Node right = translate(sub.right());
+        return frame -> left.evaluate(frame).subtract(right.evaluate(frame));
+      } else if (expression instanceof Mul mul) {
+        Node left = translate(mul.left());
+        Node right = translate(mul.right());
+        return frame -> left.evaluate(frame).multiply(right.evaluate(frame));
+      } else if (expression instanceof Div div) {
+        Node left = translate(div.left());
+        Node right = translate(div.right());
+        return frame -> left.evaluate(frame).divide(right.evaluate(frame));
+      } else if (expression instanceof Pow pow) {
+        Node left = translate(pow.left());
+        Node right = translate(pow.right());
+        return frame -> left.evaluate(frame).pow(right.evaluate(frame));
+      } else if (expression instanceof FunctionCall call) {
+        return functionCall(call.name(), call.arguments());
+      } else if (expression instanceof BoundFunctionCall call) {
+        return functionCall(call.name(), call.arguments());
+      } else if (expression instanceof Let let) {
+        return let(let);
+      } else if (expression instanceof Temp temp) {
+        if (temp.index() < 0 || temp.index() >= slots.length) {
+          throw new EvalException("Temporary #" + temp.index() + " is not defined");
+        }
+        int slot = slots[temp.index()];
+        return frame -> frame[slot];
+      }
+      return frame -> Complex.valueOf(expression.evaluate(context));
+    }
+
+    private Node let(Let let) {
+      int[] outer = slots;
+      slots = new int[0];
+      Node[] definitions = new Node[let.definitions().size()];
+      for (int i = 0; i < definitions.length; i++) {
+        definitions[i] = translate(let.definitions().get(i));
+        slots = Arrays.copyOf(slots, slots.length + 1);
+        slots[i] = frameSize++;
+      }
+      int[] definitionSlots = slots;
+      Node body = translate(let.body());
+      slots = outer;
+      return frame -> {
+        for (int i = 0; i < definitions.length; i++) {
+          frame[definitionSlots[i]] = definitions[i].evaluate(frame);
+        }
+        return body.evaluate(frame);
+      };
+    }
+
+    private Node fold(Expression expression) {
+      try {
+        return constant(Complex.valueOf(expression.evaluate(context)));
+      } catch (RuntimeException e) {
+        // Fails at runtime as well, so leave the error to the evaluation
+        return null;
+      }
+    }
+
+    private static Node constant(Complex value) {
+      return frame -> value;
+    }
+
+    private Node valueName(String name) {
+      ValueDefinition value = valueDefinition(context, name);
+      return new Node() {
+        private Conversion conversion = new Conversion(null, Complex.NAN);
+
+        @Override
+        public Complex evaluate(Complex[] frame) {
+          Apcomplex current = value.value(context);
+          Conversion last = conversion;
+          if (last.source != current) {
+            last = new Conversion(current, Complex.valueOf(current));
+            conversion = last;
+          }
+          return last.value;
+        }
+      };
+    }
+
+    private Node functionCall(String name, List<? extends Expression> args) {
+      FunctionDefinition function = functionDefinition(context, name, args.size());
+      UnaryOperator<Complex> unary = UNARY_BUILTINS.get(function);
+      if (unary != null) {
+        Node arg = translate(args.get(0));
+        return frame -> unary.apply(arg.evaluate(frame));
+      }
+      BinaryOperator<Complex> binary = BINARY_BUILTINS.get(function);
+      if (binary != null) {
+        Node left = translate(args.get(0));
+        Node right = translate(args.get(1));
+        return frame -> binary.apply(left.evaluate(frame), right.evaluate(frame));
+      }
+
+      Node[] argNodes = args.stream().map(this::translate).toArray(Node[]::new);
+      return frame -> {
+        Complex[] values = new Complex[argNodes.length];
+        for (int i = 0; i < values.length; i++) {
+          values[i] = argNodes[i].evaluate(frame);
+        }
+        return callFunction(context, function, values);
+      };
+    }
+  }
+}
@@ -0,0 +1,439 @@
+package de.hipphampel.eval.compiler;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import de.hipphampel.eval.Context;
+import de.hipphampel.eval.definition.Definition;
+import de.hipphampel.eval.definition.FunctionDefinition;
+import de.hipphampel.eval.definition.StandardFunctions;
+import de.hipphampel.eval.definition.ValueDefinition;
+import de.hipphampel.eval.exception.EvalException;
+import de.hipphampel.eval.expr.Add;
+import de.hipphampel.eval.expr.BoundFunctionCall;
+import de.hipphampel.eval.expr.Div;
+import de.hipphampel.eval.expr.Expression;
+import de.hipphampel.eval.expr.FunctionCall;
+import de.hipphampel.eval.expr.Let;
+import de.hipphampel.eval.expr.Mul;
+import de.hipphampel.eval.expr.Neg;
+import de.hipphampel.eval.expr.Pow;
+import de.hipphampel.eval.expr.Sub;
+import de.hipphampel.eval.expr.Temp;
+import de.hipphampel.eval.expr.Value;
+import de.hipphampel.eval.expr.ValueName;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+import org.apfloat.Apcomplex;
+import org.apfloat.Apfloat;
+
+/**
+ * Compiles {@link Expression Expressions} for evaluation with primitive {@code doubles}.
+ * <p>
+ * The normal evaluation is based on {@link Apcomplex}, even for a
+ * {@link de.hipphampel.eval.DoubleContext DoubleContext}, so each operation allocates
+ * arbitrary-precision numbers. The {@link DoubleExpression DoubleExpressions} returned by
+ * {@link #compile(Context, Expression) compile} evaluate with {@code double} arithmetic instead:
+ * <ul>
+ *   <li>The arithmetic operations use the Java operators, {@link Pow} uses
+ *   {@link Math#pow(double, double)}</li>
+ *   <li>The functions of {@link StandardFunctions} are mapped to the corresponding methods of
+ *   {@link Math}</li>
+ *   <li>{@link Value Values}, constants and all other {@link Expression#isInvariant(Context)
+ *   invariant} subexpressions are evaluated once at compile time using {@code Apcomplex}</li>
+ *   <li>Other functions and expression types unknown to the compiler are evaluated using
+ *   {@code Apcomplex}, with their arguments and results converted</li>
+ * </ul>
+ * <p>
+ * Like {@link de.hipphampel.eval.DoubleContext DoubleContext} maps a complex result to
+ * {@link Double#NaN NaN}, the double evaluation produces {@code NaN} for a complex result, for
+ * example for {@code ln(-1)}. Since invariant subexpressions are evaluated using {@code Apcomplex},
+ * their intermediate results may be complex, so {@code ((-1)^0.5)^2} is {@code -1} as with the
+ * {@code Apcomplex} based evaluation. In contrast, {@code double} arithmetic cannot represent a
+ * complex intermediate result depending on a variable, so {@code (x^0.5)^2} is {@code NaN} for
+ * negative {@code x}; this is intended, since falling back to {@code Apcomplex} would defeat the
+ * purpose of the compiler. Since the arithmetic follows IEEE 754,
+ * operations like a division by zero result in infinite values or {@code NaN} rather than an
+ * exception. Apart from that, the results are the same as the ones of the {@code Apcomplex} based
+ * evaluation, except for rounding errors in the last digits.
+ * <p>
+ * Since variables and functions are resolved at compile time, the {@code Expression} must only
+ * refer to names already defined in the {@code Context}.
+ */
+public final class DoubleExpressionCompiler {
+
+  static final Map<FunctionDefinition, DoubleUnaryOperator> UNARY_BUILTINS =
+      unaryBuiltins();
+
+  static final Map<FunctionDefinition, DoubleBinaryOperator> BINARY_BUILTINS =
+      Map.of(StandardFunctions.LOG, (a, b) -> Math.log(a) / Math.log(b));
+
+  private static final double[] NO_TEMPS = new double[0];
+
+  private DoubleExpressionCompiler() {
+  }
+
+  /**
+   * Compiles the given {@code expression} for {@code context}.
+   *
+   * @param context    The {@link Context}
+   * @param expression The {@link Expression}
+   * @return The {@link DoubleExpression}
+   * @throws EvalException If the {@code expression} refers to unknown names or calls a function
+   *                       with a wrong number of arguments
+   */
+  public static DoubleExpression compile(Context<?, ?> context, Expression expression) {
+    Translator translator = new Translator(context);
+    Node root = translator.translate(expression);
+    return new Compiled(context, expression, root, translator.frameSize);
+  }
+
+  /**
+   * Converts the given {@link Apcomplex} to a {@code double}.
+   * <p>
+   * Returns {@link Double#NaN NaN}, if {@code value} has an imaginary part.
+   *
+   * @param value The value
+   * @return The {@code double}
+   */
+  static double toDouble(Apcomplex value) {
+    if (value.imag().signum() != 0) {
+      return Double.NaN;
+    }
+    return value.real().doubleValue();
+  }
+
+  /**
+   * Evaluates the given {@code expression} once using {@code double} arithmetic.
+   * <p>
+   * The result is the same as the one of the {@link DoubleExpression} returned by
+   * {@link #compile(Context, Expression) compile}; like there, invariant subexpressions are
+   * evaluated using {@link Apcomplex}. Since nothing is prepared for subsequent evaluations, this
+   * is cheaper than compiling if the {@code Expression} is evaluated only once.
+   *
+   * @param context    The {@link Context}
+   * @param expression The {@link Expression}
+   * @return The result
+   * @throws EvalException If the {@code expression} refers to unknown names or calls a function
+   *                       with a wrong number of arguments
+   */
+  public static double evaluate(Context<?, ?> context, Expression expression) {
+    return evaluate(context, new Invariants(context), expression);
+  }
+
+  private static double evaluate(Context<?, ?> context, Invariants invariants,
+      Expression expression) {
+    if (expression instanceof Value value) {
+      return toDouble(value.value());
+    }
+    Double folded = fold(context, invariants, expression);
+    if (folded != null) {
+      return folded;
+    } else if (expression instanceof ValueName valueName) {
+      return toDouble(valueDefinition(context, valueName.name()).value(context));
+    } else if (expression instanceof Neg neg) {
+      return -evaluate(context, invariants, neg.arg());
+    } else if (expression instanceof Add add) {
+      return evaluate(context, invariants, add.left())
+          + evaluate(context, invariants, add.right());
+    } else if (expression instanceof Sub sub) {
+      return evaluate(context, invariants, sub.left())
+          - evaluate(context, invariants, sub.right());
+    } else if (expression instanceof Mul mul) {
+      return evaluate(context, invariants, mul.left())
+          * evaluate(context, invariants, mul.right());
+    } else if (expression instanceof Div div) {
+      return evaluate(context, invariants, div.left())
+          / evaluate(context, invariants, div.right());
+    } else if (expression instanceof Pow pow) {
+      return Math.pow(evaluate(context, invariants, pow.left()),
+          evaluate(context, invariants, pow.right()));
+    } else if (expression instanceof FunctionCall call) {
+      return evaluateFunctionCall(context, invariants, call.name(), call.arguments());
+    } else if (expression instanceof BoundFunctionCall call) {
+      return evaluateFunctionCall(context, invariants, call.name(), call.arguments());
+    } else if (expression instanceof Let) {
+      // The definitions need a frame, which only the translated form has
+      Translator translator = new Translator(context);
+      Node root = translator.translate(expression);
+      return root.evaluate(new double[translator.frameSize]);
+    }
+    return toDouble(expression.evaluate(context));
+  }
+
+  private static double evaluateFunctionCall(Context<?, ?> context, Invariants invariants,
+      String name, List<? extends Expression> args) {
+    FunctionDefinition function = functionDefinition(context, name, args.size());
+    DoubleUnaryOperator unary = UNARY_BUILTINS.get(function);
+    if (unary != null) {
+      return unary.applyAsDouble(evaluate(context, invariants, args.get(0)));
+    }
+    DoubleBinaryOperator binary = BINARY_BUILTINS.get(function);
+    if (binary != null) {
+      return binary.applyAsDouble(evaluate(context, invariants, args.get(0)),
+          evaluate(context, invariants, args.get(1)));
+    }
+    double[] values = new double[args.size()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = evaluate(context, invariants, args.get(i));
+    }
+    return callFunction(context, function, values);
+  }
+
+  /**
+   * Evaluates {@code expression} using {@link Apcomplex}, if it is invariant.
+   * <p>
+   * So complex intermediate results of invariant subexpressions do not turn into
+   * {@link Double#NaN NaN}. Returns {@code null}, if the {@code expression} is not invariant or its
+   * evaluation fails; in the latter case the {@code double} evaluation is left to report the error
+   * in its own way.
+   *
+   * @param context    The {@link Context}
+   * @param invariants The {@link Invariants} of the {@code context}
+   * @param expression The {@link Expression}
+   * @return The result or {@code null}
+   */
+  static Double fold(Context<?, ?> context, Invariants invariants, Expression expression) {
+    if (!invariants.isInvariant(expression)) {
+      return null;
+    }
+    try {
+      return toDouble(expression.evaluate(context));
+    } catch (RuntimeException e) {
+      return null;
+    }
+  }
+
+  static double callFunction(Context<?, ?> context, FunctionDefinition function,
+      double[] args) {
+    Apcomplex[] values = new Apcomplex[args.length];
+    for (int i = 0; i < values.length; i++) {
+      if (!Double.isFinite(args[i])) {
+        return Double.NaN;
+      }
+      values[i] = new Apcomplex(new Apfloat(args[i], context.precision()));
+    }
+    return toDouble(function.evaluate(context, Arrays.asList(values)));
+  }
+
+  static ValueDefinition valueDefinition(Context<?, ?> context, String name) {
+    Definition definition = context.definitionNames().get(name);
+    if (!(definition instanceof ValueDefinition value)) {
+      throw new EvalException("No such value '" + name + "'");
+    }
+    return value;
+  }
+
+  static FunctionDefinition functionDefinition(Context<?, ?> context, String name,
+      int argCount) {
+    Definition definition = context.definitionNames().get(name);
+    if (!(definition instanceof FunctionDefinition function)) {
+      throw new EvalException("No such function '" + name + "'");
+    }
+    if (argCount < function.minArgs() || argCount > function.maxArgs()) {
+      throw new EvalException("Invalid parameter count for function '" + name + "'");
+    }
+    return function;
+  }
+
+  private static Map<FunctionDefinition, DoubleUnaryOperator> unaryBuiltins() {
+    Map<FunctionDefinition, DoubleUnaryOperator> builtins = new IdentityHashMap<>();
+    builtins.put(StandardFunctions.SIN, Math::sin);
+    builtins.put(StandardFunctions.COS, Math::cos);
+    builtins.put(StandardFunctions.TAN, Math::tan);
+    builtins.put(StandardFunctions.ASIN, Math::asin);
+    builtins.put(StandardFunctions.ACOS, Math::acos);
+    builtins.put(StandardFunctions.ATAN, Math::atan);
+    builtins.put(StandardFunctions.SINH, Math::sinh);
+    builtins.put(StandardFunctions.COSH, Math::cosh);
+    builtins.put(StandardFunctions.TANH, Math::tanh);
+    builtins.put(StandardFunctions.ASINH,
+        x -> Math.copySign(Math.log(Math.abs(x) + Math.sqrt(x * x + 1)), x));
+    builtins.put(StandardFunctions.ACOSH,
+        x -> x < 1 ? Double.NaN : Math.log(x + Math.sqrt(x * x - 1)));
+    builtins.put(StandardFunctions.ATANH, x -> 0.5 * (Math.log1p(x) - Math.log1p(-x)));
+    builtins.put(StandardFunctions.LN, Math::log);
+    builtins.put(StandardFunctions.REAL, x -> x);
+    builtins.put(StandardFunctions.IMAG, x -> Double.isNaN(x) ? Double.NaN : 0);
+    builtins.put(StandardFunctions.NORM, x -> x * x);
+    builtins.put(StandardFunctions.ARG, x -> Double.isNaN(x) ? Double.NaN : x < 0 ? Math.PI : 0);
+    builtins.put(StandardFunctions.ABS, Math::abs);
+    return builtins;
+  }
+
+  // The frame holds the values of the definitions of the Lets
+  @FunctionalInterface
+  private interface Node {
+
+    double evaluate(double[] frame);
+  }
+
+  private record Compiled(Context<?, ?> context, Expression expression, Node root,
+      int frameSize) implements DoubleExpression {
+
+    @Override
+    public double evaluate() {
+      return root.evaluate(frameSize == 0 ? NO_TEMPS : new double[frameSize]);
+    }
+  }
+
+  private record Conversion(Apcomplex source, double value) {
+
+  }
+
+  private static class Translator {
+
+    private final Context<?, ?> context;
+    private final Invariants invariants;
+    private int[] slots = new int[0];
+    private int frameSize;
+
+    Translator(Context<?, ?> context) {
+      this.context = context;
+      this.invariants = new Invariants(context);
+    }
+
+    Node translate(Expression expression) {
+      if (expression instanceof Value value) {
+        return constant(toDouble(value.value()));
+      }
+      Double folded = fold(context, invariants, expression);
+      if (folded != null) {
+        return constant(folded);
+      }
+
+      if (expression instanceof ValueName valueName) {
+        return valueName(valueName.name());
+      } else if (expression instanceof Neg neg) {
+        Node arg = translate(neg.arg());
+        return frame -> -arg.evaluate(frame);
+      } else if (expression instanceof Add add) {
+        Node left = translate(add.left());
+        Node right = translate(add.right());
+        return frame -> left.evaluate(frame) + right.evaluate(frame);
+      } else if (expression instanceof Sub sub) {
+        Node left = translate(sub.left());
+        Node right = translate(sub.right());
+        return frame -> left.evaluate(frame) - right.evaluate(frame);
+      } else if (expression instanceof Mul mul) {
+        Node left = translate(mul.left());
+        Node right = translate(mul.right());
+        return frame -> left.evaluate(frame) * right.evaluate(frame);
+      } else if (expression instanceof Div div) {
+        Node left = translate(div.left());
+        Node right = translate(div.right());
+        return frame -> left.evaluate(frame) / right.evaluate(frame);
+      } else if (expression instanceof Pow pow) {
+        Node left = translate(pow.left());
+        Node right = translate(pow.right());
+        return frame -> Math.pow(left.evaluate(frame), right.evaluate(frame));
+      } else if (expression instanceof FunctionCall call) {
+        return functionCall(call.name(), call.arguments());
+      } else if (expression instanceof BoundFunctionCall call) {
+        return functionCall(call.name(), call.arguments());
+      } else if (expression instanceof Let let) {
+        return let(let);
+      } else if (expression instanceof Temp temp) {
+        if (temp.index() < 0 || temp.index() >= slots.length) {
+          throw new EvalException("Temporary #" + temp.index() + " is not defined");
+        }
+        int slot = slots[temp.index()];
+        return frame -> frame[slot];
+      }
+      return frame -> toDouble(expression.evaluate(context));
+    }
+
+    private Node let(Let let) {
+      int[] outer = slots;
+      slots = new int[0];
+      Node[] definitions = new Node[let.definitions().size()];
+      for (int i = 0; i < definitions.length; i++) {
+        definitions[i] = translate(let.definitions().get(i));
+        slots = Arrays.copyOf(slots, slots.length + 1);
+        slots[i] = frameSize++;
+      }
+      int[] definitionSlots = slots;
+      Node body = translate(let.body());
+      slots = outer;
+      return frame -> {
+        for (int i = 0; i < definitions.length; i++) {
+          frame[definitionSlots[i]] = definitions[i].evaluate(frame);
+        }
+        return body.evaluate(frame);
+      };
+    }
+
+    private static Node constant(double value) {
+      return frame -> value;
+    }
+
+    private Node valueName(String name) {
+      ValueDefinition value = valueDefinition(context, name);
+      return new Node() {
+        private Conversion conversion = new Conversion(null, Double.NaN);
+
+        @Override
+        public double evaluate(double[] frame) {
+          Apcomplex current = value.value(context);
+          Conversion last = conversion;
+          if (last.source != current) {
+            last = new Conversion(current, toDouble(current));
+            conversion = last;
+          }
+          return last.value;
+        }
+      };
+    }
+
+    private Node functionCall(String name, List<? extends Expression> args) {
+      FunctionDefinition function = functionDefinition(context, name, args.size());
+      DoubleUnaryOperator unary = UNARY_BUILTINS.get(function);
+      if (unary != null) {
+        Node arg = translate(args.get(0));
+        return frame -> unary.applyAsDouble(arg.evaluate(frame));
+      }
+      DoubleBinaryOperator binary = BINARY_BUILTINS.get(function);
+      if (binary != null) {
+        Node left = translate(args.get(0));
+        Node right = translate(args.get(1));
+        return frame -> binary.applyAsDouble(left.evaluate(frame), right.evaluate(frame));
+      }
+
+      Node[] argNodes = args.stream().map(this::translate).toArray(Node[]::new);
+      return frame -> {
+        double[] values = new double[argNodes.length];
+        for (int i = 0; i < values.length; i++) {
+          values[i] = argNodes[i].evaluate(frame);
+        }
+        return callFunction(context, function, values);
+      };
+    }
+  }
+}
@@ -0,0 +1,381 @@
+package de.hipphampel.eval.compiler;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static java.lang.invoke.MethodType.methodType;
+
+import de.hipphampel.eval.Context;
+import de.hipphampel.eval.compiler.ClassFileWriter.Code;
+import de.hipphampel.eval.definition.Definition;
+import de.hipphampel.eval.definition.FunctionDefinition;
+import de.hipphampel.eval.definition.StandardFunctions;
+import de.hipphampel.eval.definition.ValueDefinition;
+import de.hipphampel.eval.definition.Variable;
+import de.hipphampel.eval.exception.EvalException;
+import de.hipphampel.eval.expr.Add;
+import de.hipphampel.eval.expr.BinaryExpression;
+import de.hipphampel.eval.expr.BoundFunctionCall;
+import de.hipphampel.eval.expr.Div;
+import de.hipphampel.eval.expr.Expression;
+import de.hipphampel.eval.expr.FunctionCall;
+import de.hipphampel.eval.expr.Let;
+import de.hipphampel.eval.expr.Mul;
+import de.hipphampel.eval.expr.Neg;
+import de.hipphampel.eval.expr.Pow;
+import de.hipphampel.eval.expr.Sub;
+import de.hipphampel.eval.expr.Temp;
+import de.hipphampel.eval.expr.Value;
+import de.hipphampel.eval.expr.ValueName;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apfloat.Apcomplex;
+import org.apfloat.ApcomplexMath;
+import org.apfloat.FixedPrecisionApcomplexHelper;
+
+/**
+ * Compiles {@link Expression Expressions} to Java bytecode.
+ * <p>
+ * The interpreter evaluates an {@code Expression} by walking the expression tree, which involves a
+ * virtual call per node. For formulas that are evaluated very often, {@link #compile(Context,
+ * Expression) compile} generates a class that evaluates the formula with straight-line code
+ * instead:
+ * <ul>
+ *   <li>The arithmetic operations directly call the corresponding methods of {@link Apcomplex}</li>
+ *   <li>{@link Value Values}, constants and all other {@link Expression#isInvariant(Context)
+ *   invariant} subexpressions are evaluated once at compile time</li>
+ *   <li>Variables and functions are resolved at compile time; the built-in functions of
+ *   {@link StandardFunctions} directly call the {@link FixedPrecisionApcomplexHelper} of the
+ *   {@code Context}</li>
+ *   <li>The definitions of a {@link Let} are evaluated once and kept in local variables</li>
+ *   <li>Expression types unknown to the compiler are evaluated via {@link
+ *   Expression#evaluate(Context)}</li>
+ * </ul>
+ * <p>
+ * The class is defined as a hidden class via {@link Lookup#defineHiddenClass(byte[], boolean,
+ * Lookup.ClassOption...) defineHiddenClass}, so it is unloaded as soon as the returned
+ * {@link CompiledExpression} is no longer referenced.
+ * <p>
+ * Since variables and functions are resolved at compile time, the {@code Expression} must only
+ * refer to names already defined in the {@code Context}.
+ */
+public final class ExpressionCompiler {
+
+  private static final String CLASS_NAME = "de/hipphampel/eval/compiler/Compiled";
+
+  private static final Method ADD = method(Apcomplex.class, "add", Apcomplex.class);
+  private static final Method SUBTRACT = method(Apcomplex.class, "subtract", Apcomplex.class);
+  private static final Method MULTIPLY = method(Apcomplex.class, "multiply", Apcomplex.class);
+  private static final Method DIVIDE = method(Apcomplex.class, "divide", Apcomplex.class);
+  private static final Method NEGATE = method(Apcomplex.class, "negate");
+  private static final Method POW = method(ApcomplexMath.class, "pow", Apcomplex.class,
+      Apcomplex.class);
+  private static final Method VALUE_OF = method(FixedPrecisionApcomplexHelper.class, "valueOf",
+      Apcomplex.class);
+  private static final Method VARIABLE_VALUE = method(Variable.class, "value", Context.class);
+  private static final Method VALUE_DEFINITION_VALUE = method(ValueDefinition.class, "value",
+      Context.class);
+  private static final Method FUNCTION_EVALUATE = method(FunctionDefinition.class, "evaluate",
+      Context.class, List.class);
+  private static final Method EXPRESSION_EVALUATE = method(Expression.class, "evaluate",
+      Context.class);
+  private static final Method AS_LIST = method(Arrays.class, "asList", Object[].class);
+
+  private static final Map<Class<?>, Method> BINARY_OPERATIONS = Map.of(
+      Add.class, ADD,
+      Sub.class, SUBTRACT,
+      Mul.class, MULTIPLY,
+      Div.class, DIVIDE,
+      Pow.class, POW);
+
+  private static final Map<FunctionDefinition, Method> BUILTINS = builtins();
+
+  private ExpressionCompiler() {
+  }
+
+  /**
+   * Compiles the given {@code expression} for {@code context}.
+   *
+   * @param context    The {@link Context}
+   * @param expression The {@link Expression}
+   * @return The {@link CompiledExpression}
+   * @throws EvalException If the {@code expression} refers to unknown names, calls a function with
+   *                       a wrong number of arguments, or is too large to be compiled
+   */
+  public static CompiledExpression compile(Context<?, ?> context, Expression expression) {
+    return new Generator(context, expression).generate();
+  }
+
+  private static Map<FunctionDefinition, Method> builtins() {
+    Map<FunctionDefinition, Method> builtins = new IdentityHashMap<>();
+    Class<?> helper = FixedPrecisionApcomplexHelper.class;
+    builtins.put(StandardFunctions.SIN, method(helper, "sin", Apcomplex.class));
+    builtins.put(StandardFunctions.COS, method(helper, "cos", Apcomplex.class));
+    builtins.put(StandardFunctions.TAN, method(helper, "tan", Apcomplex.class));
+    builtins.put(StandardFunctions.ASIN, method(helper, "asin", Apcomplex.class));
+    builtins.put(StandardFunctions.ACOS, method(helper, "acos", Apcomplex.class));
+    builtins.put(StandardFunctions.ATAN, method(helper, "atan", Apcomplex.class));
+    builtins.put(StandardFunctions.SINH, method(helper, "sinh", Apcomplex.class));
+    builtins.put(StandardFunctions.COSH, method(helper, "cosh", Apcomplex.class));
+    builtins.put(StandardFunctions.TANH, method(helper, "tanh", Apcomplex.class));
+    builtins.put(StandardFunctions.ASINH, method(helper, "asinh", Apcomplex.class));
+    builtins.put(StandardFunctions.ACOSH, method(helper, "acosh", Apcomplex.class));
+    builtins.put(StandardFunctions.ATANH, method(helper, "atanh", Apcomplex.class));
+    builtins.put(StandardFunctions.LN, method(helper, "log", Apcomplex.class));
+    builtins.put(StandardFunctions.LOG, method(helper, "log", Apcomplex.class, Apcomplex.class));
+    builtins.put(StandardFunctions.REAL, method(helper, "real", Apcomplex.class));
+    builtins.put(StandardFunctions.IMAG, method(helper, "imag", Apcomplex.class));
+    builtins.put(StandardFunctions.NORM, method(helper, "norm", Apcomplex.class));
+    builtins.put(StandardFunctions.ARG, method(helper, "arg", Apcomplex.class));
+    builtins.put(StandardFunctions.ABS, method(helper, "abs", Apcomplex.class));
+    return builtins;
+  }
+
+  private static Method method(Class<?> type, String name, Class<?>... parameterTypes) {
+    try {
+      return type.getMethod(name, parameterTypes);
+    } catch (NoSuchMethodException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static class Generator {
+
+    private final Context<?, ?> context;
+    private final Expression expression;
+    private final ClassFileWriter writer;
+    private final Invariants invariants;
+    private final List<Object> fieldValues = new ArrayList<>();
+    private final List<Class<?>> fieldTypes = new ArrayList<>();
+    private final Map<Object, Integer> fieldIndices = new IdentityHashMap<>();
+    private Code code;
+    private int[] temps = new int[0];
+    private int locals = 1;
+    private int maxLocals = 1;
+
+    Generator(Context<?, ?> context, Expression expression) {
+      this.context = context;
+      this.expression = expression;
+      this.writer = new ClassFileWriter(CLASS_NAME, Object.class, CompiledExpression.class);
+      this.invariants = new Invariants(context);
+    }
+
+    CompiledExpression generate() {
+      int contextField = field(context, Context.class);
+      int expressionField = field(expression, Expression.class);
+
+      code = writer.method("evaluate", methodType(Apcomplex.class));
+      emit(expression);
+      code.op(ClassFileWriter.ARETURN, -1).end(maxLocals);
+
+      code = writer.method("context", methodType(Context.class));
+      pushField(contextField);
+      code.op(ClassFileWriter.ARETURN, -1).end(1);
+
+      code = writer.method("expression", methodType(Expression.class));
+      pushField(expressionField);
+      code.op(ClassFileWriter.ARETURN, -1).end(1);
+
+      generateConstructor();
+      return instantiate(writer.toByteArray());
+    }
+
+    private void generateConstructor() {
+      code = writer.method("<init>", methodType(void.class, Object[].class));
+      code.op(ClassFileWriter.ALOAD_0, 1);
+      try {
+        code.invoke(Object.class.getConstructor());
+      } catch (NoSuchMethodException e) {
+        throw new IllegalStateException(e);
+      }
+      for (int i = 0; i < fieldTypes.size(); i++) {
+        Class<?> type = fieldTypes.get(i);
+        writer.field(fieldName(i), type);
+        code.op(ClassFileWriter.ALOAD_0, 1)
+            .op(ClassFileWriter.ALOAD_1, 1)
+            .pushInt(i)
+            .op(ClassFileWriter.AALOAD, -1)
+            .checkCast(type)
+            .putField(fieldName(i), type);
+      }
+      code.op(ClassFileWriter.RETURN, 0).end(2);
+    }
+
+    private CompiledExpression instantiate(byte[] bytes) {
+      try {
+        Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+        MethodHandle constructor = lookup.findConstructor(lookup.lookupClass(),
+            methodType(void.class, Object[].class));
+        return (CompiledExpression) constructor.invoke(fieldValues.toArray());
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable t) {
+        throw new EvalException("Failed to compile expression", t);
+      }
+    }
+
+    private void emit(Expression expression) {
+      if (expression instanceof Value value) {
+        pushField(field(value.value(), Apcomplex.class));
+      } else if (invariants.isInvariant(expression) && emitFolded(expression)) {
+        // Evaluated at compile time
+      } else if (expression instanceof ValueName valueName) {
+        emitValueName(valueName.name());
+      } else if (expression instanceof Neg neg) {
+        emit(neg.arg());
+        code.invoke(NEGATE);
+      } else if (BINARY_OPERATIONS.containsKey(expression.getClass())) {
+        BinaryExpression binary = (BinaryExpression) expression;
+        emit(binary.left());
+        emit(binary.right());
+        code.invoke(BINARY_OPERATIONS.get(expression.getClass()));
+      } else if (expression instanceof FunctionCall call) {
+        emitFunctionCall(call.name(), call.arguments());
+      } else if (expression instanceof BoundFunctionCall call) {
+        emitFunctionCall(call.name(), call.arguments());
+      } else if (expression instanceof Let let) {
+        emitLet(let);
+      } else if (expression instanceof Temp temp) {
+        if (temp.index() < 0 || temp.index() >= temps.length) {
+          throw new EvalException("Temporary #" + temp.index() + " is not defined");
+        }
+        code.load(temps[temp.index()]);
+      } else {
+        pushField(field(expression, Expression.class));
+        pushContext();
+        code.invoke(EXPRESSION_EVALUATE);
+      }
+    }
+
+    // Each definition is evaluated once into a local variable
+    private void emitLet(Let let) {
+      int[] outer = temps;
+      int first = locals;
+      temps = new int[0];
+      for (Expression definition : let.definitions()) {
+        emit(definition);
+        int local = locals++;
+        maxLocals = Math.max(maxLocals, locals);
+        code.store(local);
+        temps = Arrays.copyOf(temps, temps.length + 1);
+        temps[temps.length - 1] = local;
+      }
+      emit(let.body());
+      temps = outer;
+      locals = first;
+    }
+
+    private boolean emitFolded(Expression expression) {
+      Apcomplex value;
+      try {
+        value = expression.evaluate(context);
+      } catch (RuntimeException e) {
+        // Fails at runtime as well, so leave the error to the evaluation
+        return false;
+      }
+      pushField(field(value, Apcomplex.class));
+      return true;
+    }
+
+    private void emitValueName(String name) {
+      Definition definition = context.definitionNames().get(name);
+      if (definition instanceof Variable variable) {
+        pushField(field(variable, Variable.class));
+        pushContext();
+        code.invoke(VARIABLE_VALUE);
+      } else if (definition instanceof ValueDefinition value) {
+        pushField(field(value, ValueDefinition.class));
+        pushContext();
+        code.invoke(VALUE_DEFINITION_VALUE);
+      } else {
+        throw new EvalException("No such value '" + name + "'");
+      }
+    }
+
+    private void emitFunctionCall(String name, List<? extends Expression> args) {
+      Definition definition = context.definitionNames().get(name);
+      if (!(definition instanceof FunctionDefinition function)) {
+        throw new EvalException("No such function '" + name + "'");
+      }
+      if (args.size() < function.minArgs() || args.size() > function.maxArgs()) {
+        throw new EvalException("Invalid parameter count for function '" + name + "'");
+      }
+
+      Method builtin = BUILTINS.get(function);
+      if (builtin != null) {
+        int helperField = field(context.precisionHelper(), FixedPrecisionApcomplexHelper.class);
+        pushField(helperField);
+        for (Expression arg : args) {
+          pushField(helperField);
+          emit(arg);
+          code.invoke(VALUE_OF);
+        }
+        code.invoke(builtin);
+      } else {
+        pushField(field(function, FunctionDefinition.class));
+        pushContext();
+        code.pushInt(args.size()).newArray(Apcomplex.class);
+        for (int i = 0; i < args.size(); i++) {
+          code.op(ClassFileWriter.DUP, 1).pushInt(i);
+          emit(args.get(i));
+          code.op(ClassFileWriter.AASTORE, -3);
+        }
+        code.invoke(AS_LIST);
+        code.invoke(FUNCTION_EVALUATE);
+      }
+    }
+
+    private void pushContext() {
+      pushField(0);
+    }
+
+    private void pushField(int index) {
+      code.op(ClassFileWriter.ALOAD_0, 1).getField(fieldName(index), fieldTypes.get(index));
+    }
+
+    private int field(Object value, Class<?> type) {
+      Integer index = fieldIndices.get(value);
+      if (index == null || fieldTypes.get(index) != type) {
+        index = fieldValues.size();
+        fieldValues.add(value);
+        fieldTypes.add(type);
+        fieldIndices.put(value, index);
+      }
+      return index;
+    }
+
+    private static String fieldName(int index) {
+      return "f" + index;
+    }
+  }
+}
@@ -0,0 +1,93 @@
+package de.hipphampel.eval.compiler;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import de.hipphampel.eval.Context;
+import de.hipphampel.eval.expr.Add;
+import de.hipphampel.eval.expr.BinaryExpression;
+import de.hipphampel.eval.expr.BoundFunctionCall;
+import de.hipphampel.eval.expr.Div;
+import de.hipphampel.eval.expr.Expression;
+import de.hipphampel.eval.expr.FunctionCall;
+import de.hipphampel.eval.expr.Mul;
+import de.hipphampel.eval.expr.Neg;
+import de.hipphampel.eval.expr.Pow;
+import de.hipphampel.eval.expr.Sub;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Determines which subexpressions of an {@link Expression} are
+ * {@link Expression#isInvariant(Context) invariant}.
+ * <p>
+ * In contrast to calling {@code isInvariant} on each node, which visits the subtree again and
+ * again, the result is remembered per node, so that analyzing a complete tree takes linear time.
+ */
+final class Invariants {
+
+  private final Context<?, ?> context;
+  private final Map<Expression, Boolean> invariants = new IdentityHashMap<>();
+
+  Invariants(Context<?, ?> context) {
+    this.context = context;
+  }
+
+  boolean isInvariant(Expression expression) {
+    Boolean invariant = invariants.get(expression);
+    if (invariant == null) {
+      if (isKnownBinary(expression)) {
+        BinaryExpression binary = (BinaryExpression) expression;
+        invariant = isInvariant(binary.left()) && isInvariant(binary.right());
+      } else if (expression instanceof Neg neg) {
+        invariant = isInvariant(neg.arg());
+      } else if (expression instanceof FunctionCall call) {
+        invariant = allInvariant(call.arguments());
+      } else if (expression instanceof BoundFunctionCall call) {
+        invariant = allInvariant(call.arguments());
+      } else {
+        invariant = expression.isInvariant(context);
+      }
+      invariants.put(expression, invariant);
+    }
+    return invariant;
+  }
+
+  private boolean allInvariant(List<? extends Expression> expressions) {
+    for (Expression expression : expressions) {
+      if (!isInvariant(expression)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isKnownBinary(Expression expression) {
+    return expression instanceof Add || expression instanceof Sub || expression instanceof Mul
+        || expression instanceof Div || expression instanceof Pow;
+  }
+}
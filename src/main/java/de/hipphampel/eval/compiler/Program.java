@@ -0,0 +1,367 @@
+package de.hipphampel.eval.compiler;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import de.hipphampel.eval.Context;
+import de.hipphampel.eval.definition.Definition;
+import de.hipphampel.eval.definition.FunctionDefinition;
+import de.hipphampel.eval.definition.ValueDefinition;
+import de.hipphampel.eval.exception.EvalException;
+import de.hipphampel.eval.expr.Add;
+import de.hipphampel.eval.expr.Div;
+import de.hipphampel.eval.expr.Expression;
+import de.hipphampel.eval.expr.FunctionCall;
+import de.hipphampel.eval.expr.Mul;
+import de.hipphampel.eval.expr.Neg;
+import de.hipphampel.eval.expr.Pow;
+import de.hipphampel.eval.expr.Sub;
+import de.hipphampel.eval.expr.Value;
+import de.hipphampel.eval.expr.ValueName;
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.Arrays;
+import org.apfloat.Apcomplex;
+import org.apfloat.ApcomplexMath;
+
+/**
+ * An {@link Expression} lowered into a flat program for a register machine.
+ * <p>
+ * Instances are created by the {@link ProgramCompiler}. A program consists of an {@code int}
+ * array with the instructions, a pool of the literal values, and tables with the names of the
+ * values and functions it refers to. The machine has a fixed number of registers holding
+ * {@link Apcomplex} values: the first registers are initialized with the literal values, followed
+ * by one register per value name, which is initialized with the value from the {@link Context};
+ * the remaining registers hold the intermediate results.
+ * <p>
+ * Each instruction starts with its opcode, followed by the register receiving the result and the
+ * operands:
+ * <ul>
+ *   <li>{@code NEG dst, a}</li>
+ *   <li>{@code ADD|SUB|MUL|DIV|POW dst, a, b}</li>
+ *   <li>{@code CALL dst, function, n, arg1, ..., argn}</li>
+ * </ul>
+ * <p>
+ * Since a program refers to values and functions just by their names, it does not depend on a
+ * specific {@code Context} and might be {@link #evaluate(Context) evaluated} for different ones.
+ * For repeated evaluations, the names should be resolved once by {@link #link(Context) linking}
+ * the program. Programs are {@link Serializable}.
+ */
+public final class Program implements Serializable {
+
+  @Serial
+  private static final long serialVersionUID = 1L;
+
+  static final int NEG = 1;
+  static final int ADD = 2;
+  static final int SUB = 3;
+  static final int MUL = 4;
+  static final int DIV = 5;
+  static final int POW = 6;
+  static final int CALL = 7;
+
+  private final int[] code;
+  private final Apcomplex[] constants;
+  private final String[] values;
+  private final String[] functions;
+  private final int registerCount;
+  private final int result;
+  private transient Expression expression;
+
+  Program(int[] code, Apcomplex[] constants, String[] values, String[] functions,
+      int registerCount, int result, Expression expression) {
+    this.code = code;
+    this.constants = constants;
+    this.values = values;
+    this.functions = functions;
+    this.registerCount = registerCount;
+    this.result = result;
+    this.expression = expression;
+  }
+
+  /**
+   * Returns the {@link Expression} of this program.
+   * <p>
+   * This is the {@code Expression} the program was compiled from; for a deserialized program, it
+   * is reconstructed from the instructions, so {@link de.hipphampel.eval.expr.BoundFunctionCall
+   * BoundFunctionCalls} become {@link FunctionCall FunctionCalls}.
+   *
+   * @return The {@code Expression}
+   */
+  public Expression expression() {
+    if (expression == null) {
+      expression = toExpression();
+    }
+    return expression;
+  }
+
+  /**
+   * Returns the number of registers required to run this program.
+   *
+   * @return The number of registers
+   */
+  public int registerCount() {
+    return registerCount;
+  }
+
+  /**
+   * Returns the number of instructions of this program.
+   *
+   * @return The number of instructions
+   */
+  public int instructionCount() {
+    int count = 0;
+    for (int pc = 0; pc < code.length; pc = next(pc)) {
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Evaluates this program for the given {@code context}.
+   * <p>
+   * This is a shortcut for linking the program and evaluating it; the result is the same as the
+   * one of {@link Expression#evaluate(Context) evaluating} the original {@link Expression}.
+   *
+   * @param context The {@link Context}
+   * @return The result
+   * @throws EvalException If the program refers to unknown names or calls a function with a wrong
+   *                       number of arguments
+   */
+  public Apcomplex evaluate(Context<?, ?> context) {
+    return link(context).evaluate();
+  }
+
+  /**
+   * Links this program with the given {@code context}.
+   * <p>
+   * The values and functions the program refers to are resolved once, so the returned
+   * {@link CompiledExpression} just runs the instructions when evaluated.
+   *
+   * @param context The {@link Context}
+   * @return The {@link CompiledExpression}
+   * @throws EvalException If the program refers to unknown names or calls a function with a wrong
+   *                       number of arguments
+   */
+  public CompiledExpression link(Context<?, ?> context) {
+    ValueDefinition[] valueDefinitions = new ValueDefinition[values.length];
+    for (int i = 0; i < values.length; i++) {
+      Definition definition = context.definitionNames().get(values[i]);
+      if (!(definition instanceof ValueDefinition value)) {
+        throw new EvalException("No such value '" + values[i] + "'");
+      }
+      valueDefinitions[i] = value;
+    }
+    FunctionDefinition[] functionDefinitions = new FunctionDefinition[functions.length];
+    for (int i = 0; i < functions.length; i++) {
+      Definition definition = context.definitionNames().get(functions[i]);
+      if (!(definition instanceof FunctionDefinition function)) {
+        throw new EvalException("No such function '" + functions[i] + "'");
+      }
+      functionDefinitions[i] = function;
+    }
+    verify(functionDefinitions);
+    return new Linked(this, context, valueDefinitions, functionDefinitions);
+  }
+
+  private void verify(FunctionDefinition[] functionDefinitions) {
+    int temporaries = constants.length + values.length;
+    if (temporaries > registerCount) {
+      throw new EvalException("Invalid program");
+    }
+    boolean[] written = new boolean[registerCount];
+    Arrays.fill(written, 0, temporaries, true);
+    for (int pc = 0; pc < code.length; pc = next(pc)) {
+      int opcode = code[pc];
+      if (opcode < NEG || opcode > CALL || next(pc) > code.length
+          || (opcode == CALL && code[pc + 3] < 0)) {
+        throw new EvalException("Invalid program");
+      }
+      int firstOperand = pc + (opcode == CALL ? 4 : 2);
+      for (int i = firstOperand; i < next(pc); i++) {
+        if (code[i] < 0 || code[i] >= registerCount || !written[code[i]]) {
+          throw new EvalException("Invalid program");
+        }
+      }
+      int target = code[pc + 1];
+      if (target < temporaries || target >= registerCount) {
+        throw new EvalException("Invalid program");
+      }
+      written[target] = true;
+      if (opcode == CALL) {
+        int index = code[pc + 2];
+        if (index < 0 || index >= functionDefinitions.length) {
+          throw new EvalException("Invalid program");
+        }
+        FunctionDefinition function = functionDefinitions[index];
+        if (code[pc + 3] < function.minArgs() || code[pc + 3] > function.maxArgs()) {
+          throw new EvalException(
+              "Invalid parameter count for function '" + functions[index] + "'");
+        }
+      }
+    }
+    if (result < 0 || result >= registerCount || !written[result]) {
+      throw new EvalException("Invalid program");
+    }
+  }
+
+  private int next(int pc) {
+    return switch (code[pc]) {
+      case NEG -> pc + 3;
+      case CALL -> pc + 3 < code.length ? pc + 4 + Math.max(0, code[pc + 3]) : code.length + 1;
+      default -> pc + 4;
+    };
+  }
+
+  private Expression toExpression() {
+    Expression[] registers = new Expression[registerCount];
+    for (int i = 0; i < constants.length; i++) {
+      registers[i] = new Value(constants[i]);
+    }
+    for (int i = 0; i < values.length; i++) {
+      registers[constants.length + i] = new ValueName(values[i]);
+    }
+    for (int pc = 0; pc < code.length; pc = next(pc)) {
+      registers[code[pc + 1]] = switch (code[pc]) {
+        case NEG -> new Neg(registers[code[pc + 2]]);
+        case ADD -> new Add(registers[code[pc + 2]], registers[code[pc + 3]]);
+        case SUB -> new Sub(registers[code[pc + 2]], registers[code[pc + 3]]);
+        case MUL -> new Mul(registers[code[pc + 2]], registers[code[pc + 3]]);
+        case DIV -> new Div(registers[code[pc + 2]], registers[code[pc + 3]]);
+        case POW -> new Pow(registers[code[pc + 2]], registers[code[pc + 3]]);
+        default -> {
+          Expression[] args = new Expression[code[pc + 3]];
+          for (int i = 0; i < args.length; i++) {
+            args[i] = registers[code[pc + 4 + i]];
+          }
+          yield new FunctionCall(functions[code[pc + 2]], Arrays.asList(args));
+        }
+      };
+    }
+    return registers[result];
+  }
+
+  /**
+   * Returns a listing of the instructions.
+   *
+   * @return The listing
+   */
+  @Override
+  public String toString() {
+    StringBuilder buffer = new StringBuilder();
+    for (int i = 0; i < constants.length; i++) {
+      buffer.append("r").append(i).append(" = ").append(constants[i]).append('\n');
+    }
+    for (int i = 0; i < values.length; i++) {
+      buffer.append("r").append(constants.length + i).append(" = ").append(values[i]).append('\n');
+    }
+    for (int pc = 0; pc < code.length; pc = next(pc)) {
+      int opcode = code[pc];
+      buffer.append(switch (opcode) {
+        case NEG -> "NEG";
+        case ADD -> "ADD";
+        case SUB -> "SUB";
+        case MUL -> "MUL";
+        case DIV -> "DIV";
+        case POW -> "POW";
+        default -> "CALL";
+      }).append(" r").append(code[pc + 1]);
+      if (opcode == CALL) {
+        buffer.append(", ").append(functions[code[pc + 2]]);
+        for (int i = 0; i < code[pc + 3]; i++) {
+          buffer.append(", r").append(code[pc + 4 + i]);
+        }
+      } else {
+        for (int i = pc + 2; i < next(pc); i++) {
+          buffer.append(", r").append(code[i]);
+        }
+      }
+      buffer.append('\n');
+    }
+    return buffer.append("RETURN r").append(result).toString();
+  }
+
+  private record Linked(Program program, Context<?, ?> context, ValueDefinition[] values,
+                        FunctionDefinition[] functions) implements CompiledExpression {
+
+    @Override
+    public Expression expression() {
+      return program.expression();
+    }
+
+    @Override
+    public Apcomplex evaluate() {
+      Apcomplex[] registers = new Apcomplex[program.registerCount];
+      Apcomplex[] constants = program.constants;
+      System.arraycopy(constants, 0, registers, 0, constants.length);
+      for (int i = 0; i < values.length; i++) {
+        registers[constants.length + i] = values[i].value(context);
+      }
+
+      int[] code = program.code;
+      int pc = 0;
+      while (pc < code.length) {
+        switch (code[pc]) {
+          case NEG -> {
+            registers[code[pc + 1]] = registers[code[pc + 2]].negate();
+            pc += 3;
+          }
+          case ADD -> {
+            registers[code[pc + 1]] = registers[code[pc + 2]].add(registers[code[pc + 3]]);
+            pc += 4;
+          }
+          case SUB -> {
+            registers[code[pc + 1]] = registers[code[pc + 2]].subtract(registers[code[pc + 3]]);
+            pc += 4;
+          }
+          case MUL -> {
+            registers[code[pc + 1]] = registers[code[pc + 2]].multiply(registers[code[pc + 3]]);
+            pc += 4;
+          }
+          case DIV -> {
+            registers[code[pc + 1]] = registers[code[pc + 2]].divide(registers[code[pc + 3]]);
+            pc += 4;
+          }
+          case POW -> {
+            registers[code[pc + 1]] =
+                ApcomplexMath.pow(registers[code[pc + 2]], registers[code[pc + 3]]);
+            pc += 4;
+          }
+          default -> {
+            Apcomplex[] args = new Apcomplex[code[pc + 3]];
+            for (int i = 0; i < args.length; i++) {
+              args[i] = registers[code[pc + 4 + i]];
+            }
+            registers[code[pc + 1]] = functions[code[pc + 2]].evaluate(context,
+                Arrays.asList(args));
+            pc += 4 + args.length;
+          }
+        }
+      }
+      return registers[program.result];
+    }
+  }
+}
@@ -0,0 +1,270 @@
+package de.hipphampel.eval.compiler;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import de.hipphampel.eval.exception.EvalException;
+import de.hipphampel.eval.expr.Add;
+import de.hipphampel.eval.expr.BinaryExpression;
+import de.hipphampel.eval.expr.BoundFunctionCall;
+import de.hipphampel.eval.expr.Div;
+import de.hipphampel.eval.expr.Expression;
+import de.hipphampel.eval.expr.FunctionCall;
+import de.hipphampel.eval.expr.Let;
+import de.hipphampel.eval.expr.Mul;
+import de.hipphampel.eval.expr.Neg;
+import de.hipphampel.eval.expr.Pow;
+import de.hipphampel.eval.expr.Sub;
+import de.hipphampel.eval.expr.Temp;
+import de.hipphampel.eval.expr.Value;
+import de.hipphampel.eval.expr.ValueName;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apfloat.Apcomplex;
+
+/**
+ * Lowers {@link Expression Expressions} into {@link Program Programs}.
+ * <p>
+ * In contrast to the {@link ExpressionCompiler}, which generates a class per {@code Expression},
+ * the compilation just produces a few arrays, so it is cheap enough for expressions that are
+ * evaluated only a few times. The compilation does not need a
+ * {@link de.hipphampel.eval.Context Context}, names are resolved when the {@code Program} is
+ * linked.
+ * <p>
+ * Equal literal values and value names share a register. The registers for the intermediate
+ * results are reused as soon as the result has been consumed, so the number of registers depends
+ * on the depth of the expression rather than on its size. The definitions of a
+ * {@link Let} are evaluated once and keep their registers while the body is evaluated; afterwards
+ * the result of the body is written to the first of these registers and the others are
+ * released.
+ */
+public final class ProgramCompiler {
+
+  private ProgramCompiler() {
+  }
+
+  /**
+   * Compiles the given {@code expression} into a {@link Program}.
+   *
+   * @param expression The {@link Expression}
+   * @return The {@code Program}
+   * @throws EvalException If the {@code expression} contains a type of node not supported by
+   *                       programs
+   */
+  public static Program compile(Expression expression) {
+    return new Generator().generate(expression);
+  }
+
+  private record ConstantKey(Apcomplex value, long precision) {
+
+  }
+
+  private static class Generator {
+
+    private final Map<ConstantKey, Integer> constants = new LinkedHashMap<>();
+    private final Map<String, Integer> values = new LinkedHashMap<>();
+    private final Map<String, Integer> functions = new LinkedHashMap<>();
+    private int[] code = new int[16];
+    private int length;
+    private int instruction;
+    private int temporaries;
+    private int top;
+    private int[] temps = new int[0];
+
+    Program generate(Expression expression) {
+      collect(expression);
+      temporaries = constants.size() + values.size();
+      top = temporaries;
+      int result = emit(expression);
+      return new Program(
+          Arrays.copyOf(code, length),
+          constants.keySet().stream().map(ConstantKey::value).toArray(Apcomplex[]::new),
+          values.keySet().toArray(String[]::new),
+          functions.keySet().toArray(String[]::new),
+          registerCount(),
+          result,
+          expression);
+    }
+
+    private void collect(Expression expression) {
+      if (expression instanceof Value value) {
+        constants.putIfAbsent(constantKey(value), constants.size());
+      } else if (expression instanceof ValueName valueName) {
+        values.putIfAbsent(valueName.name(), values.size());
+      } else if (expression instanceof Neg neg) {
+        collect(neg.arg());
+      } else if (expression instanceof BinaryExpression binary) {
+        collect(binary.left());
+        collect(binary.right());
+      } else if (expression instanceof FunctionCall call) {
+        collectFunctionCall(call.name(), call.arguments());
+      } else if (expression instanceof BoundFunctionCall call) {
+        collectFunctionCall(call.name(), call.arguments());
+      } else if (expression instanceof Let let) {
+        let.definitions().forEach(this::collect);
+        collect(let.body());
+      } else if (!(expression instanceof Temp)) {
+        throw new EvalException(
+            "Unsupported expression type '" + expression.getClass().getName() + "'");
+      }
+    }
+
+    private void collectFunctionCall(String name, List<? extends Expression> args) {
+      functions.putIfAbsent(name, functions.size());
+      args.forEach(this::collect);
+    }
+
+    private int emit(Expression expression) {
+      if (expression instanceof Value value) {
+        return constants.get(constantKey(value));
+      } else if (expression instanceof ValueName valueName) {
+        return constants.size() + values.get(valueName.name());
+      } else if (expression instanceof Neg neg) {
+        int arg = emit(neg.arg());
+        release(arg);
+        int target = allocate();
+        instruction = length;
+        add(Program.NEG, target, arg);
+        return target;
+      } else if (expression instanceof BinaryExpression binary) {
+        int left = emit(binary.left());
+        int right = emit(binary.right());
+        release(right);
+        release(left);
+        int target = allocate();
+        instruction = length;
+        add(opcode(binary), target, left, right);
+        return target;
+      } else if (expression instanceof FunctionCall call) {
+        return emitFunctionCall(call.name(), call.arguments());
+      } else if (expression instanceof Let let) {
+        return emitLet(let);
+      } else if (expression instanceof Temp temp) {
+        if (temp.index() < 0 || temp.index() >= temps.length) {
+          throw new EvalException("Temporary #" + temp.index() + " is not defined");
+        }
+        return temps[temp.index()];
+      }
+      BoundFunctionCall call = (BoundFunctionCall) expression;
+      return emitFunctionCall(call.name(), call.arguments());
+    }
+
+    private int emitLet(Let let) {
+      int[] outer = temps;
+      int floor = temporaries;
+      int first = top;
+      temps = new int[0];
+      for (Expression definition : let.definitions()) {
+        temps = Arrays.copyOf(temps, temps.length + 1);
+        temps[temps.length - 1] = emit(definition);
+        // Keeps the registers of the definitions until the body has been evaluated
+        temporaries = top;
+      }
+      int result = emit(let.body());
+      temps = outer;
+      temporaries = floor;
+      if (result < first) {
+        top = first;
+        return result;
+      }
+      if (result != first && code[instruction + 1] == result) {
+        // The last instruction is the only one writing the result, so it may overwrite the
+        // definitions, which are not read anymore
+        code[instruction + 1] = first;
+        result = first;
+      }
+      top = result + 1;
+      return result;
+    }
+
+    private int emitFunctionCall(String name, List<? extends Expression> args) {
+      int[] registers = new int[args.size()];
+      for (int i = 0; i < registers.length; i++) {
+        registers[i] = emit(args.get(i));
+      }
+      for (int i = registers.length - 1; i >= 0; i--) {
+        release(registers[i]);
+      }
+      int target = allocate();
+      instruction = length;
+      add(Program.CALL, target, functions.get(name), registers.length);
+      add(registers);
+      return target;
+    }
+
+    private static int opcode(BinaryExpression expression) {
+      if (expression instanceof Add) {
+        return Program.ADD;
+      } else if (expression instanceof Sub) {
+        return Program.SUB;
+      } else if (expression instanceof Mul) {
+        return Program.MUL;
+      } else if (expression instanceof Div) {
+        return Program.DIV;
+      } else if (expression instanceof Pow) {
+        return Program.POW;
+      }
+      throw new EvalException(
+          "Unsupported expression type '" + expression.getClass().getName() + "'");
+    }
+
+    private static ConstantKey constantKey(Value value) {
+      return new ConstantKey(value.value(), value.value().precision());
+    }
+
+    private int allocate() {
+      return top++;
+    }
+
+    private int registerCount() {
+      // Counts the registers actually written, since the target of the last instruction of a
+      // Let body might have been moved to a lower register
+      int count = constants.size() + values.size();
+      for (int pc = 0; pc < length; pc += code[pc] == Program.NEG ? 3
+          : code[pc] == Program.CALL ? 4 + code[pc + 3] : 4) {
+        count = Math.max(count, code[pc + 1] + 1);
+      }
+      return count;
+    }
+
+    private void release(int register) {
+      // Intermediate results are consumed in reverse order of their creation
+      if (register >= temporaries && register == top - 1) {
+        top--;
+      }
+    }
+
+    private void add(int... values) {
+      if (length + values.length > code.length) {
+        code = Arrays.copyOf(code, Math.max(2 * code.length, length + values.length));
+      }
+      System.arraycopy(values, 0, code, length, values.length);
+      length += values.length;
+    }
+  }
+}
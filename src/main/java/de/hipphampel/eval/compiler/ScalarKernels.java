@@ -0,0 +1,153 @@
+package de.hipphampel.eval.compiler;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+/**
+ * {@link ColumnKernels} using plain loops, which might be vectorized by the JIT compiler.
+ * <p>
+ * The results are exactly the ones of the corresponding {@code double} operators and
+ * {@link Math} functions.
+ */
+final class ScalarKernels implements ColumnKernels {
+
+  static final ScalarKernels INSTANCE = new ScalarKernels();
+
+  private ScalarKernels() {
+  }
+
+  @Override
+  public void add(double[] left, double[] right, double[] target, int rows) {
+    for (int i = 0; i < rows; i++) {
+      target[i] = left[i] + right[i];
+    }
+  }
+
+  @Override
+  public void add(double[] left, double right, double[] target, int rows) {
+    for (int i = 0; i < rows; i++) {
+      target[i] = left[i] + right;
+    }
+  }
+
+  @Override
+  public void subtract(double[] left, double[] right, double[] target, int rows) {
+    for (int i = 0; i < rows; i++) {
+      target[i] = left[i] - right[i];
+    }
+  }
+
+  @Override
+  public void subtract(double[] left, double right, double[] target, int rows) {
+    for (int i = 0; i < rows; i++) {
+      target[i] = left[i] - right;
+    }
+  }
+
+  @Override
+  public void subtract(double left, double[] right, double[] target, int rows) {
+    for (int i = 0; i < rows; i++) {
+      target[i] = left - right[i];
+    }
+  }
+
+  @Override
+  public void multiply(double[] left, double[] right, double[] target, int rows) {
+    for (int i = 0; i < rows; i++) {
+      target[i] = left[i] * right[i];
+    }
+  }
+
+  @Override
+  public void multiply(double[] left, double right, double[] target, int rows) {
+    for (int i = 0; i < rows; i++) {
+      target[i] = left[i] * right;
+    }
+  }
+
+  @Override
+  public void divide(double[] left, double[] right, double[] target, int rows) {
+    for (int i = 0; i < rows; i++) {
+      target[i] = left[i] / right[i];
+    }
+  }
+
+  @Override
+  public void divide(double[] left, double right, double[] target, int rows) {
+    for (int i = 0; i < rows; i++) {
+      target[i] = left[i] / right;
+    }
+  }
+
+  @Override
+  public void divide(double left, double[] right, double[] target, int rows) {
+    for (int i = 0; i < rows; i++) {
+      target[i] = left / right[i];
+    }
+  }
+
+  @Override
+  public void negate(double[] arg, double[] target, int rows) {
+    for (int i = 0; i < rows; i++) {
+      target[i] = -arg[i];
+    }
+  }
+
+  @Override
+  public void pow(double[] base, int exponent, double[] target, int rows) {
+    for (int i = 0; i < rows; i++) {
+      target[i] = Math.pow(base[i], exponent);
+    }
+  }
+
+  @Override
+  public void pow(double base, double[] exponent, double[] target, int rows) {
+    for (int i = 0; i < rows; i++) {
+      target[i] = Math.pow(base, exponent[i]);
+    }
+  }
+
+  @Override
+  public void sin(double[] arg, double[] target, int rows) {
+    for (int i = 0; i < rows; i++) {
+      target[i] = Math.sin(arg[i]);
+    }
+  }
+
+  @Override
+  public void cos(double[] arg, double[] target, int rows) {
+    for (int i = 0; i < rows; i++) {
+      target[i] = Math.cos(arg[i]);
+    }
+  }
+
+  @Override
+  public void log(double[] arg, double[] target, int rows) {
+    for (int i = 0; i < rows; i++) {
+      target[i] = Math.log(arg[i]);
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package de.hipphampel.eval.definition;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.util.Objects;
+import org.apfloat.Apcomplex;
+
+/**
+ * The partial derivative of a function with respect to one of its arguments.
+ * <p>
+ * Since not all functions of this library are holomorphic (e.g. {@code real} or {@code abs}), a
+ * derivative consists of the two Wirtinger derivatives: {@code value} is the derivative with
+ * respect to the argument {@code z}, and {@code conjugate} is the one with respect to its complex
+ * conjugate. For a holomorphic function, {@code value} is the usual complex derivative and
+ * {@code conjugate} is zero.
+ *
+ * @param value     The derivative with respect to {@code z}
+ * @param conjugate The derivative with respect to the conjugate of {@code z}
+ * @see FunctionDefinition#derivatives(de.hipphampel.eval.Context, java.util.List, Apcomplex)
+ */
+public record Derivative(Apcomplex value, Apcomplex conjugate) {
+
+  /**
+   * Constructor.
+   *
+   * @param value     The derivative with respect to {@code z}
+   * @param conjugate The derivative with respect to the conjugate of {@code z}
+   */
+  public Derivative {
+    Objects.requireNonNull(value);
+    Objects.requireNonNull(conjugate);
+  }
+
+  /**
+   * Creates the {@code Derivative} of a holomorphic function.
+   *
+   * @param value The complex derivative
+   * @return The {@code Derivative}
+   */
+  public static Derivative holomorphic(Apcomplex value) {
+    return new Derivative(value, Apcomplex.ZERO);
+  }
+
+  /**
+   * Checks, whether this is the {@code Derivative} of a holomorphic function.
+   *
+   * @return {@code true}, if {@code conjugate} is zero
+   */
+  public boolean isHolomorphic() {
+    return conjugate.equals(Apcomplex.ZERO);
+  }
+}
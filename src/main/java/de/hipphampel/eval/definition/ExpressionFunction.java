@@ -76,6 +76,36 @@ public class ExpressionFunction implements FunctionDefinition {
     return name;
   }
 
+  /**
+   * The parameter names.
+   *
+   * @return The parameter names
+   */
+  public List<String> parameters() {
+    return parameters;
+  }
+
+  /**
+   * The simplified {@link Expression} the function is defined by.
+   * <p>
+   * The parameters appear in it as {@link de.hipphampel.eval.expr.ValueName ValueNames}, the
+   * constants are already replaced with their values.
+   *
+   * @return The {@code Expression}
+   */
+  public Expression definition() {
+    return definition;
+  }
+
+  /**
+   * The precision used to evaluate the {@link #definition() definition}.
+   *
+   * @return The precision
+   */
+  public long precision() {
+    return innerContext.precision();
+  }
+
   @Override
   public int minArgs() {
     return parameters.size();
@@ -28,6 +28,7 @@ package de.hipphampel.eval.definition;
 
 import java.util.List;
 import de.hipphampel.eval.Context;
+import de.hipphampel.eval.exception.EvalException;
 import org.apfloat.Apcomplex;
 
 
@@ -63,4 +64,24 @@ public interface FunctionDefinition extends Definition {
    * @return The function result
    */
   Apcomplex evaluate(Context<?, ?> context, List<Apcomplex> args);
+
+  /**
+   * Calculates the partial derivatives of this function.
+   * <p>
+   * This is the hook used by {@link de.hipphampel.eval.expr.Gradients automatic
+   * differentiation}. The result contains one {@link Derivative} per argument, describing the
+   * derivative with respect to that argument at {@code args}. The default implementation fails,
+   * so a function not overriding this method can be part of a differentiated expression only if
+   * its arguments do not depend on any variable.
+   *
+   * @param context The {@link Context} to use.
+   * @param args    The arguments the function has been evaluated with
+   * @param result  The result of {@link #evaluate(Context, List) evaluate} for {@code args}
+   * @return The {@code Derivatives}, one per argument
+   * @throws EvalException If this function cannot be differentiated
+   */
+  default List<Derivative> derivatives(Context<?, ?> context, List<Apcomplex> args,
+      Apcomplex result) {
+    throw new EvalException("Function '" + name() + "' cannot be differentiated");
+  }
 }
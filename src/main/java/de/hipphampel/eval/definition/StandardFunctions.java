@@ -30,6 +30,7 @@ import de.hipphampel.eval.Context;
 import java.util.List;
 import java.util.function.BiFunction;
 import org.apfloat.Apcomplex;
+import org.apfloat.Apfloat;
 import org.apfloat.FixedPrecisionApcomplexHelper;
 
 /**
@@ -37,119 +38,155 @@ import org.apfloat.FixedPrecisionApcomplexHelper;
  */
 public class StandardFunctions {
 
+  private static final Apcomplex ONE = Apcomplex.ONE;
+  private static final Apcomplex MINUS_ONE = ONE.negate();
+  // Exact values, so they do not limit the precision of the derivatives
+  private static final Apcomplex HALF = new Apcomplex(new Apfloat("0.5", Apfloat.INFINITE));
+  private static final Apcomplex HALF_I = new Apcomplex(Apfloat.ZERO, HALF.real());
+  private static final Apcomplex MINUS_HALF_I = HALF_I.negate();
+
   /**
    * Sinus. Works for complex numbers.
    */
-  public static final FunctionDefinition SIN = builtin("sin", FixedPrecisionApcomplexHelper::sin);
+  public static final FunctionDefinition SIN = builtin("sin", FixedPrecisionApcomplexHelper::sin,
+      (h, a, r) -> holomorphic(h.cos(a)));
 
   /**
    * Cosinus. Works for complex numbers.
    */
-  public static final FunctionDefinition COS = builtin("cos", FixedPrecisionApcomplexHelper::cos);
+  public static final FunctionDefinition COS = builtin("cos", FixedPrecisionApcomplexHelper::cos,
+      (h, a, r) -> holomorphic(h.negate(h.sin(a))));
 
   /**
    * Tangens. Works for complex numbers.
    */
-  public static final FunctionDefinition TAN = builtin("tan", FixedPrecisionApcomplexHelper::tan);
+  public static final FunctionDefinition TAN = builtin("tan", FixedPrecisionApcomplexHelper::tan,
+      (h, a, r) -> holomorphic(h.add(ONE, h.multiply(r, r))));
 
   /**
    * Arcus sinus. Works for complex numbers.
    */
   public static final FunctionDefinition ASIN = builtin("asin",
-      FixedPrecisionApcomplexHelper::asin);
+      FixedPrecisionApcomplexHelper::asin,
+      (h, a, r) -> holomorphic(h.divide(ONE, h.sqrt(h.subtract(ONE, h.multiply(a, a))))));
 
   /**
    * Arcus cosinus. Works for complex numbers.
    */
   public static final FunctionDefinition ACOS = builtin("acos",
-      FixedPrecisionApcomplexHelper::acos);
+      FixedPrecisionApcomplexHelper::acos,
+      (h, a, r) -> holomorphic(h.divide(MINUS_ONE, h.sqrt(h.subtract(ONE, h.multiply(a, a))))));
 
   /**
    * Arcus tangens. Works for complex numbers.
    */
   public static final FunctionDefinition ATAN = builtin("atan",
-      FixedPrecisionApcomplexHelper::atan);
+      FixedPrecisionApcomplexHelper::atan,
+      (h, a, r) -> holomorphic(h.divide(ONE, h.add(ONE, h.multiply(a, a)))));
 
   /**
    * Sinus hyperbolicus. Works for complex numbers.
    */
   public static final FunctionDefinition SINH = builtin("sinh",
-      FixedPrecisionApcomplexHelper::sinh);
+      FixedPrecisionApcomplexHelper::sinh, (h, a, r) -> holomorphic(h.cosh(a)));
 
   /**
    * Cosinus hyperbolicus. Works for complex numbers.
    */
   public static final FunctionDefinition COSH = builtin("cosh",
-      FixedPrecisionApcomplexHelper::cosh);
+      FixedPrecisionApcomplexHelper::cosh, (h, a, r) -> holomorphic(h.sinh(a)));
 
   /**
    * Tangens hyperbolicus. Works for complex numbers.
    */
   public static final FunctionDefinition TANH = builtin("tanh",
-      FixedPrecisionApcomplexHelper::tanh);
+      FixedPrecisionApcomplexHelper::tanh,
+      (h, a, r) -> holomorphic(h.subtract(ONE, h.multiply(r, r))));
 
   /**
    * Arcus sinus hyperbolicus. Works for complex numbers.
    */
   public static final FunctionDefinition ASINH = builtin("asinh",
-      FixedPrecisionApcomplexHelper::asinh);
+      FixedPrecisionApcomplexHelper::asinh,
+      (h, a, r) -> holomorphic(h.divide(ONE, h.sqrt(h.add(h.multiply(a, a), ONE)))));
 
   /**
    * Arcus cosinus hyperbolicus. Works for complex numbers.
    */
   public static final FunctionDefinition ACOSH = builtin("acosh",
-      FixedPrecisionApcomplexHelper::acosh);
+      FixedPrecisionApcomplexHelper::acosh,
+      (h, a, r) -> holomorphic(h.divide(ONE,
+          h.multiply(h.sqrt(h.subtract(a, ONE)), h.sqrt(h.add(a, ONE))))));
 
   /**
    * Arcus tangens hyperbolicus. Works for complex numbers.
    */
   public static final FunctionDefinition ATANH = builtin("atanh",
-      FixedPrecisionApcomplexHelper::atanh);
+      FixedPrecisionApcomplexHelper::atanh,
+      (h, a, r) -> holomorphic(h.divide(ONE, h.subtract(ONE, h.multiply(a, a)))));
 
   /**
    * Logarithmus naturalis. Works for complex numbers.
    */
   public static final FunctionDefinition LN = builtin("ln",
-      (BiFunction<FixedPrecisionApcomplexHelper, Apcomplex, Apcomplex>) FixedPrecisionApcomplexHelper::log);
+      (BiFunction<FixedPrecisionApcomplexHelper, Apcomplex, Apcomplex>) FixedPrecisionApcomplexHelper::log,
+      (h, a, r) -> holomorphic(h.divide(ONE, a)));
 
   /**
    * Logarithmus in arbitrary base. Works for complex numbers.
    */
-  public static final FunctionDefinition LOG = builtin("log", (h, a, b) -> h.log(a, b));
+  public static final FunctionDefinition LOG = builtin("log", (h, a, b) -> h.log(a, b),
+      (h, a, b, r) -> {
+        Apcomplex lnB = h.log(b);
+        return List.of(holomorphic(h.divide(ONE, h.multiply(a, lnB))),
+            holomorphic(h.negate(h.divide(r, h.multiply(b, lnB)))));
+      });
 
   /**
    * Real part of a complex number.
    */
-  public static final FunctionDefinition REAL = builtin("real", FixedPrecisionApcomplexHelper::real);
+  public static final FunctionDefinition REAL = builtin("real", FixedPrecisionApcomplexHelper::real,
+      (h, a, r) -> new Derivative(HALF, HALF));
 
   /**
    * Imaginary part of a complex number.
    */
-  public static final FunctionDefinition IMAG = builtin("imag", FixedPrecisionApcomplexHelper::imag);
+  public static final FunctionDefinition IMAG = builtin("imag", FixedPrecisionApcomplexHelper::imag,
+      (h, a, r) -> new Derivative(MINUS_HALF_I, HALF_I));
 
   /**
    * Norm of a complex number.
    */
-  public static final FunctionDefinition NORM = builtin("norm", FixedPrecisionApcomplexHelper::norm);
+  public static final FunctionDefinition NORM = builtin("norm", FixedPrecisionApcomplexHelper::norm,
+      (h, a, r) -> new Derivative(h.conj(a), a));
 
   /**
    * Arg of a complex number.
    */
-  public static final FunctionDefinition ARG = builtin("arg", FixedPrecisionApcomplexHelper::arg);
+  public static final FunctionDefinition ARG = builtin("arg", FixedPrecisionApcomplexHelper::arg,
+      (h, a, r) -> new Derivative(h.divide(MINUS_HALF_I, a), h.divide(HALF_I, h.conj(a))));
 
   /**
    * Absolute value.
    */
-  public static final FunctionDefinition ABS = builtin("abs", FixedPrecisionApcomplexHelper::abs);
+  public static final FunctionDefinition ABS = builtin("abs", FixedPrecisionApcomplexHelper::abs,
+      (h, a, r) -> new Derivative(h.divide(h.conj(a), h.add(r, r)), h.divide(a, h.add(r, r))));
 
   private static FunctionDefinition builtin(String name,
-      BiFunction<FixedPrecisionApcomplexHelper, Apcomplex, Apcomplex> builtin) {
-    return new UnaryBultinFunction(name, builtin);
+      BiFunction<FixedPrecisionApcomplexHelper, Apcomplex, Apcomplex> builtin,
+      TriFunction<FixedPrecisionApcomplexHelper, Apcomplex, Apcomplex, Derivative> derivative) {
+    return new UnaryBultinFunction(name, builtin, derivative);
   }
 
   private static FunctionDefinition builtin(String name,
-      TriFunction<FixedPrecisionApcomplexHelper, Apcomplex, Apcomplex, Apcomplex> builtin) {
-    return new BinaryBultinFunction(name, builtin);
+      TriFunction<FixedPrecisionApcomplexHelper, Apcomplex, Apcomplex, Apcomplex> builtin,
+      QuadFunction<FixedPrecisionApcomplexHelper, Apcomplex, Apcomplex, Apcomplex,
+          List<Derivative>> derivative) {
+    return new BinaryBultinFunction(name, builtin, derivative);
+  }
+
+  private static Derivative holomorphic(Apcomplex value) {
+    return Derivative.holomorphic(value);
   }
 
   @FunctionalInterface
@@ -158,6 +195,12 @@ public class StandardFunctions {
     R apply(A a, B b, C c);
   }
 
+  @FunctionalInterface
+  private interface QuadFunction<A, B, C, D, R> {
+
+    R apply(A a, B b, C c, D d);
+  }
+
   private static abstract class FixedArgCountFunction implements FunctionDefinition {
 
     private final String name;
@@ -191,27 +234,43 @@ public class StandardFunctions {
   private static class UnaryBultinFunction extends FixedArgCountFunction {
 
     private final BiFunction<FixedPrecisionApcomplexHelper, Apcomplex, Apcomplex> bultin;
+    private final TriFunction<FixedPrecisionApcomplexHelper, Apcomplex, Apcomplex,
+        Derivative> derivative;
 
     UnaryBultinFunction(String name,
-        BiFunction<FixedPrecisionApcomplexHelper, Apcomplex, Apcomplex> bultin) {
+        BiFunction<FixedPrecisionApcomplexHelper, Apcomplex, Apcomplex> bultin,
+        TriFunction<FixedPrecisionApcomplexHelper, Apcomplex, Apcomplex, Derivative> derivative) {
       super(name, 1);
       this.bultin = bultin;
+      this.derivative = derivative;
     }
 
     @Override
     public Apcomplex evaluate(Context<?, ?> context, List<Apcomplex> args) {
       return bultin.apply(context.precisionHelper(), validateValue(context, args.get(0)));
     }
+
+    @Override
+    public List<Derivative> derivatives(Context<?, ?> context, List<Apcomplex> args,
+        Apcomplex result) {
+      return List.of(derivative.apply(context.precisionHelper(),
+          validateValue(context, args.get(0)), result));
+    }
   }
 
   private static class BinaryBultinFunction extends FixedArgCountFunction {
 
     private final TriFunction<FixedPrecisionApcomplexHelper, Apcomplex, Apcomplex, Apcomplex> bultin;
+    private final QuadFunction<FixedPrecisionApcomplexHelper, Apcomplex, Apcomplex, Apcomplex,
+        List<Derivative>> derivative;
 
     BinaryBultinFunction(String name,
-        TriFunction<FixedPrecisionApcomplexHelper, Apcomplex, Apcomplex, Apcomplex> bultin) {
+        TriFunction<FixedPrecisionApcomplexHelper, Apcomplex, Apcomplex, Apcomplex> bultin,
+        QuadFunction<FixedPrecisionApcomplexHelper, Apcomplex, Apcomplex, Apcomplex,
+            List<Derivative>> derivative) {
       super(name, 2);
       this.bultin = bultin;
+      this.derivative = derivative;
     }
 
     @Override
@@ -219,6 +278,13 @@ public class StandardFunctions {
       return bultin.apply(context.precisionHelper(), validateValue(context, args.get(0)),
           validateValue(context, args.get(1)));
     }
+
+    @Override
+    public List<Derivative> derivatives(Context<?, ?> context, List<Apcomplex> args,
+        Apcomplex result) {
+      return derivative.apply(context.precisionHelper(), validateValue(context, args.get(0)),
+          validateValue(context, args.get(1)), result);
+    }
   }
 
 
@@ -27,6 +27,9 @@ package de.hipphampel.eval.definition;
  */
 
 import de.hipphampel.eval.Context;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 import org.apfloat.Apcomplex;
 
@@ -34,12 +37,14 @@ import org.apfloat.Apcomplex;
  * Represents a {@link ValueDefinition} with a mutable value.
  * <p>
  * In opposite to a {@link Constant} this instance allows to modify the value by setting it via
- * {@link #value(Context, Apcomplex)}
+ * {@link #value(Context, Apcomplex)}. {@link Listener Listeners} can be registered to get notified
+ * about changes of the value, e.g. to invalidate cached values derived from it.
  */
 public class Variable implements ValueDefinition {
 
   private final String name;
   private Apcomplex value;
+  private List<WeakReference<Listener>> listeners = List.of();
 
   /**
    * Constructor.
@@ -71,6 +76,45 @@ public class Variable implements ValueDefinition {
    */
   public void value(Context<?, ?> context, Apcomplex value) {
     this.value = Objects.requireNonNull(value).precision(context.precision());
+    if (!listeners.isEmpty()) {
+      notifyListeners();
+    }
+  }
+
+  /**
+   * Registers a {@link Listener} that is notified each time the value of this instance is set.
+   * <p>
+   * The {@code listener} is referenced weakly, so that registering it does not prevent it from
+   * being garbage collected; the caller has to keep a strong reference to it as long as it should
+   * be notified.
+   *
+   * @param listener The {@code Listener}
+   */
+  public void addListener(Listener listener) {
+    Objects.requireNonNull(listener);
+    List<WeakReference<Listener>> copy = new ArrayList<>(listeners.size() + 1);
+    for (WeakReference<Listener> reference : listeners) {
+      if (reference.get() != null) {
+        copy.add(reference);
+      }
+    }
+    copy.add(new WeakReference<>(listener));
+    listeners = copy;
+  }
+
+  private void notifyListeners() {
+    boolean cleared = false;
+    for (WeakReference<Listener> reference : listeners) {
+      Listener listener = reference.get();
+      if (listener != null) {
+        listener.changed(this);
+      } else {
+        cleared = true;
+      }
+    }
+    if (cleared) {
+      listeners = listeners.stream().filter(reference -> reference.get() != null).toList();
+    }
   }
 
   @Override
@@ -94,4 +138,18 @@ public class Variable implements ValueDefinition {
   public String toString() {
     return "Variable{" + "name='" + name + '\'' + ", value=" + value + '}';
   }
+
+  /**
+   * Gets notified when the value of a {@link Variable} is set.
+   */
+  @FunctionalInterface
+  public interface Listener {
+
+    /**
+     * Called after the value of {@code variable} has been set.
+     *
+     * @param variable The {@link Variable}
+     */
+    void changed(Variable variable);
+  }
 }
@@ -0,0 +1,183 @@
+package de.hipphampel.eval.expr;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import de.hipphampel.eval.Context;
+import java.util.ArrayList;
+import java.util.List;
+import org.apfloat.Apcomplex;
+import org.apfloat.Apfloat;
+
+/**
+ * Algebraic simplification of {@link Expression Expressions}.
+ * <p>
+ * {@link Expression#simplify(Context) Expression.simplify} only folds invariant subexpressions
+ * into {@link Value Values}. {@link #simplify(Context, Expression) simplify} additionally applies
+ * rewrites that are safe for complex arithmetic:
+ * <ul>
+ *   <li>Neutral elements are removed: {@code x+0}, {@code 0+x}, {@code x-0}, {@code x*1},
+ *   {@code 1*x}, {@code x/1} and {@code x^1} become {@code x}, and {@code --x} becomes
+ *   {@code x}.</li>
+ *   <li>Negations are folded into subtractions: {@code x+-y} and {@code -y+x} become
+ *   {@code x-y}, {@code x--y} becomes {@code x+y}, {@code -(x-y)} becomes {@code y-x},
+ *   {@code -x*-y} becomes {@code x*y}, and so on.</li>
+ *   <li>Powers of names with a small positive integer exponent become multiplications, e.g.
+ *   {@code x^3} becomes {@code x*x*x}.</li>
+ *   <li>Divisions by a constant become multiplications by its reciprocal, which is calculated
+ *   with the precision of the {@link Context}.</li>
+ * </ul>
+ * Rewrites that might hide an error, like replacing {@code x*0} with {@code 0}, are not done.
+ * Since multiplications and reciprocals are rounded differently than powers and divisions, the
+ * result of the simplified expression may differ from the original one in the last digit.
+ */
+public final class AlgebraicSimplifier {
+
+  /**
+   * The largest exponent of a power that is turned into a multiplication.
+   */
+  public static final int MAX_MULTIPLICATION_EXPONENT = 4;
+
+  private static final Apcomplex MINUS_ONE = Apcomplex.ONE.negate();
+
+  private AlgebraicSimplifier() {
+  }
+
+  /**
+   * Returns an {@link Expression} equivalent to {@code expression}, to which the rewrites
+   * described {@linkplain AlgebraicSimplifier above} are applied.
+   * <p>
+   * The result is also {@linkplain Expression#simplify(Context) simplified} in the usual way.
+   * The {@code Expression} types not known to this class are only simplified that way.
+   *
+   * @param context    The {@link Context}
+   * @param expression The {@code Expression}
+   * @return The resulting {@code Expression}
+   */
+  public static Expression simplify(Context<?, ?> context, Expression expression) {
+    return rewrite(context, expression.simplify(context));
+  }
+
+  private static Expression rewrite(Context<?, ?> context, Expression expression) {
+    if (expression instanceof Let let) {
+      List<Expression> definitions = new ArrayList<>(let.definitions().size());
+      for (Expression definition : let.definitions()) {
+        definitions.add(rewrite(context, definition));
+      }
+      return new Let(definitions, rewrite(context, let.body()));
+    }
+    Expression result = CommonSubexpressions.mapChildren(expression,
+        child -> rewrite(context, child));
+    // Each rewrite makes the expression smaller or removes a Div or Pow, so this terminates
+    for (Expression next = apply(context, result); next != result;
+        next = apply(context, result)) {
+      result = next;
+    }
+    return result;
+  }
+
+  // Returns expression itself, if no rule applies
+  private static Expression apply(Context<?, ?> context, Expression expression) {
+    if (expression instanceof Add add) {
+      if (isValue(add.right(), Apcomplex.ZERO)) {
+        return add.left();
+      } else if (isValue(add.left(), Apcomplex.ZERO)) {
+        return add.right();
+      } else if (add.right() instanceof Neg right) {
+        return new Sub(add.left(), right.arg());
+      } else if (add.left() instanceof Neg left) {
+        return new Sub(add.right(), left.arg());
+      }
+    } else if (expression instanceof Sub sub) {
+      if (isValue(sub.right(), Apcomplex.ZERO)) {
+        return sub.left();
+      } else if (isValue(sub.left(), Apcomplex.ZERO)) {
+        return new Neg(sub.right());
+      } else if (sub.right() instanceof Neg right) {
+        return new Add(sub.left(), right.arg());
+      }
+    } else if (expression instanceof Mul mul) {
+      if (isValue(mul.right(), Apcomplex.ONE)) {
+        return mul.left();
+      } else if (isValue(mul.left(), Apcomplex.ONE)) {
+        return mul.right();
+      } else if (isValue(mul.right(), MINUS_ONE)) {
+        return new Neg(mul.left());
+      } else if (isValue(mul.left(), MINUS_ONE)) {
+        return new Neg(mul.right());
+      } else if (mul.left() instanceof Neg left && mul.right() instanceof Neg right) {
+        return new Mul(left.arg(), right.arg());
+      }
+    } else if (expression instanceof Div div) {
+      if (isValue(div.right(), Apcomplex.ONE)) {
+        return div.left();
+      } else if (div.left() instanceof Neg left && div.right() instanceof Neg right) {
+        return new Div(left.arg(), right.arg());
+      } else if (div.right() instanceof Value right && !right.value().equals(Apcomplex.ZERO)) {
+        return new Mul(div.left(),
+            new Value(context.precisionHelper().divide(Apcomplex.ONE, right.value())));
+      }
+    } else if (expression instanceof Pow pow) {
+      if (isValue(pow.right(), Apcomplex.ONE)) {
+        return pow.left();
+      }
+      int exponent = smallExponent(pow.right());
+      if (exponent > 1 && (pow.left() instanceof ValueName || pow.left() instanceof Temp)) {
+        Expression product = pow.left();
+        for (int i = 1; i < exponent; i++) {
+          product = new Mul(product, pow.left());
+        }
+        return product;
+      }
+    } else if (expression instanceof Neg neg) {
+      if (neg.arg() instanceof Neg arg) {
+        return arg.arg();
+      } else if (neg.arg() instanceof Sub arg) {
+        return new Sub(arg.right(), arg.left());
+      } else if (neg.arg() instanceof Value arg) {
+        return new Value(arg.value().negate());
+      }
+    }
+    return expression;
+  }
+
+  private static boolean isValue(Expression expression, Apcomplex value) {
+    return expression instanceof Value v && v.value().equals(value);
+  }
+
+  // Returns the exponent, if it is an integer in [0, MAX_MULTIPLICATION_EXPONENT], otherwise -1
+  private static int smallExponent(Expression expression) {
+    if (!(expression instanceof Value value) || !value.value().imag().equals(Apfloat.ZERO)) {
+      return -1;
+    }
+    Apfloat real = value.value().real();
+    if (!real.isInteger() || real.signum() < 0
+        || real.compareTo(new Apfloat(MAX_MULTIPLICATION_EXPONENT)) > 0) {
+      return -1;
+    }
+    return real.intValue();
+  }
+}
@@ -0,0 +1,225 @@
+package de.hipphampel.eval.expr;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import de.hipphampel.eval.Context;
+import de.hipphampel.eval.definition.FunctionDefinition;
+import de.hipphampel.eval.exception.EvalException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import org.apfloat.Apcomplex;
+
+/**
+ * A function call that is bound to its {@link FunctionDefinition}.
+ * <p>
+ * In contrast to {@link FunctionCall}, which looks up its {@code FunctionDefinition} by name on each
+ * evaluation, this class resolves the {@code FunctionDefinition} once and remembers it together
+ * with the {@link Context} and its {@link Context#definitionVersion() definition version}. As long
+ * as it is evaluated with the same {@code Context} and no functions or constants have been added,
+ * the evaluation does neither look up names nor check the number of arguments again. Evaluating it
+ * with an other {@code Context} is still possible, it then simply binds itself to that one. The
+ * {@code Context} is referenced only weakly.
+ * <p>
+ * Instances are normally created via {@link #bind(Context, Expression)} or
+ * {@link Context#bind(Expression)}. Two instances are equal, if they have the same {@code name} and
+ * {@code arguments}, the binding does not take part in the comparison.
+ */
+public final class BoundFunctionCall implements Expression {
+
+  private final String name;
+  private final List<Expression> arguments;
+  private volatile Binding binding;
+
+  /**
+   * Constructor.
+   *
+   * @param name      The name of the function.
+   * @param arguments The arguments passed to the function.
+   */
+  public BoundFunctionCall(String name, List<? extends Expression> arguments) {
+    this.name = Objects.requireNonNull(name);
+    this.arguments = List.copyOf(arguments);
+  }
+
+  /**
+   * Returns a copy of {@code expression} in which all {@link FunctionCall FunctionCalls} are
+   * replaced by {@code BoundFunctionCalls} that are bound to {@code context}.
+   * <p>
+   * Subexpressions not containing any function call are reused as they are.
+   *
+   * @param context    The {@link Context} to bind to
+   * @param expression The {@link Expression}
+   * @return The bound {@code Expression}
+   * @throws EvalException If a function is unknown or called with a wrong number of arguments
+   */
+  public static Expression bind(Context<?, ?> context, Expression expression) {
+    if (expression instanceof BinaryExpression binary) {
+      Expression left = bind(context, binary.left());
+      Expression right = bind(context, binary.right());
+      if (left == binary.left() && right == binary.right()) {
+        return expression;
+      }
+      if (expression instanceof Add) {
+        return new Add(left, right);
+      } else if (expression instanceof Sub) {
+        return new Sub(left, right);
+      } else if (expression instanceof Mul) {
+        return new Mul(left, right);
+      } else if (expression instanceof Div) {
+        return new Div(left, right);
+      } else if (expression instanceof Pow) {
+        return new Pow(left, right);
+      }
+      return expression;
+    } else if (expression instanceof Neg neg) {
+      Expression arg = bind(context, neg.arg());
+      return arg == neg.arg() ? expression : new Neg(arg);
+    } else if (expression instanceof FunctionCall call) {
+      List<Expression> args = new ArrayList<>(call.arguments().size());
+      for (Expression arg : call.arguments()) {
+        args.add(bind(context, arg));
+      }
+      BoundFunctionCall bound = new BoundFunctionCall(call.name(), args);
+      bound.function(context);
+      return bound;
+    } else if (expression instanceof BoundFunctionCall call) {
+      call.function(context);
+      return call;
+    } else if (expression instanceof Let let) {
+      List<Expression> definitions = new ArrayList<>(let.definitions().size());
+      for (Expression definition : let.definitions()) {
+        definitions.add(bind(context, definition));
+      }
+      return new Let(definitions, bind(context, let.body()));
+    }
+    return expression;
+  }
+
+  /**
+   * The name of the function.
+   *
+   * @return The name
+   */
+  public String name() {
+    return name;
+  }
+
+  /**
+   * The arguments passed to the function.
+   *
+   * @return The arguments
+   */
+  public List<Expression> arguments() {
+    return arguments;
+  }
+
+  /**
+   * Returns the {@link FunctionDefinition} this instance is bound to for {@code context}.
+   * <p>
+   * The {@code FunctionDefinition} is resolved only if this instance is not yet bound to
+   * {@code context} or if functions or constants have been added to {@code context} since then.
+   *
+   * @param context The {@link Context}
+   * @return The {@code FunctionDefinition}
+   * @throws EvalException If the function is unknown or called with a wrong number of arguments
+   */
+  public FunctionDefinition function(Context<?, ?> context) {
+    Binding current = binding;
+    long version = context.definitionVersion();
+    if (current == null || current.context.get() != context || current.version != version) {
+      FunctionDefinition function = context.function(name);
+      int count = arguments.size();
+      if (count < function.minArgs() || count > function.maxArgs()) {
+        throw new EvalException("Invalid parameter count for function '" + name + "'");
+      }
+      current = new Binding(new WeakReference<>(context), version, function);
+      binding = current;
+    }
+    return current.function;
+  }
+
+  @Override
+  public boolean isInvariant(Context<?, ?> context) {
+    for (Expression arg : arguments) {
+      if (!arg.isInvariant(context)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public Expression simplify(Context<?, ?> context) {
+    if (isInvariant(context)) {
+      return new Value(evaluate(context));
+    }
+    List<Expression> args = new ArrayList<>(arguments.size());
+    for (Expression arg : arguments) {
+      args.add(arg.simplify(context));
+    }
+    BoundFunctionCall simplified = new BoundFunctionCall(name, args);
+    simplified.binding = binding;
+    return simplified;
+  }
+
+  @Override
+  public Apcomplex evaluate(Context<?, ?> context) {
+    FunctionDefinition function = function(context);
+    Apcomplex[] values = new Apcomplex[arguments.size()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = arguments.get(i).evaluate(context);
+    }
+    return function.evaluate(context, Arrays.asList(values));
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    return o instanceof BoundFunctionCall other && name.equals(other.name)
+        && arguments.equals(other.arguments);
+  }
+
+  @Override
+  public int hashCode() {
+    return name.hashCode() * 31 + arguments.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return "BoundFunctionCall[name=" + name + ", arguments=" + arguments + "]";
+  }
+
+  private record Binding(WeakReference<Context<?, ?>> context, long version,
+      FunctionDefinition function) {
+
+  }
+}
@@ -0,0 +1,204 @@
+package de.hipphampel.eval.expr;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import de.hipphampel.eval.exception.EvalException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * Common subexpression elimination.
+ * <p>
+ * Formulas often contain the same subexpression several times, like {@code a*b+c} in
+ * {@code (a*b+c)^2/(a*b+c)}. Since each occurrence is evaluated on its own, the work is done
+ * several times. {@link #eliminate(Expression) eliminate} detects structurally equal
+ * subexpressions and moves them into a {@link Let}, so that they are evaluated only once per
+ * evaluation; the example above becomes a {@code Let} with the definition {@code a*b+c} and the
+ * body {@code t0^2/t0}, where {@code t0} is a {@link Temp}. {@link #expand(Expression) expand}
+ * is the reverse operation.
+ * <p>
+ * Only the {@code Expression} types of this package are analyzed, the types not known are treated
+ * as leaves. Function calls are assumed to have no side effects.
+ */
+public final class CommonSubexpressions {
+
+  private CommonSubexpressions() {
+  }
+
+  /**
+   * Returns an {@link Expression} equivalent to {@code expression} that evaluates each common
+   * subexpression only once.
+   * <p>
+   * If {@code expression} contains subexpressions that occur more than once, the result is a
+   * {@link Let} having one definition per common subexpression; otherwise the result is
+   * {@code expression} itself with all {@code Lets} {@linkplain #expand(Expression) expanded}.
+   * Plain values and names are never shared, since evaluating them is cheap.
+   *
+   * @param expression The {@code Expression}
+   * @return The resulting {@code Expression}
+   */
+  public static Expression eliminate(Expression expression) {
+    Expression expanded = expand(expression);
+    Map<Expression, Integer> counts = new HashMap<>();
+    count(expanded, counts);
+    if (counts.values().stream().allMatch(count -> count == 1)) {
+      return expanded;
+    }
+
+    Map<Expression, Temp> temps = new HashMap<>();
+    List<Expression> definitions = new ArrayList<>();
+    Expression body = share(expanded, counts, temps, definitions);
+    return new Let(definitions, body);
+  }
+
+  /**
+   * Replaces all {@link Let Lets} in {@code expression} with their bodies, in which each
+   * {@link Temp} is replaced with the definition it refers to.
+   * <p>
+   * The definitions are not copied, so a definition referred to several times appears as the
+   * same instance in several places of the result.
+   *
+   * @param expression The {@link Expression}
+   * @return The {@code Expression} without {@code Lets}
+   * @throws EvalException If a {@code Temp} refers to an undefined definition
+   */
+  public static Expression expand(Expression expression) {
+    if (expression instanceof Let let) {
+      List<Expression> definitions = new ArrayList<>(let.definitions().size());
+      for (Expression definition : let.definitions()) {
+        definitions.add(substitute(expand(definition), definitions));
+      }
+      return substitute(expand(let.body()), definitions);
+    }
+    return mapChildren(expression, CommonSubexpressions::expand);
+  }
+
+  /**
+   * Replaces each {@link Temp} in {@code expression} with the element of {@code values} it refers
+   * to; nested {@link Let Lets} are not changed.
+   *
+   * @param expression The {@link Expression}
+   * @param values     The values of the {@code Temps}
+   * @return The resulting {@code Expression}
+   * @throws EvalException If a {@code Temp} refers to an index not in {@code values}
+   */
+  static Expression substitute(Expression expression, List<Expression> values) {
+    if (expression instanceof Temp temp) {
+      if (temp.index() < 0 || temp.index() >= values.size()) {
+        throw new EvalException("Temporary #" + temp.index() + " is not defined");
+      }
+      return values.get(temp.index());
+    } else if (expression instanceof Let) {
+      return expression;
+    }
+    return mapChildren(expression, child -> substitute(child, values));
+  }
+
+  private static void count(Expression expression, Map<Expression, Integer> counts) {
+    if (!hasChildren(expression)) {
+      return;
+    }
+    // The children of a repeated subexpression are shared along with it
+    if (counts.merge(expression, 1, Integer::sum) == 1) {
+      mapChildren(expression, child -> {
+        count(child, counts);
+        return child;
+      });
+    }
+  }
+
+  private static Expression share(Expression expression, Map<Expression, Integer> counts,
+      Map<Expression, Temp> temps, List<Expression> definitions) {
+    Temp temp = temps.get(expression);
+    if (temp != null) {
+      return temp;
+    }
+    Expression shared = mapChildren(expression,
+        child -> share(child, counts, temps, definitions));
+    if (counts.getOrDefault(expression, 0) > 1) {
+      temp = new Temp(definitions.size());
+      definitions.add(shared);
+      temps.put(expression, temp);
+      return temp;
+    }
+    return shared;
+  }
+
+  private static boolean hasChildren(Expression expression) {
+    return expression instanceof BinaryExpression || expression instanceof Neg
+        || expression instanceof FunctionCall || expression instanceof BoundFunctionCall;
+  }
+
+  // Returns expression itself, if no child is changed; Lets are not descended into
+  static Expression mapChildren(Expression expression,
+      UnaryOperator<Expression> mapper) {
+    if (expression instanceof BinaryExpression binary) {
+      Expression left = mapper.apply(binary.left());
+      Expression right = mapper.apply(binary.right());
+      if (left == binary.left() && right == binary.right()) {
+        return expression;
+      }
+      if (expression instanceof Add) {
+        return new Add(left, right);
+      } else if (expression instanceof Sub) {
+        return new Sub(left, right);
+      } else if (expression instanceof Mul) {
+        return new Mul(left, right);
+      } else if (expression instanceof Div) {
+        return new Div(left, right);
+      } else if (expression instanceof Pow) {
+        return new Pow(left, right);
+      }
+      return expression;
+    } else if (expression instanceof Neg neg) {
+      Expression arg = mapper.apply(neg.arg());
+      return arg == neg.arg() ? expression : new Neg(arg);
+    } else if (expression instanceof FunctionCall call) {
+      List<Expression> args = mapArguments(call.arguments(), mapper);
+      return args == null ? expression : new FunctionCall(call.name(), args);
+    } else if (expression instanceof BoundFunctionCall call) {
+      List<Expression> args = mapArguments(call.arguments(), mapper);
+      return args == null ? expression : new BoundFunctionCall(call.name(), args);
+    }
+    return expression;
+  }
+
+  private static List<Expression> mapArguments(List<? extends Expression> arguments,
+      UnaryOperator<Expression> mapper) {
+    List<Expression> mapped = new ArrayList<>(arguments.size());
+    boolean changed = false;
+    for (Expression argument : arguments) {
+      Expression result = mapper.apply(argument);
+      changed |= result != argument;
+      mapped.add(result);
+    }
+    return changed ? List.copyOf(mapped) : null;
+  }
+}
@@ -0,0 +1,287 @@
+package de.hipphampel.eval.expr;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import de.hipphampel.eval.Context;
+import de.hipphampel.eval.definition.ExpressionFunction;
+import de.hipphampel.eval.definition.FunctionDefinition;
+import de.hipphampel.eval.definition.StandardFunctions;
+import de.hipphampel.eval.exception.EvalException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apfloat.Apcomplex;
+import org.apfloat.Apfloat;
+
+/**
+ * Symbolic differentiation of {@link Expression Expressions}.
+ * <p>
+ * {@link #derivative(Context, Expression, String) derivative} calculates the derivative of an
+ * {@code Expression} with respect to a variable, applying the usual rules including the chain
+ * rule. In contrast to a numeric differentiation via finite differences, the result is exact and
+ * can be evaluated, {@linkplain Context#compile(Expression) compiled} or cached like any other
+ * {@code Expression}.
+ * <p>
+ * All {@code Expression} types of this package and all {@link StandardFunctions} are supported;
+ * the result refers only to functions of the same group as the function being differentiated, so
+ * for example the derivative of {@code tan} uses {@code cos}. A call of an
+ * {@link ExpressionFunction} is differentiated by differentiating its definition, in which the
+ * parameters are replaced with the arguments. Other functions can be called only with arguments
+ * not depending on the variable.
+ * <p>
+ * The variable is assumed to be real. For the holomorphic functions the result is also the complex
+ * derivative, while {@code real}, {@code imag}, {@code abs}, {@code arg} and {@code norm} are
+ * differentiated with respect to the real variable only.
+ */
+public final class Derivatives {
+
+  private static final Value ZERO = new Value(Apcomplex.ZERO);
+  private static final Value ONE = new Value(Apcomplex.ONE);
+  // Exact values, so they do not limit the precision of the results
+  private static final Value TWO = new Value(new Apfloat(2));
+  private static final Value HALF = new Value(new Apfloat("0.5", Apfloat.INFINITE));
+
+  private final Context<?, ?> context;
+  private final String variable;
+
+  private Derivatives(Context<?, ?> context, String variable) {
+    this.context = context;
+    this.variable = variable;
+  }
+
+  /**
+   * Returns the derivative of {@code expression} with respect to {@code variable}.
+   * <p>
+   * The result is {@linkplain AlgebraicSimplifier#simplify(Context, Expression) simplified}.
+   * Derivatives often contain the same subexpression several times, so it might be worth to apply
+   * {@link CommonSubexpressions#eliminate(Expression)} to it as well.
+   *
+   * @param context    The {@link Context} the functions are looked up in
+   * @param expression The {@code Expression}
+   * @param variable   The name of the variable
+   * @return The derivative
+   * @throws EvalException If {@code expression} cannot be differentiated
+   */
+  public static Expression derivative(Context<?, ?> context, Expression expression,
+      String variable) {
+    Expression expanded = CommonSubexpressions.expand(expression).simplify(context);
+    Expression derivative = new Derivatives(context, variable).derive(expanded);
+    return AlgebraicSimplifier.simplify(context, derivative);
+  }
+
+  private Expression derive(Expression expression) {
+    if (!dependsOnVariable(expression)) {
+      return ZERO;
+    } else if (expression instanceof ValueName) {
+      return ONE;
+    } else if (expression instanceof Neg neg) {
+      return neg(derive(neg.arg()));
+    } else if (expression instanceof Add add) {
+      return add(derive(add.left()), derive(add.right()));
+    } else if (expression instanceof Sub sub) {
+      return sub(derive(sub.left()), derive(sub.right()));
+    } else if (expression instanceof Mul mul) {
+      return add(mul(derive(mul.left()), mul.right()), mul(mul.left(), derive(mul.right())));
+    } else if (expression instanceof Div div) {
+      Expression numerator = sub(mul(derive(div.left()), div.right()),
+          mul(div.left(), derive(div.right())));
+      return div(numerator, new Pow(div.right(), TWO));
+    } else if (expression instanceof Pow pow) {
+      return derivePow(pow);
+    } else if (expression instanceof FunctionCall call) {
+      return deriveCall(call, context.function(call.name()), call.arguments());
+    } else if (expression instanceof BoundFunctionCall call) {
+      return deriveCall(call, call.function(context), call.arguments());
+    }
+    throw new EvalException(
+        "Cannot differentiate expression of type '" + expression.getClass().getName() + "'");
+  }
+
+  private Expression derivePow(Pow pow) {
+    Expression base = pow.left();
+    Expression exponent = pow.right();
+    if (!dependsOnVariable(exponent)) {
+      // (u^c)' = c*u^(c-1)*u'
+      Expression reduced = exponent instanceof Value value
+          ? new Value(value.value().subtract(Apcomplex.ONE))
+          : new Sub(exponent, ONE);
+      return mul(mul(exponent, new Pow(base, reduced)), derive(base));
+    } else if (!dependsOnVariable(base)) {
+      // (c^v)' = c^v*ln(c)*v'
+      return mul(mul(pow, call(StandardFunctions.LN, base)), derive(exponent));
+    }
+    // (u^v)' = u^v*(v'*ln(u)+v*u'/u)
+    return mul(pow, add(mul(derive(exponent), call(StandardFunctions.LN, base)),
+        div(mul(exponent, derive(base)), base)));
+  }
+
+  private Expression deriveCall(Expression call, FunctionDefinition function,
+      List<? extends Expression> args) {
+    if (function instanceof ExpressionFunction expressionFunction) {
+      if (args.size() != expressionFunction.parameters().size()) {
+        throw new EvalException("Invalid parameter count for function '" + function.name() + "'");
+      }
+      Map<String, Expression> replacements = new HashMap<>();
+      for (int i = 0; i < args.size(); i++) {
+        replacements.put(expressionFunction.parameters().get(i), args.get(i));
+      }
+      return derive(FunctionInliner.substitute(expressionFunction.definition(), replacements));
+    } else if (function == StandardFunctions.LOG && args.size() == 2) {
+      // log(a,b) = ln(a)/ln(b)
+      return derive(new Div(call(StandardFunctions.LN, args.get(0)),
+          call(StandardFunctions.LN, args.get(1))));
+    } else if (args.size() != 1) {
+      throw new EvalException("Cannot differentiate function '" + function.name() + "'");
+    }
+
+    Expression u = args.get(0);
+    Expression du = derive(u);
+    Expression outer;
+    if (function == StandardFunctions.SIN) {
+      outer = call(StandardFunctions.COS, u);
+    } else if (function == StandardFunctions.COS) {
+      outer = neg(call(StandardFunctions.SIN, u));
+    } else if (function == StandardFunctions.TAN) {
+      outer = div(ONE, new Pow(call(StandardFunctions.COS, u), TWO));
+    } else if (function == StandardFunctions.ASIN) {
+      outer = div(ONE, sqrt(sub(ONE, square(u))));
+    } else if (function == StandardFunctions.ACOS) {
+      outer = neg(div(ONE, sqrt(sub(ONE, square(u)))));
+    } else if (function == StandardFunctions.ATAN) {
+      outer = div(ONE, add(ONE, square(u)));
+    } else if (function == StandardFunctions.SINH) {
+      outer = call(StandardFunctions.COSH, u);
+    } else if (function == StandardFunctions.COSH) {
+      outer = call(StandardFunctions.SINH, u);
+    } else if (function == StandardFunctions.TANH) {
+      outer = div(ONE, new Pow(call(StandardFunctions.COSH, u), TWO));
+    } else if (function == StandardFunctions.ASINH) {
+      outer = div(ONE, sqrt(add(square(u), ONE)));
+    } else if (function == StandardFunctions.ACOSH) {
+      // Not sqrt(u^2-1), which has a different branch cut
+      outer = div(ONE, mul(sqrt(sub(u, ONE)), sqrt(add(u, ONE))));
+    } else if (function == StandardFunctions.ATANH) {
+      outer = div(ONE, sub(ONE, square(u)));
+    } else if (function == StandardFunctions.LN) {
+      outer = div(ONE, u);
+    } else if (function == StandardFunctions.REAL) {
+      return call(StandardFunctions.REAL, du);
+    } else if (function == StandardFunctions.IMAG) {
+      return call(StandardFunctions.IMAG, du);
+    } else if (function == StandardFunctions.NORM) {
+      return mul(TWO, realProduct(u, du));
+    } else if (function == StandardFunctions.ABS) {
+      return div(realProduct(u, du), call(StandardFunctions.ABS, u));
+    } else if (function == StandardFunctions.ARG) {
+      Expression numerator = sub(
+          mul(call(StandardFunctions.REAL, u), call(StandardFunctions.IMAG, du)),
+          mul(call(StandardFunctions.IMAG, u), call(StandardFunctions.REAL, du)));
+      return div(numerator, call(StandardFunctions.NORM, u));
+    } else {
+      throw new EvalException("Cannot differentiate function '" + function.name() + "'");
+    }
+    return mul(outer, du);
+  }
+
+  // real(u)*real(v)+imag(u)*imag(v)
+  private Expression realProduct(Expression u, Expression v) {
+    return add(mul(call(StandardFunctions.REAL, u), call(StandardFunctions.REAL, v)),
+        mul(call(StandardFunctions.IMAG, u), call(StandardFunctions.IMAG, v)));
+  }
+
+  private FunctionCall call(FunctionDefinition function, Expression arg) {
+    if (context.function(function.name()) != function) {
+      throw new EvalException(
+          "Function '" + function.name() + "' is not the standard function of that name");
+    }
+    return new FunctionCall(function.name(), List.of(arg));
+  }
+
+  private boolean dependsOnVariable(Expression expression) {
+    if (expression instanceof ValueName name) {
+      return name.name().equals(variable);
+    }
+    boolean[] found = {false};
+    CommonSubexpressions.mapChildren(expression, child -> {
+      found[0] |= dependsOnVariable(child);
+      return child;
+    });
+    return found[0];
+  }
+
+  private static Expression square(Expression expression) {
+    return new Mul(expression, expression);
+  }
+
+  private static Expression sqrt(Expression expression) {
+    return new Pow(expression, HALF);
+  }
+
+  private static Expression neg(Expression expression) {
+    if (expression instanceof Neg neg) {
+      return neg.arg();
+    }
+    return isValue(expression, ZERO) ? ZERO : new Neg(expression);
+  }
+
+  private static Expression add(Expression left, Expression right) {
+    if (isValue(left, ZERO)) {
+      return right;
+    }
+    return isValue(right, ZERO) ? left : new Add(left, right);
+  }
+
+  private static Expression sub(Expression left, Expression right) {
+    if (isValue(left, ZERO)) {
+      return neg(right);
+    }
+    return isValue(right, ZERO) ? left : new Sub(left, right);
+  }
+
+  // Only for derivatives: a derivative known to be zero makes the product zero
+  private static Expression mul(Expression left, Expression right) {
+    if (isValue(left, ZERO) || isValue(right, ZERO)) {
+      return ZERO;
+    } else if (left instanceof Neg neg) {
+      return neg(mul(neg.arg(), right));
+    } else if (isValue(left, ONE)) {
+      return right;
+    }
+    return isValue(right, ONE) ? left : new Mul(left, right);
+  }
+
+  private static Expression div(Expression left, Expression right) {
+    if (isValue(left, ZERO)) {
+      return ZERO;
+    }
+    return isValue(right, ONE) ? left : new Div(left, right);
+  }
+
+  private static boolean isValue(Expression expression, Value value) {
+    return expression instanceof Value v && v.value().equals(value.value());
+  }
+}
@@ -0,0 +1,407 @@
+package de.hipphampel.eval.expr;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static de.hipphampel.eval.expr.ExpressionEncoder.MAGIC;
+import static de.hipphampel.eval.expr.ExpressionEncoder.SMALL_LIMIT;
+import static de.hipphampel.eval.expr.ExpressionEncoder.TAG_ADD;
+import static de.hipphampel.eval.expr.ExpressionEncoder.TAG_DIV;
+import static de.hipphampel.eval.expr.ExpressionEncoder.TAG_END;
+import static de.hipphampel.eval.expr.ExpressionEncoder.TAG_FUNCTION_CALL;
+import static de.hipphampel.eval.expr.ExpressionEncoder.TAG_LET;
+import static de.hipphampel.eval.expr.ExpressionEncoder.TAG_MUL;
+import static de.hipphampel.eval.expr.ExpressionEncoder.TAG_NAME;
+import static de.hipphampel.eval.expr.ExpressionEncoder.TAG_NEG;
+import static de.hipphampel.eval.expr.ExpressionEncoder.TAG_POW;
+import static de.hipphampel.eval.expr.ExpressionEncoder.TAG_PRECISION;
+import static de.hipphampel.eval.expr.ExpressionEncoder.TAG_SMALL_FUNCTION_CALL;
+import static de.hipphampel.eval.expr.ExpressionEncoder.TAG_SMALL_INTEGER;
+import static de.hipphampel.eval.expr.ExpressionEncoder.TAG_SMALL_VALUE_NAME;
+import static de.hipphampel.eval.expr.ExpressionEncoder.TAG_SUB;
+import static de.hipphampel.eval.expr.ExpressionEncoder.TAG_TEMP;
+import static de.hipphampel.eval.expr.ExpressionEncoder.TAG_VALUE_COMPLEX;
+import static de.hipphampel.eval.expr.ExpressionEncoder.TAG_VALUE_DECIMAL;
+import static de.hipphampel.eval.expr.ExpressionEncoder.TAG_VALUE_NAME;
+import static de.hipphampel.eval.expr.ExpressionEncoder.TAG_VALUE_REAL;
+import static de.hipphampel.eval.expr.ExpressionEncoder.VERSION;
+
+import de.hipphampel.eval.exception.EvalException;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.apfloat.Apcomplex;
+import org.apfloat.Apfloat;
+import org.apfloat.ApfloatMath;
+import org.apfloat.ApfloatRuntimeException;
+
+/**
+ * Reads {@link Expression Expressions} written by an {@link ExpressionEncoder}.
+ * <p>
+ * The decoder reads either from a {@link DataInput} or directly from a {@link ByteBuffer}, for
+ * example a memory mapped file. Please refer to {@link ExpressionEncoder} for a description of the
+ * format.
+ * <p>
+ * The data is not trusted: counts and lengths are checked against the available data and the
+ * nesting depth is limited to {@link #MAX_DEPTH}, so that corrupt data cannot exhaust the memory or
+ * the stack. Any malformed data is reported as an {@link EvalException}. Instances are not thread
+ * safe.
+ */
+public class ExpressionDecoder {
+
+  /**
+   * The maximum nesting depth of the nodes of an {@link Expression}.
+   */
+  public static final int MAX_DEPTH = 1024;
+
+  private static final int MAX_CACHED_DECIMALS = 4096;
+  private static final int CHUNK_SIZE = 8192;
+
+  private final Source source;
+  private final List<String> names;
+  private final Value[] smallIntegers;
+  private final Map<Decimal, Value> decimals;
+  private boolean headerRead;
+  private boolean finished;
+  private long precision;
+  private int depth;
+
+  /**
+   * Constructor.
+   *
+   * @param input The {@link DataInput} to read from
+   */
+  public ExpressionDecoder(DataInput input) {
+    Objects.requireNonNull(input);
+    this.source = new Source() {
+      @Override
+      public int readByte() throws IOException {
+        try {
+          return input.readUnsignedByte();
+        } catch (EOFException e) {
+          throw invalid("unexpected end of data", e);
+        }
+      }
+
+      @Override
+      public String readString(int length) throws IOException {
+        // The length is not known to be valid, so the bytes are read in chunks
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(length, CHUNK_SIZE));
+        byte[] chunk = new byte[Math.min(length, CHUNK_SIZE)];
+        try {
+          for (int left = length; left > 0; left -= chunk.length) {
+            int count = Math.min(left, chunk.length);
+            input.readFully(chunk, 0, count);
+            out.write(chunk, 0, count);
+          }
+        } catch (EOFException e) {
+          throw invalid("unexpected end of data", e);
+        }
+        return out.toString(StandardCharsets.UTF_8);
+      }
+
+      @Override
+      public long remaining() {
+        return Long.MAX_VALUE;
+      }
+    };
+    this.names = new ArrayList<>();
+    this.smallIntegers = new Value[SMALL_LIMIT];
+    this.decimals = new HashMap<>();
+  }
+
+  /**
+   * Constructor.
+   * <p>
+   * The data is read starting at the current position of the {@code buffer}.
+   *
+   * @param buffer The {@link ByteBuffer} to read from
+   */
+  public ExpressionDecoder(ByteBuffer buffer) {
+    Objects.requireNonNull(buffer);
+    this.source = new Source() {
+      @Override
+      public int readByte() {
+        if (!buffer.hasRemaining()) {
+          throw invalid("unexpected end of data", null);
+        }
+        return buffer.get() & 0xFF;
+      }
+
+      @Override
+      public String readString(int length) {
+        if (length > buffer.remaining()) {
+          throw invalid("unexpected end of data", null);
+        }
+        if (buffer.hasArray()) {
+          String str = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+              StandardCharsets.UTF_8);
+          buffer.position(buffer.position() + length);
+          return str;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+      }
+
+      @Override
+      public long remaining() {
+        return buffer.remaining();
+      }
+    };
+    this.names = new ArrayList<>();
+    this.smallIntegers = new Value[SMALL_LIMIT];
+    this.decimals = new HashMap<>();
+  }
+
+  /**
+   * Reads the next {@link Expression}.
+   *
+   * @return The {@code Expression} or {@code null}, if the end marker was reached.
+   * @throws IOException   If reading fails
+   * @throws EvalException If the data is not valid
+   */
+  public Expression read() throws IOException {
+    readHeader();
+    if (finished) {
+      return null;
+    }
+    int tag = source.readByte();
+    if (tag == TAG_END) {
+      finished = true;
+      return null;
+    }
+    try {
+      return readNode(tag);
+    } catch (IllegalArgumentException | ArithmeticException | ApfloatRuntimeException e) {
+      // Thrown by Apfloat for malformed numbers, precisions, or radixes
+      throw invalid("malformed value", e);
+    }
+  }
+
+  /**
+   * Reads all remaining {@link Expression Expressions} up to the end marker.
+   *
+   * @return The {@code Expressions}
+   * @throws IOException   If reading fails
+   * @throws EvalException If the data is not valid
+   */
+  public List<Expression> readAll() throws IOException {
+    List<Expression> expressions = new ArrayList<>();
+    for (Expression expression = read(); expression != null; expression = read()) {
+      expressions.add(expression);
+    }
+    return expressions;
+  }
+
+  private void readHeader() throws IOException {
+    if (headerRead) {
+      return;
+    }
+    byte[] magic = new byte[MAGIC.length];
+    for (int i = 0; i < magic.length; i++) {
+      magic[i] = (byte) source.readByte();
+    }
+    if (!Arrays.equals(magic, MAGIC)) {
+      throw invalid("bad magic bytes", null);
+    }
+    int version = source.readByte();
+    if (version != VERSION) {
+      throw new EvalException("Unsupported expression encoding version " + version);
+    }
+    headerRead = true;
+  }
+
+  private Expression readNode(int tag) throws IOException {
+    while (tag == TAG_NAME || tag == TAG_PRECISION) {
+      if (tag == TAG_NAME) {
+        names.add(source.readString(readLength()));
+      } else {
+        precision = readVarLong();
+        Arrays.fill(smallIntegers, null);
+        decimals.clear();
+      }
+      tag = source.readByte();
+    }
+    return switch (tag & ~(SMALL_LIMIT - 1)) {
+      case TAG_SMALL_VALUE_NAME -> new ValueName(name(tag - TAG_SMALL_VALUE_NAME));
+      case TAG_SMALL_INTEGER -> readSmallInteger(tag - TAG_SMALL_INTEGER);
+      case TAG_SMALL_FUNCTION_CALL -> readFunctionCall(name(tag - TAG_SMALL_FUNCTION_CALL));
+      default -> switch (tag) {
+        case TAG_ADD -> new Add(readNode(), readNode());
+        case TAG_SUB -> new Sub(readNode(), readNode());
+        case TAG_MUL -> new Mul(readNode(), readNode());
+        case TAG_DIV -> new Div(readNode(), readNode());
+        case TAG_POW -> new Pow(readNode(), readNode());
+        case TAG_NEG -> new Neg(readNode());
+        case TAG_VALUE_DECIMAL -> readDecimal();
+        case TAG_VALUE_REAL -> readReal();
+        case TAG_VALUE_COMPLEX -> readComplex();
+        case TAG_VALUE_NAME -> new ValueName(name(readVarLong()));
+        case TAG_FUNCTION_CALL -> readFunctionCall(name(readVarLong()));
+        case TAG_LET -> readLet();
+        case TAG_TEMP -> new Temp(readIndex());
+        default -> throw invalid("unknown tag " + tag, null);
+      };
+    };
+  }
+
+  // Values are immutable, so the ones for recurring literals are shared
+  private Value readSmallInteger(int value) {
+    Value result = smallIntegers[value];
+    if (result == null) {
+      result = new Value(
+          value == 0 ? Apcomplex.ZERO : new Apcomplex(new Apfloat(value, precision)));
+      smallIntegers[value] = result;
+    }
+    return result;
+  }
+
+  private Value readDecimal() throws IOException {
+    Decimal key = new Decimal(unZigZag(readVarLong()), unZigZag(readVarLong()));
+    Value result = decimals.get(key);
+    if (result == null) {
+      Apfloat value = new Apfloat(key.mantissa(), precision);
+      result = new Value(new Apcomplex(
+          key.exponent() == 0 ? value : ApfloatMath.scale(value, key.exponent())));
+      if (decimals.size() < MAX_CACHED_DECIMALS) {
+        decimals.put(key, result);
+      }
+    }
+    return result;
+  }
+
+  private Value readReal() throws IOException {
+    int radix = source.readByte();
+    return new Value(new Apcomplex(new Apfloat(source.readString(readLength()), precision, radix)));
+  }
+
+  private Value readComplex() throws IOException {
+    int radix = source.readByte();
+    Apfloat real = readApfloat(radix);
+    return new Value(new Apcomplex(real, readApfloat(radix)));
+  }
+
+  private FunctionCall readFunctionCall(String name) throws IOException {
+    return new FunctionCall(name, readNodes(readLength()));
+  }
+
+  private Let readLet() throws IOException {
+    List<Expression> definitions = readNodes(readLength());
+    return new Let(definitions, readNode());
+  }
+
+  private List<Expression> readNodes(int count) throws IOException {
+    // The count is not known to be valid for a DataInput, so the list grows while reading
+    List<Expression> nodes = new ArrayList<>(Math.min(count, SMALL_LIMIT));
+    for (int i = 0; i < count; i++) {
+      nodes.add(readNode());
+    }
+    return List.copyOf(nodes);
+  }
+
+  private Expression readNode() throws IOException {
+    if (++depth > MAX_DEPTH) {
+      throw invalid("nesting deeper than " + MAX_DEPTH, null);
+    }
+    try {
+      return readNode(source.readByte());
+    } finally {
+      depth--;
+    }
+  }
+
+  private Apfloat readApfloat(int radix) throws IOException {
+    long precision = readVarLong();
+    String str = source.readString(readLength());
+    return new Apfloat(str, precision, radix);
+  }
+
+  private String name(long index) {
+    if (index < 0 || index >= names.size()) {
+      throw invalid("unknown name index " + index, null);
+    }
+    return names.get((int) index);
+  }
+
+  private int readIndex() throws IOException {
+    long index = readVarLong();
+    if (index < 0 || index > Integer.MAX_VALUE) {
+      throw invalid("index " + index + " out of range", null);
+    }
+    return (int) index;
+  }
+
+  private int readLength() throws IOException {
+    long length = readVarLong();
+    if (length < 0 || length > Integer.MAX_VALUE || length > source.remaining()) {
+      throw invalid("length " + length + " exceeds the available data", null);
+    }
+    return (int) length;
+  }
+
+  private long readVarLong() throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = source.readByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw invalid("malformed number", null);
+  }
+
+  private static EvalException invalid(String reason, Throwable cause) {
+    return new EvalException("Invalid expression encoding: " + reason, cause);
+  }
+
+  private static long unZigZag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private record Decimal(long mantissa, long exponent) {
+
+  }
+
+  private interface Source {
+
+    int readByte() throws IOException;
+
+    String readString(int length) throws IOException;
+
+    long remaining();
+  }
+}
@@ -0,0 +1,324 @@
+package de.hipphampel.eval.expr;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import de.hipphampel.eval.exception.EvalException;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.apfloat.Apcomplex;
+import org.apfloat.Apfloat;
+import org.apfloat.ApfloatMath;
+
+/**
+ * Writes {@link Expression Expressions} in a compact binary format.
+ * <p>
+ * The format allows to store parsed expressions, so that they can be loaded later on via the
+ * {@link ExpressionDecoder} without parsing them again. An encoded stream starts with a header
+ * consisting of the magic bytes {@code 'EVX'} and a version number, followed by any number of
+ * expressions and an end marker written by {@link #finish()}. Each expression is written in prefix
+ * order, each node starts with a one byte tag, followed by its operands:
+ * <ul>
+ *   <li>Names of variables and functions are written only once per stream; the first occurrence
+ *   adds the name to a name table, further occurrences refer to the index in that table. For the
+ *   first 64 names, the index is part of the tag.</li>
+ *   <li>The precision of {@link Value Values} is written only when it differs from the one of the
+ *   previous value.</li>
+ *   <li>Integers between 0 and 63 are part of the tag, other decimal numbers having at most 18
+ *   digits are written as mantissa and exponent; all other values are written in their textual
+ *   representation.</li>
+ *   <li>All counts, indices, and numbers are written as variable length integers.</li>
+ * </ul>
+ * Only the {@code Expression} types of this package are supported. The encoder can write either
+ * to a {@link DataOutput} or to a {@link ByteBuffer}. Instances are not thread safe.
+ */
+public class ExpressionEncoder {
+
+  static final byte[] MAGIC = {'E', 'V', 'X'};
+  static final int VERSION = 1;
+
+  static final int TAG_END = 0;
+  static final int TAG_ADD = 1;
+  static final int TAG_SUB = 2;
+  static final int TAG_MUL = 3;
+  static final int TAG_DIV = 4;
+  static final int TAG_POW = 5;
+  static final int TAG_NEG = 6;
+  static final int TAG_NAME = 7;
+  static final int TAG_PRECISION = 8;
+  static final int TAG_VALUE_DECIMAL = 9;
+  static final int TAG_VALUE_REAL = 10;
+  static final int TAG_VALUE_COMPLEX = 11;
+  static final int TAG_VALUE_NAME = 12;
+  static final int TAG_FUNCTION_CALL = 13;
+  static final int TAG_LET = 14;
+  static final int TAG_TEMP = 15;
+  static final int TAG_SMALL_VALUE_NAME = 0x40;
+  static final int TAG_SMALL_INTEGER = 0x80;
+  static final int TAG_SMALL_FUNCTION_CALL = 0xC0;
+  static final int SMALL_LIMIT = 0x40;
+  private static final Apfloat SMALL_INTEGER_LIMIT = new Apfloat(SMALL_LIMIT);
+
+  private final Sink sink;
+  private final Map<String, Integer> names;
+  private boolean headerWritten;
+  private long precision = -1;
+
+  /**
+   * Constructor.
+   *
+   * @param output The {@link DataOutput} to write to
+   */
+  public ExpressionEncoder(DataOutput output) {
+    Objects.requireNonNull(output);
+    this.sink = new Sink() {
+      @Override
+      public void writeByte(int value) throws IOException {
+        output.writeByte(value);
+      }
+
+      @Override
+      public void write(byte[] bytes) throws IOException {
+        output.write(bytes);
+      }
+    };
+    this.names = new HashMap<>();
+  }
+
+  /**
+   * Constructor.
+   * <p>
+   * The data is written starting at the current position of the {@code buffer}. If the buffer is
+   * too small, a {@link java.nio.BufferOverflowException} is thrown.
+   *
+   * @param buffer The {@link ByteBuffer} to write to
+   */
+  public ExpressionEncoder(ByteBuffer buffer) {
+    Objects.requireNonNull(buffer);
+    this.sink = new Sink() {
+      @Override
+      public void writeByte(int value) {
+        buffer.put((byte) value);
+      }
+
+      @Override
+      public void write(byte[] bytes) {
+        buffer.put(bytes);
+      }
+    };
+    this.names = new HashMap<>();
+  }
+
+  /**
+   * Writes the given {@code expression}.
+   *
+   * @param expression The {@link Expression}
+   * @return This instance
+   * @throws IOException   If writing fails
+   * @throws EvalException If the {@code expression} contains unsupported {@code Expression}
+   *                       types
+   */
+  public ExpressionEncoder write(Expression expression) throws IOException {
+    writeHeader();
+    writeNode(expression);
+    return this;
+  }
+
+  /**
+   * Writes all given {@code expressions}.
+   *
+   * @param expressions The {@link Expression Expressions}
+   * @return This instance
+   * @throws IOException   If writing fails
+   * @throws EvalException If an expression contains unsupported {@code Expression} types
+   */
+  public ExpressionEncoder writeAll(Iterable<? extends Expression> expressions)
+      throws IOException {
+    for (Expression expression : expressions) {
+      write(expression);
+    }
+    return this;
+  }
+
+  /**
+   * Writes the end marker.
+   * <p>
+   * No further expressions must be written afterwards.
+   *
+   * @throws IOException If writing fails
+   */
+  public void finish() throws IOException {
+    writeHeader();
+    sink.writeByte(TAG_END);
+  }
+
+  private void writeHeader() throws IOException {
+    if (!headerWritten) {
+      sink.write(MAGIC);
+      sink.writeByte(VERSION);
+      headerWritten = true;
+    }
+  }
+
+  private void writeNode(Expression expression) throws IOException {
+    if (expression instanceof BinaryExpression binary) {
+      sink.writeByte(binaryTag(binary));
+      writeNode(binary.left());
+      writeNode(binary.right());
+    } else if (expression instanceof Neg neg) {
+      sink.writeByte(TAG_NEG);
+      writeNode(neg.arg());
+    } else if (expression instanceof Value value) {
+      writeValue(value.value());
+    } else if (expression instanceof ValueName valueName) {
+      writeNameReference(TAG_SMALL_VALUE_NAME, TAG_VALUE_NAME, valueName.name());
+    } else if (expression instanceof FunctionCall call) {
+      writeFunctionCall(call.name(), call.arguments());
+    } else if (expression instanceof BoundFunctionCall call) {
+      writeFunctionCall(call.name(), call.arguments());
+    } else if (expression instanceof Let let) {
+      sink.writeByte(TAG_LET);
+      writeVarLong(let.definitions().size());
+      for (Expression definition : let.definitions()) {
+        writeNode(definition);
+      }
+      writeNode(let.body());
+    } else if (expression instanceof Temp temp) {
+      sink.writeByte(TAG_TEMP);
+      writeVarLong(temp.index());
+    } else {
+      throw new EvalException("Cannot encode expression of type " + expression.getClass());
+    }
+  }
+
+  private void writeFunctionCall(String name, List<? extends Expression> args)
+      throws IOException {
+    writeNameReference(TAG_SMALL_FUNCTION_CALL, TAG_FUNCTION_CALL, name);
+    writeVarLong(args.size());
+    for (Expression arg : args) {
+      writeNode(arg);
+    }
+  }
+
+  private int binaryTag(BinaryExpression expression) {
+    if (expression instanceof Add) {
+      return TAG_ADD;
+    } else if (expression instanceof Sub) {
+      return TAG_SUB;
+    } else if (expression instanceof Mul) {
+      return TAG_MUL;
+    } else if (expression instanceof Div) {
+      return TAG_DIV;
+    } else if (expression instanceof Pow) {
+      return TAG_POW;
+    }
+    throw new EvalException("Cannot encode expression of type " + expression.getClass());
+  }
+
+  private void writeValue(Apcomplex value) throws IOException {
+    Apfloat real = value.real();
+    if (value.imag().signum() != 0) {
+      sink.writeByte(TAG_VALUE_COMPLEX);
+      sink.writeByte(value.radix());
+      writeVarLong(real.precision());
+      writeString(real.toString());
+      writeVarLong(value.imag().precision());
+      writeString(value.imag().toString());
+    } else if (real.signum() == 0) {
+      sink.writeByte(TAG_SMALL_INTEGER);
+    } else if (value.radix() != 10 || real.size() > 18) {
+      writePrecision(real.precision());
+      sink.writeByte(TAG_VALUE_REAL);
+      sink.writeByte(value.radix());
+      writeString(real.toString());
+    } else if (real.isInteger() && real.signum() > 0 && real.compareTo(SMALL_INTEGER_LIMIT) < 0) {
+      writePrecision(real.precision());
+      sink.writeByte(TAG_SMALL_INTEGER + real.intValue());
+    } else {
+      long exponent = real.scale() - real.size();
+      writePrecision(real.precision());
+      sink.writeByte(TAG_VALUE_DECIMAL);
+      writeVarLong(zigZag(ApfloatMath.scale(real, -exponent).longValue()));
+      writeVarLong(zigZag(exponent));
+    }
+  }
+
+  private void writePrecision(long precision) throws IOException {
+    if (this.precision != precision) {
+      sink.writeByte(TAG_PRECISION);
+      writeVarLong(precision);
+      this.precision = precision;
+    }
+  }
+
+  // The first occurrence of a name is preceded by a TAG_NAME entry defining it
+  private void writeNameReference(int smallTag, int tag, String name) throws IOException {
+    Integer index = names.get(name);
+    if (index == null) {
+      index = names.size();
+      names.put(name, index);
+      sink.writeByte(TAG_NAME);
+      writeString(name);
+    }
+    if (index < SMALL_LIMIT) {
+      sink.writeByte(smallTag + index);
+    } else {
+      sink.writeByte(tag);
+      writeVarLong(index);
+    }
+  }
+
+  private void writeString(String str) throws IOException {
+    byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+    writeVarLong(bytes.length);
+    sink.write(bytes);
+  }
+
+  private void writeVarLong(long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      sink.writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    sink.writeByte((int) value);
+  }
+
+  private static long zigZag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  private interface Sink {
+
+    void writeByte(int value) throws IOException;
+
+    void write(byte[] bytes) throws IOException;
+  }
+}
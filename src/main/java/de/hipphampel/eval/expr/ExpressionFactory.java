@@ -32,6 +32,9 @@ import org.apfloat.Apcomplex;
 
 /**
  * Collection of factory methods to create {@link Expression Expressions}
+ * <p>
+ * The methods create new instances on each call; {@link ExpressionInterner} provides the same
+ * methods returning canonical instances instead.
  */
 public class ExpressionFactory {
 
@@ -82,6 +85,17 @@ public class ExpressionFactory {
     return new FunctionCall(name, args);
   }
 
+  /**
+   * Factory method to create a {@link Let} expression.
+   *
+   * @param definitions The shared subexpressions
+   * @param body        The expression to evaluate
+   * @return {@code Expression}
+   */
+  public static Let let(List<Expression> definitions, Expression body) {
+    return new Let(definitions, body);
+  }
+
   /**
    * Factory method to create a {@link Mul} expression.
    *
@@ -126,6 +140,16 @@ public class ExpressionFactory {
     return new Pow(left, right);
   }
 
+  /**
+   * Factory method to create a {@link Temp} expression.
+   *
+   * @param index The index of the definition
+   * @return {@code Expression}
+   */
+  public static Temp temp(int index) {
+    return new Temp(index);
+  }
+
   /**
    * Factory method to create a {@link Value} expression
    *
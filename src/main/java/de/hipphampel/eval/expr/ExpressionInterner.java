@@ -0,0 +1,471 @@
+package de.hipphampel.eval.expr;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiFunction;
+import org.apfloat.Apcomplex;
+
+/**
+ * Maps structurally equal {@link Expression Expressions} to a single canonical instance.
+ * <p>
+ * Expressions often share identical subtrees, like the same {@link ValueName} or {@link Value}
+ * appearing several times. {@link #intern(Expression)} replaces such subtrees with canonical
+ * instances, so that each distinct subtree exists only once in memory. Since all children of a
+ * canonical instance are canonical as well, two canonical instances are equal if and only if they
+ * are identical, so canonical instances can be compared with {@code ==} or used as keys in an
+ * {@link java.util.IdentityHashMap}.
+ * <p>
+ * Internally, nodes are looked up by a hash that is computed from the identities of their
+ * children, so that interning a node takes constant time once its children are interned; the hash
+ * is computed once and stored along with the node. The canonical instances are referenced weakly,
+ * so they are garbage collected as soon as they are no longer used elsewhere.
+ * <p>
+ * All {@code Expression} types of this package are interned, including {@link Let}, {@link Temp},
+ * and {@link BoundFunctionCall}; instances of other types are returned as they are. In addition to
+ * {@code intern}, there are factory methods like {@link #add(Expression, Expression)}, which
+ * correspond to the ones of {@link ExpressionFactory} but return canonical instances. The factory
+ * methods for operators look up the canonical instance before creating a new one, so a parser
+ * building its result via these methods does not allocate the nodes of subtrees already known.
+ * Instances are thread safe.
+ */
+public final class ExpressionInterner {
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private final ReferenceQueue<Expression> queue;
+  private Entry[] table;
+  private int size;
+
+  /**
+   * Constructor.
+   */
+  public ExpressionInterner() {
+    this.queue = new ReferenceQueue<>();
+    this.table = new Entry[INITIAL_CAPACITY];
+  }
+
+  /**
+   * Returns the canonical instance of {@code expression}.
+   * <p>
+   * The returned instance is equal to {@code expression}, but the instance itself and all of its
+   * subtrees are canonical.
+   *
+   * @param expression The {@link Expression}
+   * @param <T>        The type of the {@code Expression}
+   * @return The canonical instance
+   */
+  @SuppressWarnings("unchecked")
+  public synchronized <T extends Expression> T intern(T expression) {
+    expungeStaleEntries();
+    return (T) internNode(expression);
+  }
+
+  /**
+   * Gets the number of canonical instances that are currently known.
+   *
+   * @return The number of instances
+   */
+  public synchronized int size() {
+    expungeStaleEntries();
+    return size;
+  }
+
+  /**
+   * Factory method to create a canonical {@link Add} expression.
+   *
+   * @param left  Left operand
+   * @param right Right operand
+   * @return {@code Expression}
+   */
+  public Add add(Expression left, Expression right) {
+    return binary(Add.class, left, right, Add::new);
+  }
+
+  /**
+   * Factory method to create a canonical {@link Div} expression.
+   *
+   * @param left  Left operand
+   * @param right Right operand
+   * @return {@code Expression}
+   */
+  public Div div(Expression left, Expression right) {
+    return binary(Div.class, left, right, Div::new);
+  }
+
+  /**
+   * Factory method to create a canonical {@link FunctionCall} expression.
+   *
+   * @param name The function name
+   * @param args The arguments
+   * @return {@code Expression}
+   */
+  public FunctionCall fn(String name, Expression... args) {
+    return intern(new FunctionCall(name, List.of(args)));
+  }
+
+  /**
+   * Factory method to create a canonical {@link Mul} expression.
+   *
+   * @param left  Left operand
+   * @param right Right operand
+   * @return {@code Expression}
+   */
+  public Mul mul(Expression left, Expression right) {
+    return binary(Mul.class, left, right, Mul::new);
+  }
+
+  /**
+   * Factory method to create a canonical {@link Neg} expression.
+   *
+   * @param arg Operand
+   * @return {@code Expression}
+   */
+  public synchronized Neg neg(Expression arg) {
+    expungeStaleEntries();
+    Expression canonical = internNode(arg);
+    int hash = finishHash(System.identityHashCode(canonical), Neg.class);
+    for (Entry entry = table[indexFor(hash, table.length)]; entry != null; entry = entry.next) {
+      if (entry.hash == hash && entry.get() instanceof Neg existing
+          && existing.arg() == canonical) {
+        return existing;
+      }
+    }
+    return (Neg) insert(new Neg(canonical), hash);
+  }
+
+  /**
+   * Factory method to create a canonical {@link Sub} expression.
+   *
+   * @param left  Left operand
+   * @param right Right operand
+   * @return {@code Expression}
+   */
+  public Sub sub(Expression left, Expression right) {
+    return binary(Sub.class, left, right, Sub::new);
+  }
+
+  /**
+   * Factory method to create a canonical {@link Pow} expression.
+   *
+   * @param left  Left operand
+   * @param right Right operand
+   * @return {@code Expression}
+   */
+  public Pow pow(Expression left, Expression right) {
+    return binary(Pow.class, left, right, Pow::new);
+  }
+
+  /**
+   * Factory method to create a canonical {@link Value} expression
+   *
+   * @param value The value
+   * @return {@code Expression}
+   */
+  public Value val(Apcomplex value) {
+    return intern(new Value(value));
+  }
+
+  /**
+   * Factory method to create a canonical {@link ValueName} expression
+   *
+   * @param name The name of the variable.
+   * @return {@code Expression}
+   */
+  public ValueName var(String name) {
+    return intern(new ValueName(name));
+  }
+
+  /**
+   * Factory method to create a canonical {@link Let} expression.
+   *
+   * @param definitions The definitions
+   * @param body        The body
+   * @return {@code Expression}
+   */
+  public Let let(List<Expression> definitions, Expression body) {
+    return intern(new Let(definitions, body));
+  }
+
+  /**
+   * Factory method to create a canonical {@link Temp} expression.
+   *
+   * @param index The index of the definition
+   * @return {@code Expression}
+   */
+  public Temp temp(int index) {
+    return intern(new Temp(index));
+  }
+
+  // Looks up the canonical binary expression before creating a new one
+  private synchronized <T extends BinaryExpression> T binary(Class<T> type, Expression left,
+      Expression right, BiFunction<Expression, Expression, T> factory) {
+    expungeStaleEntries();
+    Expression canonicalLeft = internNode(left);
+    Expression canonicalRight = internNode(right);
+    int hash = binaryHash(type, canonicalLeft, canonicalRight);
+    for (Entry entry = table[indexFor(hash, table.length)]; entry != null; entry = entry.next) {
+      Expression existing = entry.get();
+      if (entry.hash == hash && existing != null && existing.getClass() == type
+          && ((BinaryExpression) existing).left() == canonicalLeft
+          && ((BinaryExpression) existing).right() == canonicalRight) {
+        return type.cast(existing);
+      }
+    }
+    return type.cast(insert(factory.apply(canonicalLeft, canonicalRight), hash));
+  }
+
+  private Expression internNode(Expression expression) {
+    int hash = shallowHash(expression);
+    if (hash == 0 || isCanonical(expression, hash)) {
+      return expression;
+    }
+
+    Expression candidate = withCanonicalChildren(expression);
+    if (candidate != expression) {
+      hash = shallowHash(candidate);
+    }
+    for (Entry entry = table[indexFor(hash, table.length)]; entry != null; entry = entry.next) {
+      Expression existing = entry.get();
+      if (entry.hash == hash && existing != null && shallowEquals(existing, candidate)) {
+        return existing;
+      }
+    }
+    return insert(candidate, hash);
+  }
+
+  private Expression insert(Expression expression, int hash) {
+    int index = indexFor(hash, table.length);
+    table[index] = new Entry(expression, hash, table[index], queue);
+    if (++size > table.length * 3 / 4) {
+      resize();
+    }
+    return expression;
+  }
+
+  private boolean isCanonical(Expression expression, int hash) {
+    for (Entry entry = table[indexFor(hash, table.length)]; entry != null; entry = entry.next) {
+      if (entry.get() == expression) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private Expression withCanonicalChildren(Expression expression) {
+    if (expression instanceof BinaryExpression binary) {
+      Expression left = internNode(binary.left());
+      Expression right = internNode(binary.right());
+      if (left == binary.left() && right == binary.right()) {
+        return expression;
+      }
+      if (expression instanceof Add) {
+        return new Add(left, right);
+      } else if (expression instanceof Sub) {
+        return new Sub(left, right);
+      } else if (expression instanceof Mul) {
+        return new Mul(left, right);
+      } else if (expression instanceof Div) {
+        return new Div(left, right);
+      } else {
+        return new Pow(left, right);
+      }
+    } else if (expression instanceof Neg neg) {
+      Expression arg = internNode(neg.arg());
+      return arg == neg.arg() ? expression : new Neg(arg);
+    } else if (expression instanceof FunctionCall call) {
+      List<Expression> args = internAll(call.arguments());
+      return args == null ? expression : new FunctionCall(call.name(), args);
+    } else if (expression instanceof BoundFunctionCall call) {
+      List<Expression> args = internAll(call.arguments());
+      return args == null ? expression : new BoundFunctionCall(call.name(), args);
+    } else if (expression instanceof Let let) {
+      List<Expression> definitions = internAll(let.definitions());
+      Expression body = internNode(let.body());
+      if (definitions == null && body == let.body()) {
+        return expression;
+      }
+      return new Let(definitions == null ? let.definitions() : definitions, body);
+    }
+    return expression;
+  }
+
+  // Returns the canonical instances of the expressions, or null, if they are canonical already
+  private List<Expression> internAll(List<? extends Expression> expressions) {
+    List<Expression> canonicals = new ArrayList<>(expressions.size());
+    boolean changed = false;
+    for (Expression expression : expressions) {
+      Expression canonical = internNode(expression);
+      changed |= canonical != expression;
+      canonicals.add(canonical);
+    }
+    return changed ? List.copyOf(canonicals) : null;
+  }
+
+  // Hash based on the identity of the children; 0 for expressions that are not interned
+  private static int shallowHash(Expression expression) {
+    int hash;
+    if (expression instanceof Value value) {
+      hash = value.value().hashCode();
+    } else if (expression instanceof ValueName valueName) {
+      hash = valueName.name().hashCode();
+    } else if (isKnownBinary(expression)) {
+      BinaryExpression binary = (BinaryExpression) expression;
+      return binaryHash(expression.getClass(), binary.left(), binary.right());
+    } else if (expression instanceof Neg neg) {
+      hash = System.identityHashCode(neg.arg());
+    } else if (expression instanceof FunctionCall call) {
+      hash = identityHash(call.name().hashCode(), call.arguments());
+    } else if (expression instanceof BoundFunctionCall call) {
+      hash = identityHash(call.name().hashCode(), call.arguments());
+    } else if (expression instanceof Let let) {
+      hash = identityHash(System.identityHashCode(let.body()), let.definitions());
+    } else if (expression instanceof Temp temp) {
+      hash = temp.index();
+    } else {
+      return 0;
+    }
+    return finishHash(hash, expression.getClass());
+  }
+
+  private static int binaryHash(Class<?> type, Expression left, Expression right) {
+    return finishHash(System.identityHashCode(left) * 31 + System.identityHashCode(right), type);
+  }
+
+  private static int identityHash(int hash, List<? extends Expression> expressions) {
+    for (Expression expression : expressions) {
+      hash = hash * 31 + System.identityHashCode(expression);
+    }
+    return hash;
+  }
+
+  private static int finishHash(int hash, Class<?> type) {
+    hash = hash * 31 + type.hashCode();
+    return hash == 0 ? 1 : hash;
+  }
+
+  // Equality assuming that the children of both expressions are canonical
+  private static boolean shallowEquals(Expression a, Expression b) {
+    if (a.getClass() != b.getClass()) {
+      return false;
+    }
+    if (a instanceof Value va) {
+      Apcomplex x = va.value();
+      Apcomplex y = ((Value) b).value();
+      return x.equals(y) && x.radix() == y.radix()
+          && x.real().precision() == y.real().precision()
+          && x.imag().precision() == y.imag().precision();
+    } else if (a instanceof ValueName va) {
+      return va.name().equals(((ValueName) b).name());
+    } else if (a instanceof BinaryExpression ba) {
+      BinaryExpression bb = (BinaryExpression) b;
+      return ba.left() == bb.left() && ba.right() == bb.right();
+    } else if (a instanceof Neg na) {
+      return na.arg() == ((Neg) b).arg();
+    } else if (a instanceof FunctionCall fa) {
+      FunctionCall fb = (FunctionCall) b;
+      return fa.name().equals(fb.name()) && identical(fa.arguments(), fb.arguments());
+    } else if (a instanceof BoundFunctionCall fa) {
+      BoundFunctionCall fb = (BoundFunctionCall) b;
+      return fa.name().equals(fb.name()) && identical(fa.arguments(), fb.arguments());
+    } else if (a instanceof Let la) {
+      Let lb = (Let) b;
+      return la.body() == lb.body() && identical(la.definitions(), lb.definitions());
+    } else {
+      return ((Temp) a).index() == ((Temp) b).index();
+    }
+  }
+
+  private static boolean identical(List<? extends Expression> a, List<? extends Expression> b) {
+    if (a.size() != b.size()) {
+      return false;
+    }
+    for (int i = 0; i < a.size(); i++) {
+      if (a.get(i) != b.get(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isKnownBinary(Expression expression) {
+    return expression instanceof Add || expression instanceof Sub || expression instanceof Mul
+        || expression instanceof Div || expression instanceof Pow;
+  }
+
+  private void resize() {
+    Entry[] newTable = new Entry[table.length * 2];
+    for (Entry head : table) {
+      for (Entry entry = head; entry != null; ) {
+        Entry next = entry.next;
+        int index = indexFor(entry.hash, newTable.length);
+        entry.next = newTable[index];
+        newTable[index] = entry;
+        entry = next;
+      }
+    }
+    table = newTable;
+  }
+
+  private void expungeStaleEntries() {
+    for (Object stale; (stale = queue.poll()) != null; ) {
+      Entry entry = (Entry) stale;
+      int index = indexFor(entry.hash, table.length);
+      Entry prev = null;
+      for (Entry e = table[index]; e != null; prev = e, e = e.next) {
+        if (e == entry) {
+          if (prev == null) {
+            table[index] = e.next;
+          } else {
+            prev.next = e.next;
+          }
+          size--;
+          break;
+        }
+      }
+    }
+  }
+
+  private static int indexFor(int hash, int length) {
+    return (hash ^ (hash >>> 16)) & (length - 1);
+  }
+
+  private static final class Entry extends WeakReference<Expression> {
+
+    private final int hash;
+    private Entry next;
+
+    Entry(Expression expression, int hash, Entry next, ReferenceQueue<Expression> queue) {
+      super(expression, queue);
+      this.hash = hash;
+      this.next = next;
+    }
+  }
+}
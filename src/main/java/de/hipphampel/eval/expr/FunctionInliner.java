@@ -0,0 +1,251 @@
+package de.hipphampel.eval.expr;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import de.hipphampel.eval.Context;
+import de.hipphampel.eval.definition.ExpressionFunction;
+import de.hipphampel.eval.definition.FunctionDefinition;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Inlining of {@link ExpressionFunction ExpressionFunctions}.
+ * <p>
+ * Calling a function defined via {@link Context#function(String, List, String)} is relatively
+ * expensive: the arguments are assigned to the variables of a private {@code Context}, and the
+ * definition is evaluated as a separate tree. Moreover, the definition is opaque for
+ * {@linkplain Expression#simplify(Context) simplification} and the other optimizations.
+ * {@link #inline(Context, Expression) inline} replaces such calls with the definitions of the
+ * functions, in which the parameters are replaced with the arguments of the call. For example,
+ * given the function {@code sq(a) = a*a}, the expression {@code sq(x+1)+sq(2)} becomes
+ * {@code (x+1)*(x+1)+4}.
+ * <p>
+ * An argument that is neither a {@link Value} nor a name and that is used more than once in the
+ * definition is evaluated only once: it becomes a definition of a {@link Let}, and the parameter
+ * refers to it via a {@link Temp}; so the example above in fact results in a {@code Let} having
+ * {@code x+1} as definition.
+ * <p>
+ * Only functions whose definition has at most {@code maxSize} nodes, after their own calls are
+ * inlined, are inlined, so that the expression does not grow without bounds. Functions that are
+ * evaluated with a different precision than the one of the {@code Context} are never inlined.
+ * Apart from this, the inlined expression evaluates to the same result, only the rounding of the
+ * arguments to the precision of the function is skipped.
+ */
+public final class FunctionInliner {
+
+  /**
+   * The default for the maximum number of nodes of a function definition to inline.
+   */
+  public static final int DEFAULT_MAX_SIZE = 32;
+
+  private final Context<?, ?> context;
+  private final int maxSize;
+  private final Map<ExpressionFunction, Expression> definitions = new HashMap<>();
+
+  private FunctionInliner(Context<?, ?> context, int maxSize) {
+    this.context = context;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Inlines the calls of {@link ExpressionFunction ExpressionFunctions} having at most
+   * {@link #DEFAULT_MAX_SIZE} nodes.
+   * <p>
+   * This is a shortcut for calling {@link #inline(Context, Expression, int)}.
+   *
+   * @param context    The {@link Context} the functions are looked up in
+   * @param expression The {@link Expression}
+   * @return The resulting {@code Expression}
+   * @throws de.hipphampel.eval.exception.EvalException If a function is unknown
+   */
+  public static Expression inline(Context<?, ?> context, Expression expression) {
+    return inline(context, expression, DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * Inlines the calls of {@link ExpressionFunction ExpressionFunctions} having at most
+   * {@code maxSize} nodes.
+   * <p>
+   * The {@code expression} is {@linkplain Expression#simplify(Context) simplified} before and
+   * after inlining, so that invariant parts of the inlined definitions are folded into
+   * {@link Value Values}.
+   *
+   * @param context    The {@link Context} the functions are looked up in
+   * @param expression The {@link Expression}
+   * @param maxSize    The maximum number of nodes of a definition to inline
+   * @return The resulting {@code Expression}
+   * @throws de.hipphampel.eval.exception.EvalException If a function is unknown
+   */
+  public static Expression inline(Context<?, ?> context, Expression expression, int maxSize) {
+    Expression simplified = expression.simplify(context);
+    return new FunctionInliner(context, maxSize).rewrite(simplified).simplify(context);
+  }
+
+  private Expression rewrite(Expression expression) {
+    if (expression instanceof Let let) {
+      List<Expression> definitions = new ArrayList<>(let.definitions().size());
+      for (Expression definition : let.definitions()) {
+        definitions.add(rewrite(definition));
+      }
+      return new Let(definitions, rewrite(let.body()));
+    }
+    Expression result = CommonSubexpressions.mapChildren(expression, this::rewrite);
+    if (result instanceof FunctionCall call) {
+      return inlineCall(result, context.function(call.name()), call.arguments());
+    } else if (result instanceof BoundFunctionCall call) {
+      return inlineCall(result, call.function(context), call.arguments());
+    }
+    return result;
+  }
+
+  private Expression inlineCall(Expression call, FunctionDefinition function,
+      List<? extends Expression> arguments) {
+    if (!(function instanceof ExpressionFunction expressionFunction)
+        || expressionFunction.precision() != context.precision()
+        || arguments.size() != expressionFunction.parameters().size()) {
+      return call;
+    }
+    Expression definition = definition(expressionFunction);
+    if (definition == null) {
+      return call;
+    }
+
+    // A Temp of an enclosing Let is not visible in a nested Let, so arguments having free Temps
+    // must neither be substituted into a Let of the definition nor be wrapped into a new one, and
+    // a Temp for a shared argument must not be substituted into a Let of the definition
+    List<String> parameters = expressionFunction.parameters();
+    Map<String, Expression> replacements = new HashMap<>();
+    List<Expression> shared = new ArrayList<>();
+    boolean freeTemps = false;
+    for (int i = 0; i < parameters.size(); i++) {
+      Expression argument = arguments.get(i);
+      String parameter = parameters.get(i);
+      boolean argumentFreeTemps = hasFreeTemps(argument);
+      if (argumentFreeTemps && isUsedInLet(definition, parameter)) {
+        return call;
+      }
+      if (argument instanceof Value || argument instanceof ValueName || argument instanceof Temp
+          || countUses(definition, parameter) <= 1) {
+        replacements.put(parameter, argument);
+        freeTemps |= argumentFreeTemps;
+      } else if (argumentFreeTemps || isUsedInLet(definition, parameter)) {
+        // The Temp of the new Let would be shadowed by the Lets of the definition
+        return call;
+      } else {
+        replacements.put(parameter, new Temp(shared.size()));
+        shared.add(argument);
+      }
+    }
+    if (freeTemps && !shared.isEmpty()) {
+      return call;
+    }
+    Expression body = substitute(definition, replacements);
+    return shared.isEmpty() ? body : new Let(shared, body);
+  }
+
+  // Returns the definition with the inner calls inlined, or null, if it is too large
+  private Expression definition(ExpressionFunction function) {
+    if (definitions.containsKey(function)) {
+      return definitions.get(function);
+    }
+    Expression definition = rewrite(function.definition());
+    if (size(definition) > maxSize) {
+      definition = null;
+    }
+    definitions.put(function, definition);
+    return definition;
+  }
+
+  static Expression substitute(Expression expression,
+      Map<String, Expression> replacements) {
+    if (expression instanceof ValueName name && replacements.containsKey(name.name())) {
+      return replacements.get(name.name());
+    } else if (expression instanceof Let let) {
+      List<Expression> definitions = new ArrayList<>(let.definitions().size());
+      for (Expression definition : let.definitions()) {
+        definitions.add(substitute(definition, replacements));
+      }
+      return new Let(definitions, substitute(let.body(), replacements));
+    }
+    return CommonSubexpressions.mapChildren(expression,
+        child -> substitute(child, replacements));
+  }
+
+  private static int countUses(Expression expression, String parameter) {
+    int[] count = {0};
+    visit(expression, node -> {
+      if (node instanceof ValueName name && name.name().equals(parameter)) {
+        count[0]++;
+      }
+    });
+    return count[0];
+  }
+
+  private static boolean isUsedInLet(Expression expression, String parameter) {
+    boolean[] found = {false};
+    visit(expression, node -> {
+      if (node instanceof Let let) {
+        found[0] |= countUses(let, parameter) > 0;
+      }
+    });
+    return found[0];
+  }
+
+  private static int size(Expression expression) {
+    int[] count = {0};
+    visit(expression, node -> count[0]++);
+    return count[0];
+  }
+
+  private static boolean hasFreeTemps(Expression expression) {
+    if (expression instanceof Temp) {
+      return true;
+    }
+    boolean[] found = {false};
+    CommonSubexpressions.mapChildren(expression, child -> {
+      found[0] |= hasFreeTemps(child);
+      return child;
+    });
+    return found[0];
+  }
+
+  private static void visit(Expression expression, Consumer<Expression> action) {
+    action.accept(expression);
+    if (expression instanceof Let let) {
+      let.definitions().forEach(definition -> visit(definition, action));
+      visit(let.body(), action);
+    } else {
+      CommonSubexpressions.mapChildren(expression, child -> {
+        visit(child, action);
+        return child;
+      });
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package de.hipphampel.eval.expr;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import de.hipphampel.eval.exception.EvalException;
+import java.util.Map;
+import java.util.Objects;
+import org.apfloat.Apcomplex;
+
+/**
+ * The value of an {@link Expression} together with its partial derivatives.
+ * <p>
+ * Instances are created by {@link Gradients#evaluate(de.hipphampel.eval.Context, Expression)}.
+ *
+ * @param value    The value of the {@code Expression}
+ * @param partials The partial derivatives, keyed by the names of the variables
+ */
+public record Gradient(Apcomplex value, Map<String, Apcomplex> partials) {
+
+  /**
+   * Constructor.
+   *
+   * @param value    The value of the {@code Expression}
+   * @param partials The partial derivatives, keyed by the names of the variables
+   */
+  public Gradient {
+    Objects.requireNonNull(value);
+    partials = Map.copyOf(partials);
+  }
+
+  /**
+   * Returns the partial derivative with respect to {@code variable}.
+   *
+   * @param variable The name of the variable
+   * @return The partial derivative
+   * @throws EvalException If there is no such variable
+   */
+  public Apcomplex partial(String variable) {
+    Apcomplex partial = partials.get(variable);
+    if (partial == null) {
+      throw new EvalException("No such variable '" + variable + "'");
+    }
+    return partial;
+  }
+}
@@ -0,0 +1,308 @@
+package de.hipphampel.eval.expr;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import de.hipphampel.eval.Context;
+import de.hipphampel.eval.definition.Derivative;
+import de.hipphampel.eval.definition.ExpressionFunction;
+import de.hipphampel.eval.definition.FunctionDefinition;
+import de.hipphampel.eval.exception.EvalException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apfloat.Apcomplex;
+import org.apfloat.FixedPrecisionApcomplexHelper;
+
+/**
+ * Evaluation of {@link Expression Expressions} with reverse mode automatic differentiation.
+ * <p>
+ * {@link #evaluate(Context, Expression) evaluate} calculates the value of an {@code Expression}
+ * together with its partial derivatives with respect to all variables of the {@link Context}. In
+ * contrast to {@link Derivatives}, which creates one {@code Expression} per variable, this needs
+ * only two passes over the {@code Expression}: the forward pass evaluates it and records each
+ * intermediate result on a tape, the reverse pass walks the tape backwards and accumulates the
+ * derivative of the result with respect to each intermediate result. So the costs are a small
+ * multiple of a plain evaluation, independent of the number of variables.
+ * <p>
+ * The derivatives of the functions are provided by
+ * {@link FunctionDefinition#derivatives(Context, List, Apcomplex)}; the
+ * {@link de.hipphampel.eval.definition.StandardFunctions StandardFunctions} implement it, calls of
+ * {@link ExpressionFunction ExpressionFunctions} are differentiated through their definitions.
+ * Since not all functions are holomorphic, the derivatives are tracked as pairs of Wirtinger
+ * derivatives (see {@link Derivative}). The partial derivatives returned are the derivatives along
+ * the real axis of the variables; for a holomorphic {@code Expression} they are the complex
+ * derivatives.
+ */
+public final class Gradients {
+
+  private static final Apcomplex MINUS_ONE = Apcomplex.ONE.negate();
+  private static final int[] NO_INPUTS = {};
+  private static final int[] NO_TEMPS = {};
+
+  private final Context<?, ?> context;
+  private final FixedPrecisionApcomplexHelper helper;
+  private final Set<String> variableNames;
+  private final Map<String, Integer> variables = new HashMap<>();
+  private final List<Step> steps = new ArrayList<>();
+  private Apcomplex[] values = new Apcomplex[16];
+
+  private Gradients(Context<?, ?> context) {
+    this.context = context;
+    this.helper = context.precisionHelper();
+    this.variableNames = context.variables().keySet();
+  }
+
+  /**
+   * Evaluates {@code expression} and its partial derivatives with respect to all variables of
+   * {@code context}.
+   * <p>
+   * The value is the same as {@link Expression#evaluate(Context) Expression.evaluate} returns.
+   * The variables not used by {@code expression} have a partial derivative of zero.
+   *
+   * @param context    The {@link Context}
+   * @param expression The {@link Expression}
+   * @return The {@link Gradient}
+   * @throws EvalException If {@code expression} cannot be evaluated or differentiated
+   */
+  public static Gradient evaluate(Context<?, ?> context, Expression expression) {
+    return new Gradients(context).run(expression);
+  }
+
+  private Gradient run(Expression expression) {
+    int result = record(expression, NO_TEMPS, Map.of());
+    int size = steps.size();
+    Apcomplex[] adjoints = new Apcomplex[size];
+    Apcomplex[] conjugates = new Apcomplex[size];
+    adjoints[result] = Apcomplex.ONE;
+    for (int i = result; i >= 0; i--) {
+      Step step = steps.get(i);
+      if (step.active && step.inputs.length > 0
+          && (adjoints[i] != null || conjugates[i] != null)) {
+        backward(i, step, adjoints, conjugates);
+      }
+    }
+
+    Map<String, Apcomplex> partials = new HashMap<>();
+    for (String name : variableNames) {
+      Integer index = variables.get(name);
+      Apcomplex partial = Apcomplex.ZERO;
+      if (index != null) {
+        partial = sum(adjoints[index], conjugates[index]);
+      }
+      partials.put(name, partial);
+    }
+    return new Gradient(values[result], partials);
+  }
+
+  // Forward pass: returns the index of the step having the value of expression
+  private int record(Expression expression, int[] temps, Map<String, Integer> parameters) {
+    if (expression instanceof Value value) {
+      return step(null, null, NO_INPUTS, false, value.value());
+    } else if (expression instanceof ValueName name) {
+      Integer index = parameters.get(name.name());
+      return index != null ? index : variable(name.name());
+    } else if (expression instanceof Temp temp) {
+      if (temp.index() < 0 || temp.index() >= temps.length) {
+        throw new EvalException("Temporary #" + temp.index() + " is not defined");
+      }
+      return temps[temp.index()];
+    } else if (expression instanceof Let let) {
+      int[] definitions = new int[let.definitions().size()];
+      for (int i = 0; i < definitions.length; i++) {
+        definitions[i] = record(let.definitions().get(i), Arrays.copyOf(definitions, i),
+            parameters);
+      }
+      return record(let.body(), definitions, parameters);
+    } else if (expression instanceof BinaryExpression binary) {
+      int left = record(binary.left(), temps, parameters);
+      int right = record(binary.right(), temps, parameters);
+      Apcomplex value = binary.evaluate(context, values[left], values[right]);
+      return step(expression, null, new int[]{left, right},
+          steps.get(left).active || steps.get(right).active, value);
+    } else if (expression instanceof Neg neg) {
+      int arg = record(neg.arg(), temps, parameters);
+      Apcomplex value = neg.evaluate(context, values[arg]);
+      return step(expression, null, new int[]{arg}, steps.get(arg).active, value);
+    } else if (expression instanceof FunctionCall call) {
+      return call(context.function(call.name()), call.arguments(), temps, parameters);
+    } else if (expression instanceof BoundFunctionCall call) {
+      return call(call.function(context), call.arguments(), temps, parameters);
+    } else if (expression.isInvariant(context)) {
+      return step(null, null, NO_INPUTS, false, expression.evaluate(context));
+    }
+    throw new EvalException(
+        "Cannot differentiate expression of type '" + expression.getClass().getName() + "'");
+  }
+
+  private int call(FunctionDefinition function, List<? extends Expression> arguments, int[] temps,
+      Map<String, Integer> parameters) {
+    int count = arguments.size();
+    if (count < function.minArgs() || count > function.maxArgs()) {
+      throw new EvalException("Invalid parameter count for function '" + function.name() + "'");
+    }
+    int[] inputs = new int[count];
+    List<Apcomplex> args = new ArrayList<>(count);
+    boolean active = false;
+    for (int i = 0; i < count; i++) {
+      inputs[i] = record(arguments.get(i), temps, parameters);
+      args.add(values[inputs[i]]);
+      active |= steps.get(inputs[i]).active;
+    }
+    if (active && function instanceof ExpressionFunction expressionFunction) {
+      Map<String, Integer> bindings = new HashMap<>();
+      for (int i = 0; i < count; i++) {
+        bindings.put(expressionFunction.parameters().get(i), inputs[i]);
+      }
+      return record(expressionFunction.definition(), NO_TEMPS, bindings);
+    }
+    return step(null, function, inputs, active, function.evaluate(context, args));
+  }
+
+  private int variable(String name) {
+    Integer index = variables.get(name);
+    if (index == null) {
+      index = step(null, null, NO_INPUTS, variableNames.contains(name),
+          context.valueAsApcomplex(name));
+      variables.put(name, index);
+    }
+    return index;
+  }
+
+  private int step(Expression node, FunctionDefinition function, int[] inputs, boolean active,
+      Apcomplex value) {
+    int index = steps.size();
+    if (index == values.length) {
+      values = Arrays.copyOf(values, index * 2);
+    }
+    values[index] = value;
+    steps.add(new Step(node, function, inputs, active));
+    return index;
+  }
+
+  // Reverse pass: distributes the adjoints of step i to its inputs
+  private void backward(int i, Step step, Apcomplex[] adjoints, Apcomplex[] conjugates) {
+    int[] inputs = step.inputs;
+    if (step.function != null) {
+      List<Apcomplex> args = new ArrayList<>(inputs.length);
+      for (int input : inputs) {
+        args.add(values[input]);
+      }
+      List<Derivative> derivatives = step.function.derivatives(context, args, values[i]);
+      for (int j = 0; j < inputs.length; j++) {
+        Derivative derivative = derivatives.get(j);
+        propagate(i, inputs[j], derivative.value(), derivative.conjugate(), adjoints,
+            conjugates);
+      }
+    } else if (step.node instanceof Add) {
+      propagate(i, inputs[0], Apcomplex.ONE, Apcomplex.ZERO, adjoints, conjugates);
+      propagate(i, inputs[1], Apcomplex.ONE, Apcomplex.ZERO, adjoints, conjugates);
+    } else if (step.node instanceof Sub) {
+      propagate(i, inputs[0], Apcomplex.ONE, Apcomplex.ZERO, adjoints, conjugates);
+      propagate(i, inputs[1], MINUS_ONE, Apcomplex.ZERO, adjoints, conjugates);
+    } else if (step.node instanceof Neg) {
+      propagate(i, inputs[0], MINUS_ONE, Apcomplex.ZERO, adjoints, conjugates);
+    } else if (step.node instanceof Mul) {
+      propagate(i, inputs[0], values[inputs[1]], Apcomplex.ZERO, adjoints, conjugates);
+      propagate(i, inputs[1], values[inputs[0]], Apcomplex.ZERO, adjoints, conjugates);
+    } else if (step.node instanceof Div) {
+      Apcomplex right = values[inputs[1]];
+      propagate(i, inputs[0], helper.divide(Apcomplex.ONE, right), Apcomplex.ZERO, adjoints,
+          conjugates);
+      if (steps.get(inputs[1]).active) {
+        propagate(i, inputs[1], helper.negate(helper.divide(values[i], right)), Apcomplex.ZERO,
+            adjoints, conjugates);
+      }
+    } else if (step.node instanceof Pow) {
+      Apcomplex base = values[inputs[0]];
+      Apcomplex exponent = values[inputs[1]];
+      if (steps.get(inputs[0]).active) {
+        // (u^v)' = v*u^(v-1), computed as v*u^v/u unless u is zero
+        Apcomplex derivative = base.equals(Apcomplex.ZERO)
+            ? helper.multiply(exponent, helper.pow(base, helper.subtract(exponent, Apcomplex.ONE)))
+            : helper.divide(helper.multiply(exponent, values[i]), base);
+        propagate(i, inputs[0], derivative, Apcomplex.ZERO, adjoints, conjugates);
+      }
+      if (steps.get(inputs[1]).active) {
+        propagate(i, inputs[1], helper.multiply(values[i], helper.log(base)), Apcomplex.ZERO,
+            adjoints, conjugates);
+      }
+    } else {
+      throw new EvalException(
+          "Cannot differentiate expression of type '" + step.node.getClass().getName() + "'");
+    }
+  }
+
+  // Applies the chain rule for the Wirtinger derivatives (value, conjugate) of step i with
+  // respect to input
+  private void propagate(int i, int input, Apcomplex value, Apcomplex conjugate,
+      Apcomplex[] adjoints, Apcomplex[] conjugates) {
+    if (!steps.get(input).active) {
+      return;
+    }
+    Apcomplex adjoint = adjoints[i];
+    Apcomplex adjointOfConjugate = conjugates[i];
+    if (adjoint != null) {
+      adjoints[input] = sum(adjoints[input], product(adjoint, value));
+      if (!conjugate.equals(Apcomplex.ZERO)) {
+        conjugates[input] = sum(conjugates[input], product(adjoint, conjugate));
+      }
+    }
+    if (adjointOfConjugate != null) {
+      if (!conjugate.equals(Apcomplex.ZERO)) {
+        adjoints[input] = sum(adjoints[input],
+            product(adjointOfConjugate, helper.conj(conjugate)));
+      }
+      conjugates[input] = sum(conjugates[input],
+          product(adjointOfConjugate, helper.conj(value)));
+    }
+  }
+
+  private Apcomplex product(Apcomplex left, Apcomplex right) {
+    if (right == Apcomplex.ONE) {
+      return left;
+    } else if (right == MINUS_ONE) {
+      return helper.negate(left);
+    }
+    return helper.multiply(left, right);
+  }
+
+  // null stands for zero
+  private Apcomplex sum(Apcomplex left, Apcomplex right) {
+    if (left == null) {
+      return right == null ? Apcomplex.ZERO : right;
+    }
+    return right == null ? left : helper.add(left, right);
+  }
+
+  private record Step(Expression node, FunctionDefinition function, int[] inputs,
+                      boolean active) {
+
+  }
+}
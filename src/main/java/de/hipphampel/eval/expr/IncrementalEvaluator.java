@@ -0,0 +1,342 @@
+package de.hipphampel.eval.expr;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import de.hipphampel.eval.Context;
+import de.hipphampel.eval.definition.Constant;
+import de.hipphampel.eval.definition.Definition;
+import de.hipphampel.eval.definition.FunctionDefinition;
+import de.hipphampel.eval.definition.Variable;
+import de.hipphampel.eval.exception.EvalException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.apfloat.Apcomplex;
+
+/**
+ * Keeps the values of many {@link Expression Expressions} up to date while variables change.
+ * <p>
+ * The {@code Expressions} {@link #add(Expression) added} to this instance are merged into one graph
+ * of nodes, in which structurally equal subexpressions are represented by the same node, even if
+ * they belong to different {@code Expressions}. Each node memoizes its value. When a
+ * {@link Variable} of the {@link Context} is changed, only the nodes depending on it are marked as
+ * dirty; nodes that are not dirty keep their memoized value. So after changing a few variables, the
+ * costs of bringing all values up to date are proportional to the number of nodes depending on the
+ * changed variables rather than to the total size of the {@code Expressions}.
+ * <p>
+ * Dirty nodes are recomputed either lazily, when the value of a {@link Handle} is requested, or
+ * eagerly by calling {@link #refresh()}. The nodes are marked as dirty right when a variable is
+ * set, e.g. via {@link Context#variable(String, Object)}: this instance registers a
+ * {@link Variable.Listener Listener} at each variable it uses, so it does not matter how the
+ * variable is changed, and changes of other variables cost nothing.
+ * <p>
+ * All names and functions are resolved when an {@code Expression} is added. Expression types unknown
+ * to this class are evaluated as a whole; unless they are invariant, they depend on all variables
+ * the {@code Context} has at the time they are added. Instances are not thread safe, this includes
+ * setting the variables used while an instance is in use.
+ */
+public final class IncrementalEvaluator {
+
+  private static final Node[] NO_NODES = {};
+
+  private final Context<?, ?> context;
+  private final Map<Object, Node> nodes = new HashMap<>();
+  private final Map<String, Node> variables = new HashMap<>();
+  private final List<Node> pending = new ArrayList<>();
+
+  /**
+   * Constructor.
+   *
+   * @param context The {@link Context} to evaluate with
+   */
+  public IncrementalEvaluator(Context<?, ?> context) {
+    this.context = Objects.requireNonNull(context);
+  }
+
+  /**
+   * Gets the {@link Context} this instance evaluates with.
+   *
+   * @return The {@code Context}
+   */
+  public Context<?, ?> context() {
+    return context;
+  }
+
+  /**
+   * Adds the given {@code expression} to this instance.
+   * <p>
+   * The nodes of {@code expression} that are not yet part of the graph are evaluated immediately.
+   *
+   * @param expression The {@link Expression}
+   * @return The {@link Handle} to get the value of {@code expression}
+   * @throws EvalException If {@code expression} refers to unknown names, calls a function with a
+   *                       wrong number of arguments or cannot be evaluated
+   */
+  public Handle add(Expression expression) {
+    return new Handle(expression, node(expression, NO_NODES));
+  }
+
+  /**
+   * Recomputes the values of all nodes that are dirty.
+   * <p>
+   * Afterwards, the values of all {@link Handle Handles} are up to date, so that requesting them
+   * does not cause any further computations, unless variables are changed again.
+   *
+   * @throws EvalException If a node cannot be evaluated
+   */
+  public void refresh() {
+    for (Node node : pending) {
+      value(node);
+    }
+    pending.clear();
+  }
+
+  /**
+   * Gets the number of nodes of the graph.
+   * <p>
+   * Since structurally equal subexpressions share the same node, this is usually less than the total
+   * number of nodes of the {@link Expression Expressions} added.
+   *
+   * @return The number of nodes
+   */
+  public int nodeCount() {
+    return nodes.size() + variables.size();
+  }
+
+  // Called when the variable of node is set, marks the nodes depending on it as dirty
+  private void changed(Node node) {
+    node.value = node.variable.value(context);
+    if (pending.size() > nodes.size()) {
+      // Nodes recomputed lazily are still pending
+      pending.removeIf(pendingNode -> !pendingNode.dirty);
+    }
+    int next = pending.size();
+    invalidate(node);
+    while (next < pending.size()) {
+      invalidate(pending.get(next++));
+    }
+  }
+
+  private void invalidate(Node node) {
+    for (int i = 0; i < node.dependentCount; i++) {
+      Node dependent = node.dependents[i];
+      if (!dependent.dirty) {
+        dependent.dirty = true;
+        pending.add(dependent);
+      }
+    }
+  }
+
+  private Apcomplex value(Node node) {
+    if (node.dirty) {
+      node.value = compute(node);
+      node.dirty = false;
+    }
+    return node.value;
+  }
+
+  private Apcomplex compute(Node node) {
+    if (node.operation instanceof BinaryExpression binary) {
+      return binary.evaluate(context, value(node.inputs[0]), value(node.inputs[1]));
+    } else if (node.operation instanceof Neg neg) {
+      return neg.evaluate(context, value(node.inputs[0]));
+    } else if (node.function != null) {
+      List<Apcomplex> args = new ArrayList<>(node.inputs.length);
+      for (Node input : node.inputs) {
+        args.add(value(input));
+      }
+      return node.function.evaluate(context, args);
+    }
+    return node.operation.evaluate(context);
+  }
+
+  private Node node(Expression expression, Node[] temps) {
+    if (expression instanceof Value value) {
+      return constant(value.value());
+    } else if (expression instanceof ValueName name) {
+      return name(name.name());
+    } else if (expression instanceof Temp temp) {
+      if (temp.index() < 0 || temp.index() >= temps.length) {
+        throw new EvalException("Temporary #" + temp.index() + " is not defined");
+      }
+      return temps[temp.index()];
+    } else if (expression instanceof Let let) {
+      Node[] definitions = new Node[let.definitions().size()];
+      for (int i = 0; i < definitions.length; i++) {
+        definitions[i] = node(let.definitions().get(i), Arrays.copyOf(definitions, i));
+      }
+      return node(let.body(), definitions);
+    } else if (expression instanceof BinaryExpression binary) {
+      Node left = node(binary.left(), temps);
+      Node right = node(binary.right(), temps);
+      return operation(List.of(binary.getClass(), left, right), binary, null, left, right);
+    } else if (expression instanceof Neg neg) {
+      Node arg = node(neg.arg(), temps);
+      return operation(List.of(Neg.class, arg), neg, null, arg);
+    } else if (expression instanceof FunctionCall call) {
+      return call(context.function(call.name()), call.arguments(), temps);
+    } else if (expression instanceof BoundFunctionCall call) {
+      return call(call.function(context), call.arguments(), temps);
+    } else if (expression.isInvariant(context)) {
+      return constant(expression.evaluate(context));
+    }
+    Node[] inputs = context.variables().keySet().stream()
+        .map(this::name)
+        .toArray(Node[]::new);
+    return operation(expression, expression, null, inputs);
+  }
+
+  private Node call(FunctionDefinition function, List<? extends Expression> arguments,
+      Node[] temps) {
+    int count = arguments.size();
+    if (count < function.minArgs() || count > function.maxArgs()) {
+      throw new EvalException("Invalid parameter count for function '" + function.name() + "'");
+    }
+    Node[] inputs = new Node[count];
+    List<Object> key = new ArrayList<>(count + 1);
+    key.add(function);
+    for (int i = 0; i < count; i++) {
+      inputs[i] = node(arguments.get(i), temps);
+      key.add(inputs[i]);
+    }
+    return operation(key, null, function, inputs);
+  }
+
+  private Node name(String name) {
+    Node node = variables.get(name);
+    if (node != null) {
+      return node;
+    }
+    Definition definition = context.definitionNames().get(name);
+    if (definition instanceof Variable variable) {
+      node = new Node(null, null, NO_NODES);
+      node.variable = variable;
+      node.value = variable.value(context);
+      variable.addListener(node);
+      variables.put(name, node);
+      return node;
+    } else if (definition instanceof Constant constant) {
+      return constant(constant.value(context));
+    }
+    throw new EvalException("No such value '" + name + "'");
+  }
+
+  private Node constant(Apcomplex value) {
+    return nodes.computeIfAbsent(List.of(Value.class, value, value.precision()), key -> {
+      Node node = new Node(null, null, NO_NODES);
+      node.value = value;
+      return node;
+    });
+  }
+
+  private Node operation(Object key, Expression operation, FunctionDefinition function,
+      Node... inputs) {
+    Node node = nodes.get(key);
+    if (node == null) {
+      node = new Node(operation, function, inputs);
+      node.value = compute(node);
+      for (Node input : inputs) {
+        input.addDependent(node);
+      }
+      nodes.put(key, node);
+    }
+    return node;
+  }
+
+  /**
+   * Handle to get the value of an {@link Expression} added to an {@link IncrementalEvaluator}.
+   */
+  public final class Handle {
+
+    private final Expression expression;
+    private final Node node;
+
+    private Handle(Expression expression, Node node) {
+      this.expression = expression;
+      this.node = node;
+    }
+
+    /**
+     * Gets the {@link Expression} this handle belongs to.
+     *
+     * @return The {@code Expression}
+     */
+    public Expression expression() {
+      return expression;
+    }
+
+    /**
+     * Gets the current value of the {@link Expression}.
+     * <p>
+     * The value is the same as {@link Expression#evaluate(Context) Expression.evaluate} returns for
+     * the current values of the variables. If required, the dirty nodes the value depends on are
+     * recomputed.
+     *
+     * @return The value
+     * @throws EvalException If a node cannot be evaluated
+     */
+    public Apcomplex value() {
+      return IncrementalEvaluator.this.value(node);
+    }
+  }
+
+  private final class Node implements Variable.Listener {
+
+    private final Expression operation;
+    private final FunctionDefinition function;
+    private final Node[] inputs;
+    private Node[] dependents = NO_NODES;
+    private int dependentCount;
+    private Apcomplex value;
+    private boolean dirty;
+    private Variable variable;
+
+    private Node(Expression operation, FunctionDefinition function, Node[] inputs) {
+      this.operation = operation;
+      this.function = function;
+      this.inputs = inputs;
+    }
+
+    @Override
+    public void changed(Variable variable) {
+      IncrementalEvaluator.this.changed(this);
+    }
+
+    private void addDependent(Node node) {
+      if (dependentCount > 0 && dependents[dependentCount - 1] == node) {
+        return;
+      }
+      if (dependentCount == dependents.length) {
+        dependents = Arrays.copyOf(dependents, Math.max(4, dependentCount * 2));
+      }
+      dependents[dependentCount++] = node;
+    }
+  }
+}
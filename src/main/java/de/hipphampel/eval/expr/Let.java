@@ -0,0 +1,143 @@
+package de.hipphampel.eval.expr;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import de.hipphampel.eval.Context;
+import de.hipphampel.eval.definition.FunctionDefinition;
+import de.hipphampel.eval.exception.EvalException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import org.apfloat.Apcomplex;
+
+/**
+ * An {@link Expression} with shared subexpressions.
+ * <p>
+ * The {@code definitions} are the shared subexpressions, the {@code body} and the definitions
+ * refer to them via {@link Temp Temps} having the index of the definition. A definition may only
+ * refer to the definitions preceding it. A {@code Temp} always refers to the innermost enclosing
+ * {@code Let}.
+ * <p>
+ * When evaluating a {@code Let}, each definition is evaluated exactly once, no matter how often
+ * it is referred to. Instances are normally created by
+ * {@link CommonSubexpressions#eliminate(Expression)}.
+ *
+ * @param definitions The shared subexpressions
+ * @param body        The expression to evaluate
+ */
+public record Let(List<Expression> definitions, Expression body) implements Expression {
+
+  /**
+   * Constructor.
+   *
+   * @param definitions The shared subexpressions
+   * @param body        The expression to evaluate
+   */
+  public Let {
+    definitions = List.copyOf(definitions);
+    Objects.requireNonNull(body);
+  }
+
+  @Override
+  public boolean isInvariant(Context<?, ?> context) {
+    boolean[] invariants = new boolean[definitions.size()];
+    for (int i = 0; i < invariants.length; i++) {
+      invariants[i] = isInvariant(context, definitions.get(i), invariants, i);
+    }
+    return isInvariant(context, body, invariants, invariants.length);
+  }
+
+  @Override
+  public Expression simplify(Context<?, ?> context) {
+    if (isInvariant(context)) {
+      return new Value(evaluate(context));
+    }
+    return CommonSubexpressions.eliminate(CommonSubexpressions.expand(this).simplify(context));
+  }
+
+  @Override
+  public Apcomplex evaluate(Context<?, ?> context) {
+    Apcomplex[] values = new Apcomplex[definitions.size()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = evaluate(context, definitions.get(i), values, i);
+    }
+    return evaluate(context, body, values, values.length);
+  }
+
+  // Evaluates expression, the Temps refer to the first count elements of values
+  private static Apcomplex evaluate(Context<?, ?> context, Expression expression,
+      Apcomplex[] values, int count) {
+    if (expression instanceof Temp temp) {
+      if (temp.index() < 0 || temp.index() >= count) {
+        throw new EvalException("Temporary #" + temp.index() + " is not defined");
+      }
+      return values[temp.index()];
+    } else if (expression instanceof BinaryExpression binary) {
+      Apcomplex left = evaluate(context, binary.left(), values, count);
+      Apcomplex right = evaluate(context, binary.right(), values, count);
+      return binary.evaluate(context, left, right);
+    } else if (expression instanceof Neg neg) {
+      return neg.evaluate(context, evaluate(context, neg.arg(), values, count));
+    } else if (expression instanceof FunctionCall call) {
+      return call(context, context.function(call.name()), call.arguments(), values, count);
+    } else if (expression instanceof BoundFunctionCall call) {
+      return call(context, call.function(context), call.arguments(), values, count);
+    }
+    // Values, names, nested Lets and unknown types cannot refer to the Temps
+    return expression.evaluate(context);
+  }
+
+  private static Apcomplex call(Context<?, ?> context, FunctionDefinition function,
+      List<? extends Expression> arguments, Apcomplex[] values, int count) {
+    List<Apcomplex> args = new ArrayList<>(arguments.size());
+    for (Expression argument : arguments) {
+      args.add(evaluate(context, argument, values, count));
+    }
+    return function.evaluate(context, args);
+  }
+
+  // Checks whether expression is invariant, the Temps refer to the first count elements of
+  // invariants
+  private static boolean isInvariant(Context<?, ?> context, Expression expression,
+      boolean[] invariants, int count) {
+    if (expression instanceof Temp temp) {
+      return temp.index() >= 0 && temp.index() < count && invariants[temp.index()];
+    } else if (expression instanceof BinaryExpression binary) {
+      return isInvariant(context, binary.left(), invariants, count)
+          && isInvariant(context, binary.right(), invariants, count);
+    } else if (expression instanceof Neg neg) {
+      return isInvariant(context, neg.arg(), invariants, count);
+    } else if (expression instanceof FunctionCall call) {
+      return call.arguments().stream()
+          .allMatch(arg -> isInvariant(context, arg, invariants, count));
+    } else if (expression instanceof BoundFunctionCall call) {
+      return call.arguments().stream()
+          .allMatch(arg -> isInvariant(context, arg, invariants, count));
+    }
+    return expression.isInvariant(context);
+  }
+}
@@ -0,0 +1,101 @@
+package de.hipphampel.eval.parser;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * {@link CharSequence} view on the ASCII encoded bytes of a {@link ByteBuffer}.
+ * <p>
+ * This allows to parse expressions directly from a {@code ByteBuffer}, for example a region of a
+ * memory mapped file, without decoding it into a {@code String} first: each byte is interpreted
+ * as one character. Sub sequences are views on the same buffer as well; the bytes are copied only
+ * when calling {@link #toString()}.
+ * <p>
+ * Use {@link #of(ByteBuffer)} to obtain instances; it falls back to UTF-8 decoding in case the
+ * buffer contains non ASCII characters.
+ */
+public final class AsciiCharSequence implements CharSequence {
+
+  private final ByteBuffer buffer;
+  private final int offset;
+  private final int length;
+
+  private AsciiCharSequence(ByteBuffer buffer, int offset, int length) {
+    this.buffer = buffer;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  /**
+   * Returns a {@link CharSequence} for the remaining bytes of {@code buffer}.
+   * <p>
+   * The bytes are expected to be UTF-8 encoded. If all of them are ASCII characters, which is the
+   * normal case for expressions, the returned instance is a view on {@code buffer}, otherwise the
+   * bytes are decoded into a new buffer. The position and limit of {@code buffer} are not changed,
+   * but the content of the buffer must not be changed as long as the view is in use.
+   *
+   * @param buffer The {@code ByteBuffer}
+   * @return The {@code CharSequence}
+   */
+  public static CharSequence of(ByteBuffer buffer) {
+    int offset = buffer.position();
+    int length = buffer.remaining();
+    for (int i = 0; i < length; i++) {
+      if (buffer.get(offset + i) < 0) {
+        return StandardCharsets.UTF_8.decode(buffer.duplicate());
+      }
+    }
+    return new AsciiCharSequence(buffer, offset, length);
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public char charAt(int index) {
+    Objects.checkIndex(index, length);
+    return (char) buffer.get(offset + index);
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    Objects.checkFromToIndex(start, end, length);
+    return new AsciiCharSequence(buffer, offset + start, end - start);
+  }
+
+  @Override
+  public String toString() {
+    byte[] bytes = new byte[length];
+    buffer.get(offset, bytes);
+    return new String(bytes, StandardCharsets.US_ASCII);
+  }
+}
@@ -0,0 +1,55 @@
+package de.hipphampel.eval.parser;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import de.hipphampel.eval.Context;
+import de.hipphampel.eval.exception.ParseException;
+import de.hipphampel.eval.expr.Expression;
+
+/**
+ * Parses expression literals into {@link Expression Expressions}.
+ * <p>
+ * An {@code ExpressionParser} is created for a specific {@link Context} and {@link ParseMode}, the
+ * available implementations are described by the {@link ParserEngine}. Instances are not
+ * necessarily thread safe.
+ *
+ * @see ParserFactory#expressionParser(Context, ParseMode, ParserEngine)
+ */
+@FunctionalInterface
+public interface ExpressionParser {
+
+  /**
+   * Parses {@code input} into an {@link Expression}.
+   * <p>
+   * The complete {@code input} must form a valid expression.
+   *
+   * @param input The literal to parse.
+   * @return The {@code Expression}
+   * @throws ParseException If parsing fails
+   */
+  Expression parse(CharSequence input);
+}
@@ -0,0 +1,171 @@
+package de.hipphampel.eval.parser;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import de.hipphampel.eval.Context;
+import de.hipphampel.eval.exception.ParseException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * {@link Iterator} parsing a sequence of expressions from a {@link Reader}.
+ * <p>
+ * The input consists of expression texts separated by {@code ';'} or line breaks, so it might
+ * contain one expression per line or several expressions in a line, like this:
+ * <pre>
+ *   x+1; 2*x
+ *   sin(x)
+ * </pre>
+ * Empty texts or texts consisting of whitespace only are skipped. Each expression text is parsed
+ * via {@link Context#parse(String)}, so the settings of the {@code Context} (like the
+ * {@link MacroExpander} or the {@link ParseCache}) apply.
+ * <p>
+ * The input is read in chunks when iterating, so only the text of the current expression is kept
+ * in memory. Each expression is returned as a {@link ParsedExpression} that knows the location of
+ * the text in the input. If an expression cannot be parsed, {@link #next()} throws a
+ * {@link ParseException} whose position is the start of the expression text in the input plus the
+ * position of the error in the text produced by the {@link MacroExpander}; so it points exactly to
+ * the error only if the expansion does not change the length of the text before the error. Since
+ * that position is an {@code int}, it is capped at {@link Integer#MAX_VALUE}. The iteration may be
+ * continued after such an exception with the next expression.
+ * <p>
+ * The iterator does not close the {@code Reader}. Instances are not thread safe.
+ */
+public class ExpressionReader implements Iterator<ParsedExpression> {
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final Context<?, ?> context;
+  private final Reader reader;
+  private final char[] buffer;
+  private final StringBuilder text;
+  private int bufferPos;
+  private int bufferEnd;
+  private boolean eof;
+  private long position;
+  private long line;
+  private long lineStart;
+  private boolean hasText;
+  private long textPosition;
+  private long textLine;
+  private long textColumn;
+
+  /**
+   * Constructor.
+   *
+   * @param context The {@link Context} used to parse the expressions
+   * @param reader  The {@link Reader} providing the input
+   */
+  public ExpressionReader(Context<?, ?> context, Reader reader) {
+    this.context = Objects.requireNonNull(context);
+    this.reader = Objects.requireNonNull(reader);
+    this.buffer = new char[BUFFER_SIZE];
+    this.text = new StringBuilder();
+    this.line = 1;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws UncheckedIOException If reading the input fails
+   */
+  @Override
+  public boolean hasNext() {
+    while (!hasText && !(eof && bufferPos == bufferEnd)) {
+      readText();
+    }
+    return hasText;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws ParseException       If the next expression cannot be parsed
+   * @throws UncheckedIOException If reading the input fails
+   */
+  @Override
+  public ParsedExpression next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    hasText = false;
+    try {
+      return new ParsedExpression(context.parse(text.toString()), textPosition, textLine,
+          textColumn);
+    } catch (ParseException pe) {
+      long errorPosition = textPosition + pe.getPosition();
+      throw new ParseException(pe.getMessage(), (int) Math.min(errorPosition, Integer.MAX_VALUE));
+    }
+  }
+
+  private void readText() {
+    text.setLength(0);
+    textPosition = position;
+    textLine = line;
+    textColumn = position - lineStart + 1;
+    boolean blank = true;
+    while (fillBuffer()) {
+      char ch = buffer[bufferPos++];
+      position++;
+      if (ch == '\n') {
+        line++;
+        lineStart = position;
+        break;
+      } else if (ch == ';') {
+        break;
+      }
+      blank = blank && Character.isWhitespace(ch);
+      text.append(ch);
+    }
+    hasText = !blank;
+  }
+
+  private boolean fillBuffer() {
+    if (bufferPos < bufferEnd) {
+      return true;
+    }
+    if (eof) {
+      return false;
+    }
+    try {
+      int count;
+      do {
+        count = reader.read(buffer);
+      } while (count == 0);
+      bufferPos = 0;
+      bufferEnd = Math.max(count, 0);
+      eof = count < 0;
+      return !eof;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
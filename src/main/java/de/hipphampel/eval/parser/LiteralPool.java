@@ -0,0 +1,114 @@
+package de.hipphampel.eval.parser;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import de.hipphampel.eval.expr.Value;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.apfloat.Apcomplex;
+import org.apfloat.Apfloat;
+
+/**
+ * Creates the {@link Value Values} for numeric literals.
+ * <p>
+ * Since {@code Values} are immutable, the ones for small integer literals like {@code 0}, {@code 1}
+ * or {@code 2} are shared: for each precision there is a pool of such {@code Values} that is
+ * filled on demand, so that parsing these literals neither creates a {@code String} nor an
+ * {@link Apfloat}. All other literals are converted as usual.
+ * <p>
+ * At most {@link #MAX_POOLS} pools are kept; if a further precision is used, the existing pools
+ * are dropped, so that applications using many different precisions do not accumulate memory.
+ */
+final class LiteralPool {
+
+  static final int SIZE = 1024;
+
+  static final int MAX_POOLS = 8;
+
+  private static final Map<Long, AtomicReferenceArray<Value>> POOLS = new ConcurrentHashMap<>();
+
+  private LiteralPool() {
+  }
+
+  /**
+   * Gets the {@link Value} for the literal {@code input[start..end)}.
+   *
+   * @param input     The input containing the literal
+   * @param start     The start index of the literal (inclusive)
+   * @param end       The end index of the literal (exclusive)
+   * @param precision The precision of the value
+   * @return The {@code Value}
+   */
+  static Value value(CharSequence input, int start, int end, long precision) {
+    int smallInteger = smallInteger(input, start, end);
+    if (smallInteger < 0) {
+      return newValue(input.subSequence(start, end).toString(), precision);
+    }
+
+    AtomicReferenceArray<Value> pool = POOLS.get(precision);
+    if (pool == null) {
+      if (POOLS.size() >= MAX_POOLS) {
+        POOLS.clear();
+      }
+      pool = POOLS.computeIfAbsent(precision, key -> new AtomicReferenceArray<>(SIZE));
+    }
+    Value value = pool.get(smallInteger);
+    if (value == null) {
+      value = newValue(Integer.toString(smallInteger), precision);
+      if (!pool.compareAndSet(smallInteger, null, value)) {
+        value = pool.get(smallInteger);
+      }
+    }
+    return value;
+  }
+
+  static int poolCount() {
+    return POOLS.size();
+  }
+
+  private static Value newValue(String str, long precision) {
+    return new Value(new Apcomplex(new Apfloat(str, precision)));
+  }
+
+  // Returns the value of the literal, if it is a canonical integer less than SIZE, otherwise -1
+  private static int smallInteger(CharSequence input, int start, int end) {
+    int length = end - start;
+    if (length < 1 || length > 4 || (length > 1 && input.charAt(start) == '0')) {
+      return -1;
+    }
+    int value = 0;
+    for (int i = start; i < end; i++) {
+      char ch = input.charAt(i);
+      if (ch < '0' || ch > '9') {
+        return -1;
+      }
+      value = value * 10 + (ch - '0');
+    }
+    return value < SIZE ? value : -1;
+  }
+}
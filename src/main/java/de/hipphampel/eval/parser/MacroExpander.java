@@ -28,8 +28,6 @@ package de.hipphampel.eval.parser;
 
 import de.hipphampel.eval.Context;
 import de.hipphampel.eval.expr.Expression;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 
 /**
@@ -84,17 +82,10 @@ public interface MacroExpander {
    * <pre>
    *   1+2/3 + 3
    * </pre>
+   * <p>
+   * The environment variables are read on each expansion; use
+   * {@link TemplateMacroExpander#environment()} to work on a snapshot of them instead. Please refer
+   * to {@link TemplateMacroExpander} for details.
    */
-  MacroExpander ENVIRONMENT_VARIABLES = (context, expression) -> {
-    Pattern pattern = Pattern.compile("(.*?)\\$\\{([^}]+)}(.*)");
-    Matcher matcher = pattern.matcher(expression);
-    while (matcher.matches()) {
-      String variableName = matcher.group(2);
-      String variableValue = Utils.getenv(variableName);
-      expression =
-          matcher.group(1) + (variableValue == null ? "" : variableValue) + matcher.group(3);
-      matcher = pattern.matcher(expression);
-    }
-    return expression;
-  };
+  MacroExpander ENVIRONMENT_VARIABLES = TemplateMacroExpander.of(Utils::getenv);
 }
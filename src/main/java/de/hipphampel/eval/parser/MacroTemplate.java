@@ -0,0 +1,153 @@
+package de.hipphampel.eval.parser;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import de.hipphampel.eval.exception.EvalException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Compiled form of a text containing placeholders like {@code ${NAME}}.
+ * <p>
+ * A template is compiled once via {@link #compile(String)} into a sequence of literal texts and
+ * placeholder names, afterwards it can be expanded in a single pass via
+ * {@link #expand(Function)}. The value of a placeholder is obtained from a source function; if the
+ * source returns {@code null}, the placeholder is replaced by an empty string. If the value itself
+ * contains placeholders, these are expanded recursively. So having the values {@code A=1+2} and
+ * {@code B=${A}*3}, the template {@code ${B}-${A}} expands to {@code 1+2*3-1+2}.
+ * <p>
+ * A placeholder consists of {@code '${'}, a non-empty name not containing {@code '}'} and a closing
+ * {@code '}'}; texts that do not form a valid placeholder are kept as they are. Placeholders are
+ * never formed across the boundaries of substituted values. Instances are immutable.
+ */
+public final class MacroTemplate {
+
+  private final String[] literals;
+  private final String[] names;
+
+  private MacroTemplate(String[] literals, String[] names) {
+    this.literals = literals;
+    this.names = names;
+  }
+
+  /**
+   * Compiles the given {@code template}.
+   *
+   * @param template The template text
+   * @return The {@code MacroTemplate}
+   */
+  public static MacroTemplate compile(String template) {
+    List<String> literals = new ArrayList<>();
+    List<String> names = new ArrayList<>();
+    int literalStart = 0;
+    int pos = template.indexOf("${");
+    while (pos >= 0) {
+      int close = template.indexOf('}', pos + 2);
+      if (close < 0) {
+        break;
+      }
+      if (close == pos + 2) {
+        pos = template.indexOf("${", pos + 2);
+        continue;
+      }
+      literals.add(template.substring(literalStart, pos));
+      names.add(template.substring(pos + 2, close));
+      literalStart = close + 1;
+      pos = template.indexOf("${", literalStart);
+    }
+    literals.add(template.substring(literalStart));
+    return new MacroTemplate(literals.toArray(String[]::new), names.toArray(String[]::new));
+  }
+
+  /**
+   * Checks, whether this template contains any placeholders.
+   *
+   * @return {@code true}, if there is at least one placeholder
+   */
+  public boolean hasPlaceholders() {
+    return names.length > 0;
+  }
+
+  /**
+   * Expands this template.
+   *
+   * @param source Function returning the value for a placeholder name, or {@code null}
+   * @return The expanded text
+   * @throws EvalException If the placeholders refer to each other recursively
+   */
+  public String expand(Function<String, String> source) {
+    return expand(source, MacroTemplate::compile);
+  }
+
+  /**
+   * Expands this template, obtaining the templates of values having placeholders from
+   * {@code templates}.
+   * <p>
+   * This works like {@link #expand(Function)}, but the values of the placeholders that contain
+   * placeholders themselves are compiled via {@code templates}, which allows to cache them.
+   *
+   * @param source    Function returning the value for a placeholder name, or {@code null}
+   * @param templates Function returning the {@code MacroTemplate} for a value
+   * @return The expanded text
+   * @throws EvalException If the placeholders refer to each other recursively
+   */
+  public String expand(Function<String, String> source,
+      Function<String, MacroTemplate> templates) {
+    if (!hasPlaceholders()) {
+      return literals[0];
+    }
+    StringBuilder buffer = new StringBuilder();
+    expand(source, templates, buffer, new ArrayDeque<>());
+    return buffer.toString();
+  }
+
+  private void expand(Function<String, String> source, Function<String, MacroTemplate> templates,
+      StringBuilder buffer, Deque<String> active) {
+    for (int i = 0; i < names.length; i++) {
+      buffer.append(literals[i]);
+      String name = names[i];
+      String value = source.apply(name);
+      if (value == null) {
+        continue;
+      }
+      if (value.contains("${")) {
+        if (active.contains(name)) {
+          throw new EvalException("Recursive definition of macro '" + name + "'");
+        }
+        active.push(name);
+        templates.apply(value).expand(source, templates, buffer, active);
+        active.pop();
+      } else {
+        buffer.append(value);
+      }
+    }
+    buffer.append(literals[names.length]);
+  }
+}
@@ -0,0 +1,178 @@
+package de.hipphampel.eval.parser;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Immutable prefix tree mapping names to values.
+ * <p>
+ * The tree is used to find the longest name being a prefix of some input without allocating any
+ * objects, see {@link #longestMatch(CharSequence, int, int)}. Adding a name via
+ * {@link #put(String, Object)} does not modify the instance, but returns a new one that shares all
+ * unchanged nodes with the original one, so instances can be safely shared between threads and
+ * parsers.
+ *
+ * @param <V> The type of the values
+ */
+public final class NameTrie<V> {
+
+  private static final char[] NO_KEYS = {};
+  private static final Node<?>[] NO_CHILDREN = {};
+  private static final NameTrie<?> EMPTY = new NameTrie<>(
+      new Node<>(null, NO_KEYS, emptyChildren()), 0);
+
+  private final Node<V> root;
+  private final int size;
+
+  private NameTrie(Node<V> root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  /**
+   * Returns an empty {@code NameTrie}.
+   *
+   * @param <V> The type of the values
+   * @return The empty instance
+   */
+  @SuppressWarnings("unchecked")
+  public static <V> NameTrie<V> empty() {
+    return (NameTrie<V>) EMPTY;
+  }
+
+  /**
+   * Gets the number of names in this instance.
+   *
+   * @return The number of names
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns a {@code NameTrie} that contains all names of this instance plus the given one.
+   * <p>
+   * If {@code name} is already part of this instance, its value is replaced. This instance remains
+   * unchanged.
+   *
+   * @param name  The name, must not be empty
+   * @param value The value, must not be {@code null}
+   * @return The new {@code NameTrie}
+   */
+  public NameTrie<V> put(String name, V value) {
+    Objects.requireNonNull(value);
+    if (name.isEmpty()) {
+      throw new IllegalArgumentException("Name must not be empty");
+    }
+    boolean added = get(name) == null;
+    return new NameTrie<>(put(root, name, 0, value), added ? size + 1 : size);
+  }
+
+  private static <V> Node<V> put(Node<V> node, String name, int index, V value) {
+    if (index == name.length()) {
+      return new Node<>(value, node.keys, node.children);
+    }
+    char ch = name.charAt(index);
+    int i = Arrays.binarySearch(node.keys, ch);
+    if (i >= 0) {
+      Node<V>[] children = node.children.clone();
+      children[i] = put(children[i], name, index + 1, value);
+      return new Node<>(node.value, node.keys, children);
+    }
+
+    int insertAt = -i - 1;
+    char[] keys = new char[node.keys.length + 1];
+    System.arraycopy(node.keys, 0, keys, 0, insertAt);
+    System.arraycopy(node.keys, insertAt, keys, insertAt + 1, node.keys.length - insertAt);
+    keys[insertAt] = ch;
+    @SuppressWarnings("unchecked")
+    Node<V>[] children = (Node<V>[]) new Node<?>[node.children.length + 1];
+    System.arraycopy(node.children, 0, children, 0, insertAt);
+    System.arraycopy(node.children, insertAt, children, insertAt + 1,
+        node.children.length - insertAt);
+    children[insertAt] = put(new Node<>(null, NO_KEYS, emptyChildren()), name, index + 1,
+        value);
+    return new Node<>(node.value, keys, children);
+  }
+
+  /**
+   * Gets the value of the given {@code name}.
+   *
+   * @param name The name
+   * @return The value or {@code null}, if there is no such name.
+   */
+  public V get(CharSequence name) {
+    Node<V> node = root;
+    for (int i = 0; i < name.length() && node != null; i++) {
+      node = node.child(name.charAt(i));
+    }
+    return node == null ? null : node.value;
+  }
+
+  /**
+   * Finds the value of the longest name that is a prefix of the given region of {@code input}.
+   * <p>
+   * So if the names {@code 'a'} and {@code 'abc'} are known, the input {@code 'abcd'} yields the
+   * value of {@code 'abc'}, whereas the input {@code 'abd'} yields the one of {@code 'a'}. The
+   * method does not allocate any objects.
+   *
+   * @param input The input
+   * @param start The start index of the region (inclusive)
+   * @param end   The end index of the region (exclusive)
+   * @return The value or {@code null}, if no name matches.
+   */
+  public V longestMatch(CharSequence input, int start, int end) {
+    V match = null;
+    Node<V> node = root;
+    for (int i = start; i < end; i++) {
+      node = node.child(input.charAt(i));
+      if (node == null) {
+        break;
+      }
+      if (node.value != null) {
+        match = node.value;
+      }
+    }
+    return match;
+  }
+
+  // The array is empty, so it never contains nodes of the wrong type
+  @SuppressWarnings("unchecked")
+  private static <V> Node<V>[] emptyChildren() {
+    return (Node<V>[]) NO_CHILDREN;
+  }
+
+  private record Node<V>(V value, char[] keys, Node<V>[] children) {
+
+    Node<V> child(char ch) {
+      int i = Arrays.binarySearch(keys, ch);
+      return i < 0 ? null : children[i];
+    }
+  }
+}
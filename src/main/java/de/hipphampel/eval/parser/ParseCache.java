@@ -0,0 +1,196 @@
+package de.hipphampel.eval.parser;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import de.hipphampel.eval.Context;
+import de.hipphampel.eval.expr.Expression;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Bounded cache mapping expression texts to the {@link Expression Expressions} parsed from them.
+ * <p>
+ * A {@code ParseCache} can be assigned to a {@link Context} via
+ * {@link Context#parseCache(ParseCache)}; it is then used by {@link Context#parse(String)} to look
+ * up the texts produced by the {@link MacroExpander}, so a repeatedly used expression is parsed
+ * only once. The cache holds at most {@link #maxSize()} entries, if it is full, an entry is dropped
+ * according to the {@link Eviction} policy.
+ * <p>
+ * Since the outcome of parsing depends on the settings and the definitions of the {@code Context},
+ * the {@code Context} clears the cache whenever one of these changes. A {@code ParseCache} should
+ * therefore not be shared between several {@code Contexts}. Instances are not thread safe.
+ */
+public class ParseCache {
+
+  /**
+   * Policies how to select the entry to drop when the cache is full.
+   */
+  public enum Eviction {
+    /**
+     * Drops the least recently used entry.
+     */
+    LRU,
+    /**
+     * Drops the entry that was added first, regardless how often it was used.
+     */
+    FIFO
+  }
+
+  private final int maxSize;
+  private final Eviction eviction;
+  private final Map<String, Expression> entries;
+  private long hits;
+  private long misses;
+
+  /**
+   * Constructor.
+   * <p>
+   * Creates a cache with {@link Eviction#LRU} policy.
+   *
+   * @param maxSize The maximum number of entries
+   */
+  public ParseCache(int maxSize) {
+    this(maxSize, Eviction.LRU);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param maxSize  The maximum number of entries
+   * @param eviction The {@link Eviction} policy
+   */
+  public ParseCache(int maxSize, Eviction eviction) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("Cache size must be positive");
+    }
+    this.maxSize = maxSize;
+    this.eviction = Objects.requireNonNull(eviction);
+    this.entries = new LinkedHashMap<>(16, 0.75f, eviction == Eviction.LRU) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Expression> eldest) {
+        return size() > ParseCache.this.maxSize;
+      }
+    };
+  }
+
+  /**
+   * Gets the maximum number of entries.
+   *
+   * @return The maximum size
+   */
+  public int maxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Gets the {@link Eviction} policy.
+   *
+   * @return The {@code Eviction}
+   */
+  public Eviction eviction() {
+    return eviction;
+  }
+
+  /**
+   * Gets the {@link Expression} for {@code text}, parsing it if not cached yet.
+   * <p>
+   * If {@code parser} fails, nothing is cached and the exception is passed to the caller.
+   *
+   * @param text   The expression text
+   * @param parser Function to parse {@code text} in case of a cache miss
+   * @return The {@code Expression}
+   */
+  public Expression get(String text, Function<String, Expression> parser) {
+    Expression expression = entries.get(text);
+    if (expression != null) {
+      hits++;
+      return expression;
+    }
+    misses++;
+    expression = parser.apply(text);
+    entries.put(text, expression);
+    return expression;
+  }
+
+  /**
+   * Gets the number of entries in the cache.
+   *
+   * @return The number of entries
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Gets the number of lookups that could be served from the cache.
+   *
+   * @return The number of cache hits
+   */
+  public long hits() {
+    return hits;
+  }
+
+  /**
+   * Gets the number of lookups that required parsing.
+   *
+   * @return The number of cache misses
+   */
+  public long misses() {
+    return misses;
+  }
+
+  /**
+   * Removes all entries.
+   * <p>
+   * The {@link #hits()} and {@link #misses()} counters are not affected.
+   */
+  public void clear() {
+    entries.clear();
+  }
+
+  /**
+   * Removes the entries whose text matches {@code filter}.
+   * <p>
+   * The {@link #hits()} and {@link #misses()} counters are not affected.
+   *
+   * @param filter Predicate selecting the texts to remove
+   */
+  public void removeIf(Predicate<String> filter) {
+    entries.keySet().removeIf(filter);
+  }
+
+  /**
+   * Resets the {@link #hits()} and {@link #misses()} counters.
+   */
+  public void resetStatistics() {
+    hits = 0;
+    misses = 0;
+  }
+}
@@ -0,0 +1,54 @@
+package de.hipphampel.eval.parser;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import de.hipphampel.eval.exception.EvalException;
+import de.hipphampel.eval.exception.ParseException;
+import de.hipphampel.eval.expr.Expression;
+
+/**
+ * The outcome of parsing a single text, as returned by {@link ParserSnapshot#parseAll}.
+ * <p>
+ * Exactly one of {@code expression} and {@code exception} is not {@code null}.
+ *
+ * @param input      The parsed text
+ * @param expression The {@link Expression}, if parsing succeeded
+ * @param exception  The exception, if parsing failed; this is normally a {@link ParseException},
+ *                   but might be an other {@link EvalException}, e.g. if the macros cannot be
+ *                   expanded
+ */
+public record ParseResult(String input, Expression expression, EvalException exception) {
+
+  /**
+   * Checks, whether parsing succeeded.
+   *
+   * @return {@code true}, if succeeded
+   */
+  public boolean isSuccess() {
+    return exception == null;
+  }
+}
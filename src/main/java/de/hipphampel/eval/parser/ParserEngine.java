@@ -0,0 +1,59 @@
+package de.hipphampel.eval.parser;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import de.hipphampel.eval.Context;
+
+/**
+ * Defines the available implementations of an {@link ExpressionParser}.
+ * <p>
+ * All engines recognize the same grammar and produce the same {@link de.hipphampel.eval.expr.Expression
+ * Expressions} for both {@link ParseMode ParseModes}; they differ in speed and in the details of
+ * the error messages.
+ *
+ * @see Context#parserEngine(ParserEngine)
+ */
+public enum ParserEngine {
+
+  /**
+   * The parser built from the combinators of the {@link ParserFactory}.
+   */
+  COMBINATOR,
+
+  /**
+   * A hand-written, single-pass parser, see {@link RecursiveDescentParser}.
+   */
+  RECURSIVE_DESCENT,
+
+  /**
+   * The parser built from the combinators of the {@link ParserFactory} with memoized grammar rules.
+   * <p>
+   * Compared to {@link #COMBINATOR}, this avoids parsing the same part of the input several times
+   * when backtracking, so the parse time grows linear with the length of the input.
+   */
+  PACKRAT
+}
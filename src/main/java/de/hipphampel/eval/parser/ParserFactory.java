@@ -31,7 +31,10 @@ import static org.petitparser.parser.primitive.CharacterParser.digit;
 import static org.petitparser.parser.primitive.CharacterParser.of;
 
 import de.hipphampel.eval.Context;
+import de.hipphampel.eval.definition.Definition;
 import de.hipphampel.eval.definition.FunctionDefinition;
+import de.hipphampel.eval.definition.ValueDefinition;
+import de.hipphampel.eval.exception.ParseException;
 import de.hipphampel.eval.expr.Add;
 import de.hipphampel.eval.expr.Div;
 import de.hipphampel.eval.expr.Expression;
@@ -44,19 +47,16 @@ import de.hipphampel.eval.expr.Value;
 import de.hipphampel.eval.expr.ValueName;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.stream.Collectors;
-import org.apfloat.Apcomplex;
-import org.apfloat.Apfloat;
 import org.petitparser.context.Failure;
 import org.petitparser.context.Result;
 import org.petitparser.context.Success;
 import org.petitparser.parser.Parser;
+import org.petitparser.parser.combinators.DelegateParser;
 import org.petitparser.parser.combinators.SettableParser;
 import org.petitparser.parser.primitive.EpsilonParser;
 
@@ -105,6 +105,48 @@ public class ParserFactory {
     };
   }
 
+  /**
+   * Creates an {@link ExpressionParser} for the given {@code context}, {@code mode}, and
+   * {@code engine}.
+   * <p>
+   * For the {@link ParserEngine#COMBINATOR COMBINATOR} engine, the returned instance wraps the
+   * {@code Parser} returned by {@link #expressionParser(Context, ParseMode)}, for the
+   * {@link ParserEngine#RECURSIVE_DESCENT RECURSIVE_DESCENT} engine, it is a
+   * {@link RecursiveDescentParser}. The {@link ParserEngine#PACKRAT PACKRAT} engine uses the same
+   * combinators as {@code COMBINATOR}, but with each grammar rule being {@link #memoizing(Parser)
+   * memoized}.
+   *
+   * @param context The {@link Context}
+   * @param mode    The mode
+   * @param engine  The engine
+   * @return The {@code ExpressionParser}
+   */
+  public static ExpressionParser expressionParser(Context<?, ?> context, ParseMode mode,
+      ParserEngine engine) {
+    return switch (engine) {
+      case COMBINATOR -> combinatorExpressionParser(expressionParser(context, mode).end());
+      case PACKRAT -> combinatorExpressionParser(memoizingExpressionParser(context, mode).end());
+      case RECURSIVE_DESCENT -> new RecursiveDescentParser(context, mode);
+    };
+  }
+
+  private static Parser memoizingExpressionParser(Context<?, ?> context, ParseMode mode) {
+    return switch (mode) {
+      case STANDARD -> expressionParserStandard(context, true);
+      case SIMPLIFIED -> expressionParserSimplified(context, true);
+    };
+  }
+
+  private static ExpressionParser combinatorExpressionParser(Parser parser) {
+    return input -> {
+      Result result = parser.parse(input.toString());
+      if (result.isFailure()) {
+        throw new ParseException(result.getMessage(), result.getPosition());
+      }
+      return result.get();
+    };
+  }
+
   /**
    * Creates a {@link Parser} for {@link Expression Expressions} using the mode
    * {@link ParseMode#SIMPLIFIED}.
@@ -144,12 +186,32 @@ public class ParserFactory {
    * @return The {@link Parser}
    */
   public static Parser expressionParserSimplified(Context<?, ?> context) {
+    return expressionParserSimplified(context, false);
+  }
+
+  /**
+   * Creates a {@link Parser} for {@link Expression Expressions} using the mode
+   * {@link ParseMode#SIMPLIFIED}, optionally with memoization.
+   * <p>
+   * The grammar is the same as the one of {@link #expressionParserSimplified(Context)}. Since the
+   * alternatives for the convenience multiplication and the power of operator start with the same
+   * operands, the plain parser parses the same prefix over and over again, which makes the parse
+   * time grow exponentially with the nesting depth of parenthesis. If {@code memoize} is
+   * {@code true}, each grammar rule is wrapped by a {@link #memoizing(Parser) memoizing} parser, so
+   * that the parse time stays linear.
+   *
+   * @param context The {@link Context} to use.
+   * @param memoize {@code true}, if the grammar rules should be memoized
+   * @return The {@link Parser}
+   */
+  public static Parser expressionParserSimplified(Context<?, ?> context, boolean memoize) {
     SettableParser primitiveGroup = SettableParser.undefined();
     SettableParser signGroup = SettableParser.undefined();
     SettableParser conMulGroup = SettableParser.undefined();
     SettableParser powGroup = SettableParser.undefined();
     SettableParser factorGroup = SettableParser.undefined();
     SettableParser sumGroup = SettableParser.undefined();
+    MemoScope scope = memoize ? new MemoScope() : null;
 
     Parser valueParser = valueParser(false, context.precision());
     Parser parenthesisParser = of('(').trim().seq(sumGroup, of(')').trim())
@@ -174,12 +236,12 @@ public class ParserFactory {
         Map.of('+', Add::new,
             '-', Sub::new));
 
-    primitiveGroup.set(valueParser.or(definitionParser, parenthesisParser));
-    signGroup.set(signParser.or(primitiveGroup));
-    conMulGroup.set(conMulParser.or(signGroup));
-    powGroup.set(powParser.or(conMulPowParser, conMulGroup));
-    factorGroup.set(factorParser.or(powGroup, powGroup));
-    sumGroup.set(sumParser.or(factorGroup));
+    primitiveGroup.set(memoizing(valueParser.or(definitionParser, parenthesisParser), scope));
+    signGroup.set(memoizing(signParser.or(primitiveGroup), scope));
+    conMulGroup.set(memoizing(conMulParser.or(signGroup), scope));
+    powGroup.set(memoizing(powParser.or(conMulPowParser, conMulGroup), scope));
+    factorGroup.set(memoizing(factorParser.or(powGroup, powGroup), scope));
+    sumGroup.set(memoizing(sumParser.or(factorGroup), scope));
     return sumGroup.get();
   }
 
@@ -258,10 +320,27 @@ public class ParserFactory {
    * @return The {@link Parser}
    */
   public static Parser expressionParserStandard(Context<?, ?> context) {
+    return expressionParserStandard(context, false);
+  }
+
+  /**
+   * Creates a {@link Parser} for {@link Expression Expressions} using the mode
+   * {@link ParseMode#STANDARD}, optionally with memoization.
+   * <p>
+   * The grammar is the same as the one of {@link #expressionParserStandard(Context)}. If
+   * {@code memoize} is {@code true}, each grammar rule is wrapped by a
+   * {@link #memoizing(Parser) memoizing} parser.
+   *
+   * @param context The {@link Context} to use.
+   * @param memoize {@code true}, if the grammar rules should be memoized
+   * @return The {@link Parser}
+   */
+  public static Parser expressionParserStandard(Context<?, ?> context, boolean memoize) {
     SettableParser primitiveGroup = SettableParser.undefined();
     SettableParser powGroup = SettableParser.undefined();
     SettableParser factorGroup = SettableParser.undefined();
     SettableParser sumGroup = SettableParser.undefined();
+    MemoScope scope = memoize ? new MemoScope() : null;
 
     Parser valueParser = valueParser(true, context.precision());
     Parser parenthesisParser = of('(').trim().seq(sumGroup, of(')').trim())
@@ -279,13 +358,37 @@ public class ParserFactory {
         Map.of('+', Add::new,
             '-', Sub::new));
 
-    primitiveGroup.set(valueParser.or(signParser, definitionParser, parenthesisParser));
-    powGroup.set(powParser.or(primitiveGroup));
-    factorGroup.set(factorParser.or(powGroup));
-    sumGroup.set(sumParser.or(factorGroup));
+    primitiveGroup.set(
+        memoizing(valueParser.or(signParser, definitionParser, parenthesisParser), scope));
+    powGroup.set(memoizing(powParser.or(primitiveGroup), scope));
+    factorGroup.set(memoizing(factorParser.or(powGroup), scope));
+    sumGroup.set(memoizing(sumParser.or(factorGroup), scope));
     return sumGroup.get();
   }
 
+  /**
+   * Factory method for creating a {@link Parser} that memoizes the results of {@code parser}.
+   * <p>
+   * The returned parser remembers the {@link Result} of {@code parser} for each position of the
+   * input, so when it is asked again to parse at the same position - which happens when a choice
+   * backtracks and an other alternative starts with the same rule - the result is returned without
+   * parsing again. This is also known as "packrat parsing".
+   * <p>
+   * The results are remembered only for the duration of one parse, that is, as long as the
+   * outermost invocation of the returned parser runs; they are dropped when it returns. Since the
+   * parser keeps state during a parse, it must not be used by several threads concurrently.
+   *
+   * @param parser The {@code Parser} to memoize
+   * @return A parser producing the same results as {@code parser}
+   */
+  public static Parser memoizing(Parser parser) {
+    return new MemoScope().memoizing(parser);
+  }
+
+  private static Parser memoizing(Parser parser, MemoScope scope) {
+    return scope == null ? parser : scope.memoizing(parser);
+  }
+
   private static Function<List<Expression>, Expression> convenienceMultiplicationMapper() {
     return values -> {
       Expression result = values.get(0);
@@ -591,7 +694,11 @@ public class ParserFactory {
     }
     return baseParser.flatten()
         .trim()
-        .map((String str) -> new Value(new Apcomplex(new Apfloat(str, precision))));
+        .map((String str) -> value(str, precision));
+  }
+
+  static Value value(String str, long precision) {
+    return LiteralPool.value(str, 0, str.length(), precision);
   }
 
 
@@ -607,52 +714,65 @@ public class ParserFactory {
    * @return The parser, producing a {@code String}
    */
   public static Parser nameParser(Collection<String> names, String message) {
-    return new NameParser(new HashSet<>(names), message).trim();
+    NameTrie<String> trie = NameTrie.empty();
+    for (String name : names) {
+      trie = trie.put(name, name);
+    }
+    return new NameParser(trie, message).trim();
   }
 
   static class DefinitionParser extends Parser {
 
     private final Context<?, ?> context;
     private final Parser argumentParser;
+    private final Parser argumentListParser;
 
+    @SuppressWarnings("unchecked")
     DefinitionParser(Context<?, ?> context, Parser argumentParser) {
       this.context = context;
       this.argumentParser = argumentParser;
+      this.argumentListParser = of('(').trim()
+          .seq(listParser(',', argumentParser, argumentParser, false), of(')').trim())
+          .map((List<Object> values) -> (List<Expression>) values.get(1));
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public Result parseOn(org.petitparser.context.Context context) {
-      Set<String> names = new HashSet<>(this.context.functionNames());
-      names.addAll(this.context.valueNames());
-      Parser nameParser = new NameParser(names, "definition expected").trim();
-      Result result = nameParser.parseOn(context);
-      if (result.isFailure()) {
-        return result;
+      String buffer = context.getBuffer();
+      int pos = skipWhitespace(buffer, context.getPosition());
+      Definition definition = this.context.definitionNames()
+          .longestMatch(buffer, pos, buffer.length());
+      if (definition == null) {
+        return new Failure(buffer, pos, "definition expected");
       }
 
-      String name = result.get();
-      if (this.context.valueNames().contains(name)) {
-        return new Success(result.getBuffer(), result.getPosition(), new ValueName(name));
+      String name = definition.name();
+      pos = skipWhitespace(buffer, pos + name.length());
+      if (definition instanceof ValueDefinition) {
+        return new Success(buffer, pos, new ValueName(name));
       }
 
-      FunctionDefinition definition = this.context.function(name);
-      Parser argumentListParser = of('(').trim()
-          .seq(listParser(',', argumentParser, argumentParser, false), of(')').trim())
-          .map((List<Object> values) -> (List<Expression>) values.get(1));
-      result = argumentListParser.parseOn(result);
+      FunctionDefinition function = (FunctionDefinition) definition;
+      Result result = argumentListParser.parseOn(new Success(buffer, pos, null));
       if (result.isFailure()) {
         return result;
       }
 
       List<Expression> args = result.get();
-      if (args.size() < definition.minArgs() || args.size() > definition.maxArgs()) {
+      if (args.size() < function.minArgs() || args.size() > function.maxArgs()) {
         return new Failure(result.getBuffer(), result.getPosition(), "Invalid parameter count");
       }
 
       return new Success(result.getBuffer(), result.getPosition(), new FunctionCall(name, args));
     }
 
+    private static int skipWhitespace(String buffer, int pos) {
+      while (pos < buffer.length() && Character.isWhitespace(buffer.charAt(pos))) {
+        pos++;
+      }
+      return pos;
+    }
+
     @Override
     public Parser copy() {
       return new DefinitionParser(context, argumentParser);
@@ -661,11 +781,11 @@ public class ParserFactory {
 
   static class NameParser extends Parser {
 
-    private final Set<String> names;
+    private final NameTrie<String> names;
     private final String message;
 
 
-    NameParser(Set<String> names, String message) {
+    NameParser(NameTrie<String> names, String message) {
       this.names = names;
       this.message = message;
     }
@@ -674,25 +794,9 @@ public class ParserFactory {
     public Result parseOn(org.petitparser.context.Context context) {
       String buffer = context.getBuffer();
       int pos = context.getPosition();
-
-      String exactMatch = null;
-      Set<String> available = names;
-      for (int i = 0; pos + i < buffer.length() && !available.isEmpty(); i++) {
-        char ch = buffer.charAt(pos + i);
-        int ai = i;
-        available = available.stream()
-            .filter(s -> s.length() > ai)
-            .filter(s -> s.charAt(ai) == ch)
-            .collect(Collectors.toSet());
-        if (available.size() == 1 && available.iterator().next().length() == ai + 1) {
-          return context.success(buffer.substring(pos, pos + i + 1), pos + ai + 1);
-        } else {
-          exactMatch = available.stream().filter(s -> s.length() == ai + 1).findFirst()
-              .orElse(exactMatch);
-        }
-      }
-      return exactMatch == null ? context.failure(message)
-          : context.success(exactMatch, pos + exactMatch.length());
+      String match = names.longestMatch(buffer, pos, buffer.length());
+      return match == null ? context.failure(message)
+          : context.success(match, pos + match.length());
     }
 
     @Override
@@ -701,4 +805,70 @@ public class ParserFactory {
     }
   }
 
+  /**
+   * Groups {@link MemoizingParser MemoizingParsers}, typically the ones of the rules of a grammar.
+   * <p>
+   * The results of the parsers are remembered as long as the outermost invocation of any parser of
+   * the scope runs, so for a grammar whose start rule is memoized, this is exactly one parse. When
+   * it returns, all results are dropped, so that neither the results nor the input are retained
+   * between the parses.
+   */
+  static final class MemoScope {
+
+    private final List<MemoizingParser> parsers = new ArrayList<>();
+    private int depth;
+
+    Parser memoizing(Parser parser) {
+      return new MemoizingParser(parser, this);
+    }
+
+    private void enter() {
+      depth++;
+    }
+
+    private void exit() {
+      if (--depth == 0) {
+        for (MemoizingParser parser : parsers) {
+          parser.results = null;
+        }
+        parsers.clear();
+      }
+    }
+  }
+
+  static class MemoizingParser extends DelegateParser {
+
+    private final MemoScope scope;
+    private Result[] results;
+
+    MemoizingParser(Parser delegate, MemoScope scope) {
+      super(delegate);
+      this.scope = scope;
+    }
+
+    @Override
+    public Result parseOn(org.petitparser.context.Context context) {
+      scope.enter();
+      try {
+        if (results == null) {
+          results = new Result[context.getBuffer().length() + 1];
+          scope.parsers.add(this);
+        }
+        int pos = context.getPosition();
+        Result result = results[pos];
+        if (result == null) {
+          result = delegate.parseOn(context);
+          results[pos] = result;
+        }
+        return result;
+      } finally {
+        scope.exit();
+      }
+    }
+
+    @Override
+    public MemoizingParser copy() {
+      return new MemoizingParser(delegate, scope);
+    }
+  }
 }
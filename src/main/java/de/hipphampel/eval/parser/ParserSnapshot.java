@@ -0,0 +1,190 @@
+package de.hipphampel.eval.parser;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import de.hipphampel.eval.Context;
+import de.hipphampel.eval.exception.EvalException;
+import de.hipphampel.eval.exception.ParseException;
+import de.hipphampel.eval.expr.Expression;
+import de.hipphampel.eval.expr.ExpressionInterner;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Immutable snapshot of the parse related state of a {@link Context} that can be used by several
+ * threads at once.
+ * <p>
+ * A {@code Context} itself must not be used by several threads, since its definitions and settings
+ * might be changed at any time. A {@code ParserSnapshot} freezes the definitions, the
+ * {@link ParseMode}, the {@link ParserEngine}, and the {@link MacroExpander} of the
+ * {@code Context} at the time of its creation; later changes of the {@code Context} are not
+ * visible to it. This allows to parse texts concurrently, especially to parse large batches of
+ * texts in parallel via {@link #parseAll(Collection)}.
+ * <p>
+ * Parser instances are not shared between threads: a thread takes an idle parser of the snapshot
+ * or creates a new one, and returns it when done, so the parsers are reused, but not bound to the
+ * threads. The only requirement is that the {@code MacroExpander} is thread safe, which is the case
+ * for the predefined ones. A
+ * {@link ParseCache} configured for the {@code Context} is not used, whereas a configured
+ * {@link ExpressionInterner} is.
+ */
+public final class ParserSnapshot {
+
+  // Several chunks per thread, so that threads finishing early can take over work
+  private static final int CHUNKS_PER_THREAD = 4;
+  private static final int MIN_CHUNK_SIZE = 16;
+
+  private final Context<?, ?> context;
+  private final ParseMode parseMode;
+  private final ParserEngine parserEngine;
+  private final MacroExpander macroExpander;
+  private final ExpressionInterner interner;
+  private final Queue<ExpressionParser> parsers = new ConcurrentLinkedQueue<>();
+
+  /**
+   * Constructor.
+   *
+   * @param context The {@link Context} to take the snapshot from
+   */
+  public ParserSnapshot(Context<?, ?> context) {
+    this.context = context.copy(true);
+    this.parseMode = context.parseMode();
+    this.parserEngine = context.parserEngine();
+    this.macroExpander = context.macroExpander();
+    this.interner = context.interner();
+  }
+
+  /**
+   * Gets the {@link ParseMode} of this snapshot.
+   *
+   * @return The {@code ParseMode}
+   */
+  public ParseMode parseMode() {
+    return parseMode;
+  }
+
+  /**
+   * Gets the {@link ParserEngine} of this snapshot.
+   *
+   * @return The {@code ParserEngine}
+   */
+  public ParserEngine parserEngine() {
+    return parserEngine;
+  }
+
+  /**
+   * Parses the string literal {@code expression} into a {@link Expression}.
+   * <p>
+   * This works like {@link Context#parse(String)}, but is based on the state of the snapshot.
+   *
+   * @param expression The literal to parse.
+   * @return The {@code Expression}
+   * @throws ParseException If parsing fails
+   */
+  public Expression parse(String expression) {
+    ExpressionParser parser = acquireParser();
+    try {
+      return parse(parser, expression);
+    } finally {
+      parsers.add(parser);
+    }
+  }
+
+  private Expression parse(ExpressionParser parser, String expression) {
+    Expression result = parser.parse(macroExpander.expand(context, expression));
+    return interner == null ? result : interner.intern(result);
+  }
+
+  private ExpressionParser acquireParser() {
+    ExpressionParser parser = parsers.poll();
+    return parser != null ? parser
+        : ParserFactory.expressionParser(context, parseMode, parserEngine);
+  }
+
+  /**
+   * Parses all {@code expressions} in parallel using the common {@link ForkJoinPool}.
+   * <p>
+   * See {@link #parseAll(Collection, ForkJoinPool)} for details.
+   *
+   * @param expressions The literals to parse
+   * @return The {@link ParseResult ParseResults}
+   */
+  public List<ParseResult> parseAll(Collection<String> expressions) {
+    return parseAll(expressions, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Parses all {@code expressions} in parallel using the given {@link ForkJoinPool}.
+   * <p>
+   * The returned list contains one {@link ParseResult} per literal in the iteration order of
+   * {@code expressions}. A literal that cannot be parsed does not abort the whole operation,
+   * instead its {@code ParseResult} contains the {@link ParseException}, or the
+   * {@link EvalException} in case expanding the macros fails. The literals are split into a few
+   * chunks per thread of the {@code pool}, each chunk is parsed with one parser instance.
+   *
+   * @param expressions The literals to parse
+   * @param pool        The {@code ForkJoinPool} to use
+   * @return The {@code ParseResults}
+   */
+  public List<ParseResult> parseAll(Collection<String> expressions, ForkJoinPool pool) {
+    String[] inputs = expressions.toArray(String[]::new);
+    ParseResult[] results = new ParseResult[inputs.length];
+    int chunkSize = Math.max(MIN_CHUNK_SIZE,
+        inputs.length / (pool.getParallelism() * CHUNKS_PER_THREAD) + 1);
+    int chunks = (inputs.length + chunkSize - 1) / chunkSize;
+    pool.submit(() -> IntStream.range(0, chunks)
+            .parallel()
+            .forEach(chunk -> parseChunk(inputs, results, chunk * chunkSize,
+                Math.min(inputs.length, (chunk + 1) * chunkSize))))
+        .join();
+    return Arrays.asList(results);
+  }
+
+  private void parseChunk(String[] inputs, ParseResult[] results, int start, int end) {
+    ExpressionParser parser = acquireParser();
+    try {
+      for (int i = start; i < end; i++) {
+        results[i] = parseResult(parser, inputs[i]);
+      }
+    } finally {
+      parsers.add(parser);
+    }
+  }
+
+  private ParseResult parseResult(ExpressionParser parser, String input) {
+    try {
+      return new ParseResult(input, parse(parser, input), null);
+    } catch (EvalException e) {
+      return new ParseResult(input, null, e);
+    }
+  }
+}
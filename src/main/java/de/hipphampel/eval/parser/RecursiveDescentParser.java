@@ -0,0 +1,459 @@
+package de.hipphampel.eval.parser;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import de.hipphampel.eval.Context;
+import de.hipphampel.eval.definition.Definition;
+import de.hipphampel.eval.definition.FunctionDefinition;
+import de.hipphampel.eval.definition.ValueDefinition;
+import de.hipphampel.eval.exception.ParseException;
+import de.hipphampel.eval.expr.Add;
+import de.hipphampel.eval.expr.Div;
+import de.hipphampel.eval.expr.Expression;
+import de.hipphampel.eval.expr.ExpressionInterner;
+import de.hipphampel.eval.expr.FunctionCall;
+import de.hipphampel.eval.expr.Mul;
+import de.hipphampel.eval.expr.Neg;
+import de.hipphampel.eval.expr.Pow;
+import de.hipphampel.eval.expr.Sub;
+import de.hipphampel.eval.expr.ValueName;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Hand-written {@link ExpressionParser}.
+ * <p>
+ * This parser recognizes exactly the same language as the parsers created by
+ * {@link ParserFactory#expressionParserStandard(Context)} and
+ * {@link ParserFactory#expressionParserSimplified(Context)} and produces the same
+ * {@link Expression Expressions}, but it uses precedence climbing instead of trying combinator
+ * alternatives. It still backtracks locally, by resetting the position to a mark when an optional
+ * part like an operator and its operand does not match, whereas common prefixes of alternatives
+ * are parsed only once. Apart from the resulting {@code Expressions} it allocates next to nothing.
+ * <p>
+ * For invalid input, the {@link ParseException} reports the failure that got farthest into the
+ * input. Its position is therefore never before the one reported by the combinator parsers, but
+ * position and message may differ from theirs.
+ * <p>
+ * The names of the definitions are taken from the {@link Context#definitionNames() NameTrie} of the
+ * {@link Context} when constructing the parser, so definitions added afterwards are not recognized.
+ * If the {@code Context} has an {@link ExpressionInterner}, the nodes are interned while parsing,
+ * so that subtrees already known to the {@code ExpressionInterner} are not created again.
+ * Instances are not thread safe.
+ */
+public class RecursiveDescentParser implements ExpressionParser {
+
+  private final Context<?, ?> context;
+  private final ParseMode mode;
+  private final NameTrie<Definition> names;
+  private final ExpressionInterner interner;
+
+  private CharSequence input;
+  private int pos;
+  private int end;
+  private int errorPosition;
+  private String errorMessage;
+
+  /**
+   * Constructor.
+   *
+   * @param context The {@link Context} providing the definitions and the precision
+   * @param mode    The {@link ParseMode}
+   */
+  public RecursiveDescentParser(Context<?, ?> context, ParseMode mode) {
+    this.context = Objects.requireNonNull(context);
+    this.mode = Objects.requireNonNull(mode);
+    this.names = context.definitionNames();
+    this.interner = context.interner();
+  }
+
+  /**
+   * Gets the {@link ParseMode} of this parser.
+   *
+   * @return The {@code ParseMode}
+   */
+  public ParseMode mode() {
+    return mode;
+  }
+
+  @Override
+  public Expression parse(CharSequence input) {
+    this.input = input;
+    this.pos = 0;
+    this.end = input.length();
+    this.errorPosition = -1;
+    this.errorMessage = null;
+    try {
+      Expression result = parseSum();
+      if (result == null) {
+        throw new ParseException(errorMessage, errorPosition);
+      }
+      if (pos != end) {
+        throw new ParseException("end of input expected", pos);
+      }
+      return result;
+    } finally {
+      this.input = null;
+    }
+  }
+
+  // sum := factor (('+' | '-') factor)*
+  private Expression parseSum() {
+    Expression left = parseFactor();
+    if (left == null) {
+      return null;
+    }
+    for (; ; ) {
+      int mark = pos;
+      char op = operator('+', '-');
+      if (op == 0) {
+        return left;
+      }
+      Expression right = parseFactor();
+      if (right == null) {
+        pos = mark;
+        return left;
+      }
+      left = op == '+' ? add(left, right) : sub(left, right);
+    }
+  }
+
+  // factor := pow (('*' | '/') pow)*
+  private Expression parseFactor() {
+    Expression left = parsePow();
+    if (left == null) {
+      return null;
+    }
+    for (; ; ) {
+      int mark = pos;
+      char op = operator('*', '/');
+      if (op == 0) {
+        return left;
+      }
+      Expression right = parsePow();
+      if (right == null) {
+        pos = mark;
+        return left;
+      }
+      left = op == '*' ? mul(left, right) : div(left, right);
+    }
+  }
+
+  private Expression parsePow() {
+    return mode == ParseMode.STANDARD ? parsePowStandard() : parsePowSimplified();
+  }
+
+  // pow := primitive ('^' pow)?
+  private Expression parsePowStandard() {
+    Expression base = parsePrimitive();
+    if (base == null) {
+      return null;
+    }
+    int mark = pos;
+    if (operator('^', '^') != 0) {
+      Expression exponent = parsePowStandard();
+      if (exponent != null) {
+        return pow(base, exponent);
+      }
+      pos = mark;
+    }
+    return base;
+  }
+
+  // pow := sign ('^' sign)+ primitive*         (right associative, the primitives multiply the
+  //                                               last exponent)
+  //      | sign primitive+ '^' pow             (the power binds to the last factor only)
+  //      | sign primitive*                     (convenience multiplication)
+  private Expression parsePowSimplified() {
+    Expression first = parseSign();
+    if (first == null) {
+      return null;
+    }
+
+    int mark = pos;
+    if (operator('^', '^') != 0) {
+      Expression exponent = parseSign();
+      if (exponent != null) {
+        return pow(first, parsePowChainSimplified(exponent));
+      }
+      pos = mark;
+    }
+
+    Expression product = first;
+    Expression last = null;
+    for (; ; ) {
+      mark = pos;
+      Expression next = parsePrimitive();
+      if (next == null) {
+        pos = mark;
+        break;
+      }
+      if (last != null) {
+        product = mul(product, last);
+      }
+      last = next;
+    }
+    if (last == null) {
+      return first;
+    }
+
+    mark = pos;
+    if (operator('^', '^') != 0) {
+      Expression exponent = parsePowSimplified();
+      if (exponent != null) {
+        return mul(product, pow(last, exponent));
+      }
+      pos = mark;
+    }
+    return mul(product, last);
+  }
+
+  private Expression parsePowChainSimplified(Expression base) {
+    int mark = pos;
+    if (operator('^', '^') != 0) {
+      Expression exponent = parseSign();
+      if (exponent != null) {
+        return pow(base, parsePowChainSimplified(exponent));
+      }
+      pos = mark;
+    }
+    return parseConvenienceMultiplication(base);
+  }
+
+  private Expression parseConvenienceMultiplication(Expression first) {
+    Expression product = first;
+    for (; ; ) {
+      int mark = pos;
+      Expression next = parsePrimitive();
+      if (next == null) {
+        pos = mark;
+        return product;
+      }
+      product = mul(product, next);
+    }
+  }
+
+  // sign := ('+' | '-') pow | primitive      (SIMPLIFIED only)
+  private Expression parseSign() {
+    int mark = pos;
+    char op = operator('+', '-');
+    if (op != 0) {
+      Expression arg = parsePowSimplified();
+      if (arg != null) {
+        return op == '-' ? neg(arg) : arg;
+      }
+      pos = mark;
+    }
+    return parsePrimitive();
+  }
+
+  // primitive := value | ('+' | '-') primitive | definition | '(' sum ')'     (STANDARD)
+  // primitive := value | definition | '(' sum ')'                            (SIMPLIFIED)
+  private Expression parsePrimitive() {
+    skipWhitespace();
+    if (pos == end) {
+      return fail("expression expected");
+    }
+    char ch = input.charAt(pos);
+    if (isDigit(ch) || ch == '.') {
+      Expression value = parseValue();
+      if (value != null) {
+        return value;
+      }
+    }
+    if (mode == ParseMode.STANDARD && (ch == '+' || ch == '-')) {
+      int mark = pos;
+      pos++;
+      Expression arg = parsePrimitive();
+      if (arg != null) {
+        return ch == '-' ? neg(arg) : arg;
+      }
+      pos = mark;
+    }
+    Expression definition = parseDefinition();
+    if (definition != null) {
+      return definition;
+    }
+    return ch == '(' ? parseParenthesis() : null;
+  }
+
+  private Expression parseParenthesis() {
+    int mark = pos;
+    pos++;
+    Expression result = parseSum();
+    if (result == null) {
+      pos = mark;
+      return null;
+    }
+    if (operator(')', ')') == 0) {
+      int errorPos = pos;
+      pos = mark;
+      return fail("')' expected", errorPos);
+    }
+    return result;
+  }
+
+  private Expression parseValue() {
+    int start = pos;
+    int i = pos;
+    while (i < end && isDigit(input.charAt(i))) {
+      i++;
+    }
+    boolean hasDigits = i > start;
+    if (i < end && input.charAt(i) == '.') {
+      int fractionStart = ++i;
+      while (i < end && isDigit(input.charAt(i))) {
+        i++;
+      }
+      hasDigits |= i > fractionStart;
+    }
+    if (!hasDigits) {
+      return fail("number expected");
+    }
+    if (mode == ParseMode.STANDARD && i < end && (input.charAt(i) == 'e'
+        || input.charAt(i) == 'E')) {
+      int j = i + 1;
+      if (j < end && (input.charAt(j) == '+' || input.charAt(j) == '-')) {
+        j++;
+      }
+      int exponentStart = j;
+      while (j < end && isDigit(input.charAt(j))) {
+        j++;
+      }
+      if (j > exponentStart) {
+        i = j;
+      }
+    }
+    pos = i;
+    skipWhitespace();
+    return intern(LiteralPool.value(input, start, i, context.precision()));
+  }
+
+  private Expression parseDefinition() {
+    int start = pos;
+    Definition match = names.longestMatch(input, start, end);
+    if (match == null) {
+      return fail("definition expected");
+    }
+    String name = match.name();
+    pos = start + name.length();
+    skipWhitespace();
+    if (match instanceof ValueDefinition) {
+      return intern(new ValueName(name));
+    }
+
+    FunctionDefinition definition = (FunctionDefinition) match;
+    if (operator('(', '(') == 0) {
+      pos = start;
+      return fail("'(' expected");
+    }
+    List<Expression> args = new ArrayList<>();
+    do {
+      Expression arg = parseSum();
+      if (arg == null) {
+        pos = start;
+        return null;
+      }
+      args.add(arg);
+    } while (operator(',', ',') != 0);
+    if (operator(')', ')') == 0) {
+      int errorPos = pos;
+      pos = start;
+      return fail("')' expected", errorPos);
+    }
+    if (args.size() < definition.minArgs() || args.size() > definition.maxArgs()) {
+      int errorPos = pos;
+      pos = start;
+      return fail("Invalid parameter count", errorPos);
+    }
+    return intern(new FunctionCall(name, args));
+  }
+
+  private Expression add(Expression left, Expression right) {
+    return interner == null ? new Add(left, right) : interner.add(left, right);
+  }
+
+  private Expression sub(Expression left, Expression right) {
+    return interner == null ? new Sub(left, right) : interner.sub(left, right);
+  }
+
+  private Expression mul(Expression left, Expression right) {
+    return interner == null ? new Mul(left, right) : interner.mul(left, right);
+  }
+
+  private Expression div(Expression left, Expression right) {
+    return interner == null ? new Div(left, right) : interner.div(left, right);
+  }
+
+  private Expression pow(Expression left, Expression right) {
+    return interner == null ? new Pow(left, right) : interner.pow(left, right);
+  }
+
+  private Expression neg(Expression arg) {
+    return interner == null ? new Neg(arg) : interner.neg(arg);
+  }
+
+  private Expression intern(Expression expression) {
+    return interner == null ? expression : interner.intern(expression);
+  }
+
+  private char operator(char op1, char op2) {
+    skipWhitespace();
+    if (pos < end) {
+      char ch = input.charAt(pos);
+      if (ch == op1 || ch == op2) {
+        pos++;
+        skipWhitespace();
+        return ch;
+      }
+    }
+    return 0;
+  }
+
+  private void skipWhitespace() {
+    while (pos < end && Character.isWhitespace(input.charAt(pos))) {
+      pos++;
+    }
+  }
+
+  private Expression fail(String message) {
+    return fail(message, pos);
+  }
+
+  private Expression fail(String message, int position) {
+    if (position >= errorPosition) {
+      errorPosition = position;
+      errorMessage = message;
+    }
+    return null;
+  }
+
+  private static boolean isDigit(char ch) {
+    return ch >= '0' && ch <= '9';
+  }
+}
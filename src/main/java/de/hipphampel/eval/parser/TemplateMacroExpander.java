@@ -0,0 +1,127 @@
+package de.hipphampel.eval.parser;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import de.hipphampel.eval.Context;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * {@link MacroExpander} replacing placeholders like {@code ${NAME}} with values from a source.
+ * <p>
+ * The texts are processed as {@link MacroTemplate MacroTemplates}, which are compiled once and then
+ * expanded in a single pass; please refer to {@code MacroTemplate} for the exact syntax. The source
+ * providing the values for the placeholders is pluggable:
+ * <ul>
+ *   <li>{@link #of(Function)} takes an arbitrary function, which is called on each expansion,</li>
+ *   <li>{@link #of(Map)} takes a snapshot of a {@code Map},</li>
+ *   <li>{@link #environment()} takes a snapshot of the environment variables.</li>
+ * </ul>
+ * Each instance caches the compiled templates, including the ones of values that contain
+ * placeholders themselves. If the source is a snapshot, the expanded texts are cached as well,
+ * since they cannot change any longer. To use a new snapshot, create a new instance. The caches
+ * are bounded; they are lock free, so that an instance can be shared by many threads, like
+ * {@link MacroExpander#ENVIRONMENT_VARIABLES}. Instances are thread safe.
+ */
+public class TemplateMacroExpander implements MacroExpander {
+
+  private static final int CACHE_SIZE = 256;
+
+  private final Function<String, String> source;
+  private final Map<String, MacroTemplate> templates;
+  private final Map<String, String> expansions;
+
+  private TemplateMacroExpander(Function<String, String> source, boolean snapshot) {
+    this.source = Objects.requireNonNull(source);
+    this.templates = new ConcurrentHashMap<>();
+    this.expansions = snapshot ? new ConcurrentHashMap<>() : null;
+  }
+
+  /**
+   * Creates an instance taking the values from {@code source}.
+   * <p>
+   * Since {@code source} might return different values over time, only the compiled templates are
+   * cached, but not the expanded texts.
+   *
+   * @param source Function returning the value for a placeholder name, or {@code null}
+   * @return The {@code TemplateMacroExpander}
+   */
+  public static TemplateMacroExpander of(Function<String, String> source) {
+    return new TemplateMacroExpander(source, false);
+  }
+
+  /**
+   * Creates an instance taking the values from a snapshot of {@code variables}.
+   * <p>
+   * Later changes of {@code variables} are not visible to the instance.
+   *
+   * @param variables The variables
+   * @return The {@code TemplateMacroExpander}
+   */
+  public static TemplateMacroExpander of(Map<String, String> variables) {
+    return new TemplateMacroExpander(Map.copyOf(variables)::get, true);
+  }
+
+  /**
+   * Creates an instance taking the values from a snapshot of the environment variables.
+   *
+   * @return The {@code TemplateMacroExpander}
+   */
+  public static TemplateMacroExpander environment() {
+    return of(System.getenv());
+  }
+
+  @Override
+  public String expand(Context<?, ?> context, String macro) {
+    if (!macro.contains("${")) {
+      return macro;
+    }
+    if (expansions == null) {
+      return template(macro).expand(source, this::template);
+    }
+    return cached(expansions, macro, key -> template(key).expand(source, this::template));
+  }
+
+  private MacroTemplate template(String macro) {
+    return cached(templates, macro, MacroTemplate::compile);
+  }
+
+  // Since the keys are usually few and reused, the cache is simply cleared when it is full
+  private static <T> T cached(Map<String, T> cache, String key, Function<String, T> factory) {
+    T value = cache.get(key);
+    if (value == null) {
+      value = factory.apply(key);
+      if (cache.size() >= CACHE_SIZE) {
+        cache.clear();
+      }
+      cache.put(key, value);
+    }
+    return value;
+  }
+}
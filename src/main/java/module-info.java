@@ -30,6 +30,7 @@ module de.hipphampel.eval {
   exports de.hipphampel.eval.exception;
   exports de.hipphampel.eval.parser;
   exports de.hipphampel.eval.definition;
+  exports de.hipphampel.eval.compiler;
 
   requires petitparser.core;
   requires org.apfloat;
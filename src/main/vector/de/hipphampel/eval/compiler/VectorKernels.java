@@ -0,0 +1,412 @@
+package de.hipphampel.eval.compiler;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link ColumnKernels} based on the {@code jdk.incubator.vector} module.
+ * <p>
+ * This class must only be loaded if the module is available, see {@link BatchEvaluator.Backend}.
+ * The arithmetic operations produce the same results as the {@link ScalarKernels}. Powers with an
+ * small integer exponent are calculated by repeated multiplication, {@code sin}, {@code cos},
+ * {@code ln} and powers with a constant base use polynomial approximations derived from fdlibm,
+ * so these results might differ from the ones of {@link Math} in the last bits. Lanes with
+ * arguments not covered by the approximations, for example very large or non finite values, are
+ * calculated using {@code Math}.
+ */
+final class VectorKernels implements ColumnKernels {
+
+  private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+  // Adding this rounds a double to an integer, which is then found in the lower bits
+  private static final double ROUND = 0x1.8p52;
+  private static final long ROUND_BITS = Double.doubleToRawLongBits(ROUND);
+
+  // Each squaring doubles the rounding error, so larger exponents are left to Math.pow
+  private static final int MAX_INTEGER_EXPONENT = 16;
+
+  // Range reduction for sin and cos
+  private static final double MAX_TRIGONOMETRIC_ARG = 1e5;
+  private static final double TWO_OVER_PI = 6.36619772367581382433e-01;
+  private static final double PIO2_1 = 1.57079632673412561417e+00;
+  private static final double PIO2_2 = 6.07710050630396597660e-11;
+  private static final double PIO2_3 = 2.02226624871116645580e-21;
+  private static final double S1 = -1.66666666666666324348e-01;
+  private static final double S2 = 8.33333333332248946124e-03;
+  private static final double S3 = -1.98412698298579493134e-04;
+  private static final double S4 = 2.75573137070700676789e-06;
+  private static final double S5 = -2.50507602534068634195e-08;
+  private static final double S6 = 1.58969099521155010221e-10;
+  private static final double C1 = 4.16666666666666019037e-02;
+  private static final double C2 = -1.38888888888741095749e-03;
+  private static final double C3 = 2.48015872894767294178e-05;
+  private static final double C4 = -2.75573143513906633035e-07;
+  private static final double C5 = 2.08757232129817482790e-09;
+  private static final double C6 = -1.13596475577881948265e-11;
+
+  // Range reduction for exp and ln
+  // The rounding error of x * ln(base) is amplified by exp, so larger arguments use Math.pow
+  private static final double MAX_POW_ARG = 32;
+  private static final double INV_LN2 = 1.44269504088896338700e+00;
+  private static final double LN2_HI = 6.93147180369123816490e-01;
+  private static final double LN2_LO = 1.90821492927058770002e-10;
+  private static final double[] EXP_COEFFICIENTS = {
+      1.0 / 6227020800L, 1.0 / 479001600, 1.0 / 39916800, 1.0 / 3628800, 1.0 / 362880,
+      1.0 / 40320, 1.0 / 5040, 1.0 / 720, 1.0 / 120, 1.0 / 24, 1.0 / 6, 0.5, 1, 1};
+  private static final double SQRT2 = 1.41421356237309504880;
+  private static final long EXPONENT_MASK = 0x7ff0000000000000L;
+  private static final long MANTISSA_MASK = 0x000fffffffffffffL;
+  private static final long ONE_BITS = Double.doubleToRawLongBits(1.0);
+  private static final double LG1 = 6.666666666666735130e-01;
+  private static final double LG2 = 3.999999999940941908e-01;
+  private static final double LG3 = 2.857142874366239149e-01;
+  private static final double LG4 = 2.222219843214978396e-01;
+  private static final double LG5 = 1.818357216161805012e-01;
+  private static final double LG6 = 1.531383769920937332e-01;
+  private static final double LG7 = 1.479819860511658591e-01;
+
+  static final VectorKernels INSTANCE = new VectorKernels();
+
+  private VectorKernels() {
+  }
+
+  @Override
+  public void add(double[] left, double[] right, double[] target, int rows) {
+    int i = 0;
+    for (int bound = SPECIES.loopBound(rows); i < bound; i += SPECIES.length()) {
+      DoubleVector.fromArray(SPECIES, left, i)
+          .add(DoubleVector.fromArray(SPECIES, right, i))
+          .intoArray(target, i);
+    }
+    for (; i < rows; i++) {
+      target[i] = left[i] + right[i];
+    }
+  }
+
+  @Override
+  public void add(double[] left, double right, double[] target, int rows) {
+    int i = 0;
+    for (int bound = SPECIES.loopBound(rows); i < bound; i += SPECIES.length()) {
+      DoubleVector.fromArray(SPECIES, left, i).add(right).intoArray(target, i);
+    }
+    for (; i < rows; i++) {
+      target[i] = left[i] + right;
+    }
+  }
+
+  @Override
+  public void subtract(double[] left, double[] right, double[] target, int rows) {
+    int i = 0;
+    for (int bound = SPECIES.loopBound(rows); i < bound; i += SPECIES.length()) {
+      DoubleVector.fromArray(SPECIES, left, i)
+          .sub(DoubleVector.fromArray(SPECIES, right, i))
+          .intoArray(target, i);
+    }
+    for (; i < rows; i++) {
+      target[i] = left[i] - right[i];
+    }
+  }
+
+  @Override
+  public void subtract(double[] left, double right, double[] target, int rows) {
+    int i = 0;
+    for (int bound = SPECIES.loopBound(rows); i < bound; i += SPECIES.length()) {
+      DoubleVector.fromArray(SPECIES, left, i).sub(right).intoArray(target, i);
+    }
+    for (; i < rows; i++) {
+      target[i] = left[i] - right;
+    }
+  }
+
+  @Override
+  public void subtract(double left, double[] right, double[] target, int rows) {
+    DoubleVector broadcast = DoubleVector.broadcast(SPECIES, left);
+    int i = 0;
+    for (int bound = SPECIES.loopBound(rows); i < bound; i += SPECIES.length()) {
+      broadcast.sub(DoubleVector.fromArray(SPECIES, right, i)).intoArray(target, i);
+    }
+    for (; i < rows; i++) {
+      target[i] = left - right[i];
+    }
+  }
+
+  @Override
+  public void multiply(double[] left, double[] right, double[] target, int rows) {
+    int i = 0;
+    for (int bound = SPECIES.loopBound(rows); i < bound; i += SPECIES.length()) {
+      DoubleVector.fromArray(SPECIES, left, i)
+          .mul(DoubleVector.fromArray(SPECIES, right, i))
+          .intoArray(target, i);
+    }
+    for (; i < rows; i++) {
+      target[i] = left[i] * right[i];
+    }
+  }
+
+  @Override
+  public void multiply(double[] left, double right, double[] target, int rows) {
+    int i = 0;
+    for (int bound = SPECIES.loopBound(rows); i < bound; i += SPECIES.length()) {
+      DoubleVector.fromArray(SPECIES, left, i).mul(right).intoArray(target, i);
+    }
+    for (; i < rows; i++) {
+      target[i] = left[i] * right;
+    }
+  }
+
+  @Override
+  public void divide(double[] left, double[] right, double[] target, int rows) {
+    int i = 0;
+    for (int bound = SPECIES.loopBound(rows); i < bound; i += SPECIES.length()) {
+      DoubleVector.fromArray(SPECIES, left, i)
+          .div(DoubleVector.fromArray(SPECIES, right, i))
+          .intoArray(target, i);
+    }
+    for (; i < rows; i++) {
+      target[i] = left[i] / right[i];
+    }
+  }
+
+  @Override
+  public void divide(double[] left, double right, double[] target, int rows) {
+    int i = 0;
+    for (int bound = SPECIES.loopBound(rows); i < bound; i += SPECIES.length()) {
+      DoubleVector.fromArray(SPECIES, left, i).div(right).intoArray(target, i);
+    }
+    for (; i < rows; i++) {
+      target[i] = left[i] / right;
+    }
+  }
+
+  @Override
+  public void divide(double left, double[] right, double[] target, int rows) {
+    DoubleVector broadcast = DoubleVector.broadcast(SPECIES, left);
+    int i = 0;
+    for (int bound = SPECIES.loopBound(rows); i < bound; i += SPECIES.length()) {
+      broadcast.div(DoubleVector.fromArray(SPECIES, right, i)).intoArray(target, i);
+    }
+    for (; i < rows; i++) {
+      target[i] = left / right[i];
+    }
+  }
+
+  @Override
+  public void negate(double[] arg, double[] target, int rows) {
+    int i = 0;
+    for (int bound = SPECIES.loopBound(rows); i < bound; i += SPECIES.length()) {
+      DoubleVector.fromArray(SPECIES, arg, i).neg().intoArray(target, i);
+    }
+    for (; i < rows; i++) {
+      target[i] = -arg[i];
+    }
+  }
+
+  @Override
+  public void pow(double[] base, int exponent, double[] target, int rows) {
+    if (exponent > MAX_INTEGER_EXPONENT || exponent < -MAX_INTEGER_EXPONENT) {
+      ScalarKernels.INSTANCE.pow(base, exponent, target, rows);
+      return;
+    }
+    int i = 0;
+    for (int bound = SPECIES.loopBound(rows); i < bound; i += SPECIES.length()) {
+      DoubleVector value = DoubleVector.fromArray(SPECIES, base, i);
+      DoubleVector x = value;
+      DoubleVector result = DoubleVector.broadcast(SPECIES, 1.0);
+      for (int n = Math.abs(exponent); n != 0; n >>= 1) {
+        if ((n & 1) != 0) {
+          result = result.mul(x);
+        }
+        x = x.mul(x);
+      }
+      if (exponent < 0) {
+        result = DoubleVector.broadcast(SPECIES, 1.0).div(result);
+      }
+      // Intermediate overflows and underflows are left to Math.pow
+      VectorMask<Double> special = result.abs().compare(VectorOperators.GE, Double.MIN_NORMAL)
+          .and(result.abs().compare(VectorOperators.LE, Double.MAX_VALUE))
+          .not();
+      result.intoArray(target, i);
+      if (special.anyTrue()) {
+        for (int j = 0; j < SPECIES.length(); j++) {
+          if (special.laneIsSet(j)) {
+            target[i + j] = Math.pow(value.lane(j), exponent);
+          }
+        }
+      }
+    }
+    for (; i < rows; i++) {
+      target[i] = Math.pow(base[i], exponent);
+    }
+  }
+
+  @Override
+  public void pow(double base, double[] exponent, double[] target, int rows) {
+    if (!(base > 0) || Double.isInfinite(base)) {
+      ScalarKernels.INSTANCE.pow(base, exponent, target, rows);
+      return;
+    }
+    // base^x = exp(x * ln(base))
+    double logBase = Math.log(base);
+    int i = 0;
+    for (int bound = SPECIES.loopBound(rows); i < bound; i += SPECIES.length()) {
+      DoubleVector value = DoubleVector.fromArray(SPECIES, exponent, i);
+      DoubleVector x = value.mul(logBase);
+      VectorMask<Double> special = x.abs().compare(VectorOperators.LE, MAX_POW_ARG).not();
+      exp(x).intoArray(target, i);
+      if (special.anyTrue()) {
+        for (int j = 0; j < SPECIES.length(); j++) {
+          if (special.laneIsSet(j)) {
+            target[i + j] = Math.pow(base, value.lane(j));
+          }
+        }
+      }
+    }
+    for (; i < rows; i++) {
+      target[i] = Math.pow(base, exponent[i]);
+    }
+  }
+
+  @Override
+  public void sin(double[] arg, double[] target, int rows) {
+    sinCos(arg, target, rows, 0);
+  }
+
+  @Override
+  public void cos(double[] arg, double[] target, int rows) {
+    sinCos(arg, target, rows, 1);
+  }
+
+  @Override
+  public void log(double[] arg, double[] target, int rows) {
+    int i = 0;
+    for (int bound = SPECIES.loopBound(rows); i < bound; i += SPECIES.length()) {
+      DoubleVector x = DoubleVector.fromArray(SPECIES, arg, i);
+      VectorMask<Double> special = x.compare(VectorOperators.GE, Double.MIN_NORMAL)
+          .and(x.compare(VectorOperators.LE, Double.MAX_VALUE))
+          .not();
+      log(x).intoArray(target, i);
+      if (special.anyTrue()) {
+        for (int j = 0; j < SPECIES.length(); j++) {
+          if (special.laneIsSet(j)) {
+            target[i + j] = Math.log(x.lane(j));
+          }
+        }
+      }
+    }
+    for (; i < rows; i++) {
+      target[i] = Math.log(arg[i]);
+    }
+  }
+
+  private static void sinCos(double[] arg, double[] target, int rows, int quadrantOffset) {
+    int i = 0;
+    for (int bound = SPECIES.loopBound(rows); i < bound; i += SPECIES.length()) {
+      DoubleVector x = DoubleVector.fromArray(SPECIES, arg, i);
+      VectorMask<Double> special = x.abs().compare(VectorOperators.LE, MAX_TRIGONOMETRIC_ARG)
+          .not();
+
+      // x = k * pi/2 + r, with |r| <= pi/4
+      DoubleVector rounded = x.mul(TWO_OVER_PI).add(ROUND);
+      DoubleVector k = rounded.sub(ROUND);
+      DoubleVector r = x.sub(k.mul(PIO2_1)).sub(k.mul(PIO2_2)).sub(k.mul(PIO2_3));
+      LongVector quadrant = ((LongVector) rounded.reinterpretAsLongs())
+          .add(quadrantOffset)
+          .and(3L);
+
+      DoubleVector z = r.mul(r);
+      DoubleVector sin = z.mul(S6).add(S5).mul(z).add(S4).mul(z).add(S3).mul(z).add(S2).mul(z)
+          .add(S1).mul(z).mul(r).add(r);
+      DoubleVector cos = z.mul(C6).add(C5).mul(z).add(C4).mul(z).add(C3).mul(z).add(C2).mul(z)
+          .add(C1).mul(z).mul(z).add(z.mul(-0.5)).add(1.0);
+
+      VectorMask<Double> useCos = quadrant.and(1L).compare(VectorOperators.NE, 0L)
+          .cast(SPECIES);
+      VectorMask<Double> negate = quadrant.and(2L).compare(VectorOperators.NE, 0L)
+          .cast(SPECIES);
+      DoubleVector result = sin.blend(cos, useCos);
+      result.lanewise(VectorOperators.NEG, negate).intoArray(target, i);
+
+      if (special.anyTrue()) {
+        for (int j = 0; j < SPECIES.length(); j++) {
+          if (special.laneIsSet(j)) {
+            target[i + j] = quadrantOffset == 0 ? Math.sin(x.lane(j)) : Math.cos(x.lane(j));
+          }
+        }
+      }
+    }
+    for (; i < rows; i++) {
+      target[i] = quadrantOffset == 0 ? Math.sin(arg[i]) : Math.cos(arg[i]);
+    }
+  }
+
+  private static DoubleVector exp(DoubleVector x) {
+    // x = k * ln(2) + r, with |r| <= ln(2)/2
+    DoubleVector rounded = x.mul(INV_LN2).add(ROUND);
+    DoubleVector k = rounded.sub(ROUND);
+    DoubleVector r = x.sub(k.mul(LN2_HI)).sub(k.mul(LN2_LO));
+
+    DoubleVector result = DoubleVector.broadcast(SPECIES, EXP_COEFFICIENTS[0]);
+    for (int j = 1; j < EXP_COEFFICIENTS.length; j++) {
+      result = result.mul(r).add(EXP_COEFFICIENTS[j]);
+    }
+
+    // Multiply by 2^k by constructing the double directly
+    DoubleVector scale = ((LongVector) rounded.reinterpretAsLongs())
+        .sub(ROUND_BITS)
+        .add(1023L)
+        .lanewise(VectorOperators.LSHL, 52)
+        .reinterpretAsDoubles();
+    return result.mul(scale);
+  }
+
+  private static DoubleVector log(DoubleVector x) {
+    // x = 2^e * m, with sqrt(2)/2 <= m < sqrt(2)
+    LongVector bits = (LongVector) x.reinterpretAsLongs();
+    LongVector exponent = bits.and(EXPONENT_MASK).lanewise(VectorOperators.LSHR, 52).sub(1023L);
+    DoubleVector m = (DoubleVector) bits.and(MANTISSA_MASK).or(ONE_BITS).reinterpretAsDoubles();
+    VectorMask<Double> large = m.compare(VectorOperators.GT, SQRT2);
+    m = m.blend(m.mul(0.5), large);
+    DoubleVector e = (DoubleVector) exponent.convert(VectorOperators.L2D, 0);
+    e = e.blend(e.add(1.0), large);
+
+    DoubleVector f = m.sub(1.0);
+    DoubleVector s = f.div(f.add(2.0));
+    DoubleVector z = s.mul(s);
+    DoubleVector w = z.mul(z);
+    DoubleVector t1 = w.mul(LG6).add(LG4).mul(w).add(LG2).mul(w);
+    DoubleVector t2 = w.mul(LG7).add(LG5).mul(w).add(LG3).mul(w).add(LG1).mul(z);
+    DoubleVector r = t1.add(t2);
+    DoubleVector halfSquare = f.mul(f).mul(0.5);
+    return e.mul(LN2_HI)
+        .sub(halfSquare.sub(s.mul(halfSquare.add(r)).add(e.mul(LN2_LO))).sub(f));
+  }
+}
@@ -28,12 +28,14 @@ package de.hipphampel.eval;
 
 import de.hipphampel.eval.definition.StandardConstants;
 import de.hipphampel.eval.exception.NotANumberException;
+import de.hipphampel.eval.expr.Expression;
 import org.apfloat.Apcomplex;
 import org.apfloat.Apfloat;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
 import java.math.MathContext;
+import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
@@ -104,4 +106,45 @@ public class ApcomplexContextTest {
     assertThat(context.evaluate("-1^0.5")).isEqualTo(Apcomplex.I);
   }
 
+  @ParameterizedTest
+  @CsvSource({
+      "'(2+3)*4',           20",
+      "'sin(pi/4)*2^0.5',   1",
+      "'(1+i)^2',           '(0,2)'",
+      "'ln(-1)/pi',         '(0,1)'",
+      "'asinh(sinh(i))',    '(0,1)'",
+  })
+  public void evaluate_doubleArithmetic(String expression, String result) {
+    ApcomplexContext context = ApcomplexContext.standard(new MathContext(10), 16)
+        .doubleArithmetic(true);
+    assertThat(context.evaluate(expression)).isEqualTo(new Apcomplex(result));
+  }
+
+  @Test
+  public void doubleArithmetic() {
+    ApcomplexContext context = ApcomplexContext.standard(new MathContext(10), 16);
+    Expression expression = context.parse("sin(pi/4)");
+    assertThat(context.doubleArithmetic()).isFalse();
+    assertThat(context.compile(expression).getClass().isHidden()).isTrue();
+
+    context.doubleArithmetic(true);
+    assertThat(context.doubleArithmetic()).isTrue();
+    assertThat(context.copy(false).doubleArithmetic()).isTrue();
+    assertThat(context.compile(expression).getClass().isHidden()).isFalse();
+    assertThatThrownBy(() -> context.evaluate("1/(pi-pi)"))
+        .isInstanceOf(ArithmeticException.class);
+
+    // Not applicable for a higher precision
+    ApcomplexContext precise = ApcomplexContext.standard(new MathContext(10), 17)
+        .doubleArithmetic(true);
+    assertThat(precise.compile(expression).getClass().isHidden()).isTrue();
+  }
+
+  @Test
+  public void evaluateBatch() {
+    ApcomplexContext context = ApcomplexContext.standard(new MathContext(5)).variables("x");
+    Apcomplex[] results = context.evaluateBatch(context.parse("x/3+i"),
+        Map.of("x", new Apcomplex[]{new Apcomplex("1"), new Apcomplex("2")}));
+    assertThat(results).containsExactly(new Apcomplex("(0.33333,1)"), new Apcomplex("(0.66667,1)"));
+  }
 }
@@ -39,8 +39,22 @@ import de.hipphampel.eval.definition.Variable;
 import de.hipphampel.eval.exception.EvalException;
 import de.hipphampel.eval.exception.ParseException;
 import de.hipphampel.eval.expr.Expression;
+import de.hipphampel.eval.expr.ExpressionInterner;
+import de.hipphampel.eval.expr.Mul;
+import de.hipphampel.eval.expr.Sub;
+import de.hipphampel.eval.parser.ParseCache;
 import de.hipphampel.eval.parser.ParseMode;
+import de.hipphampel.eval.parser.ParseResult;
+import de.hipphampel.eval.parser.ParsedExpression;
+import de.hipphampel.eval.parser.ParserEngine;
+import java.io.IOException;
+import java.io.StringReader;
 import java.math.RoundingMode;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -48,6 +62,7 @@ import org.apfloat.Apcomplex;
 import org.apfloat.Apfloat;
 import org.apfloat.ApfloatMath;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
 
@@ -72,6 +87,19 @@ public class ContextTest {
     assertThat(context.parseMode()).isEqualTo(ParseMode.STANDARD);
   }
 
+  @Test
+  public void parserEngine() {
+    TestContext context = new TestContext(10);
+    assertThat(context.parserEngine()).isEqualTo(ParserEngine.COMBINATOR);
+
+    assertThat(context.parserEngine(ParserEngine.RECURSIVE_DESCENT)).isSameAs(context);
+    assertThat(context.parserEngine()).isEqualTo(ParserEngine.RECURSIVE_DESCENT);
+    assertThat(context.copy(false).parserEngine()).isEqualTo(ParserEngine.RECURSIVE_DESCENT);
+
+    assertThat(context.parserEngine(ParserEngine.COMBINATOR)).isSameAs(context);
+    assertThat(context.parserEngine()).isEqualTo(ParserEngine.COMBINATOR);
+  }
+
   @Test
   public void copy_withVariables() {
     TestContext context = new TestContext(10)
@@ -366,6 +394,153 @@ public class ContextTest {
     }
   }
 
+  @Test
+  public void parse_afterDefinitionOrParseModeChange() {
+    TestContext context = new TestContext(100)
+        .parseMode(ParseMode.STANDARD)
+        .variable("x", 10L);
+    assertThat(context.parse("x+1").toString())
+        .isEqualTo("Add[left=ValueName[name=x], right=Value[value=1]]");
+    assertThatThrownBy(() -> context.parse("x+y"))
+        .isInstanceOf(ParseException.class);
+
+    context.variable("y", 1L);
+    assertThat(context.parse("x+y").toString())
+        .isEqualTo("Add[left=ValueName[name=x], right=ValueName[name=y]]");
+    assertThatThrownBy(() -> context.parse("2x"))
+        .isInstanceOf(ParseException.class);
+
+    context.parseMode(ParseMode.SIMPLIFIED);
+    assertThat(context.parse("2x").toString())
+        .isEqualTo("Mul[left=Value[value=2], right=ValueName[name=x]]");
+
+    context.parserEngine(ParserEngine.RECURSIVE_DESCENT);
+    assertThat(context.parse("2x").toString())
+        .isEqualTo("Mul[left=Value[value=2], right=ValueName[name=x]]");
+    context.variable("z", 1L);
+    assertThat(context.parse("2z").toString())
+        .isEqualTo("Mul[left=Value[value=2], right=ValueName[name=z]]");
+  }
+
+  @Test
+  public void parse_withParseCache() {
+    ParseCache cache = new ParseCache(10);
+    TestContext context = new TestContext(100)
+        .parseMode(ParseMode.SIMPLIFIED)
+        .variables("x", "y")
+        .parseCache(cache);
+    assertThat(context.parseCache()).isSameAs(cache);
+
+    Expression expression = context.parse("xy");
+    assertThat(expression.toString())
+        .isEqualTo("Mul[left=ValueName[name=x], right=ValueName[name=y]]");
+    assertThat(context.parse("xy")).isSameAs(expression);
+    assertThat(cache.hits()).isEqualTo(1);
+    assertThat(cache.misses()).isEqualTo(1);
+
+    Expression unaffected = context.parse("x+1");
+    context.variable("xy", 1L);
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(context.parse("x+1")).isSameAs(unaffected);
+    assertThat(context.parse("xy").toString()).isEqualTo("ValueName[name=xy]");
+
+    context.parseMode(ParseMode.STANDARD);
+    assertThat(cache.size()).isEqualTo(0);
+    context.parse("xy");
+
+    context.macroExpander((ctx, text) -> text.replace("#", "x"));
+    assertThat(cache.size()).isEqualTo(0);
+    assertThat(context.parse("#+y").toString())
+        .isEqualTo("Add[left=ValueName[name=x], right=ValueName[name=y]]");
+    assertThat(context.parse("x+y")).isSameAs(context.parse("#+y"));
+
+    TestContext copy = context.copy(true);
+    assertThat(copy.parseCache()).isNotSameAs(cache);
+    assertThat(copy.parseCache().maxSize()).isEqualTo(10);
+
+    context.parseCache(null);
+    assertThat(context.parse("x+y")).isNotSameAs(context.parse("x+y"));
+  }
+
+  @Test
+  public void parse_charSequenceAndByteBuffer(@TempDir Path dir) throws IOException {
+    Path file = dir.resolve("expressions.txt");
+    Files.writeString(file, "x+1;2*y^2");
+    for (ParserEngine engine : ParserEngine.values()) {
+      TestContext context = new TestContext(100).variables("x", "y").parserEngine(engine);
+      assertThat(context.parse(new StringBuilder("x+1"))).isEqualTo(context.parse("x+1"));
+
+      try (FileChannel channel = FileChannel.open(file)) {
+        MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+        buffer.position(4);
+        assertThat(context.parse(buffer)).isEqualTo(context.parse("2*y^2"));
+        assertThat(buffer.position()).isEqualTo(4);
+        buffer.position(0).limit(3);
+        assertThat(context.parse(buffer)).isEqualTo(context.parse("x+1"));
+        buffer.limit(5);
+        assertThatThrownBy(() -> context.parse(buffer))
+            .isInstanceOf(ParseException.class)
+            .extracting(e -> ((ParseException) e).getPosition())
+            .isEqualTo(3);
+      }
+    }
+  }
+
+  @Test
+  public void parse_withInterner() {
+    ExpressionInterner interner = new ExpressionInterner();
+    TestContext context = new TestContext(100).variables("x", "y").interner(interner);
+    assertThat(context.interner()).isSameAs(interner);
+    assertThat(context.copy(false).interner()).isSameAs(interner);
+
+    Expression expression = context.parse("(x+y)*(x+y)");
+    assertThat(context.parse("(x+y) * (x+y)")).isSameAs(expression);
+    assertThat(context.parse(new StringBuilder("x+y"))).isSameAs(((Mul) expression).left());
+    assertThat(context.parserSnapshot().parse("x+y")).isSameAs(((Mul) expression).left());
+
+    context.parserEngine(ParserEngine.RECURSIVE_DESCENT);
+    assertThat(context.parse("(x+y)*(x+y)")).isSameAs(expression);
+    Expression difference = context.parse("(x+y)-2*(x+y)");
+    assertThat(((Sub) difference).left()).isSameAs(((Mul) expression).left());
+    assertThat(((Mul) ((Sub) difference).right()).right()).isSameAs(((Mul) expression).left());
+
+    context.interner(null);
+    assertThat(context.parse("(x+y)*(x+y)")).isNotSameAs(expression);
+  }
+
+  @Test
+  public void bind() {
+    TestContext context = new TestContext(100).variables("x");
+    long version = context.definitionVersion();
+    context.variable("y");
+    assertThat(context.definitionVersion()).isEqualTo(version);
+    context.constant("c", 1L);
+    assertThat(context.definitionVersion()).isEqualTo(version + 1);
+
+    Expression bound = context.bind(context.parse("x+y"));
+    assertThat(bound).isEqualTo(context.parse("x+y"));
+  }
+
+  @Test
+  public void parseAll() {
+    TestContext context = new TestContext(100).variables("x", "y");
+    assertThat(context.parseAll(new StringReader("x+1; y\n2*x")).map(ParsedExpression::expression))
+        .containsExactly(context.parse("x+1"), context.parse("y"), context.parse("2*x"));
+    assertThatThrownBy(() -> context.parseAll(new StringReader("x+1\n2*z")).toList())
+        .isInstanceOf(ParseException.class)
+        .extracting(e -> ((ParseException) e).getPosition())
+        .isEqualTo(5);
+  }
+
+  @Test
+  public void parseAll_collection() {
+    TestContext context = new TestContext(100).variables("x", "y");
+    List<ParseResult> results = context.parseAll(List.of("x+1", "x+z", "2*y"));
+    assertThat(results).extracting(ParseResult::expression)
+        .containsExactly(context.parse("x+1"), null, context.parse("2*y"));
+    assertThat(results.get(1).exception()).isInstanceOf(ParseException.class);
+  }
+
   @Test
   public void variable_success() {
     TestContext context = new TestContext(10);
@@ -27,8 +27,10 @@ package de.hipphampel.eval;
  */
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
 
 import de.hipphampel.eval.definition.StandardConstants;
+import java.util.Map;
 import org.assertj.core.data.Offset;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
@@ -83,10 +85,38 @@ public class DoubleContextTest {
     assertThat(context.evaluate(expression)).isEqualTo(result);
   }
 
+  @ParameterizedTest
+  @CsvSource({
+      "'(2+3)*4',         20.0",
+      "'sin(pi/4)*2^0.5',  1.0",
+  })
+  public void evaluateAsDouble(String expression, double result) {
+    DoubleContext context = DoubleContext.standard();
+    assertThat(context.evaluateAsDouble(expression)).isCloseTo(result, within(1e-15));
+    assertThat(context.compileAsDouble(context.parse(expression)).evaluate())
+        .isCloseTo(result, within(1e-15));
+  }
+
   @Test
   public void complexResult() {
     DoubleContext context = DoubleContext.standard();
     assertThat(context.evaluate("-1^0.5")).isNaN();
+    assertThat(context.evaluateAsDouble("-1^0.5")).isNaN();
+  }
+
+  @Test
+  public void complexIntermediateResult() {
+    DoubleContext context = DoubleContext.standard().variable("x", -1.0);
+    assertThat(context.evaluate("((-1)^0.5)^2")).isCloseTo(-1, within(1e-10));
+    assertThat(context.evaluateAsDouble("((-1)^0.5)^2")).isCloseTo(-1, within(1e-10));
+    assertThat(context.compileAsDouble(context.parse("((-1)^0.5)^2")).evaluate())
+        .isCloseTo(-1, within(1e-10));
+    assertThat(context.evaluateBatch(context.parse("((-1)^0.5)^2+x"),
+        Map.of("x", new double[]{1, 2}))).containsExactly(new double[]{0, 1}, within(1e-10));
+
+    assertThat(context.evaluate("(x^0.5)^2")).isCloseTo(-1, within(1e-10));
+    assertThat(context.evaluateAsDouble("(x^0.5)^2")).isNaN();
+    assertThat(context.compileAsDouble(context.parse("(x^0.5)^2")).evaluate()).isNaN();
   }
 
   @Test
@@ -95,4 +125,12 @@ public class DoubleContextTest {
     assertThat(context.newInstance()).isNotNull();
     assertThat(context.newInstance()).isNotSameAs(context);
   }
+
+  @Test
+  public void evaluateBatch() {
+    DoubleContext context = DoubleContext.standard().variables("x", "y");
+    double[] results = context.evaluateBatch(context.parse("x*y+1"),
+        Map.of("x", new double[]{1, 2, 3}, "y", new double[]{4, 5, 6}));
+    assertThat(results).containsExactly(5, 11, 19);
+  }
 }
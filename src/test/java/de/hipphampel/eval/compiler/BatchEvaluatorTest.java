@@ -0,0 +1,207 @@
+package de.hipphampel.eval.compiler;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+import de.hipphampel.eval.ApcomplexContext;
+import de.hipphampel.eval.DoubleContext;
+import de.hipphampel.eval.exception.EvalException;
+import de.hipphampel.eval.expr.Add;
+import de.hipphampel.eval.expr.CommonSubexpressions;
+import de.hipphampel.eval.expr.Expression;
+import de.hipphampel.eval.expr.ValueName;
+import java.util.List;
+import java.util.Map;
+import org.apfloat.Apcomplex;
+import org.apfloat.Apfloat;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class BatchEvaluatorTest {
+
+  private static final int ROWS = 25;
+
+  @ParameterizedTest
+  @CsvSource({
+      "'42'",
+      "'x'",
+      "'-x'",
+      "'x+y-3*x/y^2'",
+      "'2-x*y+y/2'",
+      "'(x+y)^3-(x-y)^2+x^-1'",
+      "'sin(x)+cos(y)*tan(pi/4)'",
+      "'log(x*x+1,2)+ln(y)+atanh(x)'",
+      "'sq(x+1)*sq(y)-sq(2)'",
+      "'sin(x*y)/(x*y)+sin(x*y)-(x-y)^2*(x-y)'",
+  })
+  public void evaluate(String input) {
+    DoubleContext context = DoubleContext.standard()
+        .variables("x", "y")
+        .function("sq", List.of("a"), "a*a");
+    Expression expression = context.parse(input);
+    double[] x = new double[ROWS];
+    double[] y = new double[ROWS];
+    for (int i = 0; i < ROWS; i++) {
+      x[i] = (i - 12) / 8.0;
+      y[i] = i * 0.75;
+    }
+    double[] xCopy = x.clone();
+    double[] yCopy = y.clone();
+
+    double[] results = BatchEvaluator.evaluate(context, expression, Map.of("x", x, "y", y));
+    double[] sharedResults = BatchEvaluator.evaluate(context,
+        CommonSubexpressions.eliminate(expression), Map.of("x", x, "y", y));
+
+    assertThat(x).isEqualTo(xCopy);
+    assertThat(y).isEqualTo(yCopy);
+    assertThat(results).hasSize(ROWS);
+    assertThat(sharedResults).isEqualTo(results);
+    for (int i = 0; i < ROWS; i++) {
+      context.variable("x", x[i]).variable("y", y[i]);
+      double expected = DoubleExpressionCompiler.evaluate(context, expression);
+      if (Double.isNaN(expected)) {
+        assertThat(results[i]).as(input + " in row " + i).isNaN();
+      } else {
+        assertThat(results[i]).as(input + " in row " + i)
+            .isCloseTo(expected, within(1e-12 * Math.max(1, Math.abs(expected))));
+      }
+    }
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+      "'x+y-3*x/y^2'",
+      "'2-x*y+y/2-1/x'",
+      "'(x+y)^3-(x-y)^2+x^-1+y^0.5'",
+      "'2^x+0.5^y-e^(x*y)'",
+      "'sin(x)+cos(y)*tan(pi/4)-sin(x*y)*cos(x/y)'",
+      "'ln(y)+ln(x)*2+log(x*x+1,2)'",
+      "'sin(x*y)/(x*y)+sin(x*y)-(x-y)^2*(x-y)'",
+  })
+  public void evaluate_vectorBackend(String input) {
+    assertThat(BatchEvaluator.Backend.SCALAR.isAvailable()).isTrue();
+    assertThat(BatchEvaluator.Backend.VECTOR.isAvailable()).isTrue();
+    DoubleContext context = DoubleContext.standard().variables("x", "y");
+    Expression expression = context.parse(input);
+    int rows = 1000;
+    double[] x = new double[rows];
+    double[] y = new double[rows];
+    for (int i = 0; i < rows; i++) {
+      x[i] = (i - 500) / 32.0;
+      y[i] = i * 0.125;
+    }
+
+    double[] expected = BatchEvaluator.evaluate(context, expression, Map.of("x", x, "y", y),
+        BatchEvaluator.Backend.SCALAR);
+    double[] results = BatchEvaluator.evaluate(context,
+        CommonSubexpressions.eliminate(expression), Map.of("x", x, "y", y),
+        BatchEvaluator.Backend.VECTOR);
+
+    for (int i = 0; i < rows; i++) {
+      if (Double.isNaN(expected[i])) {
+        assertThat(results[i]).as(input + " in row " + i).isNaN();
+      } else if (Double.isInfinite(expected[i])) {
+        assertThat(results[i]).as(input + " in row " + i).isEqualTo(expected[i]);
+      } else {
+        assertThat(results[i]).as(input + " in row " + i)
+            .isCloseTo(expected[i], within(1e-12 * Math.max(1, Math.abs(expected[i]))));
+      }
+    }
+  }
+
+  @Test
+  public void evaluate_namesFromContext() {
+    DoubleContext context = DoubleContext.standard().variables("x", "y").variable("y", 3.0);
+    double[] results = BatchEvaluator.evaluate(context, context.parse("x*y"),
+        Map.of("x", new double[]{1, 2, 3}));
+    assertThat(results).containsExactly(3, 6, 9);
+
+    results = BatchEvaluator.evaluate(context, context.parse("y*2"),
+        Map.of("x", new double[]{1, 2, 3}));
+    assertThat(results).containsExactly(6, 6, 6);
+  }
+
+  @Test
+  public void evaluate_failures() {
+    DoubleContext context = DoubleContext.standard().variables("x", "y");
+    Expression expression = context.parse("x+y");
+    assertThatThrownBy(() -> BatchEvaluator.evaluate(context, expression, Map.of()))
+        .isInstanceOf(EvalException.class)
+        .hasMessage("At least one column is required");
+    assertThatThrownBy(() -> BatchEvaluator.evaluate(context, expression,
+        Map.of("x", new double[2], "y", new double[3])))
+        .isInstanceOf(EvalException.class)
+        .hasMessage("All columns must have the same length");
+    assertThatThrownBy(() -> BatchEvaluator.evaluate(context,
+        new Add(new ValueName("x"), new ValueName("z")), Map.of("x", new double[2])))
+        .isInstanceOf(EvalException.class)
+        .hasMessage("No such value 'z'");
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+      "'42'",
+      "'-x'",
+      "'x+y*i-3*x/y^2'",
+      "'x*x-y*y+x'",
+      "'sin(x)+abs(y)*pi'",
+      "'sq(x+1)*sq(y)'",
+      "'sin(x*y)/(x*y+1)+sin(x*y)'",
+  })
+  public void evaluateApcomplex(String input) {
+    ApcomplexContext context = ApcomplexContext.standard()
+        .withComplexSpecificFunctions()
+        .variables("x", "y")
+        .function("sq", List.of("a"), "a*a");
+    Expression expression = context.parse(input);
+    Apcomplex[] x = new Apcomplex[ROWS];
+    Apcomplex[] y = new Apcomplex[ROWS];
+    for (int i = 0; i < ROWS; i++) {
+      x[i] = new Apcomplex(new Apfloat(i - 12), new Apfloat(i % 3));
+      y[i] = new Apcomplex(new Apfloat(i + 1));
+    }
+    Apcomplex[] xCopy = x.clone();
+
+    Apcomplex[] results = BatchEvaluator.evaluateApcomplex(context, expression,
+        Map.of("x", x, "y", y));
+    Apcomplex[] sharedResults = BatchEvaluator.evaluateApcomplex(context,
+        CommonSubexpressions.eliminate(expression), Map.of("x", x, "y", y));
+
+    assertThat(x).isEqualTo(xCopy);
+    assertThat(results).hasSize(ROWS);
+    assertThat(sharedResults).isEqualTo(results);
+    for (int i = 0; i < ROWS; i++) {
+      context.variable("x", x[i]).variable("y", y[i]);
+      assertThat(results[i]).as(input + " in row " + i)
+          .isEqualTo(expression.evaluate(context));
+    }
+  }
+}
@@ -0,0 +1,245 @@
+package de.hipphampel.eval.compiler;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import de.hipphampel.eval.ApcomplexContext;
+import de.hipphampel.eval.Context;
+import de.hipphampel.eval.exception.EvalException;
+import de.hipphampel.eval.expr.CommonSubexpressions;
+import de.hipphampel.eval.expr.Expression;
+import de.hipphampel.eval.expr.FunctionCall;
+import de.hipphampel.eval.expr.ValueName;
+import java.math.MathContext;
+import java.util.List;
+import java.util.Random;
+import org.apfloat.Apcomplex;
+import org.apfloat.ApcomplexMath;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class ComplexDoubleExpressionCompilerTest {
+
+  private static final String[][] VARIABLES = {
+      {"(0.5,0.25)", "(0.75,-0.3)"}, {"-0.2", "(0,0.9)"}, {"(-1.5,-2)", "3"}, {"(0.1,1e-3)", "-2"}};
+
+  private static ApcomplexContext newContext() {
+    return ApcomplexContext.standard(new MathContext(12), 16)
+        .withComplexSpecificFunctions()
+        .variables("x", "y")
+        .function("sq", List.of("a"), "a*a");
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+      "'42'",
+      "'x'",
+      "'pi*e*i'",
+      "'x+y-3*x/y^2'",
+      "'-x^-2'",
+      "'(x+y)^3-(x-y)^2'",
+      "'2^x*3^y'",
+      "'x^y+x^0.5+y^i'",
+      "'sin(x)+cos(y)*tan(x)'",
+      "'asin(x)+acos(y)+atan(x/y)'",
+      "'sinh(x)+cosh(y)+tanh(x*y)'",
+      "'asinh(x)+asinh(-3*x)+acosh(2+y)+atanh(x)+atanh(y)'",
+      "'ln(x*x+1)+log(y*y+2,2)+log(10,x*x+1)'",
+      "'real(x)+imag(y)+norm(x)+arg(y)+arg(x)+abs(x)'",
+      "'sq(x+1)*sq(y)'",
+      "'sin(pi/6)*x+ln(e^2)*y'",
+      "'sin(x*y)/(x*y)+sin(x*y)-(x-y)^2*(x-y)'",
+  })
+  public void compile(String input) {
+    ApcomplexContext context = newContext();
+    Expression expression = context.parse(input);
+    CompiledExpression compiled = ComplexDoubleExpressionCompiler.compile(context, expression);
+    Expression shared = CommonSubexpressions.eliminate(expression);
+    CompiledExpression compiledShared = ComplexDoubleExpressionCompiler.compile(context, shared);
+
+    assertThat(compiled.expression()).isSameAs(expression);
+    assertThat(compiled.context()).isSameAs(context);
+    for (String[] values : VARIABLES) {
+      context.variable("x", new Apcomplex(values[0])).variable("y", new Apcomplex(values[1]));
+      Apcomplex expected = expression.evaluate(context);
+      assertSameResult(compiled.evaluate(), expected, input);
+      assertSameResult(ComplexDoubleExpressionCompiler.evaluate(context, expression), expected,
+          input);
+      assertSameResult(compiledShared.evaluate(), expected, input);
+      assertSameResult(ComplexDoubleExpressionCompiler.evaluate(context, shared), expected, input);
+    }
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+      "'ln(-1)'",
+      "'(-8)^(1/3)'",
+      "'(-2)^3'",
+      "'0^(1+i)'",
+      "'asin(2)'",
+      "'asin(-2)'",
+      "'acos(2)'",
+      "'acos(-2)'",
+      "'atan(2*i)'",
+      "'atan(-2*i)'",
+      "'asinh(2*i)'",
+      "'asinh(-2*i)'",
+      "'acosh(0.5)'",
+      "'acosh(-0.5)'",
+      "'acosh(-2)'",
+      "'atanh(2)'",
+      "'atanh(-2)'",
+      "'arg(-1)'",
+      "'log(-8,2)'",
+  })
+  public void evaluate_branchCuts(String input) {
+    ApcomplexContext context = newContext();
+    Expression expression = context.parse(input);
+    assertSameResult(ComplexDoubleExpressionCompiler.evaluate(context, expression),
+        expression.evaluate(context), input);
+  }
+
+  @Test
+  public void compile_randomExpressions() {
+    Random random = new Random(4711);
+    ApcomplexContext context = newContext();
+    for (int i = 0; i < 30; i++) {
+      String input = randomExpression(random, 3);
+      Expression expression = context.parse(input);
+      CompiledExpression compiled = ComplexDoubleExpressionCompiler.compile(context, expression);
+      for (String[] values : VARIABLES) {
+        context.variable("x", new Apcomplex(values[0])).variable("y", new Apcomplex(values[1]));
+        Apcomplex expected;
+        try {
+          expected = expression.evaluate(context);
+        } catch (ArithmeticException e) {
+          assertThatThrownBy(compiled::evaluate).isInstanceOf(ArithmeticException.class);
+          continue;
+        }
+        assertSameResult(compiled.evaluate(), expected, input);
+        assertSameResult(ComplexDoubleExpressionCompiler.evaluate(context, expression), expected,
+            input);
+      }
+    }
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+      "'1/(x-x)'",
+      "'0^0'",
+      "'ln(x-x)'",
+      "'arg(x-x)'",
+      "'e^(1000*x)'",
+  })
+  public void evaluate_nonFiniteResultFails(String input) {
+    ApcomplexContext context = newContext().variable("x", Apcomplex.ONE);
+    Expression expression = context.parse(input);
+    assertThatThrownBy(() -> ComplexDoubleExpressionCompiler.evaluate(context, expression))
+        .isInstanceOf(ArithmeticException.class);
+    CompiledExpression compiled = ComplexDoubleExpressionCompiler.compile(context, expression);
+    assertThatThrownBy(compiled::evaluate)
+        .isInstanceOf(ArithmeticException.class);
+  }
+
+  @Test
+  public void evaluate_unknownExpressionType() {
+    ApcomplexContext context = newContext().variable("x", new Apcomplex("(3,1)"));
+    Expression custom = new Expression() {
+      @Override
+      public boolean isInvariant(Context<?, ?> context) {
+        return false;
+      }
+
+      @Override
+      public Expression simplify(Context<?, ?> context) {
+        return this;
+      }
+
+      @Override
+      public Apcomplex evaluate(Context<?, ?> context) {
+        return context.valueAsApcomplex("x").multiply(new Apcomplex("2"));
+      }
+    };
+    assertThat(ComplexDoubleExpressionCompiler.evaluate(context, custom))
+        .isEqualTo(new Apcomplex("(6,2)"));
+    assertThat(ComplexDoubleExpressionCompiler.compile(context, custom).evaluate())
+        .isEqualTo(new Apcomplex("(6,2)"));
+  }
+
+  @Test
+  public void compile_failures() {
+    ApcomplexContext context = newContext();
+    assertThatThrownBy(() -> ComplexDoubleExpressionCompiler.compile(context, new ValueName("z")))
+        .isInstanceOf(EvalException.class)
+        .hasMessage("No such value 'z'");
+    assertThatThrownBy(() -> ComplexDoubleExpressionCompiler.evaluate(context, new ValueName("z")))
+        .isInstanceOf(EvalException.class)
+        .hasMessage("No such value 'z'");
+    assertThatThrownBy(() -> ComplexDoubleExpressionCompiler.compile(context,
+        new FunctionCall("foo", List.of(new ValueName("x")))))
+        .isInstanceOf(EvalException.class)
+        .hasMessage("No such function 'foo'");
+    assertThatThrownBy(() -> ComplexDoubleExpressionCompiler.compile(context,
+        new FunctionCall("sin", List.of())))
+        .isInstanceOf(EvalException.class)
+        .hasMessage("Invalid parameter count for function 'sin'");
+  }
+
+  private static void assertSameResult(Apcomplex actual, Apcomplex expected, String input) {
+    double difference = ApcomplexMath.abs(actual.subtract(expected)).doubleValue();
+    double magnitude = ApcomplexMath.abs(expected).doubleValue();
+    assertThat(difference).as(input + ": " + actual + " vs. " + expected)
+        .isLessThanOrEqualTo(1e-12 * Math.max(1, magnitude));
+  }
+
+  private static String randomExpression(Random random, int depth) {
+    if (depth == 0 || random.nextInt(4) == 0) {
+      return switch (random.nextInt(5)) {
+        case 0 -> "x";
+        case 1 -> "y";
+        case 2 -> "i";
+        case 3 -> "pi";
+        default -> String.valueOf(random.nextInt(9) + 1);
+      };
+    }
+    String left = randomExpression(random, depth - 1);
+    String right = randomExpression(random, depth - 1);
+    return switch (random.nextInt(8)) {
+      case 0 -> "(" + left + "+" + right + ")";
+      case 1 -> "(" + left + "-" + right + ")";
+      case 2 -> "(" + left + "*" + right + ")";
+      case 3 -> "(" + left + ")/(3+sin(" + right + "))";
+      case 4 -> "(" + left + ")^" + (random.nextInt(4) + 1);
+      case 5 -> "sin(" + left + ")";
+      case 6 -> "cos(" + left + ")*atan(" + right + ")";
+      default -> "abs(" + left + ")/(1+norm(" + right + "))";
+    };
+  }
+}
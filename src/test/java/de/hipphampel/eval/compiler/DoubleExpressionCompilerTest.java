@@ -0,0 +1,207 @@
+package de.hipphampel.eval.compiler;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+import de.hipphampel.eval.Context;
+import de.hipphampel.eval.DoubleContext;
+import de.hipphampel.eval.exception.EvalException;
+import de.hipphampel.eval.expr.CommonSubexpressions;
+import de.hipphampel.eval.expr.Expression;
+import de.hipphampel.eval.expr.FunctionCall;
+import de.hipphampel.eval.expr.ValueName;
+import java.util.List;
+import java.util.Random;
+import org.apfloat.Apcomplex;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class DoubleExpressionCompilerTest {
+
+  private static final double[][] VARIABLES = {
+      {0.5, 0.25}, {0.75, -0.3}, {-0.2, 0.9}, {0.1, 1e-3}};
+
+  private static DoubleContext newContext() {
+    return DoubleContext.standard()
+        .withComplexSpecificFunctions()
+        .variables("x", "y")
+        .function("sq", List.of("a"), "a*a");
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+      "'42'",
+      "'x'",
+      "'pi*e'",
+      "'x+y-3*x/y^2'",
+      "'-x^-2'",
+      "'(x+y)^3-(x-y)^2'",
+      "'2^x*3^y'",
+      "'sin(x)+cos(y)*tan(x)'",
+      "'asin(x)+acos(y)+atan(x/y)'",
+      "'sinh(x)+cosh(y)+tanh(x*y)'",
+      "'asinh(x)+asinh(-3*x)+acosh(2+y)+atanh(x)+atanh(y)'",
+      "'ln(x*x+1)+log(y*y+2,2)+log(10,x*x+1)'",
+      "'real(x)+imag(y)+norm(x)+arg(y)+arg(x)+abs(x)'",
+      "'sq(x+1)*sq(y)'",
+      "'sin(pi/6)*x+ln(e^2)*y'",
+      "'sin(x*y)/(x*y)+sin(x*y)-(x-y)^2*(x-y)'",
+  })
+  public void compile(String input) {
+    DoubleContext context = newContext();
+    Expression expression = context.parse(input);
+    DoubleExpression compiled = DoubleExpressionCompiler.compile(context, expression);
+    Expression shared = CommonSubexpressions.eliminate(expression);
+    DoubleExpression compiledShared = DoubleExpressionCompiler.compile(context, shared);
+
+    assertThat(compiled.expression()).isSameAs(expression);
+    assertThat(compiled.context()).isSameAs(context);
+    for (double[] values : VARIABLES) {
+      context.variable("x", values[0]).variable("y", values[1]);
+      assertSameResult(compiled.evaluate(), context.evaluate(expression), input);
+      assertSameResult(DoubleExpressionCompiler.evaluate(context, expression),
+          context.evaluate(expression), input);
+      assertSameResult(compiledShared.evaluate(), context.evaluate(expression), input);
+      assertSameResult(DoubleExpressionCompiler.evaluate(context, shared),
+          context.evaluate(expression), input);
+    }
+  }
+
+  @Test
+  public void compile_randomExpressions() {
+    Random random = new Random(4711);
+    DoubleContext context = newContext();
+    for (int i = 0; i < 40; i++) {
+      String input = randomExpression(random, 4);
+      Expression expression = context.parse(input);
+      DoubleExpression compiled = context.compileAsDouble(expression);
+      for (double[] values : VARIABLES) {
+        context.variable("x", values[0]).variable("y", values[1]);
+        double expected = context.evaluate(expression);
+        assertSameResult(compiled.evaluate(), expected, input);
+        assertSameResult(context.evaluateAsDouble(expression), expected, input);
+      }
+    }
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+      "'ln(-1)'",
+      "'(-8)^(1/3)'",
+      "'asin(2)'",
+      "'acosh(0.5)'",
+      "'atanh(2)'",
+      "'ln(x-1)*0+1'",
+  })
+  public void evaluate_complexIntermediateIsNaN(String input) {
+    DoubleContext context = newContext().variable("x", 0.5);
+    assertThat(context.evaluateAsDouble(input)).isNaN();
+  }
+
+  @Test
+  public void evaluate_followsIeee754() {
+    DoubleContext context = newContext().variable("x", 0.0);
+    assertThat(context.evaluateAsDouble("1/x")).isEqualTo(Double.POSITIVE_INFINITY);
+    assertThat(context.evaluateAsDouble("x/x")).isNaN();
+  }
+
+  @Test
+  public void evaluate_unknownExpressionType() {
+    DoubleContext context = newContext().variable("x", 3.0);
+    Expression custom = new Expression() {
+      @Override
+      public boolean isInvariant(Context<?, ?> context) {
+        return false;
+      }
+
+      @Override
+      public Expression simplify(Context<?, ?> context) {
+        return this;
+      }
+
+      @Override
+      public Apcomplex evaluate(Context<?, ?> context) {
+        return context.valueAsApcomplex("x").multiply(new Apcomplex("2"));
+      }
+    };
+    assertThat(context.evaluateAsDouble(custom)).isEqualTo(6.0);
+  }
+
+  @Test
+  public void compile_failures() {
+    DoubleContext context = newContext();
+    assertThatThrownBy(() -> context.compileAsDouble(new ValueName("z")))
+        .isInstanceOf(EvalException.class)
+        .hasMessage("No such value 'z'");
+    assertThatThrownBy(() -> context.evaluateAsDouble(new ValueName("z")))
+        .isInstanceOf(EvalException.class)
+        .hasMessage("No such value 'z'");
+    assertThatThrownBy(
+        () -> context.compileAsDouble(new FunctionCall("foo", List.of(new ValueName("x")))))
+        .isInstanceOf(EvalException.class)
+        .hasMessage("No such function 'foo'");
+    assertThatThrownBy(() -> context.compileAsDouble(new FunctionCall("sin", List.of())))
+        .isInstanceOf(EvalException.class)
+        .hasMessage("Invalid parameter count for function 'sin'");
+  }
+
+  private static void assertSameResult(double actual, double expected, String input) {
+    if (Double.isNaN(expected)) {
+      assertThat(actual).as(input).isNaN();
+    } else {
+      assertThat(actual).as(input)
+          .isCloseTo(expected, within(1e-12 * Math.max(1, Math.abs(expected))));
+    }
+  }
+
+  private static String randomExpression(Random random, int depth) {
+    if (depth == 0 || random.nextInt(4) == 0) {
+      return switch (random.nextInt(4)) {
+        case 0 -> "x";
+        case 1 -> "y";
+        case 2 -> "pi";
+        default -> String.valueOf(random.nextInt(9) + 1);
+      };
+    }
+    String left = randomExpression(random, depth - 1);
+    String right = randomExpression(random, depth - 1);
+    return switch (random.nextInt(8)) {
+      case 0 -> "(" + left + "+" + right + ")";
+      case 1 -> "(" + left + "-" + right + ")";
+      case 2 -> "(" + left + "*" + right + ")";
+      case 3 -> "(" + left + ")/(2+sin(" + right + "))";
+      case 4 -> "(2+cos(" + left + "))^" + (random.nextInt(4) + 1);
+      case 5 -> "sin(" + left + ")";
+      case 6 -> "cos(" + left + ")*atan(" + right + ")";
+      default -> "atan(" + left + ")/(1+" + right + "*" + right + ")";
+    };
+  }
+}
@@ -0,0 +1,208 @@
+package de.hipphampel.eval.compiler;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import de.hipphampel.eval.ApcomplexContext;
+import de.hipphampel.eval.Context;
+import de.hipphampel.eval.definition.FunctionDefinition;
+import de.hipphampel.eval.exception.EvalException;
+import de.hipphampel.eval.expr.Add;
+import de.hipphampel.eval.expr.CommonSubexpressions;
+import de.hipphampel.eval.expr.Expression;
+import de.hipphampel.eval.expr.FunctionCall;
+import de.hipphampel.eval.expr.Let;
+import de.hipphampel.eval.expr.ValueName;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import org.apfloat.Apcomplex;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class ExpressionCompilerTest {
+
+  private static ApcomplexContext newContext() {
+    return ApcomplexContext.standard()
+        .withComplexSpecificFunctions()
+        .variables("x", "y")
+        .function("sq", List.of("a"), "a*a")
+        .function(new Avg());
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+      "'42'",
+      "'x'",
+      "'pi'",
+      "'x+y-3*x/y^2'",
+      "'-x^-y'",
+      "'2*pi*x'",
+      "'sin(x)+cos(y)*tan(x)'",
+      "'asin(x)+acos(y)+atan(x)+sinh(x)+cosh(y)+tanh(x)'",
+      "'asinh(x)+acosh(y)+atanh(x)'",
+      "'ln(x)+log(y,2)'",
+      "'real(x)+imag(y)+norm(x)+arg(y)+abs(x)'",
+      "'sq(x+1)*avg(x,y,sin(pi/2))'",
+      "'avg(1,2,3)+sq(2)'",
+  })
+  public void compile(String input) {
+    ApcomplexContext context = newContext();
+    Expression expression = context.parse(input);
+    CompiledExpression compiled = ExpressionCompiler.compile(context, expression);
+
+    assertThat(compiled.expression()).isSameAs(expression);
+    assertThat(compiled.context()).isSameAs(context);
+    for (String[] values : new String[][]{{"0.5", "0.25"}, {"0.75", "2"}, {"-0.5", "3"}}) {
+      context.variable("x", new Apcomplex(values[0]));
+      context.variable("y", new Apcomplex(values[1]));
+      assertThat(compiled.evaluate()).isEqualTo(expression.evaluate(context));
+    }
+  }
+
+  @Test
+  public void compile_boundFunctionCall() {
+    ApcomplexContext context = newContext().variable("x", new Apcomplex("0.5"));
+    Expression expression = context.bind(context.parse("sin(x)+avg(x,2)"));
+    assertThat(context.compile(expression).evaluate()).isEqualTo(expression.evaluate(context));
+  }
+
+  @Test
+  public void compile_let() {
+    ApcomplexContext context = newContext().variable("x", new Apcomplex("0.5"))
+        .variable("y", new Apcomplex("0.25"));
+    Expression expression = CommonSubexpressions.eliminate(context.parse(
+        "sin(x*y)+cos(x*y)+sin(x+y)+cos(x+y)+sin(x*y)*cos(x+y)+ln(x-y)*ln(x-y)+(x/y)^(x/y)"));
+    assertThat(((Let) expression).definitions()).hasSize(6);
+    assertThat(context.compile(expression).evaluate()).isEqualTo(expression.evaluate(context));
+  }
+
+  @Test
+  public void compile_unknownExpressionType() {
+    ApcomplexContext context = newContext().variable("x", new Apcomplex("3"));
+    Expression custom = new Twice(new ValueName("x"));
+    CompiledExpression compiled = context.compile(new Add(custom, new ValueName("x")));
+    assertThat(compiled.evaluate()).isEqualTo(new Apcomplex("9"));
+  }
+
+  @Test
+  public void compile_failures() {
+    ApcomplexContext context = newContext();
+    assertThatThrownBy(() -> context.compile(new ValueName("z")))
+        .isInstanceOf(EvalException.class)
+        .hasMessage("No such value 'z'");
+    assertThatThrownBy(() -> context.compile(new FunctionCall("foo", List.of(new ValueName("x")))))
+        .isInstanceOf(EvalException.class)
+        .hasMessage("No such function 'foo'");
+    assertThatThrownBy(() -> context.compile(new FunctionCall("sin", List.of())))
+        .isInstanceOf(EvalException.class)
+        .hasMessage("Invalid parameter count for function 'sin'");
+  }
+
+  @Test
+  public void evaluate_failsLikeInterpreter() {
+    ApcomplexContext context = newContext();
+    Expression expression = context.parse("1/0+x");
+    CompiledExpression compiled = context.compile(expression);
+    assertThatThrownBy(compiled::evaluate).isInstanceOf(ArithmeticException.class);
+  }
+
+  @Test
+  public void compile_largeExpression() {
+    ApcomplexContext context = newContext().variable("x", new Apcomplex("0.5"));
+    Expression expression = context.parse("x*y+real(x)*2-".repeat(300) + "x");
+    assertThat(context.compile(expression).evaluate()).isEqualTo(expression.evaluate(context));
+  }
+
+  @Test
+  public void compile_tooLarge() {
+    ApcomplexContext context = newContext();
+    Expression expression = context.parse("avg(" + "x,".repeat(8000) + "x)");
+    assertThatThrownBy(() -> context.compile(expression))
+        .isInstanceOf(EvalException.class)
+        .hasMessage("Expression too large to compile");
+  }
+
+  @Test
+  public void compiledClassIsUnloadable() throws InterruptedException {
+    ApcomplexContext context = newContext();
+    CompiledExpression compiled = context.compile(context.parse("x+1"));
+    assertThat(compiled.getClass().isHidden()).isTrue();
+
+    WeakReference<Class<?>> ref = new WeakReference<>(compiled.getClass());
+    compiled = null;
+    for (int i = 0; i < 50 && ref.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertThat(ref.get()).isNull();
+  }
+
+  private record Twice(Expression arg) implements Expression {
+
+    @Override
+    public boolean isInvariant(Context<?, ?> context) {
+      return arg.isInvariant(context);
+    }
+
+    @Override
+    public Expression simplify(Context<?, ?> context) {
+      return this;
+    }
+
+    @Override
+    public Apcomplex evaluate(Context<?, ?> context) {
+      return arg.evaluate(context).multiply(new Apcomplex("2"));
+    }
+  }
+
+  private static class Avg implements FunctionDefinition {
+
+    @Override
+    public String name() {
+      return "avg";
+    }
+
+    @Override
+    public int minArgs() {
+      return 1;
+    }
+
+    @Override
+    public int maxArgs() {
+      return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public Apcomplex evaluate(Context<?, ?> context, List<Apcomplex> args) {
+      return args.stream()
+          .reduce(Apcomplex.ZERO, Apcomplex::add).divide(new Apcomplex("" + args.size()));
+    }
+  }
+}
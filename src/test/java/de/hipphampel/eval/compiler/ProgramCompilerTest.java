@@ -0,0 +1,231 @@
+package de.hipphampel.eval.compiler;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import de.hipphampel.eval.ApcomplexContext;
+import de.hipphampel.eval.Context;
+import de.hipphampel.eval.exception.EvalException;
+import de.hipphampel.eval.expr.Add;
+import de.hipphampel.eval.expr.CommonSubexpressions;
+import de.hipphampel.eval.expr.Expression;
+import de.hipphampel.eval.expr.FunctionCall;
+import de.hipphampel.eval.expr.Div;
+import de.hipphampel.eval.expr.Let;
+import de.hipphampel.eval.expr.Mul;
+import de.hipphampel.eval.expr.Temp;
+import de.hipphampel.eval.expr.ValueName;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.List;
+import org.apfloat.Apcomplex;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class ProgramCompilerTest {
+
+  private static ApcomplexContext newContext() {
+    return ApcomplexContext.standard()
+        .withComplexSpecificFunctions()
+        .variables("x", "y")
+        .function("sq", List.of("a"), "a*a");
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+      "'42'",
+      "'x'",
+      "'-x'",
+      "'x+y-3*x/y^2'",
+      "'-(x+1)^-2'",
+      "'sin(x)+cos(y)*pi'",
+      "'log(x*x+1,2)+abs(x-i*y)'",
+      "'sq(x+1)*sq(y)'",
+      "'sq(sq(sq(x)))'",
+  })
+  public void compile(String input) {
+    ApcomplexContext context = newContext().variable("x", new Apcomplex("(0.5,2)"))
+        .variable("y", new Apcomplex("-1.25"));
+    Expression expression = context.parse(input);
+    Program program = ProgramCompiler.compile(expression);
+
+    assertThat(program.expression()).isSameAs(expression);
+    assertThat(program.evaluate(context)).isEqualTo(expression.evaluate(context));
+
+    CompiledExpression linked = program.link(context);
+    assertThat(linked.expression()).isSameAs(expression);
+    assertThat(linked.context()).isSameAs(context);
+    context.variable("x", new Apcomplex("3")).variable("y", new Apcomplex("(0,-1)"));
+    assertThat(linked.evaluate()).isEqualTo(expression.evaluate(context));
+  }
+
+  @Test
+  public void compile_boundFunctionCall() {
+    ApcomplexContext context = newContext().variable("x", new Apcomplex("2"));
+    Expression expression = context.bind(context.parse("sq(x)+sin(sq(x))"));
+    Program program = ProgramCompiler.compile(expression);
+    assertThat(program.evaluate(context)).isEqualTo(expression.evaluate(context));
+  }
+
+  @Test
+  public void compile_let() {
+    ApcomplexContext context = newContext();
+    Expression expression = CommonSubexpressions.eliminate(context.parse("sq(x+1)/(x+1)+1"));
+    Program program = ProgramCompiler.compile(expression);
+    assertThat(program.toString()).isEqualTo("""
+        r0 = 1
+        r1 = x
+        ADD r2, r1, r0
+        CALL r3, sq, r2
+        DIV r3, r3, r2
+        ADD r2, r3, r0
+        RETURN r2""");
+    context.variable("x", new Apcomplex("(0.5,2)"));
+    assertThat(program.evaluate(context)).isEqualTo(expression.evaluate(context));
+  }
+
+  @Test
+  public void compile_reusesRegisters() {
+    ApcomplexContext context = newContext();
+    Program program = ProgramCompiler.compile(context.parse("(x+1)*(x+2)+(x+3)*(x+4)+1"));
+    assertThat(program.toString()).isEqualTo("""
+        r0 = 1
+        r1 = 2
+        r2 = 3
+        r3 = 4
+        r4 = x
+        ADD r5, r4, r0
+        ADD r6, r4, r1
+        MUL r5, r5, r6
+        ADD r6, r4, r2
+        ADD r7, r4, r3
+        MUL r6, r6, r7
+        ADD r5, r5, r6
+        ADD r5, r5, r0
+        RETURN r5""");
+    assertThat(program.registerCount()).isEqualTo(8);
+    assertThat(program.instructionCount()).isEqualTo(8);
+  }
+
+  @Test
+  public void compile_releasesLetRegisters() {
+    ApcomplexContext context = newContext();
+    Expression expression = new Add(
+        new Let(List.of(context.parse("x+1")), new Mul(new Temp(0), new Temp(0))),
+        new Let(List.of(context.parse("x+2")), new Div(new Temp(0), new Temp(0))));
+    Program program = ProgramCompiler.compile(expression);
+    assertThat(program.toString()).isEqualTo("""
+        r0 = 1
+        r1 = 2
+        r2 = x
+        ADD r3, r2, r0
+        MUL r3, r3, r3
+        ADD r4, r2, r1
+        DIV r4, r4, r4
+        ADD r3, r3, r4
+        RETURN r3""");
+    assertThat(program.registerCount()).isEqualTo(5);
+    context.variable("x", new Apcomplex("(0.5,2)"));
+    assertThat(program.evaluate(context)).isEqualTo(expression.evaluate(context));
+  }
+
+  @Test
+  public void compile_leaf() {
+    ApcomplexContext context = newContext().variable("x", new Apcomplex("7"));
+    Program program = ProgramCompiler.compile(new ValueName("x"));
+    assertThat(program.instructionCount()).isZero();
+    assertThat(program.evaluate(context)).isEqualTo(new Apcomplex("7"));
+  }
+
+  @Test
+  public void serialization() throws IOException, ClassNotFoundException {
+    ApcomplexContext context = newContext().variable("x", new Apcomplex("(0.5,2)"))
+        .variable("y", new Apcomplex("3"));
+    Expression expression = context.parse("sq(x+1)*ln(y)-log(x,y)^2");
+    Program program = ProgramCompiler.compile(expression);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(program);
+    }
+    Program copy;
+    try (ObjectInputStream in = new ObjectInputStream(
+        new ByteArrayInputStream(bytes.toByteArray()))) {
+      copy = (Program) in.readObject();
+    }
+
+    assertThat(copy.toString()).isEqualTo(program.toString());
+    assertThat(copy.expression()).isEqualTo(expression);
+    ApcomplexContext other = context.copy(true);
+    assertThat(copy.evaluate(other)).isEqualTo(expression.evaluate(context));
+  }
+
+  @Test
+  public void compile_unsupportedExpressionType() {
+    Expression custom = new Expression() {
+      @Override
+      public boolean isInvariant(Context<?, ?> context) {
+        return false;
+      }
+
+      @Override
+      public Expression simplify(Context<?, ?> context) {
+        return this;
+      }
+
+      @Override
+      public Apcomplex evaluate(Context<?, ?> context) {
+        return Apcomplex.ONE;
+      }
+    };
+    assertThatThrownBy(() -> ProgramCompiler.compile(new FunctionCall("sin", List.of(custom))))
+        .isInstanceOf(EvalException.class)
+        .hasMessageStartingWith("Unsupported expression type");
+  }
+
+  @Test
+  public void link_failures() {
+    ApcomplexContext context = newContext();
+    assertThatThrownBy(() -> ProgramCompiler.compile(new ValueName("z")).link(context))
+        .isInstanceOf(EvalException.class)
+        .hasMessage("No such value 'z'");
+    assertThatThrownBy(() -> ProgramCompiler.compile(
+        new FunctionCall("foo", List.of(new ValueName("x")))).link(context))
+        .isInstanceOf(EvalException.class)
+        .hasMessage("No such function 'foo'");
+    assertThatThrownBy(() -> ProgramCompiler.compile(
+        new FunctionCall("sin", List.of())).link(context))
+        .isInstanceOf(EvalException.class)
+        .hasMessage("Invalid parameter count for function 'sin'");
+  }
+}
@@ -0,0 +1,170 @@
+package de.hipphampel.eval.compiler;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class VectorKernelsTest {
+
+  private static final double[] SPECIAL = {0.0, -0.0, 1.0, -1.0, 0.5, Double.NaN,
+      Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.MIN_VALUE, Double.MIN_NORMAL,
+      Double.MAX_VALUE, -Double.MAX_VALUE, Math.PI, -Math.PI, Math.PI / 2, Math.PI / 4, 1e5,
+      1e6, -1e20, 1e300, 1e-300, 700, -745, 710};
+
+  private final ColumnKernels vector = BatchEvaluator.Backend.VECTOR.kernels();
+  private final ColumnKernels scalar = ScalarKernels.INSTANCE;
+
+  @Test
+  public void arithmetic() {
+    double[] a = values(1001, 1e3);
+    double[] b = values(1001, 1e-2);
+    int rows = a.length - 2;
+
+    assertExact((kernel, target) -> kernel.add(a, b, target, rows), rows);
+    assertExact((kernel, target) -> kernel.add(a, 3.5, target, rows), rows);
+    assertExact((kernel, target) -> kernel.subtract(a, b, target, rows), rows);
+    assertExact((kernel, target) -> kernel.subtract(a, 3.5, target, rows), rows);
+    assertExact((kernel, target) -> kernel.subtract(3.5, b, target, rows), rows);
+    assertExact((kernel, target) -> kernel.multiply(a, b, target, rows), rows);
+    assertExact((kernel, target) -> kernel.multiply(a, -2.0, target, rows), rows);
+    assertExact((kernel, target) -> kernel.divide(a, b, target, rows), rows);
+    assertExact((kernel, target) -> kernel.divide(a, 3.0, target, rows), rows);
+    assertExact((kernel, target) -> kernel.divide(3.0, b, target, rows), rows);
+    assertExact((kernel, target) -> kernel.negate(a, target, rows), rows);
+  }
+
+  @Test
+  public void arithmetic_inPlace() {
+    double[] a = values(103, 10);
+    double[] expected = new double[a.length];
+    scalar.multiply(a, a, expected, a.length);
+    vector.multiply(a, a, a, a.length);
+    assertThat(a).isEqualTo(expected);
+  }
+
+  @Test
+  public void pow_inPlace() {
+    double[] a = values(103, 100);
+    double[] expected = new double[a.length];
+    scalar.pow(a, -7, expected, a.length);
+    vector.pow(a, -7, a, a.length);
+    assertClose(a, expected, "pow(a, -7)");
+
+    double[] b = values(103, 100);
+    scalar.pow(3.0, b, expected, b.length);
+    vector.pow(3.0, b, b, b.length);
+    assertClose(b, expected, "pow(3, b)");
+  }
+
+  @Test
+  public void pow_integerExponent() {
+    double[] a = values(1001, 3);
+    for (int n : new int[]{0, 1, -1, 2, 3, -3, 7, 16, 33, -64, 65, -1000, Integer.MIN_VALUE}) {
+      assertClose((kernel, target) -> kernel.pow(a, n, target, a.length), a.length, "pow(a, " + n + ")");
+    }
+  }
+
+  @Test
+  public void pow_scalarBase() {
+    double[] a = values(1001, 30);
+    for (double base : new double[]{2, 0.5, Math.E, 10, 1, 0, -2, Double.NaN,
+        Double.POSITIVE_INFINITY}) {
+      assertClose((kernel, target) -> kernel.pow(base, a, target, a.length), a.length,
+          "pow(" + base + ", a)");
+    }
+  }
+
+  @Test
+  public void sin() {
+    double[] a = values(1001, 100);
+    assertClose((kernel, target) -> kernel.sin(a, target, a.length), a.length, "sin");
+  }
+
+  @Test
+  public void cos() {
+    double[] a = values(1001, 100);
+    assertClose((kernel, target) -> kernel.cos(a, target, a.length), a.length, "cos");
+  }
+
+  @Test
+  public void log() {
+    double[] a = values(1001, 1e10);
+    for (int i = 0; i < a.length; i++) {
+      a[i] = i % 3 == 0 ? Math.abs(a[i]) : a[i];
+    }
+    assertClose((kernel, target) -> kernel.log(a, target, a.length), a.length, "log");
+  }
+
+  private static double[] values(int count, double scale) {
+    Random random = new Random(count);
+    double[] values = new double[count + SPECIAL.length];
+    for (int i = 0; i < count; i++) {
+      values[i] = (random.nextDouble() * 2 - 1) * scale;
+    }
+    System.arraycopy(SPECIAL, 0, values, count, SPECIAL.length);
+    return values;
+  }
+
+  private double[] apply(ColumnKernels kernels, Kernel kernel, int rows) {
+    double[] target = new double[rows + 1];
+    target[rows] = 42;
+    kernel.apply(kernels, target);
+    assertThat(target[rows]).as("Beyond rows").isEqualTo(42);
+    return target;
+  }
+
+  private void assertExact(Kernel kernel, int rows) {
+    assertThat(apply(vector, kernel, rows)).isEqualTo(apply(scalar, kernel, rows));
+  }
+
+  private void assertClose(Kernel kernel, int rows, String description) {
+    assertClose(apply(vector, kernel, rows), apply(scalar, kernel, rows), description);
+  }
+
+  private static void assertClose(double[] actual, double[] expected, String description) {
+    for (int i = 0; i < expected.length; i++) {
+      String message = description + " in row " + i;
+      if (Double.isNaN(expected[i])) {
+        assertThat(actual[i]).as(message).isNaN();
+      } else if (Double.isInfinite(expected[i]) || expected[i] == 0) {
+        assertThat(actual[i]).as(message).isEqualTo(expected[i]);
+      } else {
+        assertThat(actual[i]).as(message)
+            .isCloseTo(expected[i], within(1e-14 * Math.abs(expected[i])));
+      }
+    }
+  }
+
+  private interface Kernel {
+
+    void apply(ColumnKernels kernels, double[] target);
+  }
+}
@@ -28,8 +28,12 @@ package de.hipphampel.eval.definition;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import de.hipphampel.eval.ApcomplexContext;
 import de.hipphampel.eval.DoubleContext;
 import de.hipphampel.eval.parser.ParseMode;
+import java.util.List;
+import org.apfloat.Apcomplex;
+import org.apfloat.ApcomplexMath;
 import org.apfloat.Apfloat;
 import org.apfloat.FixedPrecisionApfloatHelper;
 import org.assertj.core.data.Offset;
@@ -307,4 +311,44 @@ public class StandardFunctionsTest {
         .function(StandardFunctions.ABS);
     assertThat(context.evaluate(expression)).isCloseTo(expected, Offset.offset(1e-15d));
   }
+
+  @ParameterizedTest
+  @CsvSource({
+      "sin", "cos", "tan", "asin", "acos", "atan", "sinh", "cosh", "tanh", "asinh", "acosh",
+      "atanh", "ln", "log", "real", "imag", "norm", "arg", "abs"
+  })
+  public void derivatives(String name) {
+    ApcomplexContext context = ApcomplexContext.standard().withComplexSpecificFunctions();
+    FunctionDefinition function = context.function(name);
+    long precision = context.precision();
+    Apcomplex h = new Apcomplex(new Apfloat("1e-15", precision));
+    Apcomplex ih = new Apcomplex(Apfloat.ZERO, h.real());
+    List<Apcomplex> args = List.of(new Apcomplex(new Apfloat("0.3", precision),
+        new Apfloat("0.4", precision)), new Apcomplex(new Apfloat("1.7", precision)));
+    args = args.subList(0, function.minArgs());
+
+    for (int i = 0; i < args.size(); i++) {
+      Derivative derivative = function.derivatives(context, args,
+          function.evaluate(context, args)).get(i);
+      // Along the real axis the derivative is value+conjugate, along the imaginary axis
+      // i*(value-conjugate)
+      Apcomplex real = difference(context, function, args, i, h);
+      Apcomplex imag = difference(context, function, args, i, ih);
+      assertThat(ApcomplexMath.abs(derivative.value().add(derivative.conjugate())
+          .subtract(real)).doubleValue()).as(name).isLessThan(1e-20);
+      assertThat(ApcomplexMath.abs(derivative.value().subtract(derivative.conjugate())
+          .multiply(Apcomplex.I).subtract(imag)).doubleValue()).as(name).isLessThan(1e-20);
+    }
+  }
+
+  private static Apcomplex difference(ApcomplexContext context, FunctionDefinition function,
+      List<Apcomplex> args, int index, Apcomplex h) {
+    Apcomplex[] upper = args.toArray(new Apcomplex[0]);
+    Apcomplex[] lower = args.toArray(new Apcomplex[0]);
+    upper[index] = upper[index].add(h);
+    lower[index] = lower[index].subtract(h);
+    return function.evaluate(context, List.of(upper))
+        .subtract(function.evaluate(context, List.of(lower)))
+        .divide(new Apfloat("2e-15", context.precision()));
+  }
 }
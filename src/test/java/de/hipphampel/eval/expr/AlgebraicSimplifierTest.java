@@ -0,0 +1,121 @@
+package de.hipphampel.eval.expr;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static de.hipphampel.eval.expr.ExpressionFactory.add;
+import static de.hipphampel.eval.expr.ExpressionFactory.let;
+import static de.hipphampel.eval.expr.ExpressionFactory.mul;
+import static de.hipphampel.eval.expr.ExpressionFactory.neg;
+import static de.hipphampel.eval.expr.ExpressionFactory.pow;
+import static de.hipphampel.eval.expr.ExpressionFactory.temp;
+import static de.hipphampel.eval.expr.ExpressionFactory.val;
+import static de.hipphampel.eval.expr.ExpressionFactory.var;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import de.hipphampel.eval.ApcomplexContext;
+import java.util.List;
+import org.apfloat.Apcomplex;
+import org.apfloat.Apfloat;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class AlgebraicSimplifierTest {
+
+  private final ApcomplexContext context = ApcomplexContext.standard()
+      .withComplexSpecificFunctions()
+      .variables("x", "y");
+
+  @ParameterizedTest
+  @CsvSource({
+      // input,                  expected
+      "'x+0',                    'x'",
+      "'0+x',                    'x'",
+      "'x-0',                    'x'",
+      "'x*1',                    'x'",
+      "'1*x',                    'x'",
+      "'x/1',                    'x'",
+      "'x^1',                    'x'",
+      "'-(-x)',                  'x'",
+      "'(x+0)*(1*y)/(2-1)',      'x*y'",
+      "'x+-y',                   'x-y'",
+      "'-x+y',                   'y-x'",
+      "'x--y',                   'x+y'",
+      "'-(x-y)',                 'y-x'",
+      "'0-x',                    '-x'",
+      "'-x*-y',                  'x*y'",
+      "'-x/-y',                  'x/y'",
+      "'x*-1',                   '-x'",
+      "'-1*x',                   '-x'",
+      "'x^2',                    'x*x'",
+      "'x^3',                    'x*x*x'",
+      "'x^(2+2)',                'x*x*x*x'",
+      "'x^5',                    'x^5'",
+      "'x^2.5',                  'x^2.5'",
+      "'x^-2',                   'x^-2'",
+      "'x^(2*i)',                'x^(2*i)'",
+      "'(x+y)^2',                '(x+y)^2'",
+      "'x/4',                    'x*0.25'",
+      "'x/(4*2)',                 'x*0.125'",
+      "'x/(2*i)',                'x*(-0.5*i)'",
+      "'sin(x*1+0)^1/2',         'sin(x)*0.5'",
+      "'x*0',                    'x*0'",
+  })
+  public void simplify(String input, String expected) {
+    Expression expression = context.parse(input);
+    Expression result = AlgebraicSimplifier.simplify(context, expression);
+
+    assertThat(result).isEqualTo(context.parse(expected).simplify(context));
+    context.variable("x", new Apcomplex(new Apfloat("0.7", context.precision()),
+        new Apfloat("-1.5", context.precision())));
+    context.variable("y", new Apcomplex(new Apfloat("0.3", context.precision())));
+    Apcomplex actual = result.evaluate(context);
+    Apcomplex original = expression.evaluate(context);
+    assertThat(actual.equalDigits(original)).isGreaterThanOrEqualTo(context.precision() - 2);
+  }
+
+  @Test
+  public void simplify_divisionByZeroIsKept() {
+    Expression expression = context.parse("x/0");
+    assertThat(AlgebraicSimplifier.simplify(context, expression)).isEqualTo(expression);
+  }
+
+  @Test
+  public void simplify_reducesNodeCount() {
+    Expression expression = context.parse("(x^2*1+0)/2-(-y)^1+-(x-y)");
+    Expression result = AlgebraicSimplifier.simplify(context, expression);
+    assertThat(result).isEqualTo(context.parse("x*x*0.5+y+(y-x)"));
+  }
+
+  @Test
+  public void simplify_let() {
+    Expression expression = let(List.of(add(var("x"), val("0"))),
+        add(pow(temp(0), val("2")), neg(neg(temp(0)))));
+    assertThat(AlgebraicSimplifier.simplify(context, expression))
+        .isEqualTo(let(List.of(var("x")), add(mul(temp(0), temp(0)), temp(0))));
+  }
+}
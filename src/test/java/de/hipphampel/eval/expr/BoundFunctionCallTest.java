@@ -0,0 +1,184 @@
+package de.hipphampel.eval.expr;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static de.hipphampel.eval.expr.ExpressionFactory.val;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import de.hipphampel.eval.ApcomplexContext;
+import de.hipphampel.eval.Context;
+import de.hipphampel.eval.definition.FunctionDefinition;
+import de.hipphampel.eval.exception.EvalException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apfloat.Apcomplex;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class BoundFunctionCallTest {
+
+  @Test
+  public void evaluate() {
+    ApcomplexContext context = newContext();
+    BoundFunctionCall expr = new BoundFunctionCall("avg", List.of(val("1"), val("2"), val("3")));
+    assertThat(expr.evaluate(context)).isEqualTo(new Apcomplex("2"));
+  }
+
+  @Test
+  public void function_bindsOncePerContextAndVersion() {
+    CountingContext context = new CountingContext();
+    BoundFunctionCall expr = new BoundFunctionCall("avg", List.of(val("1"), val("3")));
+
+    FunctionDefinition function = expr.function(context);
+    expr.evaluate(context);
+    expr.evaluate(context);
+    assertThat(context.lookups.get()).isEqualTo(1);
+
+    context.variable("x");
+    expr.evaluate(context);
+    assertThat(context.lookups.get()).isEqualTo(1);
+
+    context.constant("c", new Apcomplex("1"));
+    assertThat(expr.function(context)).isSameAs(function);
+    expr.evaluate(context);
+    assertThat(context.lookups.get()).isEqualTo(2);
+
+    CountingContext other = new CountingContext();
+    assertThat(expr.evaluate(other)).isEqualTo(new Apcomplex("2"));
+    assertThat(other.lookups.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void function_fails() {
+    ApcomplexContext context = newContext();
+    assertThatThrownBy(() -> new BoundFunctionCall("foo", List.of()).function(context))
+        .isInstanceOf(EvalException.class)
+        .hasMessage("No such function 'foo'");
+    assertThatThrownBy(() -> new BoundFunctionCall("avg", List.of()).function(context))
+        .isInstanceOf(EvalException.class)
+        .hasMessage("Invalid parameter count for function 'avg'");
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+      // input,             expected
+      "'1+v',               'Add[left=Value[value=1], right=ValueName[name=v]]'",
+      "'avg(1,v)',          'BoundFunctionCall[name=avg, arguments=[Value[value=1], ValueName[name=v]]]'",
+      "'-avg(avg(v))^2',    'Pow[left=Neg[arg=BoundFunctionCall[name=avg, arguments=[BoundFunctionCall[name=avg, arguments=[ValueName[name=v]]]]]], right=Value[value=2]]'",
+  })
+  public void bind(String input, String expected) {
+    ApcomplexContext context = newContext();
+    Expression expr = context.parse(input);
+    Expression bound = BoundFunctionCall.bind(context, expr);
+
+    assertThat(bound.toString()).isEqualTo(expected);
+    assertThat(BoundFunctionCall.bind(context, bound)).isSameAs(bound);
+    context.variable("v", new Apcomplex("3"));
+    assertThat(bound.evaluate(context)).isEqualTo(expr.evaluate(context));
+  }
+
+  @Test
+  public void bind_keepsUnchangedSubexpressions() {
+    ApcomplexContext context = newContext();
+    Add expr = (Add) context.parse("(1+v)*2+avg(v)");
+    Add bound = (Add) BoundFunctionCall.bind(context, expr);
+    assertThat(bound.left()).isSameAs(expr.left());
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+      // before,        after
+      "'avg(1,3)',      'Value[value=2]'",
+      "'avg(c+1,2+v)',  'BoundFunctionCall[name=avg, arguments=[Value[value=2], Add[left=Value[value=2], right=ValueName[name=v]]]]'",
+  })
+  public void simplify(String before, String after) {
+    ApcomplexContext context = newContext();
+    Expression expr = context.bind(context.parse(before));
+    assertThat(expr.simplify(context).toString()).isEqualTo(after);
+  }
+
+  @Test
+  public void equalsAndHashCode() {
+    BoundFunctionCall a = new BoundFunctionCall("avg", List.of(val("1")));
+    BoundFunctionCall b = new BoundFunctionCall("avg", List.of(val("1")));
+    b.function(newContext());
+    assertThat(a).isEqualTo(b);
+    assertThat(a.hashCode()).isEqualTo(b.hashCode());
+    assertThat(a).isNotEqualTo(new BoundFunctionCall("avg", List.of(val("2"))));
+    assertThat(a).isNotEqualTo(new FunctionCall("avg", List.of(val("1"))));
+  }
+
+  private static ApcomplexContext newContext() {
+    ApcomplexContext context = new ApcomplexContext(10);
+    context.constant("c", Apcomplex.ONE)
+        .variable("v")
+        .function(new Avg());
+    return context;
+  }
+
+  private static class CountingContext extends ApcomplexContext {
+
+    private final AtomicInteger lookups = new AtomicInteger();
+
+    CountingContext() {
+      super(10);
+      function(new Avg());
+    }
+
+    @Override
+    public FunctionDefinition function(String name) {
+      lookups.incrementAndGet();
+      return super.function(name);
+    }
+  }
+
+  private static class Avg implements FunctionDefinition {
+
+    @Override
+    public String name() {
+      return "avg";
+    }
+
+    @Override
+    public int minArgs() {
+      return 1;
+    }
+
+    @Override
+    public int maxArgs() {
+      return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public Apcomplex evaluate(Context<?, ?> context, List<Apcomplex> args) {
+      return args.stream()
+          .reduce(Apcomplex.ZERO, Apcomplex::add).divide(new Apcomplex("" + args.size()));
+    }
+  }
+}
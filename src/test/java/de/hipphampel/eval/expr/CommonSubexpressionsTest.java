@@ -0,0 +1,146 @@
+package de.hipphampel.eval.expr;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static de.hipphampel.eval.expr.ExpressionFactory.add;
+import static de.hipphampel.eval.expr.ExpressionFactory.let;
+import static de.hipphampel.eval.expr.ExpressionFactory.temp;
+import static de.hipphampel.eval.expr.ExpressionFactory.var;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import de.hipphampel.eval.ApcomplexContext;
+import de.hipphampel.eval.exception.EvalException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apfloat.Apcomplex;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class CommonSubexpressionsTest {
+
+  private final ApcomplexContext context = ApcomplexContext.standard()
+      .variables("a", "b", "c")
+      .function("sq", List.of("v"), "v*v");
+
+  @ParameterizedTest
+  @CsvSource({
+      // input,                          expected
+      "'(a*b+c)^2/(a*b+c)',              'u=a*b+c; u^2/u'",
+      "'sin(a*b)+cos(a*b)+sin(a*b)',     'u=a*b; v=sin(u); v+cos(u)+v'",
+      "'(a+b)*(a+b)-(a+b)*c',            'u=a+b; u*u-u*c'",
+      "'sq(a-1)+sq(a-1)*sq(b)',          'u=sq(a-1); u+u*sq(b)'",
+      "'sq(a*b)/sq(a*b)+(a*b)',          'u=a*b; v=sq(u); v/v+u'",
+  })
+  public void eliminate(String input, String expected) {
+    Expression expression = context.parse(input);
+    Expression result = CommonSubexpressions.eliminate(expression);
+
+    assertThat(result).isEqualTo(parseLet(expected));
+    assertThat(CommonSubexpressions.expand(result)).isEqualTo(expression);
+    for (String[] values : new String[][]{{"0.5", "2", "3"}, {"(1,2)", "-3", "0.25"}}) {
+      context.variable("a", new Apcomplex(values[0]))
+          .variable("b", new Apcomplex(values[1]))
+          .variable("c", new Apcomplex(values[2]));
+      assertThat(result.evaluate(context)).isEqualTo(expression.evaluate(context));
+    }
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+      "'a'",
+      "'a+a*a'",
+      "'sin(a)+cos(b)'",
+      "'1+2+1+2'",
+  })
+  public void eliminate_nothingToShare(String input) {
+    Expression expression = context.parse(input);
+    assertThat(CommonSubexpressions.eliminate(expression)).isSameAs(expression);
+  }
+
+  @Test
+  public void eliminate_expandsExistingLets() {
+    Expression expression = let(List.of(context.parse("a*b")),
+        add(temp(0), add(context.parse("a*b"), temp(0))));
+    assertThat(CommonSubexpressions.eliminate(expression)).isEqualTo(
+        let(List.of(context.parse("a*b")), add(temp(0), add(temp(0), temp(0)))));
+  }
+
+  @Test
+  public void expand() {
+    Expression inner = let(List.of(context.parse("c*c")), add(temp(0), temp(0)));
+    Expression outer = let(List.of(context.parse("a+b"), add(temp(0), var("c"))),
+        add(inner, add(temp(1), temp(0))));
+    Expression expanded = CommonSubexpressions.expand(outer);
+
+    assertThat(expanded).isEqualTo(context.parse("(c*c+c*c)+((a+b+c)+(a+b))"));
+    assertThat(((Add) ((Add) expanded).right()).right())
+        .isSameAs(((Add) ((Add) ((Add) expanded).right()).left()).left());
+  }
+
+  @Test
+  public void expand_undefinedTemp() {
+    assertThatThrownBy(() -> CommonSubexpressions.expand(let(List.of(temp(0)), var("a"))))
+        .isInstanceOf(EvalException.class)
+        .hasMessage("Temporary #0 is not defined");
+  }
+
+  // Parses "u=def0; v=def1; body", where u and v denote the Temps 0 and 1
+  private Expression parseLet(String input) {
+    String[] parts = input.split("; ");
+    List<Expression> definitions = new ArrayList<>();
+    for (int i = 0; i < parts.length - 1; i++) {
+      definitions.add(parseWithTemps(parts[i].substring(parts[i].indexOf('=') + 1)));
+    }
+    return let(definitions, parseWithTemps(parts[parts.length - 1]));
+  }
+
+  private Expression parseWithTemps(String input) {
+    return withTemps(context.copy(true).variables("u", "v").parse(input));
+  }
+
+  private static Expression withTemps(Expression expression) {
+    if (expression instanceof ValueName name && name.name().matches("[uv]")) {
+      return temp(name.name().charAt(0) - 'u');
+    } else if (expression instanceof Add add) {
+      return new Add(withTemps(add.left()), withTemps(add.right()));
+    } else if (expression instanceof Sub sub) {
+      return new Sub(withTemps(sub.left()), withTemps(sub.right()));
+    } else if (expression instanceof Mul mul) {
+      return new Mul(withTemps(mul.left()), withTemps(mul.right()));
+    } else if (expression instanceof Div div) {
+      return new Div(withTemps(div.left()), withTemps(div.right()));
+    } else if (expression instanceof Pow pow) {
+      return new Pow(withTemps(pow.left()), withTemps(pow.right()));
+    } else if (expression instanceof FunctionCall call) {
+      return new FunctionCall(call.name(),
+          call.arguments().stream().map(CommonSubexpressionsTest::withTemps).toList());
+    }
+    return expression;
+  }
+}
@@ -0,0 +1,173 @@
+package de.hipphampel.eval.expr;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static de.hipphampel.eval.expr.ExpressionFactory.add;
+import static de.hipphampel.eval.expr.ExpressionFactory.fn;
+import static de.hipphampel.eval.expr.ExpressionFactory.let;
+import static de.hipphampel.eval.expr.ExpressionFactory.mul;
+import static de.hipphampel.eval.expr.ExpressionFactory.temp;
+import static de.hipphampel.eval.expr.ExpressionFactory.var;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import de.hipphampel.eval.ApcomplexContext;
+import de.hipphampel.eval.Context;
+import de.hipphampel.eval.definition.FunctionDefinition;
+import de.hipphampel.eval.definition.StandardFunctions;
+import de.hipphampel.eval.exception.EvalException;
+import java.util.List;
+import org.apfloat.Apcomplex;
+import org.apfloat.ApcomplexMath;
+import org.apfloat.Apfloat;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class DerivativesTest {
+
+  private final ApcomplexContext context = ApcomplexContext.standard()
+      .withComplexSpecificFunctions()
+      .variables("x", "y")
+      .function("sq", List.of("a"), "a*a")
+      .function("hyp", List.of("a", "b"), "(sq(a)+sq(b))^0.5");
+
+  @ParameterizedTest
+  @CsvSource({
+      // input,          expected
+      "'42',             '0'",
+      "'y',              '0'",
+      "'x',              '1'",
+      "'x^2',            '2*x'",
+      "'3*x-y',          '3'",
+      "'x*y',            'y'",
+      "'sin(x)',         'cos(x)'",
+      "'-cos(2*x)',      'sin(2*x)*2'",
+      "'ln(x)',          '1/x'",
+      "'sq(x)',          'x+x'",
+      "'e^x',            'e^x'",
+  })
+  public void derivative(String input, String expected) {
+    assertThat(Derivatives.derivative(context, context.parse(input), "x"))
+        .isEqualTo(AlgebraicSimplifier.simplify(context, context.parse(expected)));
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+      "'x^3-2*x+1'",
+      "'x/y+y/x-1/(x*x)'",
+      "'x^y+y^x+x^x+x^-0.5+2^x'",
+      "'sin(x)*cos(x)+tan(x)'",
+      "'asin(x)+acos(x)+atan(x)'",
+      "'sinh(x)+cosh(x)+tanh(x)'",
+      "'asinh(x)+acosh(x+1)+acosh(-x-1)+atanh(x)'",
+      "'ln(x)+log(x,2)+log(3,x)+log(x,x+y)'",
+      "'real(x*i)+imag(x*i+x)+real(sin(x*(1+i)))'",
+      "'abs(x*(1+i))+norm(x-i)+arg(x+i)+arg(-x-i*x*x)'",
+      "'sq(sin(x))+hyp(x,y)+hyp(sq(x),x)'",
+      "'-x+(x-1)*(x+1)/(x-y)'",
+      "'e^(2*x)*pi'",
+  })
+  public void derivative_matchesFiniteDifferences(String input) {
+    Expression expression = context.parse(input);
+    Expression derivative = Derivatives.derivative(context, expression, "x");
+    long precision = context.precision();
+    Apfloat h = new Apfloat("1e-15", precision);
+    context.variable("y", new Apcomplex(new Apfloat("1.3", precision)));
+
+    for (String x : List.of("0.37", "0.81")) {
+      Apfloat value = new Apfloat(x, precision);
+      context.variable("x", new Apcomplex(value.add(h)));
+      Apcomplex upper = expression.evaluate(context);
+      context.variable("x", new Apcomplex(value.subtract(h)));
+      Apcomplex lower = expression.evaluate(context);
+      Apcomplex expected = upper.subtract(lower).divide(h.multiply(new Apfloat(2)));
+
+      context.variable("x", new Apcomplex(value));
+      Apcomplex actual = derivative.evaluate(context);
+      assertThat(ApcomplexMath.abs(actual.subtract(expected)).doubleValue())
+          .as(input + " at x=" + x)
+          .isLessThan(1e-20 * Math.max(1, ApcomplexMath.abs(expected).doubleValue()));
+    }
+  }
+
+  @Test
+  public void derivative_let() {
+    Expression expression = let(List.of(mul(var("x"), var("x"))),
+        add(fn("sin", temp(0)), temp(0)));
+    assertThat(Derivatives.derivative(context, expression, "x")).isEqualTo(
+        Derivatives.derivative(context, context.parse("sin(x*x)+x*x"), "x"));
+  }
+
+  @Test
+  public void derivative_boundFunctionCall() {
+    assertThat(Derivatives.derivative(context, context.bind(context.parse("sin(sq(x))")), "x"))
+        .isEqualTo(mul(fn("cos", context.bind(fn("sq", var("x")))), add(var("x"), var("x"))));
+  }
+
+  @Test
+  public void derivative_failures() {
+    ApcomplexContext custom = ApcomplexContext.minimal().variables("x")
+        .function(new Custom("sin"))
+        .function(new Custom("f"));
+    assertThatThrownBy(() -> Derivatives.derivative(custom, custom.parse("f(x)"), "x"))
+        .isInstanceOf(EvalException.class)
+        .hasMessage("Cannot differentiate function 'f'");
+    assertThat(Derivatives.derivative(custom, custom.parse("f(2)*x"), "x"))
+        .isEqualTo(custom.parse("2"));
+
+    ApcomplexContext tanOnly = ApcomplexContext.minimal().variables("x")
+        .functions(StandardFunctions.TAN);
+    assertThatThrownBy(() -> Derivatives.derivative(tanOnly, tanOnly.parse("tan(x)"), "x"))
+        .isInstanceOf(EvalException.class)
+        .hasMessage("No such function 'cos'");
+    ApcomplexContext customSin = ApcomplexContext.minimal().variables("x")
+        .function(new Custom("sin"))
+        .functions(StandardFunctions.COS);
+    assertThatThrownBy(() -> Derivatives.derivative(customSin, customSin.parse("cos(x)"), "x"))
+        .isInstanceOf(EvalException.class)
+        .hasMessage("Function 'sin' is not the standard function of that name");
+  }
+
+  private record Custom(String name) implements FunctionDefinition {
+
+    @Override
+    public int minArgs() {
+      return 1;
+    }
+
+    @Override
+    public int maxArgs() {
+      return 1;
+    }
+
+    @Override
+    public Apcomplex evaluate(Context<?, ?> context, List<Apcomplex> args) {
+      return args.get(0);
+    }
+  }
+}
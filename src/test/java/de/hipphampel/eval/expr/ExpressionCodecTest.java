@@ -0,0 +1,227 @@
+package de.hipphampel.eval.expr;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import de.hipphampel.eval.ApcomplexContext;
+import de.hipphampel.eval.Context;
+import de.hipphampel.eval.exception.EvalException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.apfloat.Apcomplex;
+import org.apfloat.Apfloat;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class ExpressionCodecTest {
+
+  private static final ApcomplexContext context = ApcomplexContext.standard()
+      .variables("x", "y");
+
+  @ParameterizedTest
+  @CsvSource({
+      "'x+1'",
+      "'(x-12.5)*(y/0.001)^-x'",
+      "'sin(x)+log(x,y)-ln(y)'",
+      "'123456789012345678+1234567890123456789012345+1e100+1.5e-100'",
+      "'0*-7'",
+      "'10+63+64+1200+0.00125+65536'",
+  })
+  public void roundTrip(String input) throws IOException {
+    Expression expression = context.parse(input);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    new ExpressionEncoder(new DataOutputStream(bytes)).write(expression).finish();
+    ExpressionDecoder decoder = new ExpressionDecoder(
+        new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    assertDecoded(decoder.read(), expression);
+    assertThat(decoder.read()).isNull();
+    assertThat(decoder.read()).isNull();
+
+    ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.size());
+    new ExpressionEncoder(buffer).write(expression).finish();
+    assertThat(buffer.position()).isEqualTo(bytes.size());
+    assertDecoded(new ExpressionDecoder(buffer.flip()).readAll(), List.of(expression));
+  }
+
+  @Test
+  public void roundTrip_specialValues() throws IOException {
+    List<Expression> expressions = List.of(
+        new Value(new Apcomplex(new Apfloat(-42, 30))),
+        new Value(new Apcomplex(new Apfloat("3.25", 5))),
+        new Value(new Apcomplex(new Apfloat("1.5", 10), new Apfloat("-2", 10))),
+        new Value(new Apcomplex(new Apfloat("z.1", 20, 36))),
+        new Value(new Apcomplex(new Apfloat(Long.MIN_VALUE + 1))),
+        new Value(Apcomplex.ZERO));
+
+    ByteBuffer buffer = ByteBuffer.allocate(1024);
+    new ExpressionEncoder(buffer).writeAll(expressions).finish();
+    assertDecoded(new ExpressionDecoder(buffer.flip()).readAll(), expressions);
+  }
+
+  @Test
+  public void roundTrip_let() throws IOException {
+    Expression expression = CommonSubexpressions.eliminate(
+        context.parse("sin(x*y)/(x*y)+sin(x*y)"));
+    assertThat(expression).isInstanceOf(Let.class);
+
+    ByteBuffer buffer = ByteBuffer.allocate(1024);
+    new ExpressionEncoder(buffer).write(expression).finish();
+    assertDecoded(new ExpressionDecoder(buffer.flip()).readAll(), List.of(expression));
+  }
+
+  @Test
+  public void write_namesAreWrittenOnce() throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(1024);
+    ExpressionEncoder encoder = new ExpressionEncoder(buffer);
+    encoder.write(context.parse("sin(x)"));
+    int first = buffer.position();
+    encoder.write(context.parse("sin(x)"));
+    int second = buffer.position() - first;
+    encoder.finish();
+
+    assertThat(second).isEqualTo(3);
+    assertThat(new ExpressionDecoder(buffer.flip()).readAll())
+        .containsExactly(context.parse("sin(x)"), context.parse("sin(x)"));
+  }
+
+  @Test
+  public void write_boundFunctionCall() throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(1024);
+    new ExpressionEncoder(buffer).write(context.bind(context.parse("sin(x)+1"))).finish();
+    assertThat(new ExpressionDecoder(buffer.flip()).readAll())
+        .containsExactly(context.parse("sin(x)+1"));
+  }
+
+  @Test
+  public void write_unsupportedType() {
+    Expression unknown = new Expression() {
+      @Override
+      public boolean isInvariant(Context<?, ?> context) {
+        return true;
+      }
+
+      @Override
+      public Expression simplify(Context<?, ?> context) {
+        return this;
+      }
+
+      @Override
+      public Apcomplex evaluate(Context<?, ?> context) {
+        return Apcomplex.ONE;
+      }
+    };
+    ExpressionEncoder encoder = new ExpressionEncoder(ByteBuffer.allocate(100));
+    assertThatThrownBy(() -> encoder.write(new Neg(unknown)))
+        .isInstanceOf(EvalException.class)
+        .hasMessageStartingWith("Cannot encode expression of type");
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+      // bytes,                message
+      "'1,2,3,1',              'Invalid expression encoding: bad magic bytes'",
+      "'69,86,88,2',           'Unsupported expression encoding version 2'",
+      "'69,86,88,1,16',        'Invalid expression encoding: unknown tag 16'",
+      "'69,86,88,1,64',        'Invalid expression encoding: unknown name index 0'",
+      "'69,86,88,1,12,1',      'Invalid expression encoding: unknown name index 1'",
+      "'69,86,88,1,1',         'Invalid expression encoding: unexpected end of data'",
+      "'69,86,88,1,7,5,97',    'Invalid expression encoding: length 5 exceeds the available data'",
+      "'69,86,88,1,7,1,97,13,0,-1,127', "
+          + "'Invalid expression encoding: length 16383 exceeds the available data'",
+      "'69,86,88,1,12,-1,-1,-1,-1,-1,-1,-1,-1,-1,1', "
+          + "'Invalid expression encoding: unknown name index -1'",
+      "'69,86,88,1,15,-1,-1,-1,-1,-1,-1,-1,-1,-1,1', "
+          + "'Invalid expression encoding: index -1 out of range'",
+      "'69,86,88,1,8,0,-127',  'Invalid expression encoding: malformed value'",
+  })
+  public void read_invalid(String bytes, String message) {
+    String[] parts = bytes.split(",");
+    ByteBuffer buffer = ByteBuffer.allocate(parts.length);
+    for (String part : parts) {
+      buffer.put(Byte.parseByte(part));
+    }
+    ExpressionDecoder decoder = new ExpressionDecoder(buffer.flip());
+    assertThatThrownBy(decoder::read)
+        .isInstanceOf(EvalException.class)
+        .hasMessage(message);
+  }
+
+  @Test
+  public void read_invalidDataInput() {
+    byte[] bytes = {69, 86, 88, 1, 7, -1, -1, -1, -1, 7, 97};
+    ExpressionDecoder decoder = new ExpressionDecoder(
+        new DataInputStream(new ByteArrayInputStream(bytes)));
+    assertThatThrownBy(decoder::read)
+        .isInstanceOf(EvalException.class)
+        .hasMessage("Invalid expression encoding: unexpected end of data");
+  }
+
+  @Test
+  public void read_tooDeep() throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(ExpressionDecoder.MAX_DEPTH + 6);
+    buffer.put(new byte[]{69, 86, 88, 1});
+    for (int i = 0; i < ExpressionDecoder.MAX_DEPTH; i++) {
+      buffer.put((byte) ExpressionEncoder.TAG_NEG);
+    }
+    buffer.put((byte) ExpressionEncoder.TAG_SMALL_INTEGER);
+    buffer.put((byte) ExpressionEncoder.TAG_END);
+    assertThat(new ExpressionDecoder(buffer.flip()).readAll()).hasSize(1);
+
+    buffer = ByteBuffer.allocate(ExpressionDecoder.MAX_DEPTH + 6);
+    buffer.put(new byte[]{69, 86, 88, 1});
+    for (int i = 0; i <= ExpressionDecoder.MAX_DEPTH; i++) {
+      buffer.put((byte) ExpressionEncoder.TAG_NEG);
+    }
+    buffer.put((byte) ExpressionEncoder.TAG_SMALL_INTEGER);
+    ExpressionDecoder decoder = new ExpressionDecoder(buffer.flip());
+    assertThatThrownBy(decoder::read)
+        .isInstanceOf(EvalException.class)
+        .hasMessage("Invalid expression encoding: nesting deeper than "
+            + ExpressionDecoder.MAX_DEPTH);
+  }
+
+  private static void assertDecoded(List<Expression> actual, List<Expression> expected) {
+    assertThat(actual).hasSameSizeAs(expected);
+    for (int i = 0; i < expected.size(); i++) {
+      assertDecoded(actual.get(i), expected.get(i));
+    }
+  }
+
+  private static void assertDecoded(Expression actual, Expression expected) {
+    assertThat(actual).isEqualTo(expected);
+    assertThat(actual.toString()).isEqualTo(expected.toString());
+  }
+}
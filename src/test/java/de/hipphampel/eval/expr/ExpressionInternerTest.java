@@ -0,0 +1,175 @@
+package de.hipphampel.eval.expr;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static de.hipphampel.eval.expr.ExpressionFactory.fn;
+import static de.hipphampel.eval.expr.ExpressionFactory.val;
+import static de.hipphampel.eval.expr.ExpressionFactory.var;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import de.hipphampel.eval.ApcomplexContext;
+import de.hipphampel.eval.Context;
+import java.util.ArrayList;
+import java.util.List;
+import org.apfloat.Apcomplex;
+import org.apfloat.Apfloat;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class ExpressionInternerTest {
+
+  private static final ApcomplexContext context = ApcomplexContext.standard()
+      .variables("x", "y");
+
+  @ParameterizedTest
+  @CsvSource({
+      "'x+1'",
+      "'(x+1)*(x+1)-(x+1)/(x+1)'",
+      "'-x^2+-x^2'",
+      "'sin(x)*sin(x)+log(x,y)-log(x,y)'",
+  })
+  public void intern_sharesEqualSubtrees(String input) {
+    ExpressionInterner interner = new ExpressionInterner();
+    Expression first = context.parse(input);
+    Expression second = context.parse(input);
+
+    Expression canonical = interner.intern(first);
+    assertThat(canonical).isEqualTo(first);
+    assertThat(interner.intern(second)).isSameAs(canonical);
+    assertThat(interner.intern(canonical)).isSameAs(canonical);
+
+    if (canonical instanceof BinaryExpression binary && binary.left().equals(binary.right())) {
+      assertThat(binary.left()).isSameAs(binary.right());
+    }
+  }
+
+  @Test
+  public void intern_distinguishesTypesAndPrecision() {
+    ExpressionInterner interner = new ExpressionInterner();
+    assertThat(interner.add(var("x"), var("y"))).isNotSameAs(interner.mul(var("x"), var("y")));
+    assertThat(interner.sub(var("x"), var("y"))).isNotSameAs(interner.sub(var("y"), var("x")));
+    assertThat(interner.fn("max", var("x"), var("y")))
+        .isNotSameAs(interner.fn("min", var("x"), var("y")));
+    assertThat(interner.fn("max", var("x"), var("y")))
+        .isNotSameAs(interner.fn("max", var("x"), var("y"), var("y")));
+
+    Value lowPrecision = interner.val(new Apcomplex(new Apfloat("2", 5)));
+    Value highPrecision = interner.val(new Apcomplex(new Apfloat("2", 50)));
+    assertThat(highPrecision).isNotSameAs(lowPrecision);
+    assertThat(highPrecision.value().precision()).isEqualTo(50);
+  }
+
+  @Test
+  public void intern_factoryMethods() {
+    ExpressionInterner interner = new ExpressionInterner();
+    Expression expected = new Div(
+        new Pow(new Neg(new ValueName("x")), val("2")),
+        fn("sin", new ValueName("x")));
+
+    Expression actual = interner.div(
+        interner.pow(interner.neg(interner.var("x")), interner.val(new Apcomplex("2"))),
+        interner.fn("sin", interner.var("x")));
+    assertThat(actual).isEqualTo(expected);
+    assertThat(interner.intern(expected)).isSameAs(actual);
+    assertThat(interner.size()).isEqualTo(6);
+  }
+
+  @Test
+  public void intern_letTempAndBoundFunctionCall() {
+    ExpressionInterner interner = new ExpressionInterner();
+    Expression first = CommonSubexpressions.eliminate(context.parse("sin(x*y)/(x*y)+sin(x*y)"));
+    Expression second = CommonSubexpressions.eliminate(context.parse("sin(x*y)/(x*y)+sin(x*y)"));
+    assertThat(first).isInstanceOf(Let.class);
+
+    Let canonical = (Let) interner.intern(first);
+    assertThat(interner.intern(second)).isSameAs(canonical);
+    assertThat(interner.let(canonical.definitions(), canonical.body())).isSameAs(canonical);
+    assertThat(interner.temp(0)).isSameAs(interner.temp(0)).isNotSameAs(interner.temp(1));
+
+    Expression bound = interner.intern(context.bind(context.parse("sin(x)+sin(x)")));
+    assertThat(((Add) bound).left()).isInstanceOf(BoundFunctionCall.class)
+        .isSameAs(((Add) bound).right());
+    assertThat(interner.intern(context.parse("sin(x)"))).isNotSameAs(((Add) bound).left());
+  }
+
+  @Test
+  public void intern_factoryMethodsReuseInstances() {
+    ExpressionInterner interner = new ExpressionInterner();
+    Expression x = interner.var("x");
+    Mul product = interner.mul(x, interner.var("y"));
+    assertThat(interner.mul(var("x"), var("y"))).isSameAs(product);
+    assertThat(interner.neg(product)).isSameAs(interner.neg(new Mul(x, var("y"))));
+    assertThat(interner.intern(new Neg(product))).isSameAs(interner.neg(product));
+    assertThat(interner.intern(new Sub(x, product))).isSameAs(interner.sub(x, product));
+  }
+
+  @Test
+  public void intern_unknownExpressionType() {
+    ExpressionInterner interner = new ExpressionInterner();
+    Expression unknown = new Expression() {
+      @Override
+      public boolean isInvariant(Context<?, ?> context) {
+        return true;
+      }
+
+      @Override
+      public Expression simplify(Context<?, ?> context) {
+        return this;
+      }
+
+      @Override
+      public Apcomplex evaluate(Context<?, ?> context) {
+        return Apcomplex.ONE;
+      }
+    };
+    assertThat(interner.intern(unknown)).isSameAs(unknown);
+    Add add = interner.add(unknown, var("x"));
+    assertThat(add.left()).isSameAs(unknown);
+    assertThat(interner.add(unknown, var("x"))).isSameAs(add);
+  }
+
+  @Test
+  public void intern_unusedInstancesAreCollected() throws InterruptedException {
+    ExpressionInterner interner = new ExpressionInterner();
+    List<Expression> retained = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      Expression expression = interner.add(var("x"), val(Integer.toString(i)));
+      if (i < 10) {
+        retained.add(expression);
+      }
+    }
+    assertThat(interner.size()).isGreaterThanOrEqualTo(1001);
+
+    for (int i = 0; i < 20 && interner.size() > 21; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertThat(interner.size()).isEqualTo(21);
+    assertThat(interner.add(var("x"), val("0"))).isSameAs(retained.get(0));
+  }
+}
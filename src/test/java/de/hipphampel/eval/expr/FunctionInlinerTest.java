@@ -0,0 +1,174 @@
+package de.hipphampel.eval.expr;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static de.hipphampel.eval.expr.ExpressionFactory.add;
+import static de.hipphampel.eval.expr.ExpressionFactory.fn;
+import static de.hipphampel.eval.expr.ExpressionFactory.let;
+import static de.hipphampel.eval.expr.ExpressionFactory.mul;
+import static de.hipphampel.eval.expr.ExpressionFactory.temp;
+import static de.hipphampel.eval.expr.ExpressionFactory.val;
+import static de.hipphampel.eval.expr.ExpressionFactory.var;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import de.hipphampel.eval.ApcomplexContext;
+import de.hipphampel.eval.definition.ExpressionFunction;
+import de.hipphampel.eval.exception.EvalException;
+import java.util.List;
+import org.apfloat.Apcomplex;
+import org.apfloat.Apfloat;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class FunctionInlinerTest {
+
+  private final ApcomplexContext context = ApcomplexContext.standard()
+      .variables("x", "y")
+      .function("sq", List.of("a"), "a*a")
+      .function("cube", List.of("a"), "a*sq(a)")
+      .function("twice", List.of("a"), "2*a")
+      .function("circle", List.of("r"), "2*pi*r")
+      .function("dist", List.of("a", "b"), "sq(a-b)^0.5")
+      .function("big", List.of("a"), "a+a+a+a+a+a+a+a+a+a+a+a+a+a+a+a+a+a");
+
+  @ParameterizedTest
+  @CsvSource({
+      // input,                  expected
+      "'sq(x)',                  'x*x'",
+      "'twice(x+1)',             '2*(x+1)'",
+      "'sq(2)+x',                '4+x'",
+      "'cube(y)',                'y*(y*y)'",
+      "'circle(x)*circle(1)',    '2*pi*x*(2*pi)'",
+      "'sin(twice(x))',          'sin(2*x)'",
+      "'dist(x,y)',              '((x-y)*(x-y))^0.5'",
+      "'big(x)',                 'big(x)'",
+      "'sin(x)+ln(y)',           'sin(x)+ln(y)'",
+  })
+  public void inline(String input, String expected) {
+    Expression expression = context.parse(input);
+    Expression result = FunctionInliner.inline(context, expression);
+
+    assertThat(CommonSubexpressions.expand(result))
+        .isEqualTo(context.parse(expected).simplify(context));
+    context.variable("x", new Apcomplex(new Apfloat("0.7", context.precision()),
+        new Apfloat("-1.5", context.precision())));
+    context.variable("y", new Apcomplex(new Apfloat("0.3", context.precision())));
+    assertThat(result.evaluate(context).equalDigits(expression.evaluate(context)))
+        .isGreaterThanOrEqualTo(context.precision() - 2);
+  }
+
+  @Test
+  public void inline_sharesArguments() {
+    assertThat(FunctionInliner.inline(context, context.parse("sq(x+1)")))
+        .isEqualTo(let(List.of(add(var("x"), val("1"))), mul(temp(0), temp(0))));
+    assertThat(FunctionInliner.inline(context, context.parse("sq(sin(x))+y")))
+        .isEqualTo(add(let(List.of(fn("sin", var("x"))), mul(temp(0), temp(0))), var("y")));
+  }
+
+  @Test
+  public void inline_maxSize() {
+    Expression expression = context.parse("big(x)+cube(x)");
+    assertThat(FunctionInliner.inline(context, expression, 5))
+        .isEqualTo(context.parse("big(x)+x*(x*x)"));
+    assertThat(FunctionInliner.inline(context, expression, 4))
+        .isEqualTo(context.parse("big(x)+cube(x)"));
+    assertThat(FunctionInliner.inline(context, expression, 100))
+        .isEqualTo(context.parse("x+x+x+x+x+x+x+x+x+x+x+x+x+x+x+x+x+x+x*(x*x)"));
+  }
+
+  @Test
+  public void inline_boundFunctionCall() {
+    Expression expression = context.bind(context.parse("sq(y)+sin(x)"));
+    assertThat(FunctionInliner.inline(context, expression))
+        .isEqualTo(context.bind(context.parse("y*y+sin(x)")));
+  }
+
+  @Test
+  public void inline_let() {
+    assertThat(FunctionInliner.inline(context,
+        let(List.of(add(var("x"), val("1"))), fn("sq", temp(0)))))
+        .isEqualTo(let(List.of(add(var("x"), val("1"))), mul(temp(0), temp(0))));
+    // The argument refers to a Temp of the enclosing Let and is used twice
+    Expression expression = let(List.of(add(var("x"), val("1"))),
+        mul(fn("sq", add(temp(0), val("1"))), temp(0)));
+    assertThat(FunctionInliner.inline(context, expression)).isEqualTo(expression);
+  }
+
+  @Test
+  public void inline_letWithFreeTempsInNestedLet() {
+    context.function("g", List.of("b"), "b*b")
+        .function("f", List.of("a"), "g(a+1)")
+        .variable("x", new Apcomplex(new Apfloat(2, context.precision())))
+        .variable("y", new Apcomplex(new Apfloat(3, context.precision())));
+    Expression expression = CommonSubexpressions.eliminate(context.parse("f(x*y)+(x*y)"));
+    // The definition of f becomes a Let, which cannot see the Temp of the enclosing Let
+    Expression result = FunctionInliner.inline(context, expression);
+    assertThat(result).isEqualTo(expression);
+    assertThat(result.evaluate(context))
+        .isEqualTo(new Apcomplex(new Apfloat(55, context.precision())));
+
+    // The argument is used once, but the new Let for the shared argument would capture it
+    context.function("h", List.of("a", "b"), "a*a+b");
+    expression = let(List.of(mul(var("x"), var("y"))),
+        add(fn("h", add(var("x"), val("1")), temp(0)), temp(0)));
+    assertThat(FunctionInliner.inline(context, expression)).isEqualTo(expression);
+  }
+
+  @Test
+  public void inline_sharedArgumentUsedInNestedLet() {
+    context.function("g", List.of("b"), "b*b")
+        .function("f", List.of("a"), "g(a+1)+a")
+        .variable("x", new Apcomplex(new Apfloat(3, context.precision())))
+        .variable("y", new Apcomplex(new Apfloat(5, context.precision())));
+    Expression expression = context.parse("f(x*y)");
+    // The definition of f contains the Let of the inlined g, which would shadow the shared argument
+    Expression result = FunctionInliner.inline(context, expression);
+    assertThat(result).isEqualTo(expression);
+    assertThat(result.evaluate(context))
+        .isEqualTo(new Apcomplex(new Apfloat(271, context.precision())));
+    assertThat(FunctionInliner.inline(context, context.parse("f(x)")).evaluate(context))
+        .isEqualTo(new Apcomplex(new Apfloat(19, context.precision())));
+  }
+
+  @Test
+  public void inline_otherPrecision() {
+    ApcomplexContext other = ApcomplexContext.standard().variables("x")
+        .function(new ExpressionFunction("sq", new ApcomplexContext(context.precision() + 10),
+            List.of("a"), "a*a"));
+    Expression expression = other.parse("sq(x)");
+    assertThat(FunctionInliner.inline(other, expression)).isEqualTo(expression);
+  }
+
+  @Test
+  public void inline_unknownFunction() {
+    assertThatThrownBy(() -> FunctionInliner.inline(context, fn("foo", var("x"))))
+        .isInstanceOf(EvalException.class)
+        .hasMessage("No such function 'foo'");
+  }
+}
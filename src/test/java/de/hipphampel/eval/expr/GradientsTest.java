@@ -0,0 +1,175 @@
+package de.hipphampel.eval.expr;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static de.hipphampel.eval.expr.ExpressionFactory.add;
+import static de.hipphampel.eval.expr.ExpressionFactory.fn;
+import static de.hipphampel.eval.expr.ExpressionFactory.let;
+import static de.hipphampel.eval.expr.ExpressionFactory.mul;
+import static de.hipphampel.eval.expr.ExpressionFactory.temp;
+import static de.hipphampel.eval.expr.ExpressionFactory.var;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import de.hipphampel.eval.ApcomplexContext;
+import de.hipphampel.eval.Context;
+import de.hipphampel.eval.definition.FunctionDefinition;
+import de.hipphampel.eval.exception.EvalException;
+import java.util.List;
+import org.apfloat.Apcomplex;
+import org.apfloat.ApcomplexMath;
+import org.apfloat.Apfloat;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class GradientsTest {
+
+  private final ApcomplexContext context = ApcomplexContext.standard()
+      .withComplexSpecificFunctions()
+      .variables("x", "y", "z")
+      .function("sq", List.of("a"), "a*a")
+      .function("hyp", List.of("a", "b"), "(sq(a)+sq(b))^0.5")
+      .function(new Identity());
+
+  @ParameterizedTest
+  @CsvSource({
+      "'42'",
+      "'x'",
+      "'x^3-2*x*y+z'",
+      "'x/y+y/x-1/(x*z)'",
+      "'x^y+y^x+x^x+x^-0.5+2^z'",
+      "'sin(x)*cos(y)+tan(z)'",
+      "'asin(x)+acos(x*y)+atan(z)'",
+      "'sinh(x)+cosh(y)+tanh(x*z)'",
+      "'asinh(x)+acosh(y+1)+atanh(x*z)'",
+      "'ln(x)+log(y,2)+log(3,x)+log(x,y+z)'",
+      "'real(x*i)+imag(x*i+y)+real(sin(x*(1+i)))'",
+      "'abs(x*(1+i))+norm(y-i)+arg(x+i)+arg(-z-i*x*y)'",
+      "'sq(sin(x))+hyp(x,y)+hyp(sq(z),x)'",
+      "'-x+(x-1)*(y+1)/(x-z)'",
+      "'e^(2*x)*pi+identity(2)*y'",
+  })
+  public void evaluate(String input) {
+    Expression expression = context.parse(input);
+    long precision = context.precision();
+    context.variable("x", new Apcomplex(new Apfloat("0.37", precision)))
+        .variable("y", new Apcomplex(new Apfloat("1.3", precision)))
+        .variable("z", new Apcomplex(new Apfloat("0.21", precision)));
+
+    Gradient gradient = Gradients.evaluate(context, expression);
+
+    assertThat(gradient.value()).isEqualTo(expression.evaluate(context));
+    assertThat(gradient.partials()).containsOnlyKeys("x", "y", "z");
+    for (String variable : List.of("x", "y", "z")) {
+      Apcomplex expected = Derivatives.derivative(context, expression, variable)
+          .evaluate(context);
+      assertThat(ApcomplexMath.abs(gradient.partial(variable).subtract(expected)).doubleValue())
+          .as(input + " with respect to " + variable)
+          .isLessThan(1e-35 * Math.max(1, ApcomplexMath.abs(expected).doubleValue()));
+    }
+  }
+
+  @Test
+  public void evaluate_holomorphicWithComplexValues() {
+    Expression expression = context.parse("sin(x*y)^2+ln(x)/y-sq(x+z)");
+    context.variable("x", new Apcomplex(new Apfloat("0.4", 30), new Apfloat("-1.2", 30)))
+        .variable("y", new Apcomplex(new Apfloat("2", 30), new Apfloat("0.5", 30)))
+        .variable("z", new Apcomplex(new Apfloat("0.5", 30)));
+
+    Gradient gradient = Gradients.evaluate(context, expression);
+
+    for (String variable : List.of("x", "y", "z")) {
+      Apcomplex expected = Derivatives.derivative(context, expression, variable)
+          .evaluate(context);
+      assertThat(gradient.partial(variable).equalDigits(expected)).isGreaterThan(25);
+    }
+  }
+
+  @Test
+  public void evaluate_let() {
+    context.variable("x", new Apcomplex(new Apfloat("0.5", 30)))
+        .variable("y", new Apcomplex(new Apfloat("3", 30)));
+    Expression expression = let(List.of(mul(var("x"), var("y")), fn("sin", temp(0))),
+        add(mul(temp(1), temp(1)), temp(0)));
+
+    Gradient gradient = Gradients.evaluate(context, expression);
+
+    Gradient expected = Gradients.evaluate(context, context.parse("sin(x*y)*sin(x*y)+x*y"));
+    assertThat(gradient.value()).isEqualTo(expected.value());
+    assertThat(gradient.partials()).isEqualTo(expected.partials());
+    assertThat(gradient.partial("z")).isEqualTo(Apcomplex.ZERO);
+  }
+
+  @Test
+  public void evaluate_boundFunctionCall() {
+    context.variable("x", new Apcomplex(new Apfloat("0.5", 30)));
+    Expression expression = context.bind(context.parse("sin(sq(x))"));
+    assertThat(Gradients.evaluate(context, expression))
+        .isEqualTo(Gradients.evaluate(context, context.parse("sin(sq(x))")));
+  }
+
+  @Test
+  public void evaluate_failures() {
+    context.variable("x", new Apcomplex(new Apfloat("0.5", 30)));
+    assertThatThrownBy(() -> Gradients.evaluate(context, context.parse("identity(x)")))
+        .isInstanceOf(EvalException.class)
+        .hasMessage("Function 'identity' cannot be differentiated");
+    assertThatThrownBy(() -> Gradients.evaluate(context, fn("sin", var("x"), var("x"))))
+        .isInstanceOf(EvalException.class)
+        .hasMessage("Invalid parameter count for function 'sin'");
+    assertThatThrownBy(() -> Gradients.evaluate(context, temp(0)))
+        .isInstanceOf(EvalException.class)
+        .hasMessage("Temporary #0 is not defined");
+    assertThatThrownBy(() -> Gradients.evaluate(context, var("x")).partial("w"))
+        .isInstanceOf(EvalException.class)
+        .hasMessage("No such variable 'w'");
+  }
+
+  private static class Identity implements FunctionDefinition {
+
+    @Override
+    public String name() {
+      return "identity";
+    }
+
+    @Override
+    public int minArgs() {
+      return 1;
+    }
+
+    @Override
+    public int maxArgs() {
+      return 1;
+    }
+
+    @Override
+    public Apcomplex evaluate(Context<?, ?> context, List<Apcomplex> args) {
+      return args.get(0);
+    }
+  }
+}
@@ -0,0 +1,239 @@
+package de.hipphampel.eval.expr;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static de.hipphampel.eval.expr.ExpressionFactory.add;
+import static de.hipphampel.eval.expr.ExpressionFactory.fn;
+import static de.hipphampel.eval.expr.ExpressionFactory.let;
+import static de.hipphampel.eval.expr.ExpressionFactory.mul;
+import static de.hipphampel.eval.expr.ExpressionFactory.temp;
+import static de.hipphampel.eval.expr.ExpressionFactory.var;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import de.hipphampel.eval.ApcomplexContext;
+import de.hipphampel.eval.Context;
+import de.hipphampel.eval.definition.FunctionDefinition;
+import de.hipphampel.eval.exception.EvalException;
+import de.hipphampel.eval.expr.IncrementalEvaluator.Handle;
+import java.util.ArrayList;
+import java.util.List;
+import org.apfloat.Apcomplex;
+import org.apfloat.Apfloat;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class IncrementalEvaluatorTest {
+
+  private final Counter counter = new Counter();
+  private final ApcomplexContext context = ApcomplexContext.standard()
+      .variables("x", "y", "z")
+      .function("sq", List.of("a"), "a*a")
+      .function(counter);
+
+  @ParameterizedTest
+  @CsvSource({
+      "'42'",
+      "'x'",
+      "'pi*x^3-2*x*y+z'",
+      "'sin(x)*cos(y)+sq(z)/x'",
+      "'-x+(x-1)*(y+1)/(x-z)'",
+  })
+  public void value(String input) {
+    Expression expression = context.parse(input);
+    context.variable("x", apcomplex("2"))
+        .variable("y", apcomplex("1"))
+        .variable("z", apcomplex("1"));
+    IncrementalEvaluator evaluator = new IncrementalEvaluator(context);
+    Handle handle = evaluator.add(expression);
+
+    assertThat(handle.expression()).isSameAs(expression);
+    for (String value : List.of("0.5", "1.25", "3")) {
+      context.variable("x", apcomplex(value))
+          .variable("y", apcomplex("0.75"))
+          .variable("z", apcomplex(value).negate());
+      assertThat(handle.value()).as(input + " with x=" + value)
+          .isEqualTo(expression.evaluate(context));
+    }
+  }
+
+  @Test
+  public void value_recomputesOnlyDependentNodes() {
+    IncrementalEvaluator evaluator = new IncrementalEvaluator(context);
+    Handle first = evaluator.add(context.parse("count(x)+count(y)"));
+    Handle second = evaluator.add(context.parse("count(z)*2"));
+    assertThat(counter.calls).containsExactly("0", "0", "0");
+
+    counter.calls.clear();
+    context.variable("y", apcomplex("2"));
+    assertThat(second.value()).isEqualTo(Apcomplex.ZERO);
+    assertThat(counter.calls).isEmpty();
+    assertThat(first.value()).isEqualTo(apcomplex("2"));
+    assertThat(counter.calls).containsExactly("2");
+
+    counter.calls.clear();
+    assertThat(first.value()).isEqualTo(apcomplex("2"));
+    assertThat(counter.calls).isEmpty();
+  }
+
+  @Test
+  public void refresh() {
+    IncrementalEvaluator evaluator = new IncrementalEvaluator(context);
+    Handle first = evaluator.add(context.parse("count(x)*y"));
+    Handle second = evaluator.add(context.parse("count(y)+count(z)"));
+    counter.calls.clear();
+
+    context.variable("y", apcomplex("3"))
+        .variable("x", apcomplex("2"));
+    evaluator.refresh();
+    assertThat(counter.calls).containsExactlyInAnyOrder("2", "3");
+
+    counter.calls.clear();
+    assertThat(first.value()).isEqualTo(apcomplex("6"));
+    assertThat(second.value()).isEqualTo(apcomplex("3"));
+    assertThat(counter.calls).isEmpty();
+  }
+
+  @Test
+  public void add_sharesEqualSubexpressions() {
+    IncrementalEvaluator evaluator = new IncrementalEvaluator(context);
+    evaluator.add(context.parse("count(x)+y"));
+    evaluator.add(context.parse("count(x)*2"));
+    evaluator.add(let(List.of(fn("count", var("x"))), add(temp(0), mul(temp(0), var("y")))));
+
+    assertThat(counter.calls).containsExactly("0");
+    assertThat(evaluator.nodeCount()).isEqualTo(8);
+  }
+
+  @Test
+  public void add_afterChange() {
+    IncrementalEvaluator evaluator = new IncrementalEvaluator(context);
+    Handle first = evaluator.add(context.parse("count(x)+1"));
+    context.variable("x", apcomplex("4"));
+    Handle second = evaluator.add(context.parse("count(x)+1+y"));
+
+    assertThat(second.value()).isEqualTo(apcomplex("5"));
+    assertThat(first.value()).isEqualTo(apcomplex("5"));
+    assertThat(counter.calls).containsExactly("0", "4");
+  }
+
+  @Test
+  public void value_changesViaCopyAndOtherContexts() {
+    IncrementalEvaluator evaluator = new IncrementalEvaluator(context);
+    Handle handle = evaluator.add(context.parse("count(x)"));
+    counter.calls.clear();
+
+    ApcomplexContext.standard().variable("x", apcomplex("5"));
+    context.copy(false).variable("x", apcomplex("6"));
+    assertThat(handle.value()).isEqualTo(Apcomplex.ZERO);
+    assertThat(counter.calls).isEmpty();
+
+    context.copy(true).variable("x", apcomplex("7"));
+    assertThat(handle.value()).isEqualTo(apcomplex("7"));
+    assertThat(counter.calls).containsExactly("7");
+  }
+
+  @Test
+  public void value_unknownExpressionType() {
+    Expression unknown = new Expression() {
+      @Override
+      public boolean isInvariant(Context<?, ?> context) {
+        return false;
+      }
+
+      @Override
+      public Expression simplify(Context<?, ?> context) {
+        return this;
+      }
+
+      @Override
+      public Apcomplex evaluate(Context<?, ?> context) {
+        return context.valueAsApcomplex("y");
+      }
+    };
+    IncrementalEvaluator evaluator = new IncrementalEvaluator(context);
+    Handle handle = evaluator.add(add(fn("count", var("x")), unknown));
+    counter.calls.clear();
+
+    context.variable("y", apcomplex("2"));
+    assertThat(handle.value()).isEqualTo(apcomplex("2"));
+    assertThat(counter.calls).isEmpty();
+  }
+
+  @Test
+  public void value_boundFunctionCall() {
+    IncrementalEvaluator evaluator = new IncrementalEvaluator(context);
+    Handle handle = evaluator.add(context.bind(context.parse("sq(x)+count(y)")));
+    context.variable("x", apcomplex("3"));
+    assertThat(handle.value()).isEqualTo(apcomplex("9"));
+  }
+
+  @Test
+  public void add_failures() {
+    IncrementalEvaluator evaluator = new IncrementalEvaluator(context);
+    assertThatThrownBy(() -> evaluator.add(var("w")))
+        .isInstanceOf(EvalException.class)
+        .hasMessage("No such value 'w'");
+    assertThatThrownBy(() -> evaluator.add(fn("sin", var("x"), var("x"))))
+        .isInstanceOf(EvalException.class)
+        .hasMessage("Invalid parameter count for function 'sin'");
+    assertThatThrownBy(() -> evaluator.add(temp(0)))
+        .isInstanceOf(EvalException.class)
+        .hasMessage("Temporary #0 is not defined");
+  }
+
+  private Apcomplex apcomplex(String value) {
+    return new Apcomplex(new Apfloat(value, context.precision()));
+  }
+
+  private static class Counter implements FunctionDefinition {
+
+    private final List<String> calls = new ArrayList<>();
+
+    @Override
+    public String name() {
+      return "count";
+    }
+
+    @Override
+    public int minArgs() {
+      return 1;
+    }
+
+    @Override
+    public int maxArgs() {
+      return 1;
+    }
+
+    @Override
+    public Apcomplex evaluate(Context<?, ?> context, List<Apcomplex> args) {
+      calls.add(args.get(0).toString(true));
+      return args.get(0);
+    }
+  }
+}
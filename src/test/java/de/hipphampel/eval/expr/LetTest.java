@@ -0,0 +1,147 @@
+package de.hipphampel.eval.expr;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static de.hipphampel.eval.expr.ExpressionFactory.add;
+import static de.hipphampel.eval.expr.ExpressionFactory.fn;
+import static de.hipphampel.eval.expr.ExpressionFactory.let;
+import static de.hipphampel.eval.expr.ExpressionFactory.mul;
+import static de.hipphampel.eval.expr.ExpressionFactory.temp;
+import static de.hipphampel.eval.expr.ExpressionFactory.val;
+import static de.hipphampel.eval.expr.ExpressionFactory.var;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import de.hipphampel.eval.ApcomplexContext;
+import de.hipphampel.eval.Context;
+import de.hipphampel.eval.definition.FunctionDefinition;
+import de.hipphampel.eval.exception.EvalException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apfloat.Apcomplex;
+import org.apfloat.Apfloat;
+import org.junit.jupiter.api.Test;
+
+public class LetTest {
+
+  private final AtomicInteger calls = new AtomicInteger();
+  private final ApcomplexContext context = ApcomplexContext.standard()
+      .variables("x")
+      .variable("x", new Apcomplex(new Apfloat(3, 20)))
+      .function(new Counted());
+
+  @Test
+  public void evaluate_evaluatesDefinitionsOnce() {
+    Expression expression = let(List.of(fn("counted", var("x")), mul(temp(0), temp(0))),
+        add(temp(1), temp(0)));
+    assertThat(expression.evaluate(context)).isEqualTo(new Apcomplex("42"));
+    assertThat(calls.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void evaluate_nested() {
+    Expression inner = let(List.of(add(var("x"), val("1"))), mul(temp(0), temp(0)));
+    Expression expression = let(List.of(mul(var("x"), val("2"))), add(inner, temp(0)));
+    assertThat(expression.evaluate(context))
+        .isEqualTo(CommonSubexpressions.expand(expression).evaluate(context));
+  }
+
+  @Test
+  public void evaluate_undefinedTemp() {
+    assertThatThrownBy(() -> temp(0).evaluate(context))
+        .isInstanceOf(EvalException.class)
+        .hasMessage("Temporary #0 is not defined");
+    assertThatThrownBy(() -> let(List.of(temp(0)), var("x")).evaluate(context))
+        .isInstanceOf(EvalException.class)
+        .hasMessage("Temporary #0 is not defined");
+    assertThatThrownBy(() -> let(List.of(var("x")), temp(1)).evaluate(context))
+        .isInstanceOf(EvalException.class)
+        .hasMessage("Temporary #1 is not defined");
+  }
+
+  @Test
+  public void isInvariant() {
+    assertThat(let(List.of(add(val("1"), val("2"))), mul(temp(0), temp(0)))
+        .isInvariant(context)).isTrue();
+    assertThat(let(List.of(add(var("x"), val("2"))), mul(temp(0), temp(0)))
+        .isInvariant(context)).isFalse();
+    assertThat(let(List.of(add(val("1"), val("2"))), mul(temp(0), var("x")))
+        .isInvariant(context)).isFalse();
+    assertThat(let(List.of(val("1"), add(temp(0), var("x")), mul(temp(0), temp(0))),
+        add(temp(2), let(List.of(val("2")), temp(0)))).isInvariant(context)).isTrue();
+    assertThat(let(List.of(val("1"), add(temp(0), var("x"))),
+        add(temp(0), let(List.of(val("2")), temp(1)))).isInvariant(context)).isFalse();
+    assertThat(temp(0).isInvariant(context)).isFalse();
+  }
+
+  @Test
+  public void simplify() {
+    Expression expression = let(List.of(add(var("x"), add(val("1"), val("2")))),
+        mul(temp(0), temp(0)));
+    assertThat(expression.simplify(context)).isEqualTo(
+        let(List.of(add(var("x"), val("3"))), mul(temp(0), temp(0))));
+
+    expression = let(List.of(add(val("1"), val("2"))), mul(temp(0), var("x")));
+    assertThat(expression.simplify(context)).isEqualTo(mul(val("3"), var("x")));
+
+    expression = let(List.of(add(val("1"), val("2"))), mul(temp(0), temp(0)));
+    assertThat(expression.simplify(context)).isEqualTo(val("9"));
+  }
+
+  @Test
+  public void bind() {
+    Expression expression = let(List.of(fn("counted", var("x"))), add(temp(0), temp(0)));
+    Expression bound = context.bind(expression);
+    assertThat(bound).isEqualTo(let(
+        List.of(new BoundFunctionCall("counted", List.of(var("x")))), add(temp(0), temp(0))));
+    assertThat(bound.evaluate(context)).isEqualTo(new Apcomplex("12"));
+  }
+
+  private class Counted implements FunctionDefinition {
+
+    @Override
+    public String name() {
+      return "counted";
+    }
+
+    @Override
+    public int minArgs() {
+      return 1;
+    }
+
+    @Override
+    public int maxArgs() {
+      return 1;
+    }
+
+    @Override
+    public Apcomplex evaluate(Context<?, ?> context, List<Apcomplex> args) {
+      calls.incrementAndGet();
+      return args.get(0).multiply(new Apcomplex(new Apfloat(2, 20)));
+    }
+  }
+}
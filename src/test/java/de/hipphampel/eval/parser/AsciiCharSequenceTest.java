@@ -0,0 +1,69 @@
+package de.hipphampel.eval.parser;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+public class AsciiCharSequenceTest {
+
+  @Test
+  public void of_ascii() {
+    ByteBuffer buffer = ByteBuffer.wrap("__sin(x)+1.5__".getBytes(StandardCharsets.US_ASCII));
+    buffer.position(2).limit(12);
+
+    CharSequence sequence = AsciiCharSequence.of(buffer);
+    assertThat(sequence).isInstanceOf(AsciiCharSequence.class);
+    assertThat(sequence.length()).isEqualTo(10);
+    assertThat(sequence.charAt(0)).isEqualTo('s');
+    assertThat(sequence.charAt(9)).isEqualTo('5');
+    assertThat(sequence.toString()).isEqualTo("sin(x)+1.5");
+    assertThat(sequence.subSequence(7, 10).toString()).isEqualTo("1.5");
+    assertThat(sequence.subSequence(7, 10).subSequence(1, 2).toString()).isEqualTo(".");
+    assertThat(buffer.position()).isEqualTo(2);
+    assertThat(buffer.limit()).isEqualTo(12);
+
+    assertThatThrownBy(() -> sequence.charAt(10)).isInstanceOf(IndexOutOfBoundsException.class);
+    assertThatThrownBy(() -> sequence.subSequence(5, 11))
+        .isInstanceOf(IndexOutOfBoundsException.class);
+  }
+
+  @Test
+  public void of_utf8() {
+    ByteBuffer buffer = ByteBuffer.wrap("x+ä".getBytes(StandardCharsets.UTF_8));
+
+    CharSequence sequence = AsciiCharSequence.of(buffer);
+    assertThat(sequence).isInstanceOf(CharBuffer.class);
+    assertThat(sequence.toString()).isEqualTo("x+ä");
+    assertThat(buffer.position()).isEqualTo(0);
+  }
+}
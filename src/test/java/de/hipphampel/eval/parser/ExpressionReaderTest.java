@@ -0,0 +1,151 @@
+package de.hipphampel.eval.parser;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import de.hipphampel.eval.ApcomplexContext;
+import de.hipphampel.eval.exception.ParseException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class ExpressionReaderTest {
+
+  private final ApcomplexContext context = ApcomplexContext.standard().variables("x", "y");
+
+  @ParameterizedTest
+  @CsvSource({
+      // input,                      expected
+      "'',                           ''",
+      "' ; \n ;;',                   ''",
+      "'x',                          'x@0:1:1'",
+      "'x+1;y\n\n 2*x ',              'x+1@0:1:1|y@4:1:5|2*x@7:3:1'",
+      "'x\r\ny;',                    'x@0:1:1|y@3:2:1'",
+  })
+  public void iterate(String input, String expected) {
+    List<String> actual = new ArrayList<>();
+    ExpressionReader reader = new ExpressionReader(context, new StringReader(input));
+    while (reader.hasNext()) {
+      ParsedExpression parsed = reader.next();
+      actual.add(parsed.expression() + "@" + parsed.position() + ":" + parsed.line() + ":"
+          + parsed.column());
+    }
+
+    assertThat(actual).isEqualTo(expected.isEmpty() ? List.of() : List.of(expected.split("\\|"))
+        .stream()
+        .map(this::describe)
+        .toList());
+    assertThatThrownBy(reader::next).isInstanceOf(NoSuchElementException.class);
+  }
+
+  @Test
+  public void iterate_smallChunks() {
+    StringBuilder input = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      input.append(i).append("*x").append(i % 3 == 0 ? "\n" : ";");
+    }
+    ExpressionReader reader = new ExpressionReader(context, new ChunkedReader(input.toString()));
+    int count = 0;
+    while (reader.hasNext()) {
+      assertThat(reader.next().expression()).isEqualTo(context.parse(count + "*x"));
+      count++;
+    }
+    assertThat(count).isEqualTo(2000);
+  }
+
+  @Test
+  public void next_parseError() {
+    ExpressionReader reader = new ExpressionReader(context, new StringReader("x+1\nx+;\n  y"));
+    assertThat(reader.next().expression()).isEqualTo(context.parse("x+1"));
+    assertThatThrownBy(reader::next)
+        .isInstanceOf(ParseException.class)
+        .hasMessage("end of input expected")
+        .extracting(e -> ((ParseException) e).getPosition())
+        .isEqualTo(5);
+
+    ParsedExpression parsed = reader.next();
+    assertThat(parsed.expression()).isEqualTo(context.parse("y"));
+    assertThat(parsed.line()).isEqualTo(3);
+    assertThat(reader.hasNext()).isFalse();
+  }
+
+  @Test
+  public void next_parseErrorAfterMacroExpansion() {
+    ApcomplexContext expanding = ApcomplexContext.standard().variables("x")
+        .macroExpander((ctx, text) -> text.replace("#", "x*x"));
+    ExpressionReader reader = new ExpressionReader(expanding, new StringReader("x\n#+)"));
+    assertThat(reader.next().expression()).isEqualTo(expanding.parse("x"));
+    // The error is at position 3 of "x*x+)", the text starts at position 2 of the input
+    assertThatThrownBy(reader::next)
+        .isInstanceOf(ParseException.class)
+        .extracting(e -> ((ParseException) e).getPosition())
+        .isEqualTo(5);
+  }
+
+  @Test
+  public void next_ioError() {
+    ExpressionReader reader = new ExpressionReader(context, new Reader() {
+      @Override
+      public int read(char[] cbuf, int off, int len) throws IOException {
+        throw new IOException("failed");
+      }
+
+      @Override
+      public void close() {
+      }
+    });
+    assertThatThrownBy(reader::hasNext)
+        .isInstanceOf(UncheckedIOException.class)
+        .hasMessageContaining("failed");
+  }
+
+  private String describe(String expected) {
+    String[] parts = expected.split("@");
+    return context.parse(parts[0]) + "@" + parts[1];
+  }
+
+  private static class ChunkedReader extends StringReader {
+
+    ChunkedReader(String s) {
+      super(s);
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+      return super.read(cbuf, off, Math.min(len, 7));
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package de.hipphampel.eval.parser;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import de.hipphampel.eval.expr.Value;
+import org.apfloat.Apcomplex;
+import org.apfloat.Apfloat;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class LiteralPoolTest {
+
+  @ParameterizedTest
+  @CsvSource({
+      // literal, pooled
+      "'0',       true",
+      "'7',       true",
+      "'42',      true",
+      "'1023',    true",
+      "'1024',    false",
+      "'07',      false",
+      "'1.5',     false",
+      "'2.',      false",
+      "'.5',      false",
+      "'12e3',    false",
+      "'123456',  false",
+  })
+  public void value(String literal, boolean pooled) {
+    String input = "(" + literal + ")";
+    Value value = LiteralPool.value(input, 1, input.length() - 1, 20);
+    assertThat(value).isEqualTo(new Value(new Apcomplex(new Apfloat(literal, 20))));
+    assertThat(value.toString()).isEqualTo(
+        new Value(new Apcomplex(new Apfloat(literal, 20))).toString());
+
+    Value again = LiteralPool.value(literal, 0, literal.length(), 20);
+    assertThat(again == value).isEqualTo(pooled);
+    assertThat(LiteralPool.value(literal, 0, literal.length(), 30)).isNotSameAs(value);
+  }
+
+  @Test
+  public void value_boundsNumberOfPools() {
+    for (long precision = 1; precision <= 4 * LiteralPool.MAX_POOLS; precision++) {
+      Value value = LiteralPool.value("1", 0, 1, precision);
+      assertThat(value.value().precision()).isEqualTo(precision);
+      assertThat(LiteralPool.value("1", 0, 1, precision)).isSameAs(value);
+      assertThat(LiteralPool.poolCount()).isLessThanOrEqualTo(LiteralPool.MAX_POOLS);
+    }
+  }
+}
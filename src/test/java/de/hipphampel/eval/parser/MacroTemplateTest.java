@@ -0,0 +1,103 @@
+package de.hipphampel.eval.parser;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import de.hipphampel.eval.exception.EvalException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class MacroTemplateTest {
+
+  private static final Map<String, String> VARIABLES = Map.of(
+      "A", "1+2",
+      "B", "${A}*3",
+      "C", "${B}/${A}",
+      "X", "${Y}",
+      "Y", "${X}",
+      "S", "${S}"
+  );
+
+  @ParameterizedTest
+  @CsvSource({
+      // template,               placeholders, expected
+      "'',                       false,        ''",
+      "'x+1',                    false,        'x+1'",
+      "'${A}',                   true,         '1+2'",
+      "'${A} * ${A}',            true,         '1+2 * 1+2'",
+      "'(${C})-${B}',            true,         '(1+2*3/1+2)-1+2*3'",
+      "'${UNKNOWN}x',            true,         'x'",
+      "'${}${A}',                true,         '${}1+2'",
+      "'${A',                    false,        '${A'",
+      "'$A}${A}{',               true,         '$A}1+2{'",
+      "'${${A}}',                true,         '}'",
+      "'${A}\n${A}',             true,         '1+2\n1+2'",
+  })
+  public void expand(String template, boolean placeholders, String expected) {
+    MacroTemplate compiled = MacroTemplate.compile(template);
+    assertThat(compiled.hasPlaceholders()).isEqualTo(placeholders);
+    assertThat(compiled.expand(VARIABLES::get)).isEqualTo(expected);
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+      // template, name
+      "'${S}',     S",
+      "'1+${X}',   X",
+  })
+  public void expand_recursive(String template, String name) {
+    MacroTemplate compiled = MacroTemplate.compile(template);
+    assertThatThrownBy(() -> compiled.expand(VARIABLES::get))
+        .isInstanceOf(EvalException.class)
+        .hasMessage("Recursive definition of macro '" + name + "'");
+  }
+
+  @Test
+  public void expand_withTemplates() {
+    List<String> compiled = new ArrayList<>();
+    Function<String, MacroTemplate> templates = value -> {
+      compiled.add(value);
+      return MacroTemplate.compile(value);
+    };
+    assertThat(MacroTemplate.compile("${C}").expand(VARIABLES::get, templates))
+        .isEqualTo("1+2*3/1+2");
+    assertThat(compiled).containsExactly("${B}/${A}", "${A}*3");
+  }
+
+  @Test
+  public void expand_sameValueTwiceIsNotRecursive() {
+    assertThat(MacroTemplate.compile("${D}").expand(Map.of("D", "${E}+${E}", "E", "${F}",
+        "F", "1")::get)).isEqualTo("1+1");
+  }
+}
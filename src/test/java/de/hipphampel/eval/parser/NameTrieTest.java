@@ -0,0 +1,94 @@
+package de.hipphampel.eval.parser;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class NameTrieTest {
+
+  @ParameterizedTest
+  @CsvSource({
+      // names,              input,   start, end, match
+      "'a,b',                'ab',    0,     2,   a",
+      "'a,b',                'ab',    1,     2,   b",
+      "'a,b',                'xb',    0,     2,",
+      "'ab,bc',              'bc',    0,     2,   bc",
+      "'a,abc',              'ab',    0,     2,   a",
+      "'a,ab',               'abc',   0,     3,   ab",
+      "'a,abc',              'abc',   0,     3,   abc",
+      "'a,abc',              'abc',   0,     2,   a",
+      "'sin,sinh,s',         'sinx',  0,     4,   sin",
+      "'sin,sinh,s',         'sinhx', 0,     5,   sinh",
+      "'sin,sinh,s',         'six',   0,     3,   s",
+      "'B,a,A,b',            'Ab',    0,     2,   A",
+  })
+  public void longestMatch(String namesByComma, String input, int start, int end, String match) {
+    NameTrie<String> trie = NameTrie.empty();
+    for (String name : namesByComma.split(",")) {
+      trie = trie.put(name, name);
+    }
+
+    assertThat(trie.longestMatch(input, start, end)).isEqualTo(match);
+  }
+
+  @Test
+  public void put_isPersistent() {
+    NameTrie<Integer> empty = NameTrie.empty();
+    NameTrie<Integer> one = empty.put("abc", 1);
+    NameTrie<Integer> two = one.put("ab", 2);
+    NameTrie<Integer> replaced = two.put("abc", 3);
+
+    assertThat(empty.size()).isEqualTo(0);
+    assertThat(empty.get("abc")).isNull();
+
+    assertThat(one.size()).isEqualTo(1);
+    assertThat(one.get("abc")).isEqualTo(1);
+    assertThat(one.get("ab")).isNull();
+
+    assertThat(two.size()).isEqualTo(2);
+    assertThat(two.get("abc")).isEqualTo(1);
+    assertThat(two.get("ab")).isEqualTo(2);
+
+    assertThat(replaced.size()).isEqualTo(2);
+    assertThat(replaced.get("abc")).isEqualTo(3);
+    assertThat(replaced.get("ab")).isEqualTo(2);
+    assertThat(replaced.get("a")).isNull();
+    assertThat(replaced.get("abcd")).isNull();
+  }
+
+  @Test
+  public void put_emptyName() {
+    assertThatThrownBy(() -> NameTrie.empty().put("", "x"))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("Name must not be empty");
+  }
+}
@@ -0,0 +1,114 @@
+package de.hipphampel.eval.parser;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import de.hipphampel.eval.exception.ParseException;
+import de.hipphampel.eval.expr.Expression;
+import de.hipphampel.eval.expr.ValueName;
+import de.hipphampel.eval.parser.ParseCache.Eviction;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class ParseCacheTest {
+
+  @Test
+  public void get_hitsAndMisses() {
+    ParseCache cache = new ParseCache(2);
+    Expression a = cache.get("a", ValueName::new);
+    assertThat(a).isEqualTo(new ValueName("a"));
+    assertThat(cache.get("a", text -> {
+      throw new AssertionError("not expected");
+    })).isSameAs(a);
+    assertThat(cache.hits()).isEqualTo(1);
+    assertThat(cache.misses()).isEqualTo(1);
+    assertThat(cache.size()).isEqualTo(1);
+
+    cache.clear();
+    assertThat(cache.size()).isEqualTo(0);
+    assertThat(cache.hits()).isEqualTo(1);
+    assertThat(cache.misses()).isEqualTo(1);
+
+    cache.resetStatistics();
+    assertThat(cache.hits()).isEqualTo(0);
+    assertThat(cache.misses()).isEqualTo(0);
+  }
+
+  @Test
+  public void removeIf() {
+    ParseCache cache = new ParseCache(3);
+    cache.get("a+b", text -> new ValueName("a"));
+    cache.get("b", ValueName::new);
+    cache.get("c", ValueName::new);
+    cache.removeIf(text -> text.contains("b"));
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(cache.get("c", text -> {
+      throw new AssertionError("not expected");
+    })).isEqualTo(new ValueName("c"));
+  }
+
+  @Test
+  public void get_failureIsNotCached() {
+    ParseCache cache = new ParseCache(2);
+    assertThatThrownBy(() -> cache.get("a", text -> {
+      throw new ParseException("error", 0);
+    })).isInstanceOf(ParseException.class);
+    assertThat(cache.size()).isEqualTo(0);
+    assertThat(cache.get("a", ValueName::new)).isEqualTo(new ValueName("a"));
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+      // eviction, expectedKept
+      "LRU,        'a,c'",
+      "FIFO,       'b,c'",
+  })
+  public void get_eviction(Eviction eviction, String expectedKept) {
+    ParseCache cache = new ParseCache(2, eviction);
+    cache.get("a", ValueName::new);
+    cache.get("b", ValueName::new);
+    cache.get("a", ValueName::new);
+    cache.get("c", ValueName::new);
+    assertThat(cache.size()).isEqualTo(2);
+
+    for (String kept : expectedKept.split(",")) {
+      cache.get(kept, text -> {
+        throw new AssertionError("'" + text + "' was evicted");
+      });
+    }
+  }
+
+  @Test
+  public void constructor_invalidSize() {
+    assertThatThrownBy(() -> new ParseCache(0))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("Cache size must be positive");
+  }
+}
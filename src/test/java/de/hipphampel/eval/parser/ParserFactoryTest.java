@@ -27,17 +27,24 @@ package de.hipphampel.eval.parser;
  */
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.petitparser.parser.primitive.CharacterParser.of;
 
 import de.hipphampel.eval.ApcomplexContext;
 import de.hipphampel.eval.Context;
 import de.hipphampel.eval.definition.FunctionDefinition;
+import de.hipphampel.eval.exception.ParseException;
 import de.hipphampel.eval.expr.Expression;
+import de.hipphampel.eval.expr.Mul;
 import de.hipphampel.eval.expr.Value;
+import de.hipphampel.eval.expr.ValueName;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apfloat.Apcomplex;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
 import org.petitparser.context.Result;
@@ -278,6 +285,7 @@ public class ParserFactoryTest {
     if (token != null) {
       assertThat(String.valueOf((Expression) result.get())).isEqualTo(token);
     }
+    assertAllEngines(context, ParseMode.STANDARD, input, token);
   }
 
   @ParameterizedTest
@@ -327,6 +335,75 @@ public class ParserFactoryTest {
     if (token != null) {
       assertThat(String.valueOf((Expression) result.get())).isEqualTo(token);
     }
+    assertAllEngines(context, ParseMode.SIMPLIFIED, input, token);
+  }
+
+  @Test
+  public void memoizing() {
+    AtomicInteger calls = new AtomicInteger();
+    Parser counting = of('a').map((Character c) -> {
+      calls.incrementAndGet();
+      return c;
+    });
+    Parser memoized = ParserFactory.memoizing(counting);
+    Parser parser = memoized.seq(of('x')).or(memoized.seq(of('y')));
+
+    // Each invocation of the parser is a separate parse
+    assertThat(parser.parse("ay").isSuccess()).isTrue();
+    assertThat(calls.get()).isEqualTo(2);
+    assertThat(parser.parse("bx").isSuccess()).isFalse();
+    assertThat(calls.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void memoizing_scope() {
+    AtomicInteger calls = new AtomicInteger();
+    Parser counting = of('a').map((Character c) -> {
+      calls.incrementAndGet();
+      return c;
+    });
+    ParserFactory.MemoScope scope = new ParserFactory.MemoScope();
+    Parser memoized = scope.memoizing(counting);
+    Parser parser = scope.memoizing(memoized.seq(of('x')).or(memoized.seq(of('y'))));
+
+    String input = "ay";
+    assertThat(parser.parse(input).isSuccess()).isTrue();
+    assertThat(calls.get()).isEqualTo(1);
+    // The results are dropped after each parse, even if the input is the same
+    assertThat(parser.parse(input).isSuccess()).isTrue();
+    assertThat(calls.get()).isEqualTo(2);
+    assertThat(parser.parse("bx").isSuccess()).isFalse();
+    assertThat(calls.get()).isEqualTo(2);
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+      "STANDARD,   RECURSIVE_DESCENT",
+      "STANDARD,   PACKRAT",
+      "SIMPLIFIED, RECURSIVE_DESCENT",
+      "SIMPLIFIED, PACKRAT",
+  })
+  public void expressionParser_deeplyNested(ParseMode mode, ParserEngine engine) {
+    ApcomplexContext context = new ApcomplexContext(100)
+        .variable("x")
+        .variable("y");
+    String input = "(".repeat(50) + "x" + ")".repeat(50) + "*y";
+
+    assertThat(ParserFactory.expressionParser(context, mode, engine).parse(input))
+        .isEqualTo(new Mul(new ValueName("x"), new ValueName("y")));
+  }
+
+  private static void assertAllEngines(Context<?, ?> context, ParseMode mode, String input,
+      String token) {
+    for (ParserEngine engine : ParserEngine.values()) {
+      ExpressionParser parser = ParserFactory.expressionParser(context, mode, engine);
+      if (token != null) {
+        assertThat(String.valueOf(parser.parse(input))).as(engine.name()).isEqualTo(token);
+      } else {
+        assertThatThrownBy(() -> parser.parse(input)).as(engine.name())
+            .isInstanceOf(ParseException.class);
+      }
+    }
   }
 
 
@@ -0,0 +1,145 @@
+package de.hipphampel.eval.parser;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import de.hipphampel.eval.ApcomplexContext;
+import de.hipphampel.eval.exception.EvalException;
+import de.hipphampel.eval.exception.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import org.apfloat.Apcomplex;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+public class ParserSnapshotTest {
+
+  @Test
+  public void parse_isNotAffectedByLaterChanges() {
+    ApcomplexContext context = ApcomplexContext.standard()
+        .parseMode(ParseMode.SIMPLIFIED)
+        .variables("x", "y");
+    ParserSnapshot snapshot = context.parserSnapshot();
+    context.variable("xy", Apcomplex.ONE);
+    context.parseMode(ParseMode.STANDARD);
+
+    assertThat(snapshot.parseMode()).isEqualTo(ParseMode.SIMPLIFIED);
+    assertThat(snapshot.parserEngine()).isEqualTo(ParserEngine.COMBINATOR);
+    assertThat(snapshot.parse("xy").toString())
+        .isEqualTo("Mul[left=ValueName[name=x], right=ValueName[name=y]]");
+    assertThat(context.parse("xy").toString()).isEqualTo("ValueName[name=xy]");
+  }
+
+  @Test
+  public void parse_usesMacroExpander() {
+    ApcomplexContext context = ApcomplexContext.standard()
+        .variables("x")
+        .macroExpander(TemplateMacroExpander.of(Map.of("A", "x+1")));
+    assertThat(context.parserSnapshot().parse("${A}")).isEqualTo(context.parse("x+1"));
+  }
+
+  @ParameterizedTest
+  @EnumSource(ParserEngine.class)
+  public void parseAll(ParserEngine engine) {
+    ApcomplexContext context = ApcomplexContext.standard()
+        .variables("x", "y")
+        .parserEngine(engine);
+    List<String> inputs = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      inputs.add(i % 7 == 0 ? i + "*z" : "sin(x)*" + i + "+y^" + (i % 5));
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      List<ParseResult> results = context.parserSnapshot().parseAll(inputs, pool);
+      assertThat(results).hasSize(inputs.size());
+      for (int i = 0; i < inputs.size(); i++) {
+        ParseResult result = results.get(i);
+        assertThat(result.input()).isEqualTo(inputs.get(i));
+        if (i % 7 == 0) {
+          assertThat(result.isSuccess()).isFalse();
+          assertThat(result.expression()).isNull();
+          assertThat(result.exception().getMessage()).isEqualTo("end of input expected");
+        } else {
+          assertThat(result.isSuccess()).isTrue();
+          assertThat(result.expression()).isEqualTo(context.parse(inputs.get(i)));
+          assertThat(result.exception()).isNull();
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void parseAll_macroFailure() {
+    ApcomplexContext context = ApcomplexContext.standard()
+        .variables("x")
+        .macroExpander((ctx, macro) -> {
+          if (macro.startsWith("!")) {
+            throw new EvalException("Invalid macro");
+          }
+          return macro;
+        });
+
+    List<ParseResult> results = context.parseAll(List.of("x+1", "!x", "x*"));
+    assertThat(results.get(0).expression()).isEqualTo(context.parse("x+1"));
+    assertThat(results.get(1).exception())
+        .isExactlyInstanceOf(EvalException.class)
+        .hasMessage("Invalid macro");
+    assertThat(results.get(2).exception()).isInstanceOf(ParseException.class);
+  }
+
+  @Test
+  public void parserSnapshot_isReusedUntilChanged() {
+    ApcomplexContext context = ApcomplexContext.standard().variables("x");
+    ParserSnapshot snapshot = context.parserSnapshot();
+    context.variable("x", Apcomplex.ONE);
+    assertThat(context.parserSnapshot()).isSameAs(snapshot);
+
+    context.variable("y");
+    assertThat(context.parserSnapshot()).isNotSameAs(snapshot);
+    snapshot = context.parserSnapshot();
+    context.parseMode(ParseMode.SIMPLIFIED);
+    assertThat(context.parserSnapshot()).isNotSameAs(snapshot);
+    snapshot = context.parserSnapshot();
+    context.macroExpander(MacroExpander.NOP);
+    assertThat(context.parserSnapshot()).isNotSameAs(snapshot);
+  }
+
+  @Test
+  public void parse_failure() {
+    ParserSnapshot snapshot = ApcomplexContext.standard().parserSnapshot();
+    assertThatThrownBy(() -> snapshot.parse("x"))
+        .isInstanceOf(ParseException.class);
+  }
+}
@@ -0,0 +1,149 @@
+package de.hipphampel.eval.parser;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import de.hipphampel.eval.ApcomplexContext;
+import de.hipphampel.eval.Context;
+import de.hipphampel.eval.definition.FunctionDefinition;
+import de.hipphampel.eval.exception.ParseException;
+import de.hipphampel.eval.expr.Expression;
+import java.util.List;
+import java.util.Random;
+import org.apfloat.Apcomplex;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.EnumSource;
+
+public class RecursiveDescentParserTest {
+
+  private static final String[] TOKENS = {"x", "y", "xy", "fna", "fnb", "2", "3.5", ".5", "1e2",
+      "e", "(", ")", ",", "+", "-", "*", "/", "^", " "};
+
+  @ParameterizedTest
+  @CsvSource({
+      // mode,       input,       message,                  position
+      "STANDARD,     'x+',        'end of input expected',  1",
+      "STANDARD,     '2x',        'end of input expected',  1",
+      "STANDARD,     '',          'expression expected',    0",
+      "STANDARD,     'fna(x,1)',  'Invalid parameter count', 8",
+      "SIMPLIFIED,   '(x+1',      ''')'' expected',         4",
+  })
+  public void parse_failure(ParseMode mode, String input, String message, int position) {
+    RecursiveDescentParser parser = new RecursiveDescentParser(newContext(), mode);
+
+    assertThatThrownBy(() -> parser.parse(input))
+        .isInstanceOf(ParseException.class)
+        .hasMessage(message)
+        .extracting(ex -> ((ParseException) ex).getPosition())
+        .isEqualTo(position);
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+      "STANDARD,     ' fnb ( x , 2 ) ^ - y ', 'Pow[left=FunctionCall[name=fnb, arguments=[ValueName[name=x], Value[value=2]]], right=Neg[arg=ValueName[name=y]]]'",
+      "SIMPLIFIED,   ' 2 x y ',               'Mul[left=Mul[left=Value[value=2], right=ValueName[name=x]], right=ValueName[name=y]]'",
+      "SIMPLIFIED,   'x^2y^3',                ",
+      "SIMPLIFIED,   'xy',                    'ValueName[name=xy]'",
+  })
+  public void parse_success(ParseMode mode, String input, String expected) {
+    RecursiveDescentParser parser = new RecursiveDescentParser(newContext(), mode);
+
+    if (expected == null) {
+      assertThatThrownBy(() -> parser.parse(input)).isInstanceOf(ParseException.class);
+    } else {
+      assertThat(parser.parse(input).toString()).isEqualTo(expected);
+    }
+  }
+
+  @ParameterizedTest
+  @EnumSource(ParseMode.class)
+  public void parse_sameResultAsCombinator(ParseMode mode) {
+    ApcomplexContext context = newContext();
+    ExpressionParser combinator = ParserFactory.expressionParser(context, mode,
+        ParserEngine.COMBINATOR);
+    ExpressionParser recursiveDescent = new RecursiveDescentParser(context, mode);
+    Random random = new Random(4711);
+
+    for (int i = 0; i < 5000; i++) {
+      StringBuilder input = new StringBuilder();
+      int length = 1 + random.nextInt(12);
+      for (int j = 0; j < length; j++) {
+        input.append(TOKENS[random.nextInt(TOKENS.length)]);
+      }
+      ParseException combinatorError = parseError(combinator, input);
+      ParseException recursiveDescentError = parseError(recursiveDescent, input);
+      if (combinatorError == null) {
+        assertThat(recursiveDescentError).as(input.toString()).isNull();
+        assertThat(recursiveDescent.parse(input))
+            .as(input.toString())
+            .isEqualTo(combinator.parse(input));
+      } else {
+        // Both fail, but this parser reports the failure that got farthest into the input, whereas
+        // the combinator reports the one of the last alternative; so the messages might differ
+        assertThat(recursiveDescentError).as(input.toString()).isNotNull();
+        assertThat(recursiveDescentError.getPosition())
+            .as(input.toString())
+            .isGreaterThanOrEqualTo(combinatorError.getPosition());
+      }
+    }
+  }
+
+  @Test
+  public void mode() {
+    assertThat(new RecursiveDescentParser(newContext(), ParseMode.SIMPLIFIED).mode())
+        .isEqualTo(ParseMode.SIMPLIFIED);
+  }
+
+  private static ParseException parseError(ExpressionParser parser, CharSequence input) {
+    try {
+      parser.parse(input);
+      return null;
+    } catch (ParseException e) {
+      return e;
+    }
+  }
+
+  private static ApcomplexContext newContext() {
+    return new ApcomplexContext(20)
+        .function(new TstFn("fna", 1, 1))
+        .function(new TstFn("fnb", 2, 2))
+        .constant("e", Apcomplex.ONE)
+        .variables("x", "y", "xy");
+  }
+
+  private record TstFn(String name, int minArgs, int maxArgs) implements FunctionDefinition {
+
+    @Override
+    public Apcomplex evaluate(Context<?, ?> context, List<Apcomplex> args) {
+      return null;
+    }
+  }
+}
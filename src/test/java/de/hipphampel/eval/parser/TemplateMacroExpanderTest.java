@@ -0,0 +1,100 @@
+package de.hipphampel.eval.parser;
+
+/*-
+ * #%L
+ * eval
+ * %%
+ * Copyright (C) 2022 Johannes Hampel
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import de.hipphampel.eval.Context;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+public class TemplateMacroExpanderTest {
+
+  private final Context<?, ?> context = mock(Context.class);
+
+  @Test
+  public void of_function() {
+    AtomicInteger calls = new AtomicInteger();
+    TemplateMacroExpander expander = TemplateMacroExpander.of(name -> {
+      calls.incrementAndGet();
+      return name.toLowerCase();
+    });
+
+    assertThat(expander.expand(context, "${X}+${Y}")).isEqualTo("x+y");
+    assertThat(expander.expand(context, "${X}+${Y}")).isEqualTo("x+y");
+    assertThat(calls.get()).isEqualTo(4);
+
+    assertThat(expander.expand(context, "x+y")).isEqualTo("x+y");
+    assertThat(calls.get()).isEqualTo(4);
+  }
+
+  @Test
+  public void of_map() {
+    Map<String, String> variables = new HashMap<>(Map.of("A", "1+2", "B", "${A}*3"));
+    TemplateMacroExpander expander = TemplateMacroExpander.of(variables);
+    variables.put("A", "4");
+
+    String expansion = expander.expand(context, "${B}-${A}");
+    assertThat(expansion).isEqualTo("1+2*3-1+2");
+    assertThat(expander.expand(context, "${B}-${A}")).isSameAs(expansion);
+  }
+
+  @Test
+  public void of_function_cachesTemplatesOfValues() {
+    AtomicInteger calls = new AtomicInteger();
+    TemplateMacroExpander expander = TemplateMacroExpander.of(name -> switch (name) {
+      case "A" -> "${B}*2";
+      case "B" -> "x" + calls.incrementAndGet();
+      default -> null;
+    });
+
+    assertThat(expander.expand(context, "${A}")).isEqualTo("x1*2");
+    assertThat(expander.expand(context, "${A}")).isEqualTo("x2*2");
+  }
+
+  @Test
+  public void cacheIsBounded() {
+    TemplateMacroExpander expander = TemplateMacroExpander.of(Map.of("A", "1"));
+    for (int i = 0; i < 1000; i++) {
+      assertThat(expander.expand(context, "${A}+" + i)).isEqualTo("1+" + i);
+    }
+  }
+
+  @Test
+  public void environment() {
+    String name = System.getenv().entrySet().stream()
+        .filter(e -> !e.getKey().contains("}") && !e.getValue().contains("${"))
+        .map(Map.Entry::getKey)
+        .findFirst()
+        .orElseThrow();
+    assertThat(TemplateMacroExpander.environment().expand(context, "<${" + name + "}>"))
+        .isEqualTo("<" + System.getenv(name) + ">");
+  }
+}